@@ -26,12 +26,18 @@ import org.wso2.carbon.email.mgt.config.ConfigBuilder;
 import org.wso2.carbon.email.mgt.config.ConfigType;
 import org.wso2.carbon.email.mgt.config.EmailConfigTransformer;
 import org.wso2.carbon.email.mgt.config.EmailNotificationConfig;
-import org.wso2.carbon.email.mgt.config.StorageType;
+import org.wso2.carbon.email.mgt.config.EmailTemplateMigrator;
 import org.wso2.carbon.email.mgt.dto.EmailTemplateDTO;
 import org.wso2.carbon.email.mgt.exceptions.I18nMgtEmailConfigException;
 import org.wso2.carbon.email.mgt.exceptions.I18nMgtServiceException;
+import org.wso2.carbon.email.mgt.internal.I18nMgtServiceComponent;
+import org.wso2.carbon.email.mgt.listener.EmailTemplateChangeListener;
+import org.wso2.carbon.email.mgt.store.FileTemplateStore;
+import org.wso2.carbon.email.mgt.store.StoredEmailTemplate;
 import org.wso2.carbon.identity.base.IdentityException;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
 
 /**
@@ -58,8 +64,9 @@ public class I18nEmailMgtConfigService {
             Properties props = EmailConfigTransformer.transform(emailTemplate);
             emailConfig.setProperties(props);
 
-            configBuilder.saveConfiguration(StorageType.REGISTRY, tenantId,
+            configBuilder.saveConfiguration(ConfigBuilder.getConfiguredStorageType(), tenantId,
                     emailConfig);
+            notifyTemplateChange(tenantId, emailTemplate.getName(), false);
         } catch (IdentityException e) {
             log.error("Error occurred while transforming to Email Template Object ", e);
             throw new I18nMgtServiceException("Error occurred while saving email template configurations", e);
@@ -85,8 +92,9 @@ public class I18nEmailMgtConfigService {
             Properties props = EmailConfigTransformer.transform(emailTemplate);
             emailConfig.setProperties(props);
 
-            configBuilder.addEmailConfiguration(StorageType.REGISTRY, tenantId,
+            configBuilder.addEmailConfiguration(ConfigBuilder.getConfiguredStorageType(), tenantId,
                     emailConfig);
+            notifyTemplateChange(tenantId, emailTemplate.getName(), true);
 
         } catch (IdentityException e) {
             log.error("Error occurred while transforming to Email Template Object ", e);
@@ -97,6 +105,59 @@ public class I18nEmailMgtConfigService {
         }
     }
 
+    /**
+     * Lets the registered listeners drop any copy they hold of the written template. The template name is of the
+     * form type.locale.mediaType, where the type of a newly added template is its display name.
+     *
+     * @param tenantId     - Tenant Id which the email template belongs.
+     * @param templateName - Name of the written email template.
+     * @param isNew        - Whether the template was added rather than updated.
+     */
+    private void notifyTemplateChange(int tenantId, String templateName, boolean isNew) {
+        String[] templateNameArray = templateName.split("\\.");
+        if (templateNameArray.length < 2) {
+            return;
+        }
+        String templateType = templateNameArray[0];
+        if (isNew) {
+            templateType = templateType.replaceAll("\\s", "").toLowerCase();
+        }
+        for (EmailTemplateChangeListener listener : I18nMgtServiceComponent.getEmailTemplateChangeListeners()) {
+            try {
+                listener.onEmailTemplateChange(tenantId, templateType, templateNameArray[1]);
+            } catch (RuntimeException e) {
+                log.error("Error occurred while notifying email template change to " +
+                        listener.getClass().getName(), e);
+            }
+        }
+    }
+
+    /**
+     * Lets the registered listeners drop any copy they hold of the given templates, after they were copied between
+     * the registry and the file template store.
+     *
+     * @param tenantId  - Tenant Id which the email templates belong.
+     * @param templates - Email templates copied, or replaced by the copy.
+     */
+    private void notifyTemplatesChange(int tenantId, List<StoredEmailTemplate> templates) {
+        for (StoredEmailTemplate template : templates) {
+            String name = template.getName();
+            int localeSeparator = name.lastIndexOf('.');
+            if (localeSeparator < 0) {
+                continue;
+            }
+            for (EmailTemplateChangeListener listener : I18nMgtServiceComponent.getEmailTemplateChangeListeners()) {
+                try {
+                    listener.onEmailTemplateChange(tenantId, template.getTemplateType(),
+                            name.substring(localeSeparator + 1));
+                } catch (RuntimeException e) {
+                    log.error("Error occurred while notifying email template change to " +
+                            listener.getClass().getName(), e);
+                }
+            }
+        }
+    }
+
     /**
      * This method is used to load the email template specific to a tenant.
      *
@@ -112,7 +173,7 @@ public class I18nEmailMgtConfigService {
 
         try {
             emailConfig = configBuilder.loadConfiguration(ConfigType.EMAIL,
-                    StorageType.REGISTRY, tenantId);
+                    ConfigBuilder.getConfiguredStorageType(), tenantId);
             if (emailConfig != null) {
                 templates = EmailConfigTransformer.transform(emailConfig.getProperties());
             }
@@ -123,4 +184,46 @@ public class I18nEmailMgtConfigService {
 
         return templates;
     }
+
+    /**
+     * This method is used to copy the email templates of a tenant from the registry to the file template store.
+     *
+     * @return Number of templates imported.
+     * @throws org.wso2.carbon.email.mgt.exceptions.I18nMgtServiceException
+     */
+    public int importEmailTemplatesFromRegistry() throws I18nMgtServiceException {
+
+        int tenantId = PrivilegedCarbonContext.getThreadLocalCarbonContext().getTenantId();
+        try {
+            // The import replaces the file templates of the tenant, so the templates it drops change as well.
+            List<StoredEmailTemplate> changed = new ArrayList<StoredEmailTemplate>(
+                    FileTemplateStore.getInstance().getTemplates(tenantId));
+            int imported = new EmailTemplateMigrator().importFromRegistry(tenantId);
+            changed.addAll(FileTemplateStore.getInstance().getTemplates(tenantId));
+            notifyTemplatesChange(tenantId, changed);
+            return imported;
+        } catch (I18nMgtEmailConfigException e) {
+            log.error("Error occurred while importing email templates from registry", e);
+            throw new I18nMgtServiceException("Error occurred while importing email templates from registry", e);
+        }
+    }
+
+    /**
+     * This method is used to copy the email templates of a tenant from the file template store to the registry.
+     *
+     * @return Number of templates exported.
+     * @throws org.wso2.carbon.email.mgt.exceptions.I18nMgtServiceException
+     */
+    public int exportEmailTemplatesToRegistry() throws I18nMgtServiceException {
+
+        int tenantId = PrivilegedCarbonContext.getThreadLocalCarbonContext().getTenantId();
+        try {
+            int exported = new EmailTemplateMigrator().exportToRegistry(tenantId);
+            notifyTemplatesChange(tenantId, FileTemplateStore.getInstance().getTemplates(tenantId));
+            return exported;
+        } catch (I18nMgtEmailConfigException e) {
+            log.error("Error occurred while exporting email templates to registry", e);
+            throw new I18nMgtServiceException("Error occurred while exporting email templates to registry", e);
+        }
+    }
 }
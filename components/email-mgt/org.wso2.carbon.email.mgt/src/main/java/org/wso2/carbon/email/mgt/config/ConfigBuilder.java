@@ -37,28 +37,93 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Iterator;
+import java.util.Properties;
 
 /**
  * This Singleton is used to load and save tenant specific email configurations.
+ * <p>
+ * Every call builds its own {@link ConfigManager} from the stateless readers and writers of the storage type, so
+ * calls for different tenants run in parallel without sharing any mutable state. Default configurations of the
+ * same tenant are provisioned one at a time, so that concurrent provisioning writes them only once.
  */
 public class ConfigBuilder {
 
 	private static final Log log = LogFactory.getLog(ConfigBuilder.class);
-	private static ConfigBuilder instance = null;
-	private ConfigManager cm = null;
+	private static final ConfigBuilder instance = new ConfigBuilder();
+	private static final int PROVISION_LOCK_COUNT = 64;
+
+	private final ConfigReader registryReader;
+	private final ConfigWriter registryWriter;
+	private final ConfigWriter registryAdder;
+	private final ConfigReader fileReader = new FileConfigReader();
+	private final ConfigWriter fileWriter = new FileConfigWriter();
+	private final ConfigWriter fileAdder = new FileConfigAdd();
+	// Striped by tenant, so that only default provisioning of the same tenant is serialized.
+	private final Object[] provisionLocks = new Object[PROVISION_LOCK_COUNT];
+	// Parsed email-admin-config.xml, read once per node.
+	private volatile Properties defaultEmailProperties;
 
 	private ConfigBuilder() {
-		cm = new ConfigManagerImpl();
+		this(new RegistryConfigReader(), new RegistryConfigWriter(), new RegistryConfigAdd());
 	}
 
-	public static ConfigBuilder getInstance() {
-		if (instance == null) {
-			instance = new ConfigBuilder();
+	/**
+	 * Builds the configurations of the registry storage type with the given readers and writers rather than the
+	 * registry ones, so that tests can run the configuration pipeline against a store of their own.
+	 *
+	 * @param registryReader - Reader of the configurations.
+	 * @param registryWriter - Writer used to save configurations.
+	 * @param registryAdder  - Writer used to add new email templates.
+	 */
+	ConfigBuilder(ConfigReader registryReader, ConfigWriter registryWriter, ConfigWriter registryAdder) {
+		this.registryReader = registryReader;
+		this.registryWriter = registryWriter;
+		this.registryAdder = registryAdder;
+		for (int i = 0; i < provisionLocks.length; i++) {
+			provisionLocks[i] = new Object();
 		}
+	}
 
+	public static ConfigBuilder getInstance() {
 		return instance;
 	}
 
+	/**
+	 * @return The storage type the email templates are kept in, as set by the
+	 * {@value I18nMgtConstants#EMAIL_TEMPLATE_STORAGE_TYPE} system property. REGISTRY if it is not set.
+	 */
+	public static StorageType getConfiguredStorageType() {
+		String storageType = System.getProperty(I18nMgtConstants.EMAIL_TEMPLATE_STORAGE_TYPE);
+		if (StringUtils.isBlank(storageType)) {
+			return StorageType.REGISTRY;
+		}
+		try {
+			return StorageType.valueOf(storageType.trim().toUpperCase());
+		} catch (IllegalArgumentException e) {
+			log.warn("Invalid email template storage type : " + storageType + ". Using " + StorageType.REGISTRY);
+			return StorageType.REGISTRY;
+		}
+	}
+
+	/**
+	 * @return Seconds the registry templates of a tenant are served from their snapshot, as set by the
+	 * {@value I18nMgtConstants#EMAIL_TEMPLATE_SNAPSHOT_TIMEOUT_PROPERTY} system property.
+	 * {@value I18nMgtConstants#EMAIL_TEMPLATE_SNAPSHOT_TIMEOUT} if it is not set.
+	 */
+	public static long getConfiguredSnapshotTimeout() {
+		String timeout = System.getProperty(I18nMgtConstants.EMAIL_TEMPLATE_SNAPSHOT_TIMEOUT_PROPERTY);
+		if (StringUtils.isBlank(timeout)) {
+			return I18nMgtConstants.EMAIL_TEMPLATE_SNAPSHOT_TIMEOUT;
+		}
+		try {
+			return Long.parseLong(timeout.trim());
+		} catch (NumberFormatException e) {
+			log.warn("Invalid email template snapshot timeout : " + timeout + ". Using " +
+					I18nMgtConstants.EMAIL_TEMPLATE_SNAPSHOT_TIMEOUT + " seconds");
+			return I18nMgtConstants.EMAIL_TEMPLATE_SNAPSHOT_TIMEOUT;
+		}
+	}
+
 	/**
 	 * Loads tenant specific email configuration.
 	 *
@@ -73,11 +138,11 @@ public class ConfigBuilder {
 		Config config = null;
 		switch (stype) {
 			case REGISTRY:
-				cm.setReader(new RegistryConfigReader());
+			case FILE:
 				switch (configType) {
 					case EMAIL:
-						cm.setConfig(new EmailNotificationConfig());
-						cm.setResourcePath(I18nMgtConstants.EMAIL_TEMPLATE_PATH);
+						ConfigManager cm = new ConfigManagerImpl(getReader(stype), null, new EmailNotificationConfig(),
+								I18nMgtConstants.EMAIL_TEMPLATE_PATH);
 						config = cm.loadConfig(tenantId);
 						if (config == null) {
 							throw new I18nMgtEmailConfigException("Default email templates haven't written successfully");
@@ -88,7 +153,6 @@ public class ConfigBuilder {
 				}
 				break;
 			case DB:
-			case FILE:
 				break;
 			default:
 				throw new I18nMgtEmailConfigException("Configuration storage type not supported");
@@ -107,17 +171,23 @@ public class ConfigBuilder {
 	 */
 	public void loadDefaultConfiguration(ConfigType configType, StorageType stype, int tenantId) throws
 			I18nMgtEmailConfigException {
+		synchronized (provisionLocks[(tenantId & Integer.MAX_VALUE) % PROVISION_LOCK_COUNT]) {
+			provisionDefaultConfiguration(configType, stype, tenantId);
+		}
+	}
+
+	private void provisionDefaultConfiguration(ConfigType configType, StorageType stype, int tenantId)
+			throws I18nMgtEmailConfigException {
 		switch (stype) {
 			case REGISTRY:
-				cm.setReader(new RegistryConfigReader());
-				cm.setWriter(new RegistryConfigWriter());
+			case FILE:
 				switch (configType) {
 					case EMAIL:
-						cm.setConfig(new EmailNotificationConfig());
-						cm.setResourcePath(I18nMgtConstants.EMAIL_TEMPLATE_PATH);
-						Config config = cm.loadConfig(tenantId);
-						if (config == null) {
-							config = loadEmailConfigFile();
+						ConfigManager cm = new ConfigManagerImpl(getReader(stype), getWriter(stype),
+								new EmailNotificationConfig(), I18nMgtConstants.EMAIL_TEMPLATE_PATH);
+						if (!cm.isConfigExists(tenantId)) {
+							Config config = new EmailNotificationConfig();
+							config.setProperties(getDefaultEmailProperties());
 							cm.saveConfig(config, tenantId);
 						}
 						break;
@@ -126,7 +196,6 @@ public class ConfigBuilder {
 				}
 				break;
 			case DB:
-			case FILE:
 				break;
 			default:
 				throw new I18nMgtEmailConfigException("Configuration storage type not supported");
@@ -144,17 +213,16 @@ public class ConfigBuilder {
 	public void saveConfiguration(StorageType stype, int tenantId, Config config) throws I18nMgtEmailConfigException {
 		switch (stype) {
 			case REGISTRY:
-				cm.setWriter(new RegistryConfigWriter());
+			case FILE:
 				if (config instanceof EmailNotificationConfig) {
-					cm.setConfig(new EmailNotificationConfig());
-					cm.setResourcePath(I18nMgtConstants.EMAIL_TEMPLATE_PATH);
+					ConfigManager cm = new ConfigManagerImpl(getReader(stype), getWriter(stype),
+							new EmailNotificationConfig(), I18nMgtConstants.EMAIL_TEMPLATE_PATH);
 					cm.saveConfig(config, tenantId);
 				} else {
 					throw new I18nMgtEmailConfigException("Configuration type not supported");
 				}
 				break;
 			case DB:
-			case FILE:
 				break;
 			default:
 				throw new I18nMgtEmailConfigException("Configuration storage type not supported");
@@ -173,17 +241,16 @@ public class ConfigBuilder {
 			throws I18nMgtEmailConfigException {
 		switch (stype) {
 			case REGISTRY:
-				cm.setWriter(new RegistryConfigAdd());
+			case FILE:
 				if (config instanceof EmailNotificationConfig) {
-					cm.setConfig(new EmailNotificationConfig());
-					cm.setResourcePath(I18nMgtConstants.EMAIL_TEMPLATE_PATH);
+					ConfigManager cm = new ConfigManagerImpl(getReader(stype), getAdder(stype),
+							new EmailNotificationConfig(), I18nMgtConstants.EMAIL_TEMPLATE_PATH);
 					cm.addEmailConfig(config, tenantId);
 				} else {
 					throw new I18nMgtEmailConfigException("Configuration type not supported");
 				}
 				break;
 			case DB:
-			case FILE:
 				break;
 			default:
 				throw new I18nMgtEmailConfigException("Configuration storage type not supported");
@@ -191,6 +258,40 @@ public class ConfigBuilder {
 	}
 
 
+	private ConfigReader getReader(StorageType stype) {
+		return stype == StorageType.FILE ? fileReader : registryReader;
+	}
+
+	private ConfigWriter getWriter(StorageType stype) {
+		return stype == StorageType.FILE ? fileWriter : registryWriter;
+	}
+
+	private ConfigWriter getAdder(StorageType stype) {
+		return stype == StorageType.FILE ? fileAdder : registryAdder;
+	}
+
+	/**
+	 * @return A copy of the default email templates, parsed from the configuration file the first time.
+	 */
+	private Properties getDefaultEmailProperties() {
+		Properties properties = defaultEmailProperties;
+		if (properties == null) {
+			synchronized (this) {
+				properties = defaultEmailProperties;
+				if (properties == null) {
+					properties = loadEmailConfigFile().getProperties();
+					// A missing or broken file is read again next time, in case it has been fixed.
+					if (!properties.isEmpty()) {
+						defaultEmailProperties = properties;
+					}
+				}
+			}
+		}
+		Properties copy = new Properties();
+		copy.putAll(properties);
+		return copy;
+	}
+
 	private Config loadEmailConfigFile() {
 		String confXml = CarbonUtils.getCarbonConfigDirPath() + File.separator
 				+ I18nMgtConstants.EMAIL_CONF_DIRECTORY + File.separator
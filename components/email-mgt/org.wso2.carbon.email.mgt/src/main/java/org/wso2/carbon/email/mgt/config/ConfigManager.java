@@ -33,6 +33,8 @@ public interface ConfigManager {
      */
     Config loadConfig(int tenantId) throws I18nMgtEmailConfigException;
 
+    boolean isConfigExists(int tenantId) throws I18nMgtEmailConfigException;
+
     /**
      * This saves the given email template configuration in specific tenant space.
      *
@@ -26,6 +26,7 @@ import java.util.Set;
 /**
  * Implementation of the Configuration Manager interface
  * which used to manage the email template configurations.
+ * An instance holds the state of a single request and is not shared between threads.
  */
 public class ConfigManagerImpl implements ConfigManager {
 
@@ -34,6 +35,22 @@ public class ConfigManagerImpl implements ConfigManager {
     private Config config;
     private String resourcePath;
 
+    public ConfigManagerImpl() {
+    }
+
+    /**
+     * @param reader       - Reader of the configuration.
+     * @param writer       - Writer of the configuration.
+     * @param config       - Configuration the loaded properties are set to.
+     * @param resourcePath - Path the configuration is stored at.
+     */
+    public ConfigManagerImpl(ConfigReader reader, ConfigWriter writer, Config config, String resourcePath) {
+        this.reader = reader;
+        this.writer = writer;
+        this.config = config;
+        this.resourcePath = resourcePath;
+    }
+
     public void setResourcePath(String resourcePath) {
         this.resourcePath = resourcePath;
     }
@@ -65,6 +82,11 @@ public class ConfigManagerImpl implements ConfigManager {
         return this.config;
     }
 
+    @Override
+    public boolean isConfigExists(int tenantId) throws I18nMgtEmailConfigException {
+        return reader.exists(tenantId, resourcePath);
+    }
+
     @Override
     public void saveConfig(Config config, int tenantId) throws I18nMgtEmailConfigException {
         Properties props = config.getProperties();
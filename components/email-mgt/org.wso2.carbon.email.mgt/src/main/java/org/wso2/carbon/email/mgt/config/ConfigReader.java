@@ -36,4 +36,14 @@ public interface ConfigReader {
      * @throws org.wso2.carbon.email.mgt.exceptions.I18nMgtEmailConfigException
      */
     Properties read(int tenantId, String resourcePath) throws I18nMgtEmailConfigException;
+
+    /**
+     * Checks whether a tenant has any configuration, without reading it.
+     *
+     * @param tenantId     - Tenant Id which the Email Template configuration belongs.
+     * @param resourcePath - Resource path the email templates are saved at.
+     * @return Whether the configuration of the tenant exists.
+     * @throws org.wso2.carbon.email.mgt.exceptions.I18nMgtEmailConfigException
+     */
+    boolean exists(int tenantId, String resourcePath) throws I18nMgtEmailConfigException;
 }
@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.email.mgt.config;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.email.mgt.constants.I18nMgtConstants;
+import org.wso2.carbon.email.mgt.exceptions.I18nMgtEmailConfigException;
+import org.wso2.carbon.email.mgt.internal.I18nMgtServiceComponent;
+import org.wso2.carbon.email.mgt.store.FileTemplateStore;
+import org.wso2.carbon.email.mgt.store.StoredEmailTemplate;
+import org.wso2.carbon.registry.core.Collection;
+import org.wso2.carbon.registry.core.Registry;
+import org.wso2.carbon.registry.core.Resource;
+import org.wso2.carbon.registry.core.exceptions.RegistryException;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Copies the email templates of a tenant between the registry and the file template store, keeping the registry
+ * layout: a collection per template type holding its display name, with a resource per locale.
+ */
+public class EmailTemplateMigrator {
+
+    private static final Log log = LogFactory.getLog(EmailTemplateMigrator.class);
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final ConfigReader registryReader;
+
+    public EmailTemplateMigrator() {
+        this(new RegistryConfigReader());
+    }
+
+    /**
+     * @param registryReader - Reader of the templates in the registry layout.
+     */
+    public EmailTemplateMigrator(ConfigReader registryReader) {
+        this.registryReader = registryReader;
+    }
+
+    /**
+     * Replaces the file templates of the tenant with the templates of the tenant in the registry.
+     *
+     * @return Number of templates imported.
+     * @throws I18nMgtEmailConfigException
+     */
+    public int importFromRegistry(int tenantId) throws I18nMgtEmailConfigException {
+        // Read what is in the registry now, rather than a snapshot of it.
+        EmailTemplateSnapshotCache.getInstance().invalidate(tenantId);
+        Properties props = registryReader.read(tenantId, I18nMgtConstants.EMAIL_TEMPLATE_PATH);
+        List<StoredEmailTemplate> templates = new ArrayList<StoredEmailTemplate>();
+        for (String key : props.stringPropertyNames()) {
+            // Keyed by file name|display name|media type, where the file name is type.locale.
+            String[] keyArray = key.split("\\|");
+            String emailTemplateFilename = keyArray[0];
+            int localeSeparator = emailTemplateFilename.lastIndexOf(I18nMgtConstants.EMAIL_LOCALE_SEPARATOR);
+            String emailTemplateFolderName = localeSeparator > 0 ?
+                    emailTemplateFilename.substring(0, localeSeparator) : emailTemplateFilename;
+            templates.add(new StoredEmailTemplate(emailTemplateFolderName, emailTemplateFilename, keyArray[1],
+                    keyArray[2], props.getProperty(key).getBytes(UTF_8)));
+        }
+        FileTemplateStore.getInstance().replaceTemplates(tenantId, templates);
+        if (log.isDebugEnabled()) {
+            log.debug("Imported " + templates.size() + " email templates of tenant : " + tenantId +
+                    " from the registry");
+        }
+        return templates.size();
+    }
+
+    /**
+     * Writes the file templates of the tenant to the registry in one transaction, replacing the registry templates
+     * of the same name. Registry templates which are not in the file are kept.
+     *
+     * @return Number of templates exported.
+     * @throws I18nMgtEmailConfigException
+     */
+    public int exportToRegistry(int tenantId) throws I18nMgtEmailConfigException {
+        List<StoredEmailTemplate> templates = FileTemplateStore.getInstance().getTemplates(tenantId);
+        if (templates.isEmpty()) {
+            return 0;
+        }
+        String resourcePath = I18nMgtConstants.EMAIL_TEMPLATE_PATH;
+        try {
+            Registry userReg = getRegistry(tenantId);
+            Map<String, Collection> emailCollections = new LinkedHashMap<String, Collection>();
+            Map<String, Resource> emailTemplates = new LinkedHashMap<String, Resource>();
+            for (StoredEmailTemplate template : templates) {
+                String emailTemplateFolderResourcePath = resourcePath + I18nMgtConstants.EMAIL_FOLDER_SEPARATOR +
+                        template.getTemplateType();
+                if (!emailCollections.containsKey(emailTemplateFolderResourcePath)) {
+                    // This is done due to casting to List in JDBCRegistryDao when adding a registry property.
+                    List<String> value = new ArrayList<String>();
+                    value.add(template.getDisplayName());
+                    Collection emailCollection = userReg.newCollection();
+                    emailCollection.setProperty(template.getTemplateType(), value);
+                    emailCollections.put(emailTemplateFolderResourcePath, emailCollection);
+                }
+                Resource resource = userReg.newResource();
+                resource.setMediaType(template.getMediaType());
+                resource.setContent(template.getContent());
+                emailTemplates.put(emailTemplateFolderResourcePath + I18nMgtConstants.EMAIL_FOLDER_SEPARATOR +
+                        template.getName(), resource);
+            }
+
+            boolean committed = false;
+            userReg.beginTransaction();
+            try {
+                for (Map.Entry<String, Collection> emailCollection : emailCollections.entrySet()) {
+                    userReg.put(emailCollection.getKey(), emailCollection.getValue());
+                }
+                for (Map.Entry<String, Resource> emailTemplate : emailTemplates.entrySet()) {
+                    userReg.put(emailTemplate.getKey(), emailTemplate.getValue());
+                }
+                userReg.commitTransaction();
+                committed = true;
+            } finally {
+                if (!committed) {
+                    try {
+                        userReg.rollbackTransaction();
+                    } catch (RegistryException e) {
+                        log.error("Error occurred while rolling back the email templates exported to registry", e);
+                    }
+                }
+            }
+        } catch (RegistryException e) {
+            throw new I18nMgtEmailConfigException("Error occurred while exporting email templates to registry path : "
+                    + resourcePath, e);
+        } finally {
+            EmailTemplateSnapshotCache.getInstance().invalidate(tenantId);
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Exported " + templates.size() + " email templates of tenant : " + tenantId + " to the registry");
+        }
+        return templates.size();
+    }
+
+    /**
+     * @param tenantId - Tenant Id which the email templates belong.
+     * @return The registry the email templates of the tenant are exported to.
+     * @throws RegistryException
+     */
+    protected Registry getRegistry(int tenantId) throws RegistryException {
+        return I18nMgtServiceComponent.getRegistryService().getConfigSystemRegistry(tenantId);
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.email.mgt.config;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.email.mgt.constants.I18nMgtConstants;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Holds the email templates of a tenant as last read from the registry, so that the whole template tree is not
+ * read again, one registry get per collection and resource, every time the templates of the tenant are listed.
+ * Snapshots are dropped when a template of the tenant is written through email management, and expire after the
+ * configured timeout so that templates changed on another node are eventually read again.
+ */
+public class EmailTemplateSnapshotCache {
+
+    private static final Log log = LogFactory.getLog(EmailTemplateSnapshotCache.class);
+    private static final EmailTemplateSnapshotCache instance = new EmailTemplateSnapshotCache();
+
+    private final Map<String, Snapshot> snapshots = new ConcurrentHashMap<String, Snapshot>();
+    // Incremented on every invalidation, so that a read which raced with a write is not kept.
+    private final AtomicLong generation = new AtomicLong();
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    private volatile long timeoutMillis = TimeUnit.SECONDS.toMillis(I18nMgtConstants.EMAIL_TEMPLATE_SNAPSHOT_TIMEOUT);
+
+    private EmailTemplateSnapshotCache() {
+    }
+
+    public static EmailTemplateSnapshotCache getInstance() {
+        return instance;
+    }
+
+    /**
+     * @param timeoutSeconds - Time a snapshot is served before the templates are read again. Zero or less disables
+     *                       the snapshots.
+     */
+    public void configure(long timeoutSeconds) {
+        this.timeoutMillis = TimeUnit.SECONDS.toMillis(timeoutSeconds);
+        clear();
+    }
+
+    public boolean isEnabled() {
+        return timeoutMillis > 0;
+    }
+
+    /**
+     * @return The generation to pass to {@link #put} once the templates have been read.
+     */
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * @return A copy of the templates read from the resource path of the tenant, or null if there is no valid
+     * snapshot of them.
+     */
+    public Properties get(int tenantId, String resourcePath) {
+        if (!isEnabled()) {
+            return null;
+        }
+        String key = getKey(tenantId, resourcePath);
+        Snapshot snapshot = snapshots.get(key);
+        if (snapshot != null && System.currentTimeMillis() - snapshot.loadedTime > timeoutMillis) {
+            snapshots.remove(key);
+            snapshot = null;
+        }
+        if (snapshot == null) {
+            missCount.incrementAndGet();
+            return null;
+        }
+        hitCount.incrementAndGet();
+        Properties templates = new Properties();
+        templates.putAll(snapshot.templates);
+        return templates;
+    }
+
+    /**
+     * Keeps the templates read from the resource path of the tenant, unless a template was written since the read
+     * started.
+     *
+     * @param generation - Generation taken before the templates were read.
+     */
+    public void put(int tenantId, String resourcePath, Properties templates, long generation) {
+        if (!isEnabled()) {
+            return;
+        }
+        Properties copy = new Properties();
+        copy.putAll(templates);
+        String key = getKey(tenantId, resourcePath);
+        snapshots.put(key, new Snapshot(tenantId, copy, System.currentTimeMillis()));
+        if (this.generation.get() != generation) {
+            snapshots.remove(key);
+        }
+    }
+
+    public void invalidate(int tenantId) {
+        generation.incrementAndGet();
+        Iterator<Snapshot> iterator = snapshots.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().tenantId == tenantId) {
+                iterator.remove();
+            }
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Invalidated email template snapshot of tenant : " + tenantId);
+        }
+    }
+
+    public void clear() {
+        generation.incrementAndGet();
+        snapshots.clear();
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    private static String getKey(int tenantId, String resourcePath) {
+        return tenantId + ":" + resourcePath;
+    }
+
+    private static class Snapshot {
+
+        private final int tenantId;
+        private final Properties templates;
+        private final long loadedTime;
+
+        Snapshot(int tenantId, Properties templates, long loadedTime) {
+            this.tenantId = tenantId;
+            this.templates = templates;
+            this.loadedTime = loadedTime;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.email.mgt.config;
+
+import org.wso2.carbon.email.mgt.constants.I18nMgtConstants;
+import org.wso2.carbon.email.mgt.exceptions.I18nMgtEmailConfigException;
+import org.wso2.carbon.email.mgt.store.FileTemplateStore;
+import org.wso2.carbon.email.mgt.store.StoredEmailTemplate;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Adds new email templates of a tenant to the file template store, taking the same properties as
+ * {@link RegistryConfigAdd}, keyed by display name.locale.media type.
+ */
+public class FileConfigAdd implements ConfigWriter {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Override
+    public void write(int tenantId, Properties props, String resourcePath) throws I18nMgtEmailConfigException {
+        List<StoredEmailTemplate> templates = new ArrayList<StoredEmailTemplate>();
+        for (String propsKeyName : props.stringPropertyNames()) {
+            String[] propsKeyNameSplit = propsKeyName.split("\\.");
+            String emailTemplateDisplayName = propsKeyNameSplit[0];
+            String emailTemplateFolderName = emailTemplateDisplayName.replaceAll("\\s", "").toLowerCase();
+            String emailTemplateFilename = emailTemplateFolderName + I18nMgtConstants.EMAIL_LOCALE_SEPARATOR +
+                    propsKeyNameSplit[1];
+            templates.add(new StoredEmailTemplate(emailTemplateFolderName, emailTemplateFilename,
+                    emailTemplateDisplayName, propsKeyNameSplit[2], props.getProperty(propsKeyName).getBytes(UTF_8)));
+        }
+        FileTemplateStore.getInstance().putTemplates(tenantId, templates, true);
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.email.mgt.config;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.email.mgt.exceptions.I18nMgtEmailConfigException;
+import org.wso2.carbon.email.mgt.store.FileTemplateStore;
+import org.wso2.carbon.email.mgt.store.StoredEmailTemplate;
+
+import java.nio.charset.Charset;
+import java.util.Properties;
+
+/**
+ * Reads the email templates of a tenant from the file template store, in the same form as
+ * {@link RegistryConfigReader}. The resource path is not used, as a tenant has a single template file.
+ */
+public class FileConfigReader implements ConfigReader {
+
+    private static final Log log = LogFactory.getLog(FileConfigReader.class);
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Override
+    public Properties read(int tenantId, String resourcePath) throws I18nMgtEmailConfigException {
+        Properties readerProps = new Properties();
+        for (StoredEmailTemplate template : FileTemplateStore.getInstance().getTemplates(tenantId)) {
+            String emailTemplateKey = template.getName() + "|" + template.getDisplayName() + "|" +
+                    template.getMediaType();
+            readerProps.put(emailTemplateKey, new String(template.getContent(), UTF_8));
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Read " + readerProps.size() + " email templates of tenant : " + tenantId + " from file");
+        }
+        return readerProps;
+    }
+
+    @Override
+    public boolean exists(int tenantId, String resourcePath) {
+        return FileTemplateStore.getInstance().exists(tenantId);
+    }
+}
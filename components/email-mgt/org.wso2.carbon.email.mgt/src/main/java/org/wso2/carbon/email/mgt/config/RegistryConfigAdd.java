@@ -110,6 +110,8 @@ public class RegistryConfigAdd implements ConfigWriter {
         } catch (RegistryException e) {
             throw new I18nMgtEmailConfigException("Error occurred while adding email template to registry path : "
                     + resourcePath, e);
+        } finally {
+            EmailTemplateSnapshotCache.getInstance().invalidate(tenantId);
         }
     }
 
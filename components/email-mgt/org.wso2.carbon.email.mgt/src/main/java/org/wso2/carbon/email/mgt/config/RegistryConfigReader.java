@@ -24,11 +24,10 @@ import org.apache.commons.logging.LogFactory;
 import org.wso2.carbon.email.mgt.exceptions.I18nMgtEmailConfigException;
 import org.wso2.carbon.email.mgt.internal.I18nMgtServiceComponent;
 import org.wso2.carbon.registry.core.Collection;
+import org.wso2.carbon.registry.core.Registry;
 import org.wso2.carbon.registry.core.Resource;
 import org.wso2.carbon.registry.core.exceptions.RegistryException;
 import org.wso2.carbon.registry.core.exceptions.ResourceNotFoundException;
-import org.wso2.carbon.registry.core.service.RegistryService;
-import org.wso2.carbon.registry.core.session.UserRegistry;
 
 import java.nio.charset.Charset;
 import java.util.Properties;
@@ -36,6 +35,7 @@ import java.util.Properties;
 public class RegistryConfigReader implements ConfigReader {
 
 	private static Log log = LogFactory.getLog(RegistryConfigReader.class);
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
 
 	/**
 	 * This method is used to add a new Email template in a specific tenant space.
@@ -47,16 +47,27 @@ public class RegistryConfigReader implements ConfigReader {
 	@Override
 	public Properties read(int tenantId, String resourcePath) throws I18nMgtEmailConfigException {
 
+		EmailTemplateSnapshotCache snapshotCache = EmailTemplateSnapshotCache.getInstance();
+		Properties snapshot = snapshotCache.get(tenantId, resourcePath);
+		if (snapshot != null) {
+			if (log.isDebugEnabled()) {
+				log.debug("Email templates of registry path : " + resourcePath + " served from the snapshot of " +
+						"tenant : " + tenantId);
+			}
+			return snapshot;
+		}
+
 		if (log.isDebugEnabled()) {
 			log.debug("Reading email templates from registry path : " + resourcePath);
 		}
 
+		// Taken before reading, so that templates written while reading are not kept in the snapshot.
+		long generation = snapshotCache.getGeneration();
 		Resource resourceValue = null;
 		Properties readerProps = new Properties();
-		RegistryService registry = I18nMgtServiceComponent.getRegistryService();
 
 		try {
-			UserRegistry userReg = registry.getConfigSystemRegistry(tenantId);
+			Registry userReg = getRegistry(tenantId);
 			resourceValue = userReg.get(resourcePath);
 			Collection emailSubjectCollecton = (Collection) resourceValue;
 			String[] emailSubjectCollectionArray = emailSubjectCollecton.getChildren();
@@ -81,7 +92,7 @@ public class RegistryConfigReader implements ConfigReader {
 					String emailTemplateFileName = emailTemplateFolderArray[4];
 					byte[] emailTemplateContentArray = (byte[]) emailTemplateResource.getContent();
 					String emailContentType = emailTemplateResource.getMediaType();
-					String emailTemplateLocaleContent = new String(emailTemplateContentArray, Charset.forName("UTF-8"));
+					String emailTemplateLocaleContent = new String(emailTemplateContentArray, UTF_8);
 					String emailTemplateKey = emailTemplateFileName + "|" + emailTemplateDisplayValue + "|" +
 							emailContentType;
 					readerProps.put(emailTemplateKey, emailTemplateLocaleContent);
@@ -102,6 +113,26 @@ public class RegistryConfigReader implements ConfigReader {
 			throw new
 					I18nMgtEmailConfigException("Error occurred while reading email templates from path : " + resourcePath, e);
 		}
+		snapshotCache.put(tenantId, resourcePath, readerProps, generation);
 		return readerProps;
 	}
+
+	@Override
+	public boolean exists(int tenantId, String resourcePath) throws I18nMgtEmailConfigException {
+		try {
+			return getRegistry(tenantId).resourceExists(resourcePath);
+		} catch (RegistryException e) {
+			throw new I18nMgtEmailConfigException("Error occurred while checking email templates at path : " +
+					resourcePath, e);
+		}
+	}
+
+	/**
+	 * @param tenantId - Tenant Id which the email templates belong.
+	 * @return The registry the email templates of the tenant are read from.
+	 * @throws RegistryException
+	 */
+	protected Registry getRegistry(int tenantId) throws RegistryException {
+		return I18nMgtServiceComponent.getRegistryService().getConfigSystemRegistry(tenantId);
+	}
 }
\ No newline at end of file
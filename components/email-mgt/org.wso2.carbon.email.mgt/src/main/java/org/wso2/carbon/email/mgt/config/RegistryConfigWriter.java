@@ -30,7 +30,9 @@ import org.wso2.carbon.registry.core.service.RegistryService;
 import org.wso2.carbon.registry.core.session.UserRegistry;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 
@@ -59,6 +61,9 @@ public class RegistryConfigWriter implements ConfigWriter {
 			Set<String> names = props.stringPropertyNames();
 
 			if (!userReg.resourceExists(resourcePath)) {
+				// The display name of every template folder, set once however many locales the folder holds.
+				Map<String, Collection> emailCollections = new LinkedHashMap<String, Collection>();
+				Map<String, Resource> emailTemplates = new LinkedHashMap<String, Resource>();
 				for (String propsKeyName : names) {
 					// This is done due to casting to List in JDBCRegistryDao when adding a registry property.
 					List<String> value = new ArrayList<String>();
@@ -76,12 +81,31 @@ public class RegistryConfigWriter implements ConfigWriter {
 					String emailTemplateFileResourcePath = resourcePath + I18nMgtConstants.EMAIL_FOLDER_SEPARATOR
 							+ emailTemplateFolderName + I18nMgtConstants.EMAIL_FOLDER_SEPARATOR + emailTemplateFilename;
 
-					userReg.put(emailTemplateFolderResourcePath, emailCollection);
+					emailCollections.put(emailTemplateFolderResourcePath, emailCollection);
 					Resource resource = userReg.newResource();
 					String emailTemplateContent = props.getProperty(propsKeyName);
 					resource.setMediaType(propertyArray[3]);
 					resource.setContent(emailTemplateContent);
-					userReg.put(emailTemplateFileResourcePath, resource);
+					emailTemplates.put(emailTemplateFileResourcePath, resource);
+				}
+
+				// Write all default templates in one registry transaction, so that a tenant never ends up with
+				// only a part of them.
+				boolean committed = false;
+				userReg.beginTransaction();
+				try {
+					for (Map.Entry<String, Collection> emailCollection : emailCollections.entrySet()) {
+						userReg.put(emailCollection.getKey(), emailCollection.getValue());
+					}
+					for (Map.Entry<String, Resource> emailTemplate : emailTemplates.entrySet()) {
+						userReg.put(emailTemplate.getKey(), emailTemplate.getValue());
+					}
+					userReg.commitTransaction();
+					committed = true;
+				} finally {
+					if (!committed) {
+						rollbackTransaction(userReg);
+					}
 				}
 
 				if (log.isDebugEnabled()) {
@@ -112,8 +136,18 @@ public class RegistryConfigWriter implements ConfigWriter {
 		} catch (RegistryException e) {
 			throw new I18nMgtEmailConfigException("Error occurred while adding email template to registry path : "
 					+ resourcePath, e);
+		} finally {
+			EmailTemplateSnapshotCache.getInstance().invalidate(tenantId);
 		}
 
 	}
 
+	private void rollbackTransaction(UserRegistry userReg) {
+		try {
+			userReg.rollbackTransaction();
+		} catch (RegistryException e) {
+			log.error("Error occurred while rolling back the email templates written to registry", e);
+		}
+	}
+
 }
@@ -18,6 +18,8 @@
 
 package org.wso2.carbon.email.mgt.constants;
 
+import java.io.File;
+
 /**
  *  i18n management related constants
  */
@@ -40,4 +42,16 @@ public class I18nMgtConstants {
 
     public static final String EMAIL_MEDIA_TYPE = "text/plain";
 
+    // Seconds
+    public static final long EMAIL_TEMPLATE_SNAPSHOT_TIMEOUT = 300;
+
+    // System property overriding the snapshot timeout in seconds. Zero disables the snapshots.
+    public static final String EMAIL_TEMPLATE_SNAPSHOT_TIMEOUT_PROPERTY = "email.template.snapshotTimeout";
+
+    // System property selecting where the email templates are stored, REGISTRY or FILE.
+    public static final String EMAIL_TEMPLATE_STORAGE_TYPE = "email.template.storageType";
+
+    public static final String EMAIL_TEMPLATE_FILE_DIRECTORY = "repository" + File.separator + "data" +
+            File.separator + "email-templates";
+
 }
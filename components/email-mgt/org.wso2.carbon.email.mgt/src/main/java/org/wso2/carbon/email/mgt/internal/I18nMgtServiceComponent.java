@@ -26,13 +26,17 @@ import org.osgi.service.component.ComponentContext;
 import org.wso2.carbon.context.PrivilegedCarbonContext;
 import org.wso2.carbon.email.mgt.config.ConfigBuilder;
 import org.wso2.carbon.email.mgt.config.ConfigType;
-import org.wso2.carbon.email.mgt.config.StorageType;
+import org.wso2.carbon.email.mgt.config.EmailTemplateSnapshotCache;
 import org.wso2.carbon.email.mgt.exceptions.I18nMgtEmailConfigException;
+import org.wso2.carbon.email.mgt.listener.EmailTemplateChangeListener;
 import org.wso2.carbon.registry.core.service.RegistryService;
 import org.wso2.carbon.stratos.common.listeners.TenantMgtListener;
 import org.wso2.carbon.user.core.service.RealmService;
 import org.wso2.carbon.utils.ConfigurationContextService;
 
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
 
 /**
  * @scr.component name="I18nMgtServiceComponent"
@@ -43,6 +47,9 @@ import org.wso2.carbon.utils.ConfigurationContextService;
  * @scr.reference name="realm.service"
  * interface="org.wso2.carbon.user.core.service.RealmService"cardinality="1..1"
  * policy="dynamic" bind="setRealmService" unbind="unsetRealmService"
+ * @scr.reference name="email.template.change.listener"
+ * interface="org.wso2.carbon.email.mgt.listener.EmailTemplateChangeListener" cardinality="0..n"
+ * policy="dynamic" bind="setEmailTemplateChangeListener" unbind="unsetEmailTemplateChangeListener"
  */
 
 public class I18nMgtServiceComponent {
@@ -54,6 +61,10 @@ public class I18nMgtServiceComponent {
     private static RegistryService registryService;
 
     private static ConfigurationContextService configurationContextService;
+
+    private static List<EmailTemplateChangeListener> templateChangeListeners =
+            new CopyOnWriteArrayList<EmailTemplateChangeListener>();
+
     private ServiceRegistration serviceRegistration = null;
 
     public static RealmService getRealmService() {
@@ -90,6 +101,24 @@ public class I18nMgtServiceComponent {
 
     }
 
+    public static List<EmailTemplateChangeListener> getEmailTemplateChangeListeners() {
+        return templateChangeListeners;
+    }
+
+    protected void setEmailTemplateChangeListener(EmailTemplateChangeListener listener) {
+        if (log.isDebugEnabled()) {
+            log.debug("Setting the Email Template Change Listener : " + listener.getClass().getName());
+        }
+        templateChangeListeners.add(listener);
+    }
+
+    protected void unsetEmailTemplateChangeListener(EmailTemplateChangeListener listener) {
+        if (log.isDebugEnabled()) {
+            log.debug("UnSetting the Email Template Change Listener : " + listener.getClass().getName());
+        }
+        templateChangeListeners.remove(listener);
+    }
+
     protected void activate(ComponentContext context) {
         try {
             BundleContext bundleCtx = context.getBundleContext();
@@ -111,9 +140,11 @@ public class I18nMgtServiceComponent {
     private void loadEmailConfigurations() {
         //Load email template configuration on server startup.
         int tenantId = PrivilegedCarbonContext.getThreadLocalCarbonContext().getTenantId();
+        EmailTemplateSnapshotCache.getInstance().configure(ConfigBuilder.getConfiguredSnapshotTimeout());
         ConfigBuilder configBuilder = ConfigBuilder.getInstance();
         try {
-            configBuilder.loadDefaultConfiguration(ConfigType.EMAIL, StorageType.REGISTRY, tenantId);
+            configBuilder.loadDefaultConfiguration(ConfigType.EMAIL, ConfigBuilder.getConfiguredStorageType(),
+                    tenantId);
         } catch (I18nMgtEmailConfigException e) {
             log.error("Error occurred while loading default email templates", e);
         }
@@ -22,7 +22,7 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.wso2.carbon.email.mgt.config.ConfigBuilder;
 import org.wso2.carbon.email.mgt.config.ConfigType;
-import org.wso2.carbon.email.mgt.config.StorageType;
+import org.wso2.carbon.email.mgt.config.EmailTemplateSnapshotCache;
 import org.wso2.carbon.email.mgt.exceptions.I18nMgtEmailConfigException;
 import org.wso2.carbon.stratos.common.beans.TenantInfoBean;
 import org.wso2.carbon.stratos.common.exception.StratosException;
@@ -44,7 +44,8 @@ public class TenantManagementListener implements TenantMgtListener {
 
         ConfigBuilder configBuilder = ConfigBuilder.getInstance();
         try {
-            configBuilder.loadDefaultConfiguration(ConfigType.EMAIL, StorageType.REGISTRY, tenantId);
+            configBuilder.loadDefaultConfiguration(ConfigType.EMAIL, ConfigBuilder.getConfiguredStorageType(),
+                    tenantId);
         } catch (I18nMgtEmailConfigException e) {
             String message = "Error occurred while loading default email templates for the tenant " +
                     " " + tenantInfo.getTenantDomain();
@@ -62,8 +63,8 @@ public class TenantManagementListener implements TenantMgtListener {
     }
 
     @Override
-    public void onTenantDelete(int i) {
-        // It is not required to implement this method for I18n mgt.
+    public void onTenantDelete(int tenantId) {
+        EmailTemplateSnapshotCache.getInstance().invalidate(tenantId);
     }
 
     public void onTenantRename(int tenantId, String oldDomainName,
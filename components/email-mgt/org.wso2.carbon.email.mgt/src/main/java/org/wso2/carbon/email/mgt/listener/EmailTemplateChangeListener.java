@@ -0,0 +1,35 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.email.mgt.listener;
+
+/**
+ * Registered as an OSGi service by components which keep their own copy of the tenant email templates, so that
+ * they are told when a template is saved or added through email management.
+ */
+public interface EmailTemplateChangeListener {
+
+    /**
+     * Called after an email template has been written to the tenant space.
+     *
+     * @param tenantId     - Tenant Id which the email template belongs.
+     * @param templateType - Type of the email template, i.e. the template folder name.
+     * @param locale       - Locale of the email template.
+     */
+    void onEmailTemplateChange(int tenantId, String templateType, String locale);
+}
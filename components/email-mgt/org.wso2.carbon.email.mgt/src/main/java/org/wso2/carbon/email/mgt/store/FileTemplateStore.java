@@ -0,0 +1,433 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.email.mgt.store;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.email.mgt.constants.I18nMgtConstants;
+import org.wso2.carbon.email.mgt.exceptions.I18nMgtEmailConfigException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the email templates of each tenant in an indexed file on local disk, so that templates are read without a
+ * registry round trip. Files are memory mapped and their index is parsed once, so reading a template costs a file
+ * attribute check and a copy of its content. A file is never changed in place. Writes build a new file next to it
+ * and rename it over the old one, so a reader sees either the old or the new templates of a tenant, never a mix.
+ * Windows does not replace a file which is mapped, and a mapping is only released when it is garbage collected, so
+ * there the files are read into memory instead of being mapped.
+ * <p>
+ * File layout, all integers big endian: magic, version, template count, then the offset of every template in name
+ * order, then the templates. A template is its type, name, display name and media type, each as a length and
+ * UTF-8 bytes, followed by the length and bytes of its content.
+ */
+public class FileTemplateStore {
+
+    private static final Log log = LogFactory.getLog(FileTemplateStore.class);
+    private static final FileTemplateStore instance = new FileTemplateStore();
+
+    private static final int MAGIC = 0x45544D50;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 12;
+    private static final String FILE_SUFFIX = ".templates";
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+    private static final int WRITE_LOCK_COUNT = 64;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final boolean MAP_FILES = !System.getProperty("os.name", "").startsWith("Windows");
+
+    private final Map<Integer, MappedTemplates> mappedTemplates = new ConcurrentHashMap<Integer, MappedTemplates>();
+    // Striped by tenant, so that concurrent writes of a tenant do not lose each other's templates.
+    private final Object[] writeLocks = new Object[WRITE_LOCK_COUNT];
+    private volatile File directory = getDefaultDirectory();
+
+    private FileTemplateStore() {
+        for (int i = 0; i < writeLocks.length; i++) {
+            writeLocks[i] = new Object();
+        }
+    }
+
+    public static FileTemplateStore getInstance() {
+        return instance;
+    }
+
+    /**
+     * @return The template directory under the carbon home, or under the temporary directory if it is not set.
+     */
+    public static File getDefaultDirectory() {
+        String baseDirectory = System.getProperty("carbon.home");
+        if (baseDirectory == null) {
+            baseDirectory = System.getProperty("java.io.tmpdir");
+        }
+        return new File(baseDirectory, I18nMgtConstants.EMAIL_TEMPLATE_FILE_DIRECTORY);
+    }
+
+    /**
+     * @param directory - Directory the template files of all tenants are kept in.
+     */
+    public void configure(File directory) {
+        this.directory = directory;
+        mappedTemplates.clear();
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @return Whether the tenant has a template file.
+     */
+    public boolean exists(int tenantId) {
+        return getFile(tenantId).isFile();
+    }
+
+    /**
+     * @return All templates of the tenant in name order. Empty if the tenant has no template file.
+     * @throws I18nMgtEmailConfigException if the template file cannot be read.
+     */
+    public List<StoredEmailTemplate> getTemplates(int tenantId) throws I18nMgtEmailConfigException {
+        MappedTemplates templates = getMappedTemplates(tenantId);
+        List<StoredEmailTemplate> result = new ArrayList<StoredEmailTemplate>();
+        if (templates != null) {
+            for (IndexEntry entry : templates.index.values()) {
+                result.add(templates.read(entry));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return The types of the templates of the tenant, read from the index without reading any content.
+     * @throws I18nMgtEmailConfigException if the template file cannot be read.
+     */
+    public Set<String> getTemplateTypes(int tenantId) throws I18nMgtEmailConfigException {
+        MappedTemplates templates = getMappedTemplates(tenantId);
+        Set<String> templateTypes = new LinkedHashSet<String>();
+        if (templates != null) {
+            for (IndexEntry entry : templates.index.values()) {
+                templateTypes.add(entry.templateType);
+            }
+        }
+        return templateTypes;
+    }
+
+    /**
+     * @param name - Name of the template, i.e. the template type and the locale separated by a dot.
+     * @return The template, or null if the tenant has no such template.
+     * @throws I18nMgtEmailConfigException if the template file cannot be read.
+     */
+    public StoredEmailTemplate getTemplate(int tenantId, String name) throws I18nMgtEmailConfigException {
+        MappedTemplates templates = getMappedTemplates(tenantId);
+        if (templates == null) {
+            return null;
+        }
+        IndexEntry entry = templates.index.get(name);
+        return entry != null ? templates.read(entry) : null;
+    }
+
+    /**
+     * Adds or replaces templates of the tenant, keeping the others. A template type keeps the display name it was
+     * first written with, as a registry collection does.
+     *
+     * @param templates - Templates to be written.
+     * @param addOnly   - Whether writing a template which already exists is an error.
+     * @throws I18nMgtEmailConfigException if a template exists and addOnly is set, or the file cannot be written.
+     */
+    public void putTemplates(int tenantId, Collection<StoredEmailTemplate> templates, boolean addOnly)
+            throws I18nMgtEmailConfigException {
+        synchronized (getWriteLock(tenantId)) {
+            Map<String, StoredEmailTemplate> merged = new TreeMap<String, StoredEmailTemplate>();
+            Map<String, String> displayNames = new HashMap<String, String>();
+            for (StoredEmailTemplate template : getTemplates(tenantId)) {
+                merged.put(template.getName(), template);
+                displayNames.put(template.getTemplateType(), template.getDisplayName());
+            }
+            for (StoredEmailTemplate template : templates) {
+                if (addOnly && merged.containsKey(template.getName())) {
+                    throw new I18nMgtEmailConfigException("Resource duplication error while adding email template : "
+                            + template.getName());
+                }
+                String displayName = displayNames.get(template.getTemplateType());
+                if (displayName == null) {
+                    displayName = template.getDisplayName() != null ? template.getDisplayName() :
+                            template.getTemplateType();
+                    displayNames.put(template.getTemplateType(), displayName);
+                }
+                merged.put(template.getName(), new StoredEmailTemplate(template.getTemplateType(),
+                        template.getName(), displayName, template.getMediaType(), template.getContent()));
+            }
+            write(tenantId, merged.values());
+        }
+    }
+
+    /**
+     * Replaces all templates of the tenant with the given ones.
+     *
+     * @throws I18nMgtEmailConfigException if the file cannot be written.
+     */
+    public void replaceTemplates(int tenantId, Collection<StoredEmailTemplate> templates)
+            throws I18nMgtEmailConfigException {
+        Map<String, StoredEmailTemplate> sorted = new TreeMap<String, StoredEmailTemplate>();
+        for (StoredEmailTemplate template : templates) {
+            sorted.put(template.getName(), template);
+        }
+        synchronized (getWriteLock(tenantId)) {
+            write(tenantId, sorted.values());
+        }
+    }
+
+    private MappedTemplates getMappedTemplates(int tenantId) throws I18nMgtEmailConfigException {
+        Path path = getFile(tenantId).toPath();
+        try {
+            BasicFileAttributes attributes;
+            try {
+                attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            } catch (NoSuchFileException e) {
+                mappedTemplates.remove(tenantId);
+                return null;
+            }
+            MappedTemplates templates = mappedTemplates.get(tenantId);
+            if (templates == null || !templates.isCurrent(attributes)) {
+                // A file replaced after its attributes were read is mapped again on the next read.
+                templates = MappedTemplates.map(path, attributes);
+                mappedTemplates.put(tenantId, templates);
+            }
+            return templates;
+        } catch (IOException e) {
+            throw new I18nMgtEmailConfigException("Error occurred while reading email templates from : " + path, e);
+        }
+    }
+
+    private void write(int tenantId, Collection<StoredEmailTemplate> templates) throws I18nMgtEmailConfigException {
+        File file = getFile(tenantId);
+        File temp = null;
+        try {
+            File parent = file.getParentFile();
+            if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+                throw new IOException("Could not create directory : " + parent);
+            }
+            temp = File.createTempFile(tenantId + FILE_SUFFIX + ".", TEMP_FILE_SUFFIX, parent);
+            try (FileOutputStream out = new FileOutputStream(temp)) {
+                out.write(serialize(templates));
+                out.getChannel().force(true);
+            }
+            try {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            mappedTemplates.remove(tenantId);
+            if (log.isDebugEnabled()) {
+                log.debug("Wrote " + templates.size() + " email templates of tenant : " + tenantId + " to : " + file);
+            }
+        } catch (IOException e) {
+            throw new I18nMgtEmailConfigException("Error occurred while writing email templates to : " + file, e);
+        } finally {
+            if (temp != null && temp.exists() && !temp.delete()) {
+                log.warn("Could not delete temporary email template file : " + temp);
+            }
+        }
+    }
+
+    private static byte[] serialize(Collection<StoredEmailTemplate> templates) throws IOException {
+        List<byte[]> entries = new ArrayList<byte[]>(templates.size());
+        for (StoredEmailTemplate template : templates) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(template.getContent().length + 128);
+            DataOutputStream out = new DataOutputStream(bytes);
+            writeBytes(out, template.getTemplateType().getBytes(UTF_8));
+            writeBytes(out, template.getName().getBytes(UTF_8));
+            writeBytes(out, template.getDisplayName().getBytes(UTF_8));
+            writeBytes(out, template.getMediaType().getBytes(UTF_8));
+            writeBytes(out, template.getContent());
+            out.flush();
+            entries.add(bytes.toByteArray());
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(entries.size());
+        int offset = HEADER_SIZE + 4 * entries.size();
+        for (byte[] entry : entries) {
+            out.writeInt(offset);
+            offset += entry.length;
+        }
+        for (byte[] entry : entries) {
+            out.write(entry);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private File getFile(int tenantId) {
+        return new File(directory, tenantId + FILE_SUFFIX);
+    }
+
+    private Object getWriteLock(int tenantId) {
+        return writeLocks[(tenantId & Integer.MAX_VALUE) % WRITE_LOCK_COUNT];
+    }
+
+    /**
+     * A mapped, or read, template file with its index parsed. The contents are only read when a template is asked for.
+     */
+    private static class MappedTemplates {
+
+        private final Object fileKey;
+        private final long lastModified;
+        private final long size;
+        private final ByteBuffer buffer;
+        private final Map<String, IndexEntry> index;
+
+        private MappedTemplates(BasicFileAttributes attributes, ByteBuffer buffer,
+                                Map<String, IndexEntry> index) {
+            this.fileKey = attributes.fileKey();
+            this.lastModified = attributes.lastModifiedTime().toMillis();
+            this.size = attributes.size();
+            this.buffer = buffer;
+            this.index = index;
+        }
+
+        static MappedTemplates map(Path path, BasicFileAttributes attributes) throws IOException {
+            ByteBuffer buffer;
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                if (MAP_FILES) {
+                    // The mapping stays valid after the channel is closed, and after the file is replaced.
+                    buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                } else {
+                    buffer = read(channel);
+                }
+            }
+            try {
+                ByteBuffer view = buffer.duplicate();
+                if (view.getInt() != MAGIC || view.getInt() != VERSION) {
+                    throw new IOException("Not an email template file : " + path);
+                }
+                int count = view.getInt();
+                Map<String, IndexEntry> index = new LinkedHashMap<String, IndexEntry>();
+                for (int i = 0; i < count; i++) {
+                    ByteBuffer entry = buffer.duplicate();
+                    entry.position(view.getInt());
+                    String templateType = readString(entry);
+                    String name = readString(entry);
+                    String displayName = readString(entry);
+                    String mediaType = readString(entry);
+                    int contentLength = entry.getInt();
+                    if (contentLength < 0 || contentLength > entry.remaining()) {
+                        throw new IOException("Truncated email template file : " + path);
+                    }
+                    index.put(name, new IndexEntry(templateType, name, displayName, mediaType, entry.position(),
+                            contentLength));
+                }
+                return new MappedTemplates(attributes, buffer, index);
+            } catch (BufferUnderflowException | IllegalArgumentException e) {
+                throw new IOException("Truncated email template file : " + path, e);
+            }
+        }
+
+        private static ByteBuffer read(FileChannel channel) throws IOException {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Email template file too large : " + size);
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    throw new IOException("Email template file truncated while reading");
+                }
+            }
+            buffer.flip();
+            return buffer;
+        }
+
+        boolean isCurrent(BasicFileAttributes attributes) {
+            return size == attributes.size() && lastModified == attributes.lastModifiedTime().toMillis() &&
+                    (fileKey == null ? attributes.fileKey() == null : fileKey.equals(attributes.fileKey()));
+        }
+
+        StoredEmailTemplate read(IndexEntry entry) {
+            byte[] content = new byte[entry.contentLength];
+            ByteBuffer view = buffer.duplicate();
+            view.position(entry.contentOffset);
+            view.get(content);
+            return new StoredEmailTemplate(entry.templateType, entry.name, entry.displayName, entry.mediaType,
+                    content);
+        }
+
+        private static String readString(ByteBuffer buffer) throws IOException {
+            int length = buffer.getInt();
+            if (length < 0 || length > buffer.remaining()) {
+                throw new IOException("Invalid length : " + length);
+            }
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            return new String(bytes, UTF_8);
+        }
+    }
+
+    private static class IndexEntry {
+
+        private final String templateType;
+        private final String name;
+        private final String displayName;
+        private final String mediaType;
+        private final int contentOffset;
+        private final int contentLength;
+
+        IndexEntry(String templateType, String name, String displayName, String mediaType, int contentOffset,
+                   int contentLength) {
+            this.templateType = templateType;
+            this.name = name;
+            this.displayName = displayName;
+            this.mediaType = mediaType;
+            this.contentOffset = contentOffset;
+            this.contentLength = contentLength;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.email.mgt.store;
+
+/**
+ * An email template as kept in the file template store, laid out as in the registry: the template type is the
+ * folder, holding the display name of the type, and the name is the type and the locale separated by a dot.
+ * The content is the UTF-8 subject, body and footer separated by |. Instances are immutable.
+ */
+public class StoredEmailTemplate {
+
+    private final String templateType;
+    private final String name;
+    private final String displayName;
+    private final String mediaType;
+    private final byte[] content;
+
+    public StoredEmailTemplate(String templateType, String name, String displayName, String mediaType,
+                               byte[] content) {
+        this.templateType = templateType;
+        this.name = name;
+        this.displayName = displayName;
+        this.mediaType = mediaType;
+        this.content = content;
+    }
+
+    public String getTemplateType() {
+        return templateType;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return Display name of the template type, or null to keep the display name the type already has.
+     */
+    public String getDisplayName() {
+        return displayName;
+    }
+
+    public String getMediaType() {
+        return mediaType;
+    }
+
+    /**
+     * @return The UTF-8 content of the template. The array is shared and must not be changed.
+     */
+    public byte[] getContent() {
+        return content;
+    }
+}
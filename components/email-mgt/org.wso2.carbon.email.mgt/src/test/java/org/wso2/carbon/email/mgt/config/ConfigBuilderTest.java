@@ -0,0 +1,233 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.email.mgt.config;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.wso2.carbon.email.mgt.exceptions.I18nMgtEmailConfigException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests that {@link ConfigBuilder} calls for different tenants do not see or change each other's templates. Every
+ * template written carries the id of its tenant, so a template found under another tenant shows the corruption.
+ */
+public class ConfigBuilderTest {
+
+    private static final int FIRST_TENANT = 1;
+    private static final int SECOND_TENANT = 2;
+    private static final String TENANT_MARKER = "tenant=";
+    private static final String TEMPLATE_KEY = "accountlock.en_US.text/plain";
+    private static final int THREADS = 8;
+    private static final int OPERATIONS = 2000;
+    private static final int MAX_REPORTED_VIOLATIONS = 10;
+
+    private InMemoryStore store;
+    private ConfigBuilder configBuilder;
+
+    @BeforeMethod
+    public void setUp() {
+        store = new InMemoryStore();
+        store.put(FIRST_TENANT, content(FIRST_TENANT, 0));
+        store.put(SECOND_TENANT, content(SECOND_TENANT, 0));
+        configBuilder = new ConfigBuilder(store.reader, store.writer, store.adder);
+    }
+
+    @Test
+    public void testSavedTemplateBelongsToItsTenant() throws Exception {
+        EmailNotificationConfig config = new EmailNotificationConfig();
+        config.setProperty(TEMPLATE_KEY, content(FIRST_TENANT, 1));
+        configBuilder.saveConfiguration(StorageType.REGISTRY, FIRST_TENANT, config);
+
+        assertEquals(configBuilder.loadConfiguration(ConfigType.EMAIL, StorageType.REGISTRY, FIRST_TENANT)
+                .getProperties().getProperty(TEMPLATE_KEY), content(FIRST_TENANT, 1));
+        assertEquals(configBuilder.loadConfiguration(ConfigType.EMAIL, StorageType.REGISTRY, SECOND_TENANT)
+                .getProperties().getProperty(TEMPLATE_KEY), content(SECOND_TENANT, 0));
+    }
+
+    @Test
+    public void testConcurrentTenantsDoNotCorruptEachOther() throws Exception {
+        final AtomicInteger addSequence = new AtomicInteger();
+        final Map<Integer, AtomicInteger> expectedAdds = new ConcurrentHashMap<>();
+        expectedAdds.put(FIRST_TENANT, new AtomicInteger());
+        expectedAdds.put(SECOND_TENANT, new AtomicInteger());
+        final List<String> violations = new ArrayList<>();
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(THREADS);
+
+        for (int t = 0; t < THREADS; t++) {
+            final Random random = new Random(t);
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 1; i <= OPERATIONS; i++) {
+                            int tenantId = random.nextBoolean() ? FIRST_TENANT : SECOND_TENANT;
+                            int operation = random.nextInt(10);
+                            if (operation < 6) {
+                                Config config = configBuilder.loadConfiguration(ConfigType.EMAIL,
+                                        StorageType.REGISTRY, tenantId);
+                                checkTenant(config.getProperties(), tenantId, "load", violations);
+                            } else if (operation < 9) {
+                                EmailNotificationConfig config = new EmailNotificationConfig();
+                                config.setProperty(TEMPLATE_KEY, content(tenantId, i));
+                                configBuilder.saveConfiguration(StorageType.REGISTRY, tenantId, config);
+                            } else {
+                                EmailNotificationConfig config = new EmailNotificationConfig();
+                                config.setProperty("Added " + addSequence.incrementAndGet() + ".en_US.text/plain",
+                                        content(tenantId, i));
+                                configBuilder.addEmailConfiguration(StorageType.REGISTRY, tenantId, config);
+                                expectedAdds.get(tenantId).incrementAndGet();
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } catch (I18nMgtEmailConfigException | RuntimeException e) {
+                        report(violations, "Unexpected failure : " + e);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }, "ConfigBuilderTest-" + t);
+            thread.start();
+        }
+        start.countDown();
+        assertTrue(done.await(2, TimeUnit.MINUTES), "Concurrent calls did not finish");
+
+        for (int tenantId : new int[]{FIRST_TENANT, SECOND_TENANT}) {
+            Properties stored = store.get(tenantId);
+            checkTenant(stored, tenantId, "store", violations);
+            int added = 0;
+            for (String key : stored.stringPropertyNames()) {
+                if (key.startsWith("Added ")) {
+                    added++;
+                }
+            }
+            assertEquals(added, expectedAdds.get(tenantId).get(), "Templates added to tenant " + tenantId);
+        }
+        assertTrue(violations.isEmpty(), "Tenants corrupted each other : " + violations);
+    }
+
+    private static String content(int tenantId, int revision) {
+        return TENANT_MARKER + tenantId + ";revision=" + revision + "|Body|Footer";
+    }
+
+    // Called from the test threads, where a failed assertion would only end the thread.
+    private static void checkTenant(Properties properties, int tenantId, String source, List<String> violations) {
+        String marker = TENANT_MARKER + tenantId + ";";
+        if (properties.isEmpty()) {
+            report(violations, "No templates in the " + source + " of tenant " + tenantId);
+        }
+        for (String key : properties.stringPropertyNames()) {
+            if (!properties.getProperty(key).startsWith(marker)) {
+                report(violations, "Template " + key + " of tenant " + tenantId + " in the " + source + " is : " +
+                        properties.getProperty(key));
+            }
+        }
+    }
+
+    private static void report(List<String> violations, String violation) {
+        synchronized (violations) {
+            if (violations.size() < MAX_REPORTED_VIOLATIONS) {
+                violations.add(violation);
+            }
+        }
+    }
+
+    /**
+     * Templates of every tenant, read and written as whole property sets the way the registry readers and writers
+     * hand them to ConfigManagerImpl. Each call yields, so calls of different threads interleave.
+     */
+    private static class InMemoryStore {
+
+        private final Map<Integer, Properties> templates = new ConcurrentHashMap<>();
+
+        private final ConfigReader reader = new ConfigReader() {
+            @Override
+            public Properties read(int tenantId, String resourcePath) {
+                Thread.yield();
+                return get(tenantId);
+            }
+
+            @Override
+            public boolean exists(int tenantId, String resourcePath) {
+                return templates.containsKey(tenantId);
+            }
+        };
+
+        private final ConfigWriter writer = new ConfigWriter() {
+            @Override
+            public void write(int tenantId, Properties props, String resourcePath) {
+                Thread.yield();
+                merge(tenantId, props, false);
+            }
+        };
+
+        private final ConfigWriter adder = new ConfigWriter() {
+            @Override
+            public void write(int tenantId, Properties props, String resourcePath)
+                    throws I18nMgtEmailConfigException {
+                Thread.yield();
+                if (!merge(tenantId, props, true)) {
+                    throw new I18nMgtEmailConfigException("Resource duplication error while adding email " +
+                            "template : " + props.stringPropertyNames());
+                }
+            }
+        };
+
+        void put(int tenantId, String content) {
+            Properties properties = new Properties();
+            properties.setProperty(TEMPLATE_KEY, content);
+            templates.put(tenantId, properties);
+        }
+
+        Properties get(int tenantId) {
+            Properties stored = templates.get(tenantId);
+            Properties copy = new Properties();
+            synchronized (stored) {
+                copy.putAll(stored);
+            }
+            return copy;
+        }
+
+        private boolean merge(int tenantId, Properties props, boolean addOnly) {
+            Properties stored = templates.get(tenantId);
+            synchronized (stored) {
+                for (String key : props.stringPropertyNames()) {
+                    if (addOnly && stored.containsKey(key)) {
+                        return false;
+                    }
+                    stored.setProperty(key, props.getProperty(key));
+                }
+            }
+            return true;
+        }
+    }
+}
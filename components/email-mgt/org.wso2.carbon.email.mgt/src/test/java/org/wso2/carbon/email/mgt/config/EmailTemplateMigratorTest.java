@@ -0,0 +1,257 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.email.mgt.config;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.wso2.carbon.email.mgt.exceptions.I18nMgtEmailConfigException;
+import org.wso2.carbon.email.mgt.store.FileTemplateStore;
+import org.wso2.carbon.email.mgt.store.StoredEmailTemplate;
+import org.wso2.carbon.registry.core.Collection;
+import org.wso2.carbon.registry.core.Registry;
+import org.wso2.carbon.registry.core.exceptions.RegistryException;
+import org.wso2.carbon.registry.core.exceptions.ResourceNotFoundException;
+
+import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+/**
+ * Tests that templates exported from the {@link FileTemplateStore} to the registry and imported back are unchanged.
+ * The registry is kept in memory, with the collection and resource layout of email management.
+ */
+public class EmailTemplateMigratorTest {
+
+    private static final int TENANT_ID = 1;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final FileTemplateStore store = FileTemplateStore.getInstance();
+    private File directory;
+    private InMemoryRegistry registry;
+    private EmailTemplateMigrator migrator;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("email-templates").toFile();
+        store.configure(directory);
+        registry = new InMemoryRegistry();
+        migrator = new EmailTemplateMigrator(new RegistryConfigReader() {
+            @Override
+            protected Registry getRegistry(int tenantId) {
+                return registry.proxy;
+            }
+        }) {
+            @Override
+            protected Registry getRegistry(int tenantId) {
+                return registry.proxy;
+            }
+        };
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        store.configure(FileTemplateStore.getDefaultDirectory());
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testExportAndImportRoundTrip() throws Exception {
+        List<StoredEmailTemplate> templates = Arrays.asList(
+                new StoredEmailTemplate("accountlock", "accountlock.en_US", "Account Lock", "text/plain",
+                        "Your account is locked".getBytes(UTF_8)),
+                new StoredEmailTemplate("accountlock", "accountlock.fr_FR", "Account Lock", "text/plain",
+                        "Votre compte est verrouill\u00e9".getBytes(UTF_8)),
+                new StoredEmailTemplate("passwordreset", "passwordreset.en_US", "Password Reset", "text/html",
+                        "<p>Reset your password</p>".getBytes(UTF_8)));
+        store.replaceTemplates(TENANT_ID, templates);
+
+        assertEquals(migrator.exportToRegistry(TENANT_ID), 3);
+        assertEquals(registry.getContent("/identity/Email/accountlock/accountlock.fr_FR"),
+                "Votre compte est verrouill\u00e9");
+        assertEquals(registry.commitCount, 1);
+
+        store.replaceTemplates(TENANT_ID, new ArrayList<StoredEmailTemplate>());
+        assertEquals(migrator.importFromRegistry(TENANT_ID), 3);
+        List<StoredEmailTemplate> imported = store.getTemplates(TENANT_ID);
+        assertEquals(imported.size(), templates.size());
+        for (int i = 0; i < templates.size(); i++) {
+            assertSameTemplate(imported.get(i), templates.get(i));
+        }
+    }
+
+    @Test
+    public void testFailedExportIsRolledBack() throws Exception {
+        store.replaceTemplates(TENANT_ID, Arrays.asList(new StoredEmailTemplate("accountlock",
+                "accountlock.en_US", "Account Lock", "text/plain", "Locked".getBytes(UTF_8))));
+        registry.failPuts = true;
+        try {
+            migrator.exportToRegistry(TENANT_ID);
+            fail("Failed export was reported as done");
+        } catch (I18nMgtEmailConfigException e) {
+            // Expected.
+        }
+        assertEquals(registry.commitCount, 0);
+        assertEquals(registry.rollbackCount, 1);
+    }
+
+    @Test
+    public void testImportOfEmptyRegistry() throws Exception {
+        store.replaceTemplates(TENANT_ID, Arrays.asList(new StoredEmailTemplate("accountlock",
+                "accountlock.en_US", "Account Lock", "text/plain", "Locked".getBytes(UTF_8))));
+        assertEquals(migrator.importFromRegistry(TENANT_ID), 0);
+        assertTrue(store.getTemplates(TENANT_ID).isEmpty());
+    }
+
+    private static void assertSameTemplate(StoredEmailTemplate actual, StoredEmailTemplate expected) {
+        assertEquals(actual.getTemplateType(), expected.getTemplateType());
+        assertEquals(actual.getName(), expected.getName());
+        assertEquals(actual.getDisplayName(), expected.getDisplayName());
+        assertEquals(actual.getMediaType(), expected.getMediaType());
+        assertEquals(new String(actual.getContent(), UTF_8), new String(expected.getContent(), UTF_8));
+    }
+
+    /**
+     * Registry of resources and collections kept by path. A collection lists the resources whose parent it is.
+     */
+    private static class InMemoryRegistry implements InvocationHandler {
+
+        private final Map<String, InMemoryResource> resources = new TreeMap<String, InMemoryResource>();
+        private final Registry proxy = (Registry) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{Registry.class}, this);
+        private boolean failPuts;
+        private int commitCount;
+        private int rollbackCount;
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws RegistryException {
+            String name = method.getName();
+            if ("newResource".equals(name)) {
+                return new InMemoryResource(false).proxy;
+            } else if ("newCollection".equals(name)) {
+                return new InMemoryResource(true).proxy;
+            } else if ("put".equals(name)) {
+                if (failPuts) {
+                    throw new RegistryException("Registry is not available");
+                }
+                String path = (String) args[0];
+                InMemoryResource resource = (InMemoryResource) Proxy.getInvocationHandler(args[1]);
+                resource.path = path;
+                resources.put(path, resource);
+                // Parent collections are created as the registry does.
+                String parent = path.substring(0, path.lastIndexOf('/'));
+                while (!parent.isEmpty() && !resources.containsKey(parent)) {
+                    InMemoryResource collection = new InMemoryResource(true);
+                    collection.path = parent;
+                    resources.put(parent, collection);
+                    parent = parent.substring(0, parent.lastIndexOf('/'));
+                }
+                return path;
+            } else if ("get".equals(name)) {
+                InMemoryResource resource = resources.get(args[0]);
+                if (resource == null) {
+                    throw new ResourceNotFoundException((String) args[0]);
+                }
+                return resource.proxy;
+            } else if ("resourceExists".equals(name)) {
+                return resources.containsKey(args[0]);
+            } else if ("beginTransaction".equals(name)) {
+                return null;
+            } else if ("commitTransaction".equals(name)) {
+                commitCount++;
+                return null;
+            } else if ("rollbackTransaction".equals(name)) {
+                rollbackCount++;
+                return null;
+            }
+            throw new UnsupportedOperationException(name);
+        }
+
+        private String getContent(String path) {
+            return new String((byte[]) resources.get(path).content, UTF_8);
+        }
+
+        private class InMemoryResource implements InvocationHandler {
+
+            private final Object proxy;
+            private final Map<String, String> properties = new HashMap<String, String>();
+            private String path;
+            private String mediaType;
+            private Object content;
+
+            private InMemoryResource(boolean collection) {
+                proxy = Proxy.newProxyInstance(getClass().getClassLoader(),
+                        new Class<?>[]{collection ? Collection.class : org.wso2.carbon.registry.core.Resource.class},
+                        this);
+            }
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                String name = method.getName();
+                if ("setContent".equals(name)) {
+                    content = args[0];
+                } else if ("getContent".equals(name)) {
+                    return content;
+                } else if ("setMediaType".equals(name)) {
+                    mediaType = (String) args[0];
+                } else if ("getMediaType".equals(name)) {
+                    return mediaType;
+                } else if ("setProperty".equals(name)) {
+                    // Display names are set as a list, as JDBCRegistryDao expects.
+                    Object value = args[1];
+                    properties.put((String) args[0], value instanceof List ? (String) ((List) value).get(0) :
+                            (String) value);
+                } else if ("getProperty".equals(name)) {
+                    return properties.get(args[0]);
+                } else if ("getPath".equals(name)) {
+                    return path;
+                } else if ("getChildren".equals(name)) {
+                    List<String> children = new ArrayList<String>();
+                    for (String childPath : resources.keySet()) {
+                        if (childPath.startsWith(path + "/") && childPath.indexOf('/', path.length() + 1) < 0) {
+                            children.add(childPath);
+                        }
+                    }
+                    return children.toArray(new String[children.size()]);
+                } else {
+                    throw new UnsupportedOperationException(name);
+                }
+                return null;
+            }
+        }
+    }
+}
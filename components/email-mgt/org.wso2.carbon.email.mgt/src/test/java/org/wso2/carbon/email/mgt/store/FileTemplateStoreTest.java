@@ -0,0 +1,311 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.email.mgt.store;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.wso2.carbon.email.mgt.exceptions.I18nMgtEmailConfigException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+/**
+ * Tests the file layout of the {@link FileTemplateStore}, and that readers see whole files only.
+ */
+public class FileTemplateStoreTest {
+
+    private static final int TENANT_ID = 1;
+    private static final int MAGIC = 0x45544D50;
+    private static final int VERSION = 1;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final FileTemplateStore store = FileTemplateStore.getInstance();
+    private File directory;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("email-templates").toFile();
+        store.configure(directory);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        store.configure(FileTemplateStore.getDefaultDirectory());
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testWrittenLayout() throws Exception {
+        store.putTemplates(TENANT_ID, Arrays.asList(
+                createTemplate("passwordreset", "en_US", "Reset your password"),
+                createTemplate("accountlock", "en_US", "Your account is locked")), false);
+
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(getFile().toPath()));
+        assertEquals(buffer.getInt(), MAGIC);
+        assertEquals(buffer.getInt(), VERSION);
+        assertEquals(buffer.getInt(), 2);
+        int firstOffset = buffer.getInt();
+        int secondOffset = buffer.getInt();
+        assertEquals(firstOffset, 20);
+
+        // Templates are kept in name order.
+        buffer.position(firstOffset);
+        assertEquals(readString(buffer), "accountlock");
+        assertEquals(readString(buffer), "accountlock.en_US");
+        assertEquals(readString(buffer), "accountlock display");
+        assertEquals(readString(buffer), "text/plain");
+        assertEquals(readString(buffer), "Your account is locked");
+        assertEquals(buffer.position(), secondOffset);
+        assertEquals(readString(buffer), "passwordreset");
+        assertEquals(readString(buffer), "passwordreset.en_US");
+        assertEquals(readString(buffer), "passwordreset display");
+        assertEquals(readString(buffer), "text/plain");
+        assertEquals(readString(buffer), "Reset your password");
+        assertFalse(buffer.hasRemaining());
+    }
+
+    @Test
+    public void testReadLayout() throws Exception {
+        Files.write(getFile().toPath(), serialize(Arrays.asList(
+                createTemplate("accountlock", "en_US", "Locked"),
+                createTemplate("accountlock", "fr_FR", "Verrouill\u00e9"))));
+
+        assertTrue(store.exists(TENANT_ID));
+        assertEquals(store.getTemplateTypes(TENANT_ID), Collections.singleton("accountlock"));
+        StoredEmailTemplate template = store.getTemplate(TENANT_ID, "accountlock.fr_FR");
+        assertEquals(template.getTemplateType(), "accountlock");
+        assertEquals(template.getDisplayName(), "accountlock display");
+        assertEquals(template.getMediaType(), "text/plain");
+        assertEquals(new String(template.getContent(), UTF_8), "Verrouill\u00e9");
+        assertNull(store.getTemplate(TENANT_ID, "accountlock.de_DE"));
+    }
+
+    @Test
+    public void testTruncatedFileIsRejected() throws Exception {
+        byte[] bytes = serialize(Collections.singletonList(createTemplate("accountlock", "en_US", "Locked")));
+        for (int length : new int[]{0, 6, 12, 20, bytes.length - 1}) {
+            Files.write(getFile().toPath(), Arrays.copyOf(bytes, length));
+            assertRejected();
+        }
+    }
+
+    @Test
+    public void testCorruptFileIsRejected() throws Exception {
+        byte[] bytes = serialize(Collections.singletonList(createTemplate("accountlock", "en_US", "Locked")));
+
+        byte[] badMagic = bytes.clone();
+        badMagic[0] = 0;
+        Files.write(getFile().toPath(), badMagic);
+        assertRejected();
+
+        byte[] badVersion = bytes.clone();
+        badVersion[7] = 2;
+        Files.write(getFile().toPath(), badVersion);
+        assertRejected();
+
+        // The first length of the template, its type, runs past the end of the file.
+        byte[] badLength = bytes.clone();
+        ByteBuffer.wrap(badLength).putInt(16, Integer.MAX_VALUE);
+        Files.write(getFile().toPath(), badLength);
+        assertRejected();
+
+        byte[] badOffset = bytes.clone();
+        ByteBuffer.wrap(badOffset).putInt(12, bytes.length + 8);
+        Files.write(getFile().toPath(), badOffset);
+        assertRejected();
+    }
+
+    @Test
+    public void testReplacedFileIsReadAgain() throws Exception {
+        store.putTemplates(TENANT_ID, Collections.singletonList(createTemplate("accountlock", "en_US", "Old")),
+                false);
+        assertEquals(new String(store.getTemplate(TENANT_ID, "accountlock.en_US").getContent(), UTF_8), "Old");
+
+        // Replaced by another node or a copy, of the same size, not through the store.
+        File temp = new File(directory, "replacement.tmp");
+        Files.write(temp.toPath(), serialize(Collections.singletonList(
+                createTemplate("accountlock", "en_US", "New"))));
+        Files.move(temp.toPath(), getFile().toPath(), StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+        assertEquals(new String(store.getTemplate(TENANT_ID, "accountlock.en_US").getContent(), UTF_8), "New");
+
+        assertTrue(getFile().delete());
+        assertFalse(store.exists(TENANT_ID));
+        assertNull(store.getTemplate(TENANT_ID, "accountlock.en_US"));
+        assertTrue(store.getTemplates(TENANT_ID).isEmpty());
+    }
+
+    @Test
+    public void testReadersSeeWholeFiles() throws Exception {
+        final List<StoredEmailTemplate> first = createTemplates("first", 20);
+        final List<StoredEmailTemplate> second = createTemplates("second", 30);
+        store.replaceTemplates(TENANT_ID, first);
+
+        final AtomicBoolean writing = new AtomicBoolean(true);
+        final List<String> violations = Collections.synchronizedList(new ArrayList<String>());
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < 200; i++) {
+                        store.replaceTemplates(TENANT_ID, i % 2 == 0 ? second : first);
+                    }
+                } catch (I18nMgtEmailConfigException e) {
+                    violations.add("Write failed : " + e.getMessage());
+                } finally {
+                    writing.set(false);
+                }
+            }
+        });
+        Thread[] readers = new Thread[4];
+        for (int i = 0; i < readers.length; i++) {
+            readers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    while (writing.get()) {
+                        try {
+                            checkWhole(store.getTemplates(TENANT_ID), violations);
+                        } catch (I18nMgtEmailConfigException e) {
+                            violations.add("Read failed : " + e.getMessage());
+                        }
+                    }
+                }
+            });
+        }
+        writer.start();
+        for (Thread reader : readers) {
+            reader.start();
+        }
+        writer.join();
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertTrue(violations.isEmpty(), violations.toString());
+        // No temporary files are left behind.
+        assertEquals(directory.list().length, 1);
+    }
+
+    /**
+     * Every template of a file carries the name of its file and the number of templates in it.
+     */
+    private static void checkWhole(List<StoredEmailTemplate> templates, List<String> violations) {
+        String expected = null;
+        for (StoredEmailTemplate template : templates) {
+            String content = new String(template.getContent(), UTF_8);
+            if (expected == null) {
+                expected = content;
+            }
+            if (!expected.equals(content) || !content.endsWith("/" + templates.size())) {
+                violations.add("Read a mix of files : " + expected + " and " + content);
+                return;
+            }
+        }
+    }
+
+    private void assertRejected() {
+        try {
+            store.getTemplates(TENANT_ID);
+            fail("Damaged template file was read");
+        } catch (I18nMgtEmailConfigException e) {
+            // Expected.
+        }
+    }
+
+    private File getFile() {
+        return new File(directory, TENANT_ID + ".templates");
+    }
+
+    private static List<StoredEmailTemplate> createTemplates(String file, int count) {
+        List<StoredEmailTemplate> templates = new ArrayList<StoredEmailTemplate>();
+        for (int i = 0; i < count; i++) {
+            templates.add(createTemplate("type" + i, "en_US", file + "/" + count));
+        }
+        return templates;
+    }
+
+    private static StoredEmailTemplate createTemplate(String templateType, String locale, String content) {
+        return new StoredEmailTemplate(templateType, templateType + "." + locale, templateType + " display",
+                "text/plain", content.getBytes(UTF_8));
+    }
+
+    /**
+     * Writes templates in the layout documented on {@link FileTemplateStore}, in the given order.
+     */
+    private static byte[] serialize(List<StoredEmailTemplate> templates) throws IOException {
+        List<byte[]> entries = new ArrayList<byte[]>();
+        for (StoredEmailTemplate template : templates) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            writeBytes(out, template.getTemplateType().getBytes(UTF_8));
+            writeBytes(out, template.getName().getBytes(UTF_8));
+            writeBytes(out, template.getDisplayName().getBytes(UTF_8));
+            writeBytes(out, template.getMediaType().getBytes(UTF_8));
+            writeBytes(out, template.getContent());
+            entries.add(bytes.toByteArray());
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(entries.size());
+        int offset = 12 + 4 * entries.size();
+        for (byte[] entry : entries) {
+            out.writeInt(offset);
+            offset += entry.length;
+        }
+        for (byte[] entry : entries) {
+            out.write(entry);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.event.handler.email.benchmark;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.wso2.carbon.identity.event.handler.email.template.TemplatePlaceholders;
+import org.wso2.carbon.identity.event.handler.email.util.EmailInfoDTO;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+/**
+ * Templates the benchmarks run over: the templates shipped in email-admin-config.xml and synthetic ones that
+ * stress template size and placeholder count.
+ */
+public final class BenchmarkTemplates {
+
+    public static final String SMALL_TEXT = "smallText";
+    public static final String LARGE_HTML = "largeHtml";
+    public static final String MANY_PLACEHOLDERS = "manyPlaceholders";
+    public static final String SHIPPED = "shipped";
+
+    private static final String EMAIL_ADMIN_CONFIG = "email-admin-config.xml";
+    private static final String CLAIM_URI_PREFIX = "http://wso2.org/claims/";
+
+    private BenchmarkTemplates() {
+    }
+
+    /**
+     * @param kind - One of the template kinds defined in this class.
+     * @return The templates of the given kind. Only the shipped kind has more than one template.
+     */
+    public static List<EmailInfoDTO> getTemplates(String kind) throws Exception {
+        List<EmailInfoDTO> templates = new ArrayList<>();
+        if (SMALL_TEXT.equals(kind)) {
+            templates.add(createTemplate("Account locked",
+                    "Hi {givenname},\n\nYour account {user-name} has been locked.", "Best Regards", "text/plain"));
+        } else if (LARGE_HTML.equals(kind)) {
+            templates.add(createTemplate("WSO2 Carbon - Password Reset for {user-name}", createLargeHtmlBody(),
+                    "<p>Best Regards,<br/>WSO2 Carbon Team</p>", "text/html"));
+        } else if (MANY_PLACEHOLDERS.equals(kind)) {
+            StringBuilder body = new StringBuilder();
+            for (int i = 0; i < 100; i++) {
+                body.append("Field ").append(i).append(" : {field").append(i).append("}\n");
+            }
+            templates.add(createTemplate("Profile of {user-name}", body.toString(), "Best Regards", "text/plain"));
+        } else if (SHIPPED.equals(kind)) {
+            for (String[] shipped : readShippedTemplates()) {
+                templates.add(createTemplate(shipped[4], shipped[5], shipped[6], shipped[3]));
+            }
+        } else {
+            throw new IllegalArgumentException("Unknown template kind : " + kind);
+        }
+        return templates;
+    }
+
+    /**
+     * @param type - Type attribute of the template in email-admin-config.xml.
+     * @return The shipped template of the given type.
+     */
+    public static EmailInfoDTO getShippedTemplate(String type) throws Exception {
+        for (String[] shipped : readShippedTemplates()) {
+            if (shipped[0].equals(type)) {
+                return createTemplate(shipped[4], shipped[5], shipped[6], shipped[3]);
+            }
+        }
+        throw new IllegalArgumentException("No template of type : " + type + " in " + EMAIL_ADMIN_CONFIG);
+    }
+
+    /**
+     * Builds email management configuration properties holding the shipped templates in the given number of
+     * locales, keyed the way the registry reader keys them.
+     */
+    public static Properties getTemplateProperties(int localeCount) throws Exception {
+        List<String[]> shippedTemplates = readShippedTemplates();
+        List<Locale> locales = new ArrayList<>();
+        for (Locale locale : Locale.getAvailableLocales()) {
+            if (!locale.getLanguage().isEmpty() && !locale.getCountry().isEmpty() && locale.getVariant().isEmpty() &&
+                    locale.getScript().isEmpty()) {
+                locales.add(locale);
+            }
+            if (locales.size() == localeCount) {
+                break;
+            }
+        }
+
+        Properties properties = new Properties();
+        for (Locale locale : locales) {
+            for (String[] shipped : shippedTemplates) {
+                String key = shipped[0] + "." + locale.toString() + "|" + shipped[1] + "|" + shipped[3];
+                properties.setProperty(key, shipped[4] + "|" + shipped[5] + "|" + shipped[6]);
+            }
+        }
+        return properties;
+    }
+
+    /**
+     * Values for the placeholders of a template. Every other placeholder is given as an event property and the
+     * rest as user claims.
+     *
+     * @param placeHolders - Placeholders of the template.
+     * @param eventProperties - Map the event property values are put in.
+     * @param userClaims      - Map the user claim values are put in.
+     */
+    public static void fillPlaceholderValues(TemplatePlaceholders placeHolders, Map<String, String> eventProperties,
+                                             Map<String, String> userClaims) {
+        for (int i = 0; i < placeHolders.size(); i++) {
+            String value = "value of " + placeHolders.getName(i);
+            if (i % 2 == 0) {
+                eventProperties.put(placeHolders.getName(i), value);
+            } else {
+                userClaims.put(placeHolders.getClaimUri(i), value);
+            }
+        }
+        userClaims.put(CLAIM_URI_PREFIX + "emailaddress", "user@example.com");
+        userClaims.put(CLAIM_URI_PREFIX + "locality", "en_US");
+    }
+
+    private static EmailInfoDTO createTemplate(String subject, String body, String footer, String contentType) {
+        EmailInfoDTO emailInfo = new EmailInfoDTO();
+        emailInfo.setSubject(subject);
+        emailInfo.setBody(body);
+        emailInfo.setFooter(footer);
+        emailInfo.setEmailContentType(contentType);
+        emailInfo.setLocale("en_US");
+        return emailInfo;
+    }
+
+    private static String createLargeHtmlBody() {
+        StringBuilder body = new StringBuilder();
+        body.append("<html><head><style>p { font-family: sans-serif; }</style></head><body>");
+        body.append("<h1>Hi {givenname} {lastname},</h1>");
+        for (int i = 0; i < 200; i++) {
+            body.append("<p>We received a request to change the password on the {user-name} account in the ")
+                    .append("{tenant-domain} organization. Paragraph ").append(i).append(".</p>");
+        }
+        body.append("<a href=\"https://localhost:9443/accountrecoveryendpoint/confirmrecovery.do?confirmation=")
+                .append("{confirmation-code}&amp;username={url:user-name}&amp;tenantdomain={tenant-domain}\">")
+                .append("Reset password</a></body></html>");
+        return body.toString();
+    }
+
+    /**
+     * @return type, display name, locale, content type, subject, body and footer of each shipped template.
+     */
+    private static List<String[]> readShippedTemplates() throws Exception {
+        List<String[]> templates = new ArrayList<>();
+        try (InputStream stream = BenchmarkTemplates.class.getClassLoader().getResourceAsStream(EMAIL_ADMIN_CONFIG)) {
+            if (stream == null) {
+                throw new IllegalStateException(EMAIL_ADMIN_CONFIG + " is not in the benchmark class path");
+            }
+            Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(stream);
+            NodeList configurations = document.getDocumentElement().getElementsByTagName("configuration");
+            for (int i = 0; i < configurations.getLength(); i++) {
+                Element configuration = (Element) configurations.item(i);
+                templates.add(new String[]{
+                        configuration.getAttribute("type"),
+                        configuration.getAttribute("display"),
+                        configuration.getAttribute("locale"),
+                        configuration.getAttribute("emailContentType"),
+                        getChildText(configuration, "subject"),
+                        getChildText(configuration, "body"),
+                        getChildText(configuration, "footer")});
+            }
+        }
+        return templates;
+    }
+
+    private static String getChildText(Element element, String name) {
+        NodeList children = element.getChildNodes();
+        for (int i = 0; i < children.getLength(); i++) {
+            Node child = children.item(i);
+            if (child.getNodeType() == Node.ELEMENT_NODE && name.equals(child.getNodeName())) {
+                return child.getTextContent();
+            }
+        }
+        return "";
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.event.handler.email.benchmark;
+
+import org.wso2.carbon.identity.event.handler.email.breaker.CircuitBreaker;
+import org.wso2.carbon.identity.event.handler.email.breaker.CircuitBreakerEmailSender;
+import org.wso2.carbon.identity.event.handler.email.delivery.DirectEmailDispatcher;
+import org.wso2.carbon.identity.event.handler.email.delivery.EmailDispatcher;
+import org.wso2.carbon.identity.event.handler.email.delivery.EmailMessage;
+import org.wso2.carbon.identity.event.handler.email.delivery.EmailSender;
+import org.wso2.carbon.identity.event.handler.email.exception.EmailEventServiceException;
+import org.wso2.carbon.identity.event.handler.email.internal.EmailEventServiceComponent;
+import org.wso2.carbon.identity.event.handler.email.retry.DeadLetterStore;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sends emails while the mail server times out on every connection, and reports how long each caller waits
+ * without a circuit breaker, with a circuit breaker failing emails and with a circuit breaker spooling them. Then
+ * brings the mail server back and reports how long the spool takes to drain.
+ * <p>
+ * Arguments are key=value pairs:
+ * emails (emails sent during the outage, default 200), timeoutMillis (time the mail server takes to fail,
+ * default 50), openMillis (open duration of the circuit breaker, default 500).
+ */
+public class CircuitBreakerBenchmark {
+
+    private CircuitBreakerBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int index = arg.indexOf('=');
+            if (index > 0) {
+                options.put(arg.substring(0, index), arg.substring(index + 1));
+            }
+        }
+        int emails = getInt(options, "emails", 200);
+        long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(getInt(options, "timeoutMillis", 50));
+        long openMillis = getInt(options, "openMillis", 500);
+
+        System.out.println(String.format(Locale.ENGLISH, "%d emails during an outage, mail server fails after %d " +
+                "ms, circuit open for %d ms", emails, TimeUnit.NANOSECONDS.toMillis(timeoutNanos), openMillis));
+        System.out.println(String.format(Locale.ENGLISH, "%-10s %12s %12s %12s %10s %10s", "sender", "mean us",
+                "p50 us", "p99 us", "failed", "spooled"));
+
+        OutageSender server = new OutageSender(timeoutNanos);
+        run("none", server, emails);
+
+        CircuitBreakerEmailSender failing = new CircuitBreakerEmailSender(server, newCircuitBreaker(openMillis),
+                null, openMillis);
+        run("fail", failing, emails);
+        failing.shutdown();
+
+        File directory = Files.createTempDirectory("email-spool").toFile();
+        DeadLetterStore spool = new DeadLetterStore(directory, emails);
+        server = new OutageSender(timeoutNanos);
+        CircuitBreakerEmailSender spooling = new CircuitBreakerEmailSender(server, newCircuitBreaker(openMillis),
+                spool, openMillis);
+        EmailEventServiceComponent.setEmailDispatcher(new DirectEmailDispatcher(spooling));
+        run("spool", spooling, emails);
+
+        server.recover();
+        long start = System.nanoTime();
+        while (spool.size() > 0) {
+            Thread.sleep(10);
+        }
+        CircuitBreaker circuitBreaker = spooling.getCircuitBreaker();
+        System.out.println(String.format(Locale.ENGLISH, "spool drained in %d ms after the mail server recovered, " +
+                "%d emails sent, circuit %s, opened %d times, half opened %d times, closed %d times",
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), server.sent.get(),
+                circuitBreaker.getState(), circuitBreaker.getOpenedCount(), circuitBreaker.getHalfOpenedCount(),
+                circuitBreaker.getClosedCount()));
+        EmailEventServiceComponent.setEmailDispatcher(null);
+        spooling.shutdown();
+        spool.purge();
+        Files.deleteIfExists(directory.toPath());
+    }
+
+    private static CircuitBreaker newCircuitBreaker(long openMillis) {
+        return new CircuitBreaker(20, 10, 50, 80, 10000, openMillis, 3);
+    }
+
+    private static void run(String name, EmailSender sender, int emails) {
+        long[] latencies = new long[emails];
+        int failed = 0;
+        EmailDispatcher dispatcher = new DirectEmailDispatcher(sender);
+        for (int i = 0; i < emails; i++) {
+            EmailMessage message = new EmailMessage(name + "-" + i, 1, "accountlock", "user" + i + "@example.com",
+                    "Account locked", "Your account has been locked", "text/plain", System.currentTimeMillis());
+            long start = System.nanoTime();
+            try {
+                dispatcher.dispatch(message);
+            } catch (EmailEventServiceException e) {
+                failed++;
+            }
+            latencies[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(latencies);
+        long total = 0;
+        for (long latency : latencies) {
+            total += latency;
+        }
+        int spooled = sender instanceof CircuitBreakerEmailSender ?
+                (int) ((CircuitBreakerEmailSender) sender).getSpooledCount() : 0;
+        System.out.println(String.format(Locale.ENGLISH, "%-10s %12d %12d %12d %10d %10d", name,
+                TimeUnit.NANOSECONDS.toMicros(total / emails),
+                TimeUnit.NANOSECONDS.toMicros(latencies[emails / 2]),
+                TimeUnit.NANOSECONDS.toMicros(latencies[Math.min(emails - 1, (int) (emails * 0.99))]),
+                failed, spooled));
+    }
+
+    private static int getInt(Map<String, String> options, String key, int defaultValue) {
+        String value = options.get(key);
+        return value != null ? Integer.parseInt(value) : defaultValue;
+    }
+
+    /**
+     * Stands in for a mail server which times out on every email until it recovers.
+     */
+    private static class OutageSender implements EmailSender {
+
+        private final long timeoutNanos;
+        private final AtomicInteger sent = new AtomicInteger();
+        private volatile boolean down = true;
+
+        private OutageSender(long timeoutNanos) {
+            this.timeoutNanos = timeoutNanos;
+        }
+
+        private void recover() {
+            down = false;
+        }
+
+        @Override
+        public void send(EmailMessage message) throws EmailEventServiceException {
+            if (down) {
+                LockSupport.parkNanos(timeoutNanos);
+                throw new EmailEventServiceException("Connection to the mail server timed out");
+            }
+            sent.incrementAndGet();
+        }
+    }
+}
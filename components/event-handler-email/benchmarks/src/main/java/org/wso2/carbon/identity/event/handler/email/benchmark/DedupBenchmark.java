@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.event.handler.email.benchmark;
+
+import org.wso2.carbon.identity.event.handler.email.dedup.EmailDeduplicator;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Feeds distinct email events through the deduplicator from several threads, then replays them, and reports the
+ * throughput, the distinct events wrongly dropped, the replays let through and the heap the window holds.
+ * <p>
+ * Arguments are key=value pairs:
+ * keys (distinct events, default 2000000), threads (default 8), buckets (default 1), maxKeys (tracked events per
+ * window, default keys), tenants (default 100).
+ */
+public class DedupBenchmark {
+
+    private static final String TEMPLATE_TYPE = "accountlock";
+
+    private DedupBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int index = arg.indexOf('=');
+            if (index > 0) {
+                options.put(arg.substring(0, index), arg.substring(index + 1));
+            }
+        }
+        int keys = getInt(options, "keys", 2000000);
+        int threads = getInt(options, "threads", 8);
+        int buckets = getInt(options, "buckets", 1);
+        int maxKeys = getInt(options, "maxKeys", keys);
+        int tenants = getInt(options, "tenants", 100);
+
+        EmailDeduplicator deduplicator = EmailDeduplicator.getInstance();
+        long heapBefore = usedHeap();
+        deduplicator.configure(true, TimeUnit.HOURS.toSeconds(1), buckets, maxKeys);
+
+        System.out.println(String.format(Locale.ENGLISH, "%d events, %d threads, %d tenants, %d tracked per window",
+                keys, threads, tenants, maxKeys));
+        System.out.println(String.format(Locale.ENGLISH, "%-10s %12s %12s %12s", "phase", "ops/s", "dropped",
+                "let through"));
+        run("first", deduplicator, keys, threads, tenants);
+        run("replay", deduplicator, keys, threads, tenants);
+        System.out.println(String.format(Locale.ENGLISH, "untracked %d, heap held %d KB",
+                deduplicator.getUntrackedCount(), (usedHeap() - heapBefore) / 1024));
+    }
+
+    private static void run(String phase, final EmailDeduplicator deduplicator, final int keys, final int threads,
+                            final int tenants) throws InterruptedException {
+        final AtomicLong dropped = new AtomicLong();
+        final AtomicLong letThrough = new AtomicLong();
+        final CountDownLatch done = new CountDownLatch(threads);
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            final int offset = t;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Map<String, String> properties = new HashMap<>();
+                    for (int i = offset; i < keys; i += threads) {
+                        String userName = "user" + i;
+                        properties.put("user-name", userName);
+                        properties.put("tenant-domain", "tenant" + (i % tenants) + ".com");
+                        long fingerprint = EmailDeduplicator.fingerprint(i % tenants, userName, TEMPLATE_TYPE, null,
+                                properties);
+                        if (deduplicator.tryAcquire(fingerprint)) {
+                            letThrough.incrementAndGet();
+                        } else {
+                            dropped.incrementAndGet();
+                        }
+                    }
+                    done.countDown();
+                }
+            });
+            thread.start();
+        }
+        done.await();
+        long elapsedNanos = System.nanoTime() - start;
+        System.out.println(String.format(Locale.ENGLISH, "%-10s %12.0f %12d %12d", phase,
+                keys * 1e9 / elapsedNanos, dropped.get(), letThrough.get()));
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static int getInt(Map<String, String> options, String key, int defaultValue) {
+        String value = options.get(key);
+        return value != null ? Integer.parseInt(value) : defaultValue;
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.event.handler.email.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.wso2.carbon.identity.event.handler.email.delivery.EmailMessage;
+import org.wso2.carbon.identity.event.handler.email.template.CompiledEmailTemplate;
+import org.wso2.carbon.identity.event.handler.email.util.EmailEventUtil;
+import org.wso2.carbon.identity.event.handler.email.util.EmailInfoDTO;
+import org.wso2.carbon.identity.event.handler.email.util.NotificationBuilder;
+import org.wso2.carbon.identity.event.handler.email.util.NotificationData;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renders notifications from templates, both from a template compiled once and from the raw template, which is
+ * compiled on every call. Also renders compiled templates straight into UTF-8 email messages, as the handler does.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NotificationBenchmark {
+
+    private static final String EMAIL_NOTIFICATION_TYPE = "EMAIL";
+
+    @Param({BenchmarkTemplates.SMALL_TEXT, BenchmarkTemplates.LARGE_HTML, BenchmarkTemplates.MANY_PLACEHOLDERS,
+            BenchmarkTemplates.SHIPPED})
+    public String templateKind;
+
+    private EmailInfoDTO[] templates;
+    private CompiledEmailTemplate[] compiledTemplates;
+    private NotificationData[] notificationData;
+
+    @Setup
+    public void setUp() throws Exception {
+        List<EmailInfoDTO> templateList = BenchmarkTemplates.getTemplates(templateKind);
+        templates = templateList.toArray(new EmailInfoDTO[templateList.size()]);
+        compiledTemplates = new CompiledEmailTemplate[templates.length];
+        notificationData = new NotificationData[templates.length];
+        for (int i = 0; i < templates.length; i++) {
+            compiledTemplates[i] = new CompiledEmailTemplate(templates[i]);
+            Map<String, String> eventProperties = new HashMap<String, String>();
+            Map<String, String> userClaims = new HashMap<String, String>();
+            BenchmarkTemplates.fillPlaceholderValues(compiledTemplates[i].getPlaceHolders(), eventProperties,
+                    userClaims);
+            notificationData[i] = new NotificationData(EmailEventUtil.getTagData(
+                    compiledTemplates[i].getPlaceHolders(), userClaims, eventProperties));
+            notificationData[i].setSendTo("user@example.com");
+        }
+    }
+
+    @Benchmark
+    public void createFromCompiledTemplate(Blackhole blackhole) throws Exception {
+        for (int i = 0; i < compiledTemplates.length; i++) {
+            blackhole.consume(NotificationBuilder.createNotification(EMAIL_NOTIFICATION_TYPE, compiledTemplates[i],
+                    notificationData[i]));
+        }
+    }
+
+    @Benchmark
+    public void renderEmailMessage(Blackhole blackhole) throws Exception {
+        for (int i = 0; i < compiledTemplates.length; i++) {
+            blackhole.consume(EmailMessage.render(compiledTemplates[i], notificationData[i].getTagsData(),
+                    notificationData[i].getSendTo(), -1234, templateKind));
+        }
+    }
+
+    @Benchmark
+    public void createFromRawTemplate(Blackhole blackhole) throws Exception {
+        for (int i = 0; i < templates.length; i++) {
+            blackhole.consume(NotificationBuilder.createNotification(EMAIL_NOTIFICATION_TYPE, templates[i],
+                    notificationData[i]));
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.event.handler.email.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.wso2.carbon.identity.event.handler.email.template.CompiledEmailTemplate;
+import org.wso2.carbon.identity.event.handler.email.template.TemplatePlaceholders;
+import org.wso2.carbon.identity.event.handler.email.util.EmailEventUtil;
+import org.wso2.carbon.identity.event.handler.email.util.EmailInfoDTO;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Extracts the placeholders of templates and resolves their values from event properties and user claims.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PlaceholderBenchmark {
+
+    @Param({BenchmarkTemplates.SMALL_TEXT, BenchmarkTemplates.LARGE_HTML, BenchmarkTemplates.MANY_PLACEHOLDERS,
+            BenchmarkTemplates.SHIPPED})
+    public String templateKind;
+
+    private String[] bodies;
+    private TemplatePlaceholders[] placeHolders;
+    private Map<String, String>[] eventProperties;
+    private Map<String, String>[] userClaims;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setUp() throws Exception {
+        List<EmailInfoDTO> templates = BenchmarkTemplates.getTemplates(templateKind);
+        int count = templates.size();
+        bodies = new String[count];
+        placeHolders = new TemplatePlaceholders[count];
+        eventProperties = new Map[count];
+        userClaims = new Map[count];
+        for (int i = 0; i < count; i++) {
+            EmailInfoDTO template = templates.get(i);
+            bodies[i] = template.getBody();
+            placeHolders[i] = new CompiledEmailTemplate(template).getPlaceHolders();
+            eventProperties[i] = new HashMap<String, String>();
+            userClaims[i] = new HashMap<String, String>();
+            BenchmarkTemplates.fillPlaceholderValues(placeHolders[i], eventProperties[i], userClaims[i]);
+        }
+    }
+
+    @Benchmark
+    public void extractPlaceHolders(Blackhole blackhole) {
+        for (String body : bodies) {
+            blackhole.consume(EmailEventUtil.extractPlaceHolders(body));
+        }
+    }
+
+    @Benchmark
+    public void getTagDataFromCompiledPlaceholders(Blackhole blackhole) {
+        for (int i = 0; i < placeHolders.length; i++) {
+            blackhole.consume(EmailEventUtil.getTagData(placeHolders[i], userClaims[i], eventProperties[i]));
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.event.handler.email.benchmark;
+
+import org.wso2.carbon.identity.event.handler.email.delivery.AsyncEmailDispatcher;
+import org.wso2.carbon.identity.event.handler.email.delivery.BackpressurePolicy;
+import org.wso2.carbon.identity.event.handler.email.delivery.DirectEmailDispatcher;
+import org.wso2.carbon.identity.event.handler.email.delivery.EmailDispatcher;
+import org.wso2.carbon.identity.event.handler.email.delivery.EmailMessage;
+import org.wso2.carbon.identity.event.handler.email.delivery.EmailSender;
+import org.wso2.carbon.identity.event.handler.email.shaping.DomainRateLimiter;
+import org.wso2.carbon.identity.event.handler.email.shaping.ShapingEmailDispatcher;
+import org.wso2.carbon.identity.event.handler.email.shaping.TenantShares;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Queues a mass lockout of one tenant ahead of a few emails of several quiet tenants, and reports how long the
+ * quiet tenants wait for their emails with a plain queue and with traffic shaping. Then sends a burst of emails to
+ * one recipient domain through a domain rate limit and reports the rate they were sent at.
+ * <p>
+ * Arguments are key=value pairs:
+ * noisy (emails of the noisy tenant, default 5000), quiet (quiet tenants, default 10), quietEmails (emails per
+ * quiet tenant, default 20), workers (default 4), sendMicros (time per send, default 500), domainRate (emails per
+ * minute to the limited domain, default 6000), domainEmails (default 300).
+ */
+public class ShapingBenchmark {
+
+    private static final int NOISY_TENANT = 1;
+
+    private ShapingBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int index = arg.indexOf('=');
+            if (index > 0) {
+                options.put(arg.substring(0, index), arg.substring(index + 1));
+            }
+        }
+        int noisy = getInt(options, "noisy", 5000);
+        int quiet = getInt(options, "quiet", 10);
+        int quietEmails = getInt(options, "quietEmails", 20);
+        int workers = getInt(options, "workers", 4);
+        long sendNanos = TimeUnit.MICROSECONDS.toNanos(getInt(options, "sendMicros", 500));
+        int domainRate = getInt(options, "domainRate", 6000);
+        int domainEmails = getInt(options, "domainEmails", 300);
+
+        System.out.println(String.format(Locale.ENGLISH, "noisy tenant %d emails, %d quiet tenants x %d emails, " +
+                "%d workers, %d us per send", noisy, quiet, quietEmails, workers,
+                TimeUnit.NANOSECONDS.toMicros(sendNanos)));
+        System.out.println(String.format(Locale.ENGLISH, "%-10s %16s %16s", "dispatcher", "quiet done ms",
+                "noisy done ms"));
+        int total = noisy + quiet * quietEmails;
+
+        RecordingSender sender = new RecordingSender(sendNanos, total);
+        EmailDispatcher fifo = new AsyncEmailDispatcher(sender, total, workers, BackpressurePolicy.BLOCK, 1000,
+                60000);
+        run("fifo", fifo, sender, noisy, quiet, quietEmails);
+
+        sender = new RecordingSender(sendNanos, total);
+        ShapingEmailDispatcher shaping = new ShapingEmailDispatcher(new DirectEmailDispatcher(sender),
+                new TenantShares(new TenantShares.TenantShare(1, total), null),
+                new DomainRateLimiter(0, 1, null, 100), workers, 60000, 60000);
+        run("shaping", shaping, sender, noisy, quiet, quietEmails);
+
+        sender = new RecordingSender(0, domainEmails);
+        Map<String, DomainRateLimiter.DomainLimit> limits =
+                Collections.singletonMap("example.com", new DomainRateLimiter.DomainLimit(domainRate, 10));
+        shaping = new ShapingEmailDispatcher(new DirectEmailDispatcher(sender),
+                new TenantShares(new TenantShares.TenantShare(1, domainEmails), null),
+                new DomainRateLimiter(0, 1, limits, 100), workers, 60000, 60000);
+        long start = System.nanoTime();
+        for (int i = 0; i < domainEmails; i++) {
+            shaping.dispatch(message(NOISY_TENANT, i, "example.com"));
+        }
+        sender.done.await();
+        double minutes = (System.nanoTime() - start) / (double) TimeUnit.MINUTES.toNanos(1);
+        shaping.shutdown();
+        System.out.println(String.format(Locale.ENGLISH, "%d emails to a domain limited to %d/min with burst 10 " +
+                "sent at %.0f/min, %d delayed", domainEmails, domainRate, domainEmails / minutes,
+                shaping.getDelayedCount()));
+    }
+
+    private static void run(String name, EmailDispatcher dispatcher, RecordingSender sender, int noisy, int quiet,
+                            int quietEmails) throws Exception {
+        long start = System.nanoTime();
+        for (int i = 0; i < noisy; i++) {
+            dispatcher.dispatch(message(NOISY_TENANT, i, "noisy.com"));
+        }
+        for (int i = 0; i < quietEmails; i++) {
+            for (int tenant = 0; tenant < quiet; tenant++) {
+                dispatcher.dispatch(message(NOISY_TENANT + 1 + tenant, i, "quiet.com"));
+            }
+        }
+        sender.done.await();
+        dispatcher.shutdown();
+        long quietDone = 0;
+        for (Map.Entry<Integer, AtomicLong> entry : sender.lastSent.entrySet()) {
+            if (entry.getKey() != NOISY_TENANT) {
+                quietDone = Math.max(quietDone, entry.getValue().get() - start);
+            }
+        }
+        long noisyDone = sender.lastSent.get(NOISY_TENANT).get() - start;
+        System.out.println(String.format(Locale.ENGLISH, "%-10s %16d %16d", name,
+                TimeUnit.NANOSECONDS.toMillis(quietDone), TimeUnit.NANOSECONDS.toMillis(noisyDone)));
+    }
+
+    private static EmailMessage message(int tenantId, int index, String domain) {
+        return new EmailMessage(tenantId + "-" + index, tenantId, "accountlock", "user" + index + "@" + domain,
+                "Account locked", "Your account has been locked", "text/plain", System.currentTimeMillis());
+    }
+
+    private static int getInt(Map<String, String> options, String key, int defaultValue) {
+        String value = options.get(key);
+        return value != null ? Integer.parseInt(value) : defaultValue;
+    }
+
+    /**
+     * Stands in for the mail server, taking a fixed time per email and remembering when each tenant was last
+     * served.
+     */
+    private static class RecordingSender implements EmailSender {
+
+        private final long sendNanos;
+        private final CountDownLatch done;
+        private final ConcurrentMap<Integer, AtomicLong> lastSent = new ConcurrentHashMap<>();
+
+        private RecordingSender(long sendNanos, int emails) {
+            this.sendNanos = sendNanos;
+            this.done = new CountDownLatch(emails);
+        }
+
+        @Override
+        public void send(EmailMessage message) {
+            if (sendNanos > 0) {
+                LockSupport.parkNanos(sendNanos);
+            }
+            AtomicLong last = lastSent.get(message.getTenantId());
+            if (last == null) {
+                lastSent.putIfAbsent(message.getTenantId(), new AtomicLong());
+                last = lastSent.get(message.getTenantId());
+            }
+            last.set(System.nanoTime());
+            done.countDown();
+        }
+    }
+}
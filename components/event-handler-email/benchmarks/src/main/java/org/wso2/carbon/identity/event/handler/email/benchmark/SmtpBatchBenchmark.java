@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.identity.event.handler.email.benchmark;
+
+import org.wso2.carbon.identity.event.handler.email.benchmark.harness.HarnessMailTransport;
+import org.wso2.carbon.identity.event.handler.email.constants.EmailEventConstants;
+import org.wso2.carbon.identity.event.handler.email.delivery.AsyncEmailDispatcher;
+import org.wso2.carbon.identity.event.handler.email.delivery.BackpressurePolicy;
+import org.wso2.carbon.identity.event.handler.email.delivery.EmailMessage;
+import org.wso2.carbon.identity.event.handler.email.delivery.LocalSmtpServer;
+import org.wso2.carbon.identity.event.handler.email.delivery.SmtpBatchEmailSender;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends emails to a local SMTP sink from the workers of an async dispatcher, once with an SMTP session per email
+ * and once with batches sent over one session, and reports the throughput and the number of SMTP sessions.
+ * <p>
+ * Arguments are key=value pairs:
+ * emails (emails sent per run, default 5000), workers (async workers, default 8), batchSize (default 20),
+ * linger (linger time in milliseconds, default 5), smtpDelay (time the sink takes per email in milliseconds,
+ * default 0).
+ */
+public class SmtpBatchBenchmark {
+
+    private static final long DELIVERY_TIMEOUT = TimeUnit.MINUTES.toMillis(2);
+
+    private SmtpBatchBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int index = arg.indexOf('=');
+            if (index > 0) {
+                options.put(arg.substring(0, index), arg.substring(index + 1));
+            }
+        }
+        int emails = getInt(options, "emails", 5000);
+        int workers = getInt(options, "workers", 8);
+        int batchSize = getInt(options, "batchSize", 20);
+        long lingerMillis = getInt(options, "linger", 5);
+
+        // Per email INFO logs would dominate the measurement, so only warnings and errors are logged.
+        if (System.getProperty("org.apache.commons.logging.Log") == null) {
+            System.setProperty("org.apache.commons.logging.Log", "org.apache.commons.logging.impl.SimpleLog");
+            System.setProperty("org.apache.commons.logging.simplelog.defaultlog", "warn");
+        }
+
+        try (LocalSmtpServer sink = new LocalSmtpServer(getInt(options, "smtpDelay", 0), false)) {
+            HarnessMailTransport.bind(sink);
+
+            System.out.println(String.format(Locale.ENGLISH, "%d emails from %d workers, batches of up to %d " +
+                    "emails lingering %d ms", emails, workers, batchSize, lingerMillis));
+            System.out.println(String.format(Locale.ENGLISH, "%-10s %12s %12s %10s %16s", "sender", "emails/s",
+                    "elapsed ms", "sessions", "emails/session"));
+
+            // Warm up the JIT and the sink before measuring.
+            run("warmup", sink, new SmtpBatchEmailSender(batchSize, lingerMillis), emails / 5, workers, false);
+            run("single", sink, new SmtpBatchEmailSender(1, 0), emails, workers, true);
+            run("batch", sink, new SmtpBatchEmailSender(batchSize, lingerMillis), emails, workers, true);
+        }
+    }
+
+    private static void run(String name, LocalSmtpServer sink, SmtpBatchEmailSender sender, int emails,
+                            int workers, boolean report) throws Exception {
+        AsyncEmailDispatcher dispatcher = new AsyncEmailDispatcher(sender, emails, workers,
+                BackpressurePolicy.BLOCK, EmailEventConstants.ConfigDefault.ASYNC_BLOCK_TIMEOUT,
+                EmailEventConstants.ConfigDefault.ASYNC_SHUTDOWN_TIMEOUT);
+        long delivered = sink.getMessageCount() + emails;
+        long sessions = sink.getSessionCount();
+        long start = System.nanoTime();
+        for (int i = 0; i < emails; i++) {
+            dispatcher.dispatch(new EmailMessage(name + "-" + i, 1, "accountlock", "user" + i + "@localhost",
+                    "Account locked", "Your account has been locked", "text/plain", System.currentTimeMillis()));
+        }
+        if (!sink.awaitMessages(delivered, DELIVERY_TIMEOUT)) {
+            throw new IllegalStateException("Emails were not delivered within " + DELIVERY_TIMEOUT + " ms. " +
+                    sender.getFailedCount() + " failed");
+        }
+        long elapsedNanos = System.nanoTime() - start;
+        dispatcher.shutdown();
+        if (!report) {
+            return;
+        }
+        sessions = sink.getSessionCount() - sessions;
+        System.out.println(String.format(Locale.ENGLISH, "%-10s %12.0f %12d %10d %16.1f", name,
+                emails * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos,
+                TimeUnit.NANOSECONDS.toMillis(elapsedNanos), sessions, emails / (double) Math.max(1, sessions)));
+    }
+
+    private static int getInt(Map<String, String> options, String key, int defaultValue) {
+        String value = options.get(key);
+        return value != null ? Integer.parseInt(value) : defaultValue;
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.event.handler.email.benchmark;
+
+import org.wso2.carbon.identity.event.handler.email.cache.EmailTemplateCacheEntry;
+import org.wso2.carbon.identity.event.handler.email.util.EmailInfoDTO;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Measures the heap a cached template takes, by filling the heap with copies of each kind of template and
+ * comparing the used heap before and after. The raw template, with its sections as Strings, is measured next to
+ * the cache entry, which holds the compiled template as UTF-8 byte segments.
+ * <p>
+ * Run with a fixed heap and the serial collector for stable numbers, e.g. -Xms1g -Xmx1g -XX:+UseSerialGC.
+ * An optional argument sets the number of copies per template.
+ */
+public class TemplateFootprint {
+
+    private TemplateFootprint() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int copies = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        System.out.println(String.format(Locale.ENGLISH, "%-18s %10s %16s %16s %8s", "template", "templates",
+                "raw bytes/tmpl", "cached bytes/tmpl", "ratio"));
+        for (String kind : new String[]{BenchmarkTemplates.SMALL_TEXT, BenchmarkTemplates.LARGE_HTML,
+                BenchmarkTemplates.MANY_PLACEHOLDERS, BenchmarkTemplates.SHIPPED}) {
+            List<EmailInfoDTO> templates = BenchmarkTemplates.getTemplates(kind);
+            long raw = measureRaw(templates, copies);
+            long cached = measureCached(templates, copies);
+            System.out.println(String.format(Locale.ENGLISH, "%-18s %10d %16d %16d %8.2f", kind,
+                    templates.size(), raw, cached, (double) cached / raw));
+        }
+    }
+
+    private static long measureRaw(List<EmailInfoDTO> templates, int copies) {
+        List<Object> retained = new ArrayList<>(templates.size() * copies);
+        long before = usedHeap();
+        for (int i = 0; i < copies; i++) {
+            for (EmailInfoDTO template : templates) {
+                // New Strings for every copy, as each tenant and locale reads its own copy from the registry.
+                EmailInfoDTO copy = new EmailInfoDTO();
+                copy.setSubject(new String(template.getSubject().toCharArray()));
+                copy.setBody(new String(template.getBody().toCharArray()));
+                copy.setFooter(new String(template.getFooter().toCharArray()));
+                copy.setEmailContentType(template.getEmailContentType());
+                retained.add(copy);
+            }
+        }
+        return perTemplate(retained, before);
+    }
+
+    private static long measureCached(List<EmailInfoDTO> templates, int copies) {
+        List<Object> retained = new ArrayList<>(templates.size() * copies);
+        long before = usedHeap();
+        for (int i = 0; i < copies; i++) {
+            for (EmailInfoDTO template : templates) {
+                retained.add(new EmailTemplateCacheEntry(template));
+            }
+        }
+        return perTemplate(retained, before);
+    }
+
+    private static long perTemplate(List<Object> retained, long before) {
+        long after = usedHeap();
+        long size = retained.size();
+        // Keep the copies reachable until the heap has been measured.
+        if (retained.isEmpty()) {
+            throw new IllegalStateException("No templates measured");
+        }
+        return (after - before) / size;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,271 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.event.handler.email.benchmark;
+
+import org.wso2.carbon.email.mgt.config.EmailTemplateMigrator;
+import org.wso2.carbon.email.mgt.config.EmailTemplateSnapshotCache;
+import org.wso2.carbon.email.mgt.config.FileConfigReader;
+import org.wso2.carbon.email.mgt.config.RegistryConfigReader;
+import org.wso2.carbon.email.mgt.constants.I18nMgtConstants;
+import org.wso2.carbon.email.mgt.store.FileTemplateStore;
+import org.wso2.carbon.registry.core.Collection;
+import org.wso2.carbon.registry.core.Registry;
+import org.wso2.carbon.registry.core.Resource;
+import org.wso2.carbon.registry.core.exceptions.ResourceNotFoundException;
+
+import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Counts the registry calls RegistryConfigReader makes to list the email templates of a tenant, as the admin UI
+ * and I18nEmailMgtConfigService.getEmailConfig do, with and without the template snapshot. The registry is kept
+ * in memory and every get waits for a configurable time to stand in for the database round trip behind it.
+ * The templates are then imported into the file template store, and listing them and reading a single template
+ * from the file are timed.
+ * <p>
+ * Arguments are key=value pairs:
+ * types (template types, default 20), locales (locales per type, default 10), reads (reads per phase, default 50),
+ * latencyMicros (time per registry get, default 200).
+ */
+public class TemplateReadBenchmark {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int TENANT_ID = 1;
+
+    private TemplateReadBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int index = arg.indexOf('=');
+            if (index > 0) {
+                options.put(arg.substring(0, index), arg.substring(index + 1));
+            }
+        }
+        int types = getInt(options, "types", 20);
+        int locales = getInt(options, "locales", 10);
+        int reads = getInt(options, "reads", 50);
+        long latencyNanos = TimeUnit.MICROSECONDS.toNanos(getInt(options, "latencyMicros", 200));
+
+        InMemoryRegistry registry = new InMemoryRegistry(types, locales, latencyNanos);
+        CountingReader reader = new CountingReader(registry.getRegistry());
+        EmailTemplateSnapshotCache snapshotCache = EmailTemplateSnapshotCache.getInstance();
+
+        System.out.println(String.format(Locale.ENGLISH, "%d template types x %d locales, %d us per registry get",
+                types, locales, TimeUnit.NANOSECONDS.toMicros(latencyNanos)));
+        System.out.println(String.format(Locale.ENGLISH, "%-22s %8s %14s %14s %10s", "phase", "reads", "gets/read",
+                "ms/read", "templates"));
+
+        snapshotCache.configure(0);
+        run("no snapshot", reader, registry, reads, false);
+
+        snapshotCache.configure(I18nMgtConstants.EMAIL_TEMPLATE_SNAPSHOT_TIMEOUT);
+        run("snapshot", reader, registry, reads, false);
+        run("snapshot, write each", reader, registry, reads, true);
+
+        // The same templates imported into the file template store, read without any registry call.
+        File directory = Files.createTempDirectory("email-templates").toFile();
+        FileTemplateStore.getInstance().configure(directory);
+        try {
+            new EmailTemplateMigrator(reader).importFromRegistry(TENANT_ID);
+            runFile("file listing", new FileConfigReader(), registry, reads);
+            runFileGet("file get", locales, registry, reads * types * locales);
+        } finally {
+            for (File file : directory.listFiles()) {
+                Files.delete(file.toPath());
+            }
+            Files.delete(directory.toPath());
+        }
+    }
+
+    private static void runFile(String phase, FileConfigReader reader, InMemoryRegistry registry, int reads)
+            throws Exception {
+        long getsBefore = registry.getGetCount();
+        int templates = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < reads; i++) {
+            templates = reader.read(TENANT_ID, I18nMgtConstants.EMAIL_TEMPLATE_PATH).size();
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.println(String.format(Locale.ENGLISH, "%-22s %8d %14.1f %14.3f %10d", phase, reads,
+                (double) (registry.getGetCount() - getsBefore) / reads, elapsed / 1e6 / reads, templates));
+    }
+
+    private static void runFileGet(String phase, int locales, InMemoryRegistry registry, int reads)
+            throws Exception {
+        FileTemplateStore store = FileTemplateStore.getInstance();
+        long getsBefore = registry.getGetCount();
+        long start = System.nanoTime();
+        for (int i = 0; i < reads; i++) {
+            // A single template, as the email event handler reads it.
+            if (store.getTemplate(TENANT_ID, "templatetype0.locale" + (i % locales)) == null) {
+                throw new IllegalStateException("Template not imported");
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.println(String.format(Locale.ENGLISH, "%-22s %8d %14.1f %14.3f %10d", phase, reads,
+                (double) (registry.getGetCount() - getsBefore) / reads, elapsed / 1e6 / reads, 1));
+    }
+
+    private static void run(String phase, CountingReader reader, InMemoryRegistry registry, int reads,
+                            boolean invalidate) throws Exception {
+        long getsBefore = registry.getGetCount();
+        int templates = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < reads; i++) {
+            if (invalidate) {
+                // What a template save through email management does once it has been written.
+                EmailTemplateSnapshotCache.getInstance().invalidate(TENANT_ID);
+            }
+            Properties properties = reader.read(TENANT_ID, I18nMgtConstants.EMAIL_TEMPLATE_PATH);
+            templates = properties.size();
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.println(String.format(Locale.ENGLISH, "%-22s %8d %14.1f %14.3f %10d", phase, reads,
+                (double) (registry.getGetCount() - getsBefore) / reads, elapsed / 1e6 / reads, templates));
+    }
+
+    private static int getInt(Map<String, String> options, String key, int defaultValue) {
+        String value = options.get(key);
+        return value != null ? Integer.parseInt(value) : defaultValue;
+    }
+
+    private static class CountingReader extends RegistryConfigReader {
+
+        private final Registry registry;
+
+        CountingReader(Registry registry) {
+            this.registry = registry;
+        }
+
+        @Override
+        protected Registry getRegistry(int tenantId) {
+            return registry;
+        }
+    }
+
+    /**
+     * Template tree of one tenant laid out as email management writes it: a collection per template type, holding
+     * the display name of the type as a property, with a resource per locale.
+     */
+    private static class InMemoryRegistry implements InvocationHandler {
+
+        private final Map<String, Resource> resources = new HashMap<>();
+        private final AtomicLong getCount = new AtomicLong();
+        private final long latencyNanos;
+        private final Registry registry;
+
+        InMemoryRegistry(int types, int locales, long latencyNanos) {
+            this.latencyNanos = latencyNanos;
+            this.registry = (Registry) Proxy.newProxyInstance(Registry.class.getClassLoader(),
+                    new Class[]{Registry.class}, this);
+
+            String root = I18nMgtConstants.EMAIL_TEMPLATE_PATH;
+            List<String> typePaths = new ArrayList<>();
+            for (int type = 0; type < types; type++) {
+                String typeName = "templatetype" + type;
+                String typePath = root + I18nMgtConstants.EMAIL_FOLDER_SEPARATOR + typeName;
+                List<String> localePaths = new ArrayList<>();
+                for (int locale = 0; locale < locales; locale++) {
+                    String localePath = typePath + I18nMgtConstants.EMAIL_FOLDER_SEPARATOR + typeName +
+                            I18nMgtConstants.EMAIL_LOCALE_SEPARATOR + "locale" + locale;
+                    String content = "Subject of " + typeName + "|Hi {{user-name}},\n\nBody of " + typeName +
+                            " in locale" + locale + ".|Regards,\nAdministrator";
+                    resources.put(localePath, createResource(Resource.class, localePath,
+                            content.getBytes(UTF_8), null, null));
+                    localePaths.add(localePath);
+                }
+                Map<String, String> properties = new HashMap<>();
+                properties.put(typeName, "Template Type " + type);
+                resources.put(typePath, createResource(Collection.class, typePath, null, properties,
+                        localePaths.toArray(new String[localePaths.size()])));
+                typePaths.add(typePath);
+            }
+            resources.put(root, createResource(Collection.class, root, null, null,
+                    typePaths.toArray(new String[typePaths.size()])));
+        }
+
+        Registry getRegistry() {
+            return registry;
+        }
+
+        long getGetCount() {
+            return getCount.get();
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if ("get".equals(name) || "resourceExists".equals(name)) {
+                getCount.incrementAndGet();
+                LockSupport.parkNanos(latencyNanos);
+                Resource resource = resources.get((String) args[0]);
+                if ("resourceExists".equals(name)) {
+                    return resource != null;
+                }
+                if (resource == null) {
+                    throw new ResourceNotFoundException((String) args[0]);
+                }
+                return resource;
+            }
+            throw new UnsupportedOperationException(name);
+        }
+
+        private static Resource createResource(Class<? extends Resource> type, final String path,
+                                               final byte[] content, final Map<String, String> properties,
+                                               final String[] children) {
+            return (Resource) Proxy.newProxyInstance(type.getClassLoader(), new Class[]{type},
+                    new InvocationHandler() {
+                        @Override
+                        public Object invoke(Object proxy, Method method, Object[] args) {
+                            switch (method.getName()) {
+                                case "getPath":
+                                    return path;
+                                case "getContent":
+                                    return content;
+                                case "getMediaType":
+                                    return "text/plain";
+                                case "getProperty":
+                                    return properties != null ? properties.get((String) args[0]) : null;
+                                case "getChildren":
+                                    return children.clone();
+                                case "getChildCount":
+                                    return children.length;
+                                default:
+                                    throw new UnsupportedOperationException(method.getName());
+                            }
+                        }
+                    });
+        }
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.identity.event.handler.email.benchmark.harness;
+
+import org.apache.axis2.AxisFault;
+import org.apache.axis2.context.ConfigurationContext;
+import org.apache.axis2.description.Parameter;
+import org.apache.axis2.description.TransportOutDescription;
+import org.apache.axis2.engine.AxisConfiguration;
+import org.apache.axis2.transport.mail.MailTransportSender;
+import org.wso2.carbon.core.CarbonConfigurationContextFactory;
+import org.wso2.carbon.identity.event.handler.email.constants.EmailEventConstants;
+import org.wso2.carbon.identity.event.handler.email.delivery.LocalSmtpServer;
+import org.wso2.carbon.identity.event.handler.email.delivery.MailTransportConfigProvider;
+
+/**
+ * Stands in for the mailto transport sender of axis2.xml, pointing it at a {@link LocalSmtpServer}. The handler reads
+ * the transport parameters through the axis configuration context, as it does inside a Carbon server.
+ */
+public class HarnessMailTransport {
+
+    private HarnessMailTransport() {
+    }
+
+    public static void bind(LocalSmtpServer sink) throws AxisFault {
+        TransportOutDescription mailTransport = new TransportOutDescription(EmailEventConstants.MAIL_TRANSPORT);
+        mailTransport.setSender(new MailTransportSender());
+        mailTransport.addParameter(new Parameter(EmailEventConstants.SmtpProperty.HOST, sink.getHost()));
+        mailTransport.addParameter(new Parameter(EmailEventConstants.SmtpProperty.PORT,
+                String.valueOf(sink.getPort())));
+        mailTransport.addParameter(new Parameter(EmailEventConstants.SmtpProperty.FROM, "wso2is@localhost"));
+
+        AxisConfiguration axisConfiguration = new AxisConfiguration();
+        axisConfiguration.addTransportOut(mailTransport);
+        CarbonConfigurationContextFactory.createNewConfigurationContext(new ConfigurationContext(axisConfiguration));
+        MailTransportConfigProvider.getInstance().refresh();
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.event.handler.email.benchmark.harness;
+
+import org.wso2.carbon.identity.event.handler.email.constants.EmailEventConstants;
+import org.wso2.carbon.user.core.UserRealm;
+import org.wso2.carbon.user.core.UserStoreManager;
+import org.wso2.carbon.user.core.service.RealmService;
+import org.wso2.carbon.user.core.tenant.TenantManager;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Realm service backed by memory, for driving the email event handler outside a Carbon server. The super tenant
+ * and the tenants tenant1.com to tenantN.com exist, and every user of them has an email address, a locale and a
+ * first name. Only the methods the handler calls are answered. Every other method returns the default value of
+ * its return type.
+ */
+public class InMemoryRealm {
+
+    private static final String SUPER_TENANT_DOMAIN = EmailEventConstants.CARBON_DOMAIN;
+    private static final int SUPER_TENANT_ID = -1234;
+
+    private final int tenantCount;
+    private final String locale;
+    private final Map<Integer, UserRealm> userRealms = new ConcurrentHashMap<>();
+    private final AtomicLong claimReadCount = new AtomicLong();
+    private final RealmService realmService;
+
+    /**
+     * @param tenantCount - Number of tenants, including the super tenant.
+     * @param locale      - Value of the locale claim of every user.
+     */
+    public InMemoryRealm(int tenantCount, String locale) {
+        this.tenantCount = tenantCount;
+        this.locale = locale;
+        this.realmService = createProxy(RealmService.class, new RealmServiceHandler());
+    }
+
+    public RealmService getRealmService() {
+        return realmService;
+    }
+
+    public int getTenantCount() {
+        return tenantCount;
+    }
+
+    /**
+     * @param index - Index of the tenant, from zero to the tenant count.
+     * @return The domain of the tenant. The first tenant is the super tenant.
+     */
+    public String getTenantDomain(int index) {
+        return index == 0 ? SUPER_TENANT_DOMAIN : "tenant" + index + ".com";
+    }
+
+    public int getTenantId(String tenantDomain) {
+        if (SUPER_TENANT_DOMAIN.equals(tenantDomain)) {
+            return SUPER_TENANT_ID;
+        }
+        if (tenantDomain != null && tenantDomain.startsWith("tenant") && tenantDomain.endsWith(".com")) {
+            try {
+                int index = Integer.parseInt(tenantDomain.substring(6, tenantDomain.length() - 4));
+                if (index > 0 && index < tenantCount) {
+                    return index;
+                }
+            } catch (NumberFormatException e) {
+                return EmailEventConstants.INVALID_TENANT_ID;
+            }
+        }
+        return EmailEventConstants.INVALID_TENANT_ID;
+    }
+
+    /**
+     * @return Number of user store calls made to read user claims.
+     */
+    public long getClaimReadCount() {
+        return claimReadCount.get();
+    }
+
+    private UserRealm getUserRealm(final int tenantId) {
+        UserRealm userRealm = userRealms.get(tenantId);
+        if (userRealm == null) {
+            final UserStoreManager userStoreManager =
+                    createProxy(UserStoreManager.class, new UserStoreManagerHandler(tenantId));
+            userRealm = createProxy(UserRealm.class, new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    if ("getUserStoreManager".equals(method.getName())) {
+                        return userStoreManager;
+                    }
+                    return answerDefault(proxy, method, args);
+                }
+            });
+            userRealms.put(tenantId, userRealm);
+        }
+        return userRealm;
+    }
+
+    private Map<String, String> getUserClaimValues(int tenantId, String userName, String[] claimUris) {
+        claimReadCount.incrementAndGet();
+        Map<String, String> claims = new HashMap<>();
+        for (String claimUri : claimUris) {
+            if (EmailEventConstants.CLAIM_URI_EMAIL.equals(claimUri)) {
+                claims.put(claimUri, userName + "@" + getDomain(tenantId));
+            } else if (EmailEventConstants.CLAIM_URI_LOCALE.equals(claimUri)) {
+                claims.put(claimUri, locale);
+            } else if (EmailEventConstants.CLAIM_URI_FIRST_NAME.equals(claimUri)) {
+                claims.put(claimUri, "First " + userName);
+            }
+        }
+        return claims;
+    }
+
+    private String getDomain(int tenantId) {
+        return tenantId == SUPER_TENANT_ID ? SUPER_TENANT_DOMAIN : getTenantDomain(tenantId);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T createProxy(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(InMemoryRealm.class.getClassLoader(), new Class<?>[]{type}, handler);
+    }
+
+    private static Object answerDefault(Object proxy, Method method, Object[] args) {
+        String name = method.getName();
+        if ("equals".equals(name) && args != null && args.length == 1) {
+            return proxy == args[0];
+        } else if ("hashCode".equals(name) && args == null) {
+            return System.identityHashCode(proxy);
+        } else if ("toString".equals(name) && args == null) {
+            return "InMemory" + proxy.getClass().getInterfaces()[0].getSimpleName();
+        }
+        Class<?> returnType = method.getReturnType();
+        if (!returnType.isPrimitive() || returnType == void.class) {
+            return null;
+        } else if (returnType == boolean.class) {
+            return Boolean.FALSE;
+        } else if (returnType == char.class) {
+            return '\0';
+        } else if (returnType == byte.class) {
+            return (byte) 0;
+        } else if (returnType == short.class) {
+            return (short) 0;
+        } else if (returnType == int.class) {
+            return 0;
+        } else if (returnType == long.class) {
+            return 0L;
+        } else if (returnType == float.class) {
+            return 0f;
+        }
+        return 0d;
+    }
+
+    private class RealmServiceHandler implements InvocationHandler {
+
+        private final TenantManager tenantManager = createProxy(TenantManager.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if ("getTenantId".equals(method.getName()) && args != null && args.length == 1) {
+                    return getTenantId((String) args[0]);
+                } else if ("getDomain".equals(method.getName()) && args != null && args.length == 1) {
+                    return getDomain((Integer) args[0]);
+                }
+                return answerDefault(proxy, method, args);
+            }
+        });
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            if ("getTenantUserRealm".equals(method.getName()) && args != null && args.length == 1) {
+                return getUserRealm((Integer) args[0]);
+            } else if ("getTenantManager".equals(method.getName())) {
+                return tenantManager;
+            }
+            return answerDefault(proxy, method, args);
+        }
+    }
+
+    private class UserStoreManagerHandler implements InvocationHandler {
+
+        private final int tenantId;
+
+        private UserStoreManagerHandler(int tenantId) {
+            this.tenantId = tenantId;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            if ("getUserClaimValues".equals(method.getName()) && args != null && args.length == 3 &&
+                    args[1] instanceof String[]) {
+                return getUserClaimValues(tenantId, (String) args[0], (String[]) args[1]);
+            } else if ("getTenantId".equals(method.getName()) && args == null) {
+                return tenantId;
+            }
+            return answerDefault(proxy, method, args);
+        }
+    }
+}
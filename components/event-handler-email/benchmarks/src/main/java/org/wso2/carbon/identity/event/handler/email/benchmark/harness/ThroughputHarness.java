@@ -0,0 +1,358 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.event.handler.email.benchmark.harness;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.identity.event.EventMgtConstants;
+import org.wso2.carbon.identity.event.event.Event;
+import org.wso2.carbon.identity.event.handler.email.benchmark.BenchmarkTemplates;
+import org.wso2.carbon.identity.event.handler.email.cache.EmailTemplateCache;
+import org.wso2.carbon.identity.event.handler.email.cache.EmailTemplateCacheEntry;
+import org.wso2.carbon.identity.event.handler.email.cache.EmailTemplateCacheKey;
+import org.wso2.carbon.identity.event.handler.email.cache.UserClaimCache;
+import org.wso2.carbon.identity.event.handler.email.constants.EmailEventConstants;
+import org.wso2.carbon.identity.event.handler.email.delivery.AsyncEmailDispatcher;
+import org.wso2.carbon.identity.event.handler.email.delivery.BackpressurePolicy;
+import org.wso2.carbon.identity.event.handler.email.delivery.DirectEmailDispatcher;
+import org.wso2.carbon.identity.event.handler.email.delivery.EmailDispatcher;
+import org.wso2.carbon.identity.event.handler.email.delivery.EmailSender;
+import org.wso2.carbon.identity.event.handler.email.delivery.LocalSmtpServer;
+import org.wso2.carbon.identity.event.handler.email.delivery.SmtpBatchEmailSender;
+import org.wso2.carbon.identity.event.handler.email.handler.EmailEventHandler;
+import org.wso2.carbon.identity.event.handler.email.internal.EmailEventServiceComponent;
+import org.wso2.carbon.identity.event.handler.email.tenant.TenantResolver;
+import org.wso2.carbon.identity.event.handler.email.util.EmailInfoDTO;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drives EmailEventHandler.handleEvent end to end with synthetic events, from the tenant and claim lookups to the
+ * SMTP conversation, and reports the throughput, the latency percentiles and the allocation per event as the
+ * number of caller threads and tenants grows.
+ * <p>
+ * The user realm is kept in memory and emails are delivered over JavaMail to a local SMTP sink. The registry is
+ * not involved, since the templates are put into the template cache up front. Emails are sent through the SMTP
+ * batch sender, as the output event adapter service only exists inside a Carbon server.
+ * <p>
+ * Arguments are given as key=value pairs. For example:
+ * <pre>
+ * java -cp benchmarks.jar org.wso2.carbon.identity.event.handler.email.benchmark.harness.ThroughputHarness \
+ *     threads=1,4,16 tenants=1,100 events=20000 dispatcher=async workers=8 batchSize=20 smtpDelay=1
+ * </pre>
+ */
+public class ThroughputHarness {
+
+    static {
+        // Per email INFO logs would dominate the measurement, so only warnings and errors are logged. Set before
+        // any Log is created.
+        if (System.getProperty("org.apache.commons.logging.Log") == null) {
+            System.setProperty("org.apache.commons.logging.Log", "org.apache.commons.logging.impl.SimpleLog");
+            System.setProperty("org.apache.commons.logging.simplelog.defaultlog", "warn");
+        }
+    }
+
+    private static final Log log = LogFactory.getLog(ThroughputHarness.class);
+    private static final String[] TEMPLATE_TYPES = {
+            EmailEventConstants.templateTypes.accountlock.name(),
+            EmailEventConstants.templateTypes.accountunlock.name()};
+    private static final String[] SHIPPED_TEMPLATE_TYPES = {"accountLock", "accountUnLock"};
+    private static final long DELIVERY_TIMEOUT = TimeUnit.MINUTES.toMillis(2);
+
+    private final Map<String, String> options;
+    private final LocalSmtpServer sink;
+    private final EmailEventHandler handler = new EmailEventHandler();
+    private final List<EmailInfoDTO> templates = new ArrayList<>();
+
+    private ThroughputHarness(Map<String, String> options, LocalSmtpServer sink) throws Exception {
+        this.options = options;
+        this.sink = sink;
+        for (String type : SHIPPED_TEMPLATE_TYPES) {
+            templates.add(BenchmarkTemplates.getShippedTemplate(type));
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        options.put("threads", "1,2,4,8,16");
+        options.put("tenants", "1,10,100");
+        options.put("events", "20000");
+        options.put("warmup", "5000");
+        options.put("users", "1000");
+        options.put("locale", EmailEventConstants.LOCALE_DEFAULT);
+        options.put("dispatcher", "direct");
+        options.put("workers", String.valueOf(EmailEventConstants.ConfigDefault.ASYNC_WORKERS));
+        options.put("queueSize", String.valueOf(EmailEventConstants.ConfigDefault.ASYNC_QUEUE_SIZE));
+        options.put("batchSize", "1");
+        options.put("linger", "0");
+        options.put("smtpDelay", "0");
+        options.put("claimCache", "false");
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("Arguments must be given as key=value : " + arg);
+            }
+            options.put(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+
+        try (LocalSmtpServer sink = new LocalSmtpServer(Long.parseLong(options.get("smtpDelay")), false)) {
+            HarnessMailTransport.bind(sink);
+
+            ThroughputHarness harness = new ThroughputHarness(options, sink);
+            System.out.println("Options : " + options);
+            System.out.println(String.format(Locale.ENGLISH, "%7s %7s %8s %12s %12s %10s %10s %10s %12s %8s %9s",
+                    "threads", "tenants", "events", "handled/s", "delivered/s", "p50(us)", "p99(us)",
+                    "p999(us)", "bytes/event", "failed", "sessions"));
+            for (int tenants : parseList(options.get("tenants"))) {
+                for (int threads : parseList(options.get("threads"))) {
+                    harness.runScenario(threads, tenants);
+                }
+            }
+        } finally {
+            EmailEventServiceComponent.setEmailDispatcher(null);
+        }
+    }
+
+    private void runScenario(int threads, int tenants) throws Exception {
+        InMemoryRealm realm = new InMemoryRealm(tenants, options.get("locale"));
+        HarnessServiceComponent.bindRealmService(realm.getRealmService());
+        TenantResolver.getInstance().clear();
+        UserClaimCache.getInstance().configure(Boolean.parseBoolean(options.get("claimCache")),
+                EmailEventConstants.ConfigDefault.CLAIM_CACHE_MAX_ENTRIES,
+                EmailEventConstants.ConfigDefault.CLAIM_CACHE_TIMEOUT);
+        seedTemplates(realm);
+        EmailEventServiceComponent.setEmailDispatcher(createDispatcher());
+
+        run(threads, realm, Integer.parseInt(options.get("warmup")));
+        Result result = run(threads, realm, Integer.parseInt(options.get("events")));
+
+        // Caller threads only. Allocation on the dispatcher workers and in the sink is not included.
+        System.out.println(String.format(Locale.ENGLISH,
+                "%7d %7d %8d %12.0f %12.0f %10.1f %10.1f %10.1f %12s %8d %9d",
+                threads, tenants, result.events, result.getHandledPerSecond(), result.getDeliveredPerSecond(),
+                result.getPercentileMicros(0.50), result.getPercentileMicros(0.99),
+                result.getPercentileMicros(0.999),
+                result.allocatedBytes < 0 ? "n/a" : String.valueOf(result.allocatedBytes / result.events),
+                result.failed, sink.getSessionCount()));
+    }
+
+    private void seedTemplates(InMemoryRealm realm) {
+        EmailTemplateCache templateCache = EmailTemplateCache.getInstance();
+        templateCache.configure(true, realm.getTenantCount() * TEMPLATE_TYPES.length * 2, 0);
+        long generation = templateCache.getGeneration();
+        for (int i = 0; i < realm.getTenantCount(); i++) {
+            int tenantId = realm.getTenantId(realm.getTenantDomain(i));
+            for (int j = 0; j < TEMPLATE_TYPES.length; j++) {
+                templateCache.put(new EmailTemplateCacheKey(tenantId, TEMPLATE_TYPES[j], options.get("locale")),
+                        new EmailTemplateCacheEntry(templates.get(j)), generation);
+                templateCache.put(new EmailTemplateCacheKey(tenantId, TEMPLATE_TYPES[j],
+                        EmailEventConstants.LOCALE_DEFAULT), new EmailTemplateCacheEntry(templates.get(j)),
+                        generation);
+            }
+        }
+    }
+
+    private EmailDispatcher createDispatcher() {
+        boolean async = "async".equals(options.get("dispatcher"));
+        // As in the handler, the linger time only applies when emails are sent from the async workers.
+        EmailSender sender = new SmtpBatchEmailSender(Integer.parseInt(options.get("batchSize")),
+                async ? Long.parseLong(options.get("linger")) : 0);
+        if (async) {
+            return new AsyncEmailDispatcher(sender, Integer.parseInt(options.get("queueSize")),
+                    Integer.parseInt(options.get("workers")), BackpressurePolicy.BLOCK,
+                    EmailEventConstants.ConfigDefault.ASYNC_BLOCK_TIMEOUT,
+                    EmailEventConstants.ConfigDefault.ASYNC_SHUTDOWN_TIMEOUT);
+        }
+        return new DirectEmailDispatcher(sender);
+    }
+
+    private Result run(int threads, final InMemoryRealm realm, int events) throws Exception {
+        final int users = Integer.parseInt(options.get("users"));
+        final CountDownLatch start = new CountDownLatch(1);
+        Caller[] callers = new Caller[threads];
+        Thread[] callerThreads = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            int count = events / threads + (i < events % threads ? 1 : 0);
+            callers[i] = new Caller(i, threads, count, users, realm, start);
+            callerThreads[i] = new Thread(callers[i], "ThroughputHarness-Caller-" + i);
+            callerThreads[i].start();
+        }
+
+        long delivered = sink.getMessageCount();
+        long startTime = System.nanoTime();
+        start.countDown();
+        for (Thread callerThread : callerThreads) {
+            callerThread.join();
+        }
+        long handledTime = System.nanoTime() - startTime;
+
+        Result result = new Result(events);
+        for (Caller caller : callers) {
+            result.add(caller);
+        }
+        if (!sink.awaitMessages(delivered + events - result.failed, DELIVERY_TIMEOUT)) {
+            log.warn("Only " + (sink.getMessageCount() - delivered) + " of " + (events - result.failed) +
+                    " emails reached the SMTP sink");
+        }
+        result.setTimes(handledTime, System.nanoTime() - startTime);
+        return result;
+    }
+
+    private static List<Integer> parseList(String value) {
+        List<Integer> values = new ArrayList<>();
+        for (String item : value.split(",")) {
+            values.add(Integer.parseInt(item.trim()));
+        }
+        return values;
+    }
+
+    private class Caller implements Runnable {
+
+        private final int index;
+        private final int stride;
+        private final int users;
+        private final InMemoryRealm realm;
+        private final CountDownLatch start;
+        private final long[] latencies;
+        private final Event[] events;
+        private long allocatedBytes = -1;
+        private int failed;
+
+        private Caller(int index, int stride, int count, int users, InMemoryRealm realm, CountDownLatch start) {
+            this.index = index;
+            this.stride = stride;
+            this.users = users;
+            this.realm = realm;
+            this.start = start;
+            this.latencies = new long[count];
+            this.events = new Event[count];
+        }
+
+        @Override
+        public void run() {
+            // Events are built before the clock starts, as the identity event framework hands them over ready.
+            for (int i = 0; i < events.length; i++) {
+                events[i] = createEvent(index + i * stride);
+            }
+            com.sun.management.ThreadMXBean threadBean = getThreadBean();
+            long threadId = Thread.currentThread().getId();
+            try {
+                start.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            long allocatedBefore = threadBean != null ? threadBean.getThreadAllocatedBytes(threadId) : -1;
+            for (int i = 0; i < events.length; i++) {
+                long eventStart = System.nanoTime();
+                try {
+                    handler.handleEvent(events[i]);
+                } catch (Exception e) {
+                    if (failed++ == 0) {
+                        log.error("Error while handling an event. Later failures of the caller are only counted", e);
+                    }
+                }
+                latencies[i] = System.nanoTime() - eventStart;
+            }
+            if (threadBean != null) {
+                allocatedBytes = threadBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+            }
+        }
+
+        private Event createEvent(int sequence) {
+            int tenantIndex = sequence % realm.getTenantCount();
+            Map<String, Object> properties = new HashMap<>();
+            properties.put(EventMgtConstants.EventProperty.USER_NAME,
+                    "user" + (sequence / realm.getTenantCount()) % users);
+            properties.put(EventMgtConstants.EventProperty.TENANT_DOMAIN, realm.getTenantDomain(tenantIndex));
+            properties.put(EmailEventConstants.EventProperty.TEMPLATE_TYPE,
+                    TEMPLATE_TYPES[sequence % TEMPLATE_TYPES.length]);
+            return new Event("EMAIL_NOTIFICATION", properties);
+        }
+
+        private com.sun.management.ThreadMXBean getThreadBean() {
+            if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) {
+                return null;
+            }
+            com.sun.management.ThreadMXBean threadBean =
+                    (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+            if (!threadBean.isThreadAllocatedMemorySupported()) {
+                return null;
+            }
+            if (!threadBean.isThreadAllocatedMemoryEnabled()) {
+                threadBean.setThreadAllocatedMemoryEnabled(true);
+            }
+            return threadBean;
+        }
+    }
+
+    private static class Result {
+
+        private final int events;
+        private final long[] latencies;
+        private int latencyCount;
+        private long allocatedBytes;
+        private int failed;
+        private long handledNanos;
+        private long deliveredNanos;
+
+        private Result(int events) {
+            this.events = events;
+            this.latencies = new long[events];
+        }
+
+        private void add(Caller caller) {
+            System.arraycopy(caller.latencies, 0, latencies, latencyCount, caller.latencies.length);
+            latencyCount += caller.latencies.length;
+            allocatedBytes = caller.allocatedBytes < 0 || allocatedBytes < 0 ? -1 :
+                    allocatedBytes + caller.allocatedBytes;
+            failed += caller.failed;
+        }
+
+        private void setTimes(long handledNanos, long deliveredNanos) {
+            this.handledNanos = handledNanos;
+            this.deliveredNanos = deliveredNanos;
+            Arrays.sort(latencies, 0, latencyCount);
+        }
+
+        private double getHandledPerSecond() {
+            return events * 1e9 / handledNanos;
+        }
+
+        private double getDeliveredPerSecond() {
+            return (events - failed) * 1e9 / deliveredNanos;
+        }
+
+        private double getPercentileMicros(double percentile) {
+            if (latencyCount == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(percentile * latencyCount) - 1;
+            return latencies[Math.max(index, 0)] / 1000.0;
+        }
+    }
+}
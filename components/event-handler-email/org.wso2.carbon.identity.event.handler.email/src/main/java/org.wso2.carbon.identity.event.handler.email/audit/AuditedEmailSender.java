@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.event.handler.email.audit;
+
+import org.wso2.carbon.identity.event.handler.email.delivery.EmailMessage;
+import org.wso2.carbon.identity.event.handler.email.delivery.EmailSender;
+import org.wso2.carbon.identity.event.handler.email.exception.EmailEventServiceException;
+
+/**
+ * Records the outcome of every email handed over to the mail server in the {@link DeliveryAuditLog}.
+ */
+public class AuditedEmailSender implements EmailSender {
+
+    private final EmailSender sender;
+
+    public AuditedEmailSender(EmailSender sender) {
+        this.sender = sender;
+    }
+
+    @Override
+    public void send(EmailMessage message) throws EmailEventServiceException {
+        try {
+            sender.send(message);
+        } catch (EmailEventServiceException | RuntimeException e) {
+            DeliveryAuditLog.getInstance().recordFailed(message, e);
+            throw e;
+        }
+        DeliveryAuditLog.getInstance().recordSent(message);
+    }
+}
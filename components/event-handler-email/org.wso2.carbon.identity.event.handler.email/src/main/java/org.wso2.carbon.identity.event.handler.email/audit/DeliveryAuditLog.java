@@ -0,0 +1,277 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.event.handler.email.audit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.identity.event.handler.email.constants.EmailEventConstants;
+import org.wso2.carbon.identity.event.handler.email.delivery.EmailMessage;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Audit trail of email deliveries, written to its own log category {@link EmailEventConstants#DELIVERY_AUDIT_LOG}
+ * so it can be sent to a separate appender. Sending threads only queue a record. Records are formatted and
+ * written by a background thread, so a slow appender does not hold up mail delivery.
+ * <p>
+ * Only every n-th sent email is recorded when a sample rate is set, while failed deliveries are always recorded.
+ * Records over the per second rate limit, or that do not fit in the queue, are counted and reported in a
+ * summary record instead. Recipient addresses are masked unless configured otherwise.
+ */
+public class DeliveryAuditLog {
+
+    private static final Log log = LogFactory.getLog(DeliveryAuditLog.class);
+    private static final Log audit = LogFactory.getLog(EmailEventConstants.DELIVERY_AUDIT_LOG);
+    private static final DeliveryAuditLog instance = new DeliveryAuditLog();
+
+    private static final String AUDIT_MESSAGE =
+            "Action : %s | Time : %s | Message : %s | Tenant : %d | Template : %s | Recipient : %s | Result : %s";
+    private static final String SUMMARY_MESSAGE =
+            "Action : Suppress Email Audit | Sampled : %d | Rate Limited : %d | Queue Full : %d";
+    private static final String ACTION_SEND = "Send Email";
+    private static final String RESULT_SUCCESS = "Success";
+    private static final String RESULT_FAILURE = "Failure";
+    private static final String WRITER_NAME = "EmailEventHandler-DeliveryAudit";
+    private static final long POLL_INTERVAL = 1000;
+    private static final long SUMMARY_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+
+    private volatile boolean enabled = EmailEventConstants.ConfigDefault.DELIVERY_AUDIT_ENABLE;
+    private volatile int sampleRate = EmailEventConstants.ConfigDefault.DELIVERY_AUDIT_SAMPLE_RATE;
+    private volatile int rateLimit = EmailEventConstants.ConfigDefault.DELIVERY_AUDIT_RATE_LIMIT;
+    private volatile boolean maskRecipient = EmailEventConstants.ConfigDefault.DELIVERY_AUDIT_MASK_RECIPIENT;
+    private volatile BlockingQueue<DeliveryAuditRecord> queue =
+            new ArrayBlockingQueue<>(EmailEventConstants.ConfigDefault.DELIVERY_AUDIT_QUEUE_SIZE);
+    private volatile Thread writer;
+
+    private final AtomicLong sentCount = new AtomicLong();
+    private final AtomicLong currentSecond = new AtomicLong();
+    private final AtomicInteger currentSecondCount = new AtomicInteger();
+    private final AtomicLong sampledCount = new AtomicLong();
+    private final AtomicLong rateLimitedCount = new AtomicLong();
+    private final AtomicLong queueFullCount = new AtomicLong();
+
+    private DeliveryAuditLog() {
+    }
+
+    public static DeliveryAuditLog getInstance() {
+        return instance;
+    }
+
+    /**
+     * Applies the audit settings given in the handler configuration.
+     *
+     * @param enabled       - Whether deliveries are audited at all.
+     * @param sampleRate    - One in this many sent emails is recorded. Failed deliveries are always recorded.
+     * @param rateLimit     - Maximum number of records written per second. Zero or less removes the limit.
+     * @param queueSize     - Maximum number of records waiting to be written.
+     * @param maskRecipient - Whether the local part of recipient addresses is masked.
+     */
+    public synchronized void configure(boolean enabled, int sampleRate, int rateLimit, int queueSize,
+                                       boolean maskRecipient) {
+        shutdown();
+        this.sampleRate = sampleRate > 0 ? sampleRate : 1;
+        this.rateLimit = rateLimit;
+        this.maskRecipient = maskRecipient;
+        this.queue = new ArrayBlockingQueue<>(queueSize > 0 ? queueSize :
+                EmailEventConstants.ConfigDefault.DELIVERY_AUDIT_QUEUE_SIZE);
+        this.enabled = enabled;
+        if (log.isDebugEnabled()) {
+            log.debug("Email delivery audit enabled : " + enabled + ", sample rate : " + this.sampleRate +
+                    ", rate limit : " + rateLimit + "/s");
+        }
+    }
+
+    public void recordSent(EmailMessage message) {
+        if (!isAuditEnabled()) {
+            return;
+        }
+        if (sampleRate > 1 && sentCount.incrementAndGet() % sampleRate != 0) {
+            sampledCount.incrementAndGet();
+            return;
+        }
+        queue(createRecord(message, null));
+    }
+
+    public void recordFailed(EmailMessage message, Throwable failure) {
+        if (!isAuditEnabled()) {
+            return;
+        }
+        queue(createRecord(message, failure));
+    }
+
+    /**
+     * Writes the queued records and stops the writer thread. It is started again by the next record.
+     */
+    public synchronized void shutdown() {
+        enabled = false;
+        Thread currentWriter = writer;
+        writer = null;
+        if (currentWriter != null) {
+            currentWriter.interrupt();
+            try {
+                currentWriter.join(POLL_INTERVAL);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        BlockingQueue<DeliveryAuditRecord> currentQueue = queue;
+        DeliveryAuditRecord record;
+        while ((record = currentQueue.poll()) != null) {
+            write(record);
+        }
+        writeSummary();
+    }
+
+    /**
+     * Masks the local part of email addresses for logs, keeping its first character and the domain.
+     *
+     * @param sendTo - Recipient of an email, which may be a comma separated list of addresses.
+     * @return The masked recipient, such as j***@example.com.
+     */
+    public static String maskAddress(String sendTo) {
+        if (sendTo == null) {
+            return null;
+        }
+        StringBuilder masked = new StringBuilder(sendTo.length());
+        for (String address : sendTo.split(",")) {
+            if (masked.length() > 0) {
+                masked.append(',');
+            }
+            String trimmed = address.trim();
+            int at = trimmed.lastIndexOf('@');
+            if (at > 0) {
+                masked.append(trimmed.charAt(0)).append("***").append(trimmed.substring(at));
+            } else {
+                masked.append("***");
+            }
+        }
+        return masked.toString();
+    }
+
+    private boolean isAuditEnabled() {
+        return enabled && audit.isInfoEnabled();
+    }
+
+    /**
+     * Copies only what is written out of the email, so queued records do not hold on to email bodies.
+     */
+    private DeliveryAuditRecord createRecord(EmailMessage message, Throwable failure) {
+        String result = failure == null ? RESULT_SUCCESS : RESULT_FAILURE + " : " + failure.getMessage();
+        return new DeliveryAuditRecord(message.getMessageId(), message.getTenantId(), message.getTemplateType(),
+                getRecipient(message.getSendTo()), System.currentTimeMillis(), result);
+    }
+
+    private void queue(DeliveryAuditRecord record) {
+        if (!tryAcquire(record.getTime())) {
+            rateLimitedCount.incrementAndGet();
+            return;
+        }
+        if (!queue.offer(record)) {
+            queueFullCount.incrementAndGet();
+            return;
+        }
+        if (writer == null) {
+            startWriter();
+        }
+    }
+
+    /**
+     * Fixed one second window. Concurrent callers at the turn of a second may let a few extra records through.
+     */
+    private boolean tryAcquire(long time) {
+        int limit = rateLimit;
+        if (limit <= 0) {
+            return true;
+        }
+        long second = time / 1000;
+        long current = currentSecond.get();
+        if (second != current && currentSecond.compareAndSet(current, second)) {
+            currentSecondCount.set(0);
+        }
+        return currentSecondCount.incrementAndGet() <= limit;
+    }
+
+    private synchronized void startWriter() {
+        if (writer != null || !enabled) {
+            return;
+        }
+        Thread newWriter = new Thread(new Writer(queue), WRITER_NAME);
+        newWriter.setDaemon(true);
+        writer = newWriter;
+        newWriter.start();
+    }
+
+    private void write(DeliveryAuditRecord record) {
+        String time = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ", Locale.ENGLISH)
+                .format(new Date(record.getTime()));
+        audit.info(String.format(Locale.ENGLISH, AUDIT_MESSAGE, ACTION_SEND, time, record.getMessageId(),
+                record.getTenantId(), record.getTemplateType(), record.getRecipient(), record.getResult()));
+    }
+
+    private void writeSummary() {
+        long sampled = sampledCount.getAndSet(0);
+        long rateLimited = rateLimitedCount.getAndSet(0);
+        long queueFull = queueFullCount.getAndSet(0);
+        if ((sampled > 0 || rateLimited > 0 || queueFull > 0) && audit.isInfoEnabled()) {
+            audit.info(String.format(Locale.ENGLISH, SUMMARY_MESSAGE, sampled, rateLimited, queueFull));
+        }
+    }
+
+    private String getRecipient(String sendTo) {
+        return maskRecipient ? maskAddress(sendTo) : sendTo;
+    }
+
+    private class Writer implements Runnable {
+
+        private final BlockingQueue<DeliveryAuditRecord> records;
+
+        private Writer(BlockingQueue<DeliveryAuditRecord> records) {
+            this.records = records;
+        }
+
+        @Override
+        public void run() {
+            long lastSummary = System.currentTimeMillis();
+            while (writer == Thread.currentThread()) {
+                try {
+                    DeliveryAuditRecord record = records.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+                    if (record != null) {
+                        write(record);
+                    }
+                } catch (InterruptedException e) {
+                    // Interrupted by shutdown, which writes what is left in the queue.
+                    return;
+                } catch (RuntimeException e) {
+                    log.error("Could not write an email delivery audit record", e);
+                }
+                if (System.currentTimeMillis() - lastSummary >= SUMMARY_INTERVAL) {
+                    writeSummary();
+                    lastSummary = System.currentTimeMillis();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.identity.event.handler.email.audit;
+
+/**
+ * Outcome of one email delivery, queued for the {@link DeliveryAuditLog} writer.
+ */
+class DeliveryAuditRecord {
+
+    private final String messageId;
+    private final int tenantId;
+    private final String templateType;
+    private final String recipient;
+    private final long time;
+    private final String result;
+
+    DeliveryAuditRecord(String messageId, int tenantId, String templateType, String recipient, long time,
+                        String result) {
+        this.messageId = messageId;
+        this.tenantId = tenantId;
+        this.templateType = templateType;
+        this.recipient = recipient;
+        this.time = time;
+        this.result = result;
+    }
+
+    String getMessageId() {
+        return messageId;
+    }
+
+    int getTenantId() {
+        return tenantId;
+    }
+
+    String getTemplateType() {
+        return templateType;
+    }
+
+    /**
+     * @return The recipient, already masked if the audit log masks recipients.
+     */
+    String getRecipient() {
+        return recipient;
+    }
+
+    long getTime() {
+        return time;
+    }
+
+    String getResult() {
+        return result;
+    }
+}
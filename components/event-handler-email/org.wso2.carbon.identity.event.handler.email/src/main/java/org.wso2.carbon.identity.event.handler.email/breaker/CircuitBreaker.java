@@ -0,0 +1,392 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.event.handler.email.breaker;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.AttributeChangeNotification;
+import javax.management.JMException;
+import javax.management.MBeanNotificationInfo;
+import javax.management.MBeanServer;
+import javax.management.Notification;
+import javax.management.NotificationBroadcasterSupport;
+import javax.management.ObjectName;
+
+/**
+ * Circuit breaker over the calls made to the mail server.
+ * <p/>
+ * While CLOSED, the outcomes of the last calls are kept in a window. Once enough calls have been made and the
+ * share of failed or slow calls reaches its threshold, the circuit OPENs and calls are rejected without being
+ * made. After the open duration the next call moves the circuit to HALF_OPEN, where only the configured number of
+ * probe calls is let through. The probes close the circuit if they stay under the thresholds, and open it again
+ * otherwise.
+ * <p/>
+ * Permitting a call only reads the current state, so rejecting one costs no more than a volatile read and a
+ * counter. Outcomes are recorded under a lock, which is small next to the call to the mail server. Outcomes of
+ * calls permitted before the last transition are ignored.
+ */
+public class CircuitBreaker extends NotificationBroadcasterSupport implements CircuitBreakerMBean {
+
+    private static final Log log = LogFactory.getLog(CircuitBreaker.class);
+
+    private static final String OBJECT_NAME = "org.wso2.carbon.identity.event.handler.email:type=EmailCircuitBreaker";
+    private static final String STATE_ATTRIBUTE = "State";
+
+    /**
+     * Returned by {@link #acquire()} when the call is not permitted.
+     */
+    public static final long REJECTED = -1;
+
+    /**
+     * States of the circuit.
+     */
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int windowSize;
+    private final int minimumCalls;
+    private final int failureRateThreshold;
+    private final int slowCallRateThreshold;
+    private final long slowCallNanos;
+    private final long openMillis;
+    private final int probes;
+
+    private final AtomicLong shortCircuitedCount = new AtomicLong();
+    private final AtomicLong openedCount = new AtomicLong();
+    private final AtomicLong halfOpenedCount = new AtomicLong();
+    private final AtomicLong closedCount = new AtomicLong();
+    private final AtomicLong notificationSequence = new AtomicLong();
+
+    private volatile Phase phase;
+    // Guarded by this.
+    private CallWindow window;
+
+    /**
+     * @param windowSize            - Number of the last calls the rates are taken over while closed.
+     * @param minimumCalls          - Number of calls in the window before the circuit may open.
+     * @param failureRateThreshold  - Percentage of failed calls which opens the circuit. Zero disables it.
+     * @param slowCallRateThreshold - Percentage of slow calls which opens the circuit. Zero disables it.
+     * @param slowCallMillis        - Duration from which a call counts as slow.
+     * @param openMillis            - Time calls are rejected for before probes are let through.
+     * @param probes                - Number of calls let through while half open.
+     */
+    public CircuitBreaker(int windowSize, int minimumCalls, int failureRateThreshold, int slowCallRateThreshold,
+                          long slowCallMillis, long openMillis, int probes) {
+        this.windowSize = Math.max(1, windowSize);
+        this.minimumCalls = Math.min(Math.max(1, minimumCalls), this.windowSize);
+        this.failureRateThreshold = failureRateThreshold;
+        this.slowCallRateThreshold = slowCallRateThreshold;
+        this.slowCallNanos = TimeUnit.MILLISECONDS.toNanos(slowCallMillis);
+        this.openMillis = Math.max(0, openMillis);
+        this.probes = Math.max(1, probes);
+        this.phase = new Phase(State.CLOSED, 0, System.currentTimeMillis(), 0);
+        this.window = new CallWindow(this.windowSize);
+    }
+
+    /**
+     * Asks for a call to be made. The returned permit is handed back with the outcome of the call.
+     *
+     * @return Permit of the call, or {@link #REJECTED} if the call must not be made.
+     */
+    public long acquire() {
+        Phase current = phase;
+        if (current.state == State.OPEN) {
+            if (System.currentTimeMillis() - current.since < openMillis) {
+                shortCircuitedCount.incrementAndGet();
+                return REJECTED;
+            }
+            current = halfOpen(current);
+        }
+        if (current.state == State.HALF_OPEN && !current.takePermit()) {
+            shortCircuitedCount.incrementAndGet();
+            return REJECTED;
+        }
+        return current.generation;
+    }
+
+    /**
+     * @return Whether a call would be permitted now, without asking for one.
+     */
+    public boolean isCallPermitted() {
+        Phase current = phase;
+        switch (current.state) {
+            case OPEN:
+                return System.currentTimeMillis() - current.since >= openMillis;
+            case HALF_OPEN:
+                return current.permits.get() > 0;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Records the outcome of a permitted call.
+     *
+     * @param permit - Permit returned by {@link #acquire()} for the call.
+     * @param failed - Whether the call failed in a way that counts against the mail server.
+     * @param nanos  - Duration of the call.
+     */
+    public void onResult(long permit, boolean failed, long nanos) {
+        if (permit == REJECTED) {
+            return;
+        }
+        Notification notification = null;
+        synchronized (this) {
+            Phase current = phase;
+            if (permit != current.generation || current.state == State.OPEN) {
+                return;
+            }
+            window.record(failed, nanos >= slowCallNanos);
+            if (current.state == State.CLOSED) {
+                if (window.count >= minimumCalls && isTripped()) {
+                    notification = transition(State.OPEN);
+                }
+            } else if (window.count >= probes) {
+                notification = transition(isTripped() ? State.OPEN : State.CLOSED);
+            }
+        }
+        if (notification != null) {
+            sendNotification(notification);
+        }
+    }
+
+    public State getCurrentState() {
+        return phase.state;
+    }
+
+    public int getProbes() {
+        return probes;
+    }
+
+    @Override
+    public String getState() {
+        return phase.state.name();
+    }
+
+    @Override
+    public long getTimeInState() {
+        return System.currentTimeMillis() - phase.since;
+    }
+
+    @Override
+    public synchronized double getFailureRate() {
+        return hasEnoughCalls() ? window.getFailureRate() : -1;
+    }
+
+    @Override
+    public synchronized double getSlowCallRate() {
+        return hasEnoughCalls() ? window.getSlowCallRate() : -1;
+    }
+
+    @Override
+    public synchronized int getBufferedCalls() {
+        return window.count;
+    }
+
+    @Override
+    public long getShortCircuitedCount() {
+        return shortCircuitedCount.get();
+    }
+
+    @Override
+    public long getOpenedCount() {
+        return openedCount.get();
+    }
+
+    @Override
+    public long getHalfOpenedCount() {
+        return halfOpenedCount.get();
+    }
+
+    @Override
+    public long getClosedCount() {
+        return closedCount.get();
+    }
+
+    @Override
+    public void reset() {
+        Notification notification = null;
+        synchronized (this) {
+            if (phase.state == State.CLOSED) {
+                window = new CallWindow(windowSize);
+            } else {
+                notification = transition(State.CLOSED);
+            }
+        }
+        if (notification != null) {
+            sendNotification(notification);
+        }
+    }
+
+    @Override
+    public MBeanNotificationInfo[] getNotificationInfo() {
+        return new MBeanNotificationInfo[]{new MBeanNotificationInfo(
+                new String[]{AttributeChangeNotification.ATTRIBUTE_CHANGE},
+                AttributeChangeNotification.class.getName(), "State transitions of the email circuit breaker")};
+    }
+
+    private Phase halfOpen(Phase opened) {
+        Notification notification = null;
+        Phase current;
+        synchronized (this) {
+            if (phase == opened) {
+                notification = transition(State.HALF_OPEN);
+            }
+            current = phase;
+        }
+        if (notification != null) {
+            sendNotification(notification);
+        }
+        return current;
+    }
+
+    // Called holding the lock. The returned notification is sent after the lock is released.
+    private Notification transition(State state) {
+        Phase previous = phase;
+        long now = System.currentTimeMillis();
+        if (state == State.OPEN) {
+            openedCount.incrementAndGet();
+            log.warn("Email circuit breaker opened with " + window.getFailureRate() + "% failed and " +
+                    window.getSlowCallRate() + "% slow of the last " + window.count + " calls to the mail server. " +
+                    "Emails are short-circuited for " + openMillis + "ms");
+        } else if (state == State.HALF_OPEN) {
+            halfOpenedCount.incrementAndGet();
+            log.info("Email circuit breaker is half open. Probing the mail server with " + probes + " emails");
+        } else {
+            closedCount.incrementAndGet();
+            log.info("Email circuit breaker closed after being " + previous.state + " for " +
+                    (now - previous.since) + "ms");
+        }
+        phase = new Phase(state, previous.generation + 1, now, state == State.HALF_OPEN ? probes : 0);
+        window = new CallWindow(state == State.HALF_OPEN ? probes : windowSize);
+        return new AttributeChangeNotification(this, notificationSequence.incrementAndGet(), now,
+                "Email circuit breaker changed from " + previous.state + " to " + state, STATE_ATTRIBUTE,
+                String.class.getName(), previous.state.name(), state.name());
+    }
+
+    private boolean isTripped() {
+        return isExceeded(window.getFailureRate(), failureRateThreshold) ||
+                isExceeded(window.getSlowCallRate(), slowCallRateThreshold);
+    }
+
+    private boolean hasEnoughCalls() {
+        return window.count >= (phase.state == State.HALF_OPEN ? 1 : minimumCalls);
+    }
+
+    private static boolean isExceeded(double rate, int threshold) {
+        return threshold > 0 && rate >= threshold;
+    }
+
+    /**
+     * Registers the given circuit breaker with the platform MBean server, in place of any registered before.
+     * Unregisters it if the circuit breaker is null.
+     */
+    public static void register(CircuitBreaker circuitBreaker) {
+        try {
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(OBJECT_NAME);
+            if (mBeanServer.isRegistered(objectName)) {
+                mBeanServer.unregisterMBean(objectName);
+            }
+            if (circuitBreaker != null) {
+                mBeanServer.registerMBean(circuitBreaker, objectName);
+            }
+        } catch (JMException e) {
+            log.warn("Could not register the email circuit breaker MBean : " + OBJECT_NAME, e);
+        }
+    }
+
+    /**
+     * A state of the circuit with the number that tells permits given in it from permits given in others.
+     */
+    private static class Phase {
+
+        private final State state;
+        private final long generation;
+        private final long since;
+        private final AtomicInteger permits;
+
+        private Phase(State state, long generation, long since, int permits) {
+            this.state = state;
+            this.generation = generation;
+            this.since = since;
+            this.permits = new AtomicInteger(permits);
+        }
+
+        private boolean takePermit() {
+            while (true) {
+                int available = permits.get();
+                if (available <= 0) {
+                    return false;
+                }
+                if (permits.compareAndSet(available, available - 1)) {
+                    return true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Outcomes of the last calls in a ring, with running counts of the failed and slow ones.
+     */
+    private static class CallWindow {
+
+        private static final byte FAILED = 1;
+        private static final byte SLOW = 2;
+
+        private final byte[] outcomes;
+        private int next;
+        private int count;
+        private int failedCount;
+        private int slowCount;
+
+        private CallWindow(int size) {
+            this.outcomes = new byte[size];
+        }
+
+        private void record(boolean failed, boolean slow) {
+            if (count == outcomes.length) {
+                byte oldest = outcomes[next];
+                failedCount -= oldest & FAILED;
+                slowCount -= (oldest & SLOW) >> 1;
+            } else {
+                count++;
+            }
+            byte outcome = (byte) ((failed ? FAILED : 0) | (slow ? SLOW : 0));
+            outcomes[next] = outcome;
+            failedCount += outcome & FAILED;
+            slowCount += (outcome & SLOW) >> 1;
+            next = (next + 1) % outcomes.length;
+        }
+
+        private double getFailureRate() {
+            return count > 0 ? failedCount * 100.0 / count : 0;
+        }
+
+        private double getSlowCallRate() {
+            return count > 0 ? slowCount * 100.0 / count : 0;
+        }
+    }
+}
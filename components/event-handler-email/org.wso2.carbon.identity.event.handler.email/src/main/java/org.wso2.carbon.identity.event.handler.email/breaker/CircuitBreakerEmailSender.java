@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.event.handler.email.breaker;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.identity.event.handler.email.audit.DeliveryAuditLog;
+import org.wso2.carbon.identity.event.handler.email.constants.EmailEventConstants;
+import org.wso2.carbon.identity.event.handler.email.delivery.EmailDispatcher;
+import org.wso2.carbon.identity.event.handler.email.delivery.EmailMessage;
+import org.wso2.carbon.identity.event.handler.email.delivery.EmailSender;
+import org.wso2.carbon.identity.event.handler.email.exception.EmailEventServiceException;
+import org.wso2.carbon.identity.event.handler.email.metrics.EmailEventFailure;
+import org.wso2.carbon.identity.event.handler.email.metrics.EmailEventMetrics;
+import org.wso2.carbon.identity.event.handler.email.retry.DeadLetter;
+import org.wso2.carbon.identity.event.handler.email.retry.DeadLetterStore;
+import org.wso2.carbon.identity.event.handler.email.retry.SendFailureClassifier;
+
+import java.io.File;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.AttributeChangeNotification;
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationListener;
+
+/**
+ * Sends through the wrapped sender while the {@link CircuitBreaker} permits it, so that while the mail server is
+ * down or slow emails do not each wait through its connection and read timeouts.
+ * <p/>
+ * Emails the circuit breaker rejects are kept in the spool and count as sent, or fail at once if there is no
+ * spool. Rejections of an email by the mail server, such as an unknown recipient, show the mail server is up and
+ * do not count against it. The spool is drained through the dispatcher given by {@link #setDispatcher} when the
+ * circuit closes, and is also checked once per open duration, so that spooled emails probe the mail server when no
+ * new emails arrive.
+ */
+public class CircuitBreakerEmailSender implements EmailSender {
+
+    private static final Log log = LogFactory.getLog(CircuitBreakerEmailSender.class);
+
+    private static final String DRAIN_THREAD_NAME = "EmailEventHandler-Spool";
+
+    private final EmailSender sender;
+    private final CircuitBreaker circuitBreaker;
+    private final DeadLetterStore spool;
+    private final ScheduledExecutorService drainExecutor;
+    private final NotificationListener closeListener;
+    private final AtomicLong spooledCount = new AtomicLong();
+    private volatile EmailDispatcher dispatcher;
+
+    /**
+     * @param spool               - Store emails are kept in while the circuit is open, or null to fail them.
+     * @param drainIntervalMillis - Interval the spool is checked at.
+     */
+    public CircuitBreakerEmailSender(EmailSender sender, CircuitBreaker circuitBreaker, DeadLetterStore spool,
+                                     long drainIntervalMillis) {
+        this.sender = sender;
+        this.circuitBreaker = circuitBreaker;
+        this.spool = spool;
+        if (spool == null) {
+            this.drainExecutor = null;
+            this.closeListener = null;
+            return;
+        }
+        this.drainExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, DRAIN_THREAD_NAME);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        final Runnable drainTask = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    drain();
+                } catch (RuntimeException e) {
+                    log.error("Error while draining the email spool", e);
+                }
+            }
+        };
+        long interval = Math.max(1, drainIntervalMillis);
+        drainExecutor.scheduleWithFixedDelay(drainTask, interval, interval, TimeUnit.MILLISECONDS);
+        this.closeListener = new NotificationListener() {
+            @Override
+            public void handleNotification(Notification notification, Object handback) {
+                if (notification instanceof AttributeChangeNotification && CircuitBreaker.State.CLOSED.name()
+                        .equals(((AttributeChangeNotification) notification).getNewValue())) {
+                    try {
+                        drainExecutor.execute(drainTask);
+                    } catch (RejectedExecutionException e) {
+                        // Shut down. The spool is drained by the sender replacing this one.
+                    }
+                }
+            }
+        };
+        circuitBreaker.addNotificationListener(closeListener, null, null);
+    }
+
+    /**
+     * @return The spool directory under the carbon home, or under the temporary directory if it is not set.
+     */
+    public static File getDefaultSpoolDirectory() {
+        String baseDirectory = System.getProperty("carbon.home");
+        if (baseDirectory == null) {
+            baseDirectory = System.getProperty("java.io.tmpdir");
+        }
+        return new File(baseDirectory, EmailEventConstants.CIRCUIT_BREAKER_SPOOL_DIRECTORY_DEFAULT);
+    }
+
+    @Override
+    public void send(EmailMessage message) throws EmailEventServiceException {
+        long permit = circuitBreaker.acquire();
+        if (permit == CircuitBreaker.REJECTED) {
+            shortCircuit(message);
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            sender.send(message);
+        } catch (EmailEventServiceException | RuntimeException e) {
+            circuitBreaker.onResult(permit, !SendFailureClassifier.isPermanent(e), System.nanoTime() - start);
+            throw e;
+        }
+        circuitBreaker.onResult(permit, false, System.nanoTime() - start);
+    }
+
+    /**
+     * Stops draining the spool. Emails left in it are drained by the next sender using the same spool, or when
+     * the server is started again.
+     */
+    public void shutdown() {
+        if (drainExecutor == null) {
+            return;
+        }
+        try {
+            circuitBreaker.removeNotificationListener(closeListener);
+        } catch (ListenerNotFoundException e) {
+            // Never added or already removed.
+        }
+        drainExecutor.shutdown();
+    }
+
+    /**
+     * Sets the dispatcher spooled emails are handed over to. It is built over this sender, so it is set once it is
+     * built. The spool is not drained before.
+     */
+    public void setDispatcher(EmailDispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * @return The spool, or null if emails are failed while the circuit is open.
+     */
+    public DeadLetterStore getSpool() {
+        return spool;
+    }
+
+    public long getSpooledCount() {
+        return spooledCount.get();
+    }
+
+    private void shortCircuit(EmailMessage message) throws EmailEventServiceException {
+        EmailEventMetrics metrics = EmailEventMetrics.getInstance();
+        metrics.recordFailure(metrics.getSeries(message.getTenantId(), message.getTemplateType()),
+                EmailEventFailure.CIRCUIT_OPEN);
+        String recipient = DeliveryAuditLog.maskAddress(message.getSendTo());
+        EmailEventServiceException failure = new EmailEventServiceException("Email circuit breaker is " +
+                circuitBreaker.getState() + ". The email to " + recipient + " was not sent");
+        if (spool == null) {
+            throw failure;
+        }
+        spool.add(message, 0, failure);
+        spooledCount.incrementAndGet();
+        if (log.isDebugEnabled()) {
+            log.debug("Spooled the email to " + recipient + " while the email circuit breaker is " +
+                    circuitBreaker.getState());
+        }
+    }
+
+    /**
+     * Hands spooled emails, oldest first, over to the dispatcher while the circuit breaker permits calls.
+     * Only as many emails as there are probes are handed over unless the circuit is closed, so that the spool is
+     * not churned through while the mail server is still down.
+     */
+    private void drain() {
+        EmailDispatcher dispatcher = this.dispatcher;
+        if (dispatcher == null || spool.size() == 0 || !circuitBreaker.isCallPermitted()) {
+            return;
+        }
+        int limit = circuitBreaker.getCurrentState() == CircuitBreaker.State.CLOSED ? spool.size() :
+                circuitBreaker.getProbes();
+        int drained = 0;
+        for (DeadLetter spooled : spool.list(0, limit)) {
+            if (!circuitBreaker.isCallPermitted()) {
+                break;
+            }
+            if (spool.replay(spooled.getMessageId(), dispatcher)) {
+                drained++;
+            }
+        }
+        if (drained > 0) {
+            log.info("Resent " + drained + " emails from the email spool. " + spool.size() + " remain spooled");
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.event.handler.email.breaker;
+
+/**
+ * State of the circuit breaker around the mail server and the calls it has seen, exposed through JMX. Each state
+ * transition is also emitted as an {@link javax.management.AttributeChangeNotification} of the State attribute.
+ */
+public interface CircuitBreakerMBean {
+
+    /**
+     * @return CLOSED, OPEN or HALF_OPEN.
+     */
+    String getState();
+
+    /**
+     * @return Milliseconds since the circuit entered its current state.
+     */
+    long getTimeInState();
+
+    /**
+     * @return Failed calls in percent of the calls in the current window, or -1 if too few calls were made.
+     */
+    double getFailureRate();
+
+    /**
+     * @return Slow calls in percent of the calls in the current window, or -1 if too few calls were made.
+     */
+    double getSlowCallRate();
+
+    int getBufferedCalls();
+
+    long getShortCircuitedCount();
+
+    long getOpenedCount();
+
+    long getHalfOpenedCount();
+
+    long getClosedCount();
+
+    /**
+     * Closes the circuit and forgets the calls seen so far.
+     */
+    void reset();
+}
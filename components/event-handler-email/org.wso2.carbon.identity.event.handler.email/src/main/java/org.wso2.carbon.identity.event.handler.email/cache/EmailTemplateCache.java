@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.event.handler.email.cache;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.identity.event.handler.email.constants.EmailEventConstants;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded, tenant aware cache of the email templates read from the registry. Entries are evicted in least
+ * recently used order once the configured size is reached and expire after the configured timeout. Entries are
+ * invalidated when a template is changed through email management, and a template read before such a change is
+ * not put into the cache afterwards.
+ */
+public class EmailTemplateCache {
+
+    private static final Log log = LogFactory.getLog(EmailTemplateCache.class);
+    private static final EmailTemplateCache instance = new EmailTemplateCache();
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+    // Incremented on every invalidation, so that a template read which raced with a change is not kept.
+    private final AtomicLong generation = new AtomicLong();
+
+    private volatile boolean enabled = EmailEventConstants.ConfigDefault.TEMPLATE_CACHE_ENABLE;
+    private volatile int maxEntries = EmailEventConstants.ConfigDefault.TEMPLATE_CACHE_MAX_ENTRIES;
+    private volatile long timeoutMillis =
+            TimeUnit.SECONDS.toMillis(EmailEventConstants.ConfigDefault.TEMPLATE_CACHE_TIMEOUT);
+
+    private final Map<EmailTemplateCacheKey, EmailTemplateCacheEntry> entries =
+            new LinkedHashMap<EmailTemplateCacheKey, EmailTemplateCacheEntry>(16, 0.75f, true) {
+
+                private static final long serialVersionUID = -4218620371722306862L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<EmailTemplateCacheKey, EmailTemplateCacheEntry> eldest) {
+                    if (size() > maxEntries) {
+                        evictionCount.incrementAndGet();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+
+    private EmailTemplateCache() {
+    }
+
+    public static EmailTemplateCache getInstance() {
+        return instance;
+    }
+
+    /**
+     * Applies the cache settings given in the handler configuration.
+     *
+     * @param enabled        - Whether templates should be cached at all.
+     * @param maxEntries     - Maximum number of templates held across all tenants.
+     * @param timeoutSeconds - Time a template is served from the cache before it is read again. Zero keeps
+     *                       templates until they are evicted or invalidated.
+     */
+    public void configure(boolean enabled, int maxEntries, long timeoutSeconds) {
+        this.enabled = enabled;
+        this.maxEntries = maxEntries > 0 ? maxEntries : EmailEventConstants.ConfigDefault.TEMPLATE_CACHE_MAX_ENTRIES;
+        this.timeoutMillis = TimeUnit.SECONDS.toMillis(timeoutSeconds);
+        clear();
+        if (log.isDebugEnabled()) {
+            log.debug("Email template cache enabled : " + enabled + ", max entries : " + this.maxEntries +
+                    ", timeout : " + timeoutSeconds + "s");
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public EmailTemplateCacheEntry get(EmailTemplateCacheKey key) {
+        if (!enabled) {
+            return null;
+        }
+        EmailTemplateCacheEntry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry != null && isExpired(entry)) {
+                entries.remove(key);
+                entry = null;
+            }
+        }
+        if (entry == null) {
+            missCount.incrementAndGet();
+        } else {
+            hitCount.incrementAndGet();
+        }
+        return entry;
+    }
+
+    /**
+     * @return The generation to pass to {@link #put} once the template has been read.
+     */
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * Keeps a template, unless a template was invalidated since it was read.
+     *
+     * @param generation - Generation taken before the template was read.
+     */
+    public void put(EmailTemplateCacheKey key, EmailTemplateCacheEntry entry, long generation) {
+        if (!enabled) {
+            return;
+        }
+        synchronized (entries) {
+            if (this.generation.get() == generation) {
+                entries.put(key, entry);
+            }
+        }
+    }
+
+    public void invalidate(int tenantId, String templateType, String locale) {
+        synchronized (entries) {
+            generation.incrementAndGet();
+            entries.remove(new EmailTemplateCacheKey(tenantId, templateType, locale));
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Invalidated cached email template " + templateType + "." + locale + " of tenant : " +
+                    tenantId);
+        }
+    }
+
+    public void invalidate(int tenantId) {
+        synchronized (entries) {
+            generation.incrementAndGet();
+            Iterator<EmailTemplateCacheKey> iterator = entries.keySet().iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().getTenantId() == tenantId) {
+                    iterator.remove();
+                }
+            }
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Invalidated cached email templates of tenant : " + tenantId);
+        }
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            generation.incrementAndGet();
+            entries.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    private boolean isExpired(EmailTemplateCacheEntry entry) {
+        return timeoutMillis > 0 && System.currentTimeMillis() - entry.getLoadedTime() > timeoutMillis;
+    }
+}
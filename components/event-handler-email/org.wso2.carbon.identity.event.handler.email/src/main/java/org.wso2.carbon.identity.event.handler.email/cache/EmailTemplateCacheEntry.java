@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.event.handler.email.cache;
+
+import org.wso2.carbon.identity.event.handler.email.template.CompiledEmailTemplate;
+import org.wso2.carbon.identity.event.handler.email.util.EmailInfoDTO;
+
+/**
+ * A template held in the {@link EmailTemplateCache} in its compiled form, along with the time it was loaded from
+ * the registry. Only the compiled template is kept, as UTF-8 byte segments. Cached entries are shared between
+ * threads and must not be modified.
+ */
+public class EmailTemplateCacheEntry {
+
+    private final CompiledEmailTemplate compiledTemplate;
+    private final String locale;
+    private final long loadedTime;
+
+    public EmailTemplateCacheEntry(EmailInfoDTO emailInfo) {
+        this(new CompiledEmailTemplate(emailInfo), emailInfo.getLocale());
+    }
+
+    public EmailTemplateCacheEntry(CompiledEmailTemplate compiledTemplate, String locale) {
+        this.compiledTemplate = compiledTemplate;
+        this.locale = locale;
+        this.loadedTime = System.currentTimeMillis();
+    }
+
+    /**
+     * @return The template as it was read from the registry, decoded from the compiled template on every call.
+     */
+    public EmailInfoDTO getEmailInfo() {
+        EmailInfoDTO emailInfo = compiledTemplate.toEmailInfo();
+        emailInfo.setLocale(locale);
+        return emailInfo;
+    }
+
+    public CompiledEmailTemplate getCompiledTemplate() {
+        return compiledTemplate;
+    }
+
+    public long getLoadedTime() {
+        return loadedTime;
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.event.handler.email.cache;
+
+import java.io.Serializable;
+
+/**
+ * Identifies a cached email template by tenant, template type and locale.
+ */
+public class EmailTemplateCacheKey implements Serializable {
+
+    private static final long serialVersionUID = 2315460328846418812L;
+
+    private final int tenantId;
+    private final String templateType;
+    private final String locale;
+    private final int hashCode;
+
+    public EmailTemplateCacheKey(int tenantId, String templateType, String locale) {
+        this.tenantId = tenantId;
+        this.templateType = templateType;
+        this.locale = locale;
+        int result = tenantId;
+        result = 31 * result + (templateType != null ? templateType.hashCode() : 0);
+        result = 31 * result + (locale != null ? locale.hashCode() : 0);
+        this.hashCode = result;
+    }
+
+    public int getTenantId() {
+        return tenantId;
+    }
+
+    public String getTemplateType() {
+        return templateType;
+    }
+
+    public String getLocale() {
+        return locale;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof EmailTemplateCacheKey)) {
+            return false;
+        }
+        EmailTemplateCacheKey that = (EmailTemplateCacheKey) o;
+        if (tenantId != that.tenantId) {
+            return false;
+        }
+        if (templateType != null ? !templateType.equals(that.templateType) : that.templateType != null) {
+            return false;
+        }
+        return locale != null ? locale.equals(that.locale) : that.locale == null;
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    @Override
+    public String toString() {
+        return tenantId + ":" + templateType + "." + locale;
+    }
+}
@@ -0,0 +1,295 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.event.handler.email.cache;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.identity.event.handler.email.constants.EmailEventConstants;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Short lived cache of the user claims read for notifications, so a burst of notifications to the same user
+ * reads the user store once. Entries are evicted in least recently used order once the configured size is reached
+ * and expire after the configured timeout. Entries are invalidated when the claims of a user are changed.
+ * Disabled by default.
+ * <p/>
+ * Claims read before an invalidation are not cached afterwards, see {@link #getGeneration()}. The keys are also
+ * indexed by the user name without its user store domain, so the claims of a user are invalidated without
+ * scanning the whole cache.
+ */
+public class UserClaimCache {
+
+    private static final Log log = LogFactory.getLog(UserClaimCache.class);
+    private static final UserClaimCache instance = new UserClaimCache();
+    private static final char DOMAIN_SEPARATOR = '/';
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+    private final AtomicLong loadCount = new AtomicLong();
+    private final AtomicLong totalLoadTime = new AtomicLong();
+    private final AtomicLong generation = new AtomicLong();
+
+    private volatile boolean enabled = EmailEventConstants.ConfigDefault.CLAIM_CACHE_ENABLE;
+    private volatile int maxEntries = EmailEventConstants.ConfigDefault.CLAIM_CACHE_MAX_ENTRIES;
+    private volatile long timeoutMillis =
+            TimeUnit.SECONDS.toMillis(EmailEventConstants.ConfigDefault.CLAIM_CACHE_TIMEOUT);
+
+    private final Map<UserClaimCacheKey, UserClaimCacheEntry> entries =
+            new LinkedHashMap<UserClaimCacheKey, UserClaimCacheEntry>(16, 0.75f, true) {
+
+                private static final long serialVersionUID = 7472938562215064187L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<UserClaimCacheKey, UserClaimCacheEntry> eldest) {
+                    if (size() > maxEntries) {
+                        evictionCount.incrementAndGet();
+                        unindex(eldest.getKey());
+                        return true;
+                    }
+                    return false;
+                }
+            };
+
+    // Keys of the cached entries, by tenant and user name without the user store domain. Guarded by entries.
+    private final Map<UserClaimCacheKey, Set<UserClaimCacheKey>> keysByUser = new HashMap<>();
+
+    private UserClaimCache() {
+    }
+
+    public static UserClaimCache getInstance() {
+        return instance;
+    }
+
+    /**
+     * Applies the cache settings given in the handler configuration.
+     *
+     * @param enabled        - Whether claims should be cached at all.
+     * @param maxEntries     - Maximum number of users held across all tenants.
+     * @param timeoutSeconds - Time the claims of a user are served from the cache before they are read again.
+     */
+    public void configure(boolean enabled, int maxEntries, long timeoutSeconds) {
+        this.enabled = enabled && timeoutSeconds > 0;
+        this.maxEntries = maxEntries > 0 ? maxEntries : EmailEventConstants.ConfigDefault.CLAIM_CACHE_MAX_ENTRIES;
+        this.timeoutMillis = TimeUnit.SECONDS.toMillis(timeoutSeconds);
+        clear();
+        if (log.isDebugEnabled()) {
+            log.debug("User claim cache enabled : " + this.enabled + ", max entries : " + this.maxEntries +
+                    ", timeout : " + timeoutSeconds + "s");
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns the cached claims of a user without counting a hit or a miss. Whether the entry holds the claims the
+     * caller needs is only known to the caller, which reports it through {@link #recordHit()} and
+     * {@link #recordMiss()}.
+     */
+    public UserClaimCacheEntry get(UserClaimCacheKey key) {
+        if (!enabled) {
+            return null;
+        }
+        synchronized (entries) {
+            UserClaimCacheEntry entry = entries.get(key);
+            if (entry != null && System.currentTimeMillis() - entry.getLoadedTime() > timeoutMillis) {
+                entries.remove(key);
+                unindex(key);
+                return null;
+            }
+            return entry;
+        }
+    }
+
+    /**
+     * @return The generation to pass to {@link #put} once the claims have been read.
+     */
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * Keeps the claims of a user, unless claims were invalidated since they were read.
+     *
+     * @param generation - Generation taken before the claims were read.
+     */
+    public void put(UserClaimCacheKey key, UserClaimCacheEntry entry, long generation) {
+        if (!enabled) {
+            return;
+        }
+        synchronized (entries) {
+            if (this.generation.get() == generation && entries.put(key, entry) == null) {
+                index(key);
+            }
+        }
+    }
+
+    /**
+     * Removes the claims of a user. Entries cached under the user name qualified with a user store domain are
+     * removed as well.
+     */
+    public void invalidate(int tenantId, String userName) {
+        if (userName == null) {
+            return;
+        }
+        String domainQualifiedSuffix = DOMAIN_SEPARATOR + userName;
+        synchronized (entries) {
+            generation.incrementAndGet();
+            Set<UserClaimCacheKey> userKeys = keysByUser.get(getUserKey(tenantId, userName));
+            if (userKeys != null) {
+                Iterator<UserClaimCacheKey> iterator = userKeys.iterator();
+                while (iterator.hasNext()) {
+                    UserClaimCacheKey key = iterator.next();
+                    if (key.getUserName().equals(userName) || key.getUserName().endsWith(domainQualifiedSuffix)) {
+                        entries.remove(key);
+                        iterator.remove();
+                    }
+                }
+                if (userKeys.isEmpty()) {
+                    keysByUser.remove(getUserKey(tenantId, userName));
+                }
+            }
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Invalidated cached claims of user : " + userName + " of tenant : " + tenantId);
+        }
+    }
+
+    public void invalidate(int tenantId) {
+        synchronized (entries) {
+            generation.incrementAndGet();
+            Iterator<UserClaimCacheKey> iterator = entries.keySet().iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().getTenantId() == tenantId) {
+                    iterator.remove();
+                }
+            }
+            Iterator<UserClaimCacheKey> userIterator = keysByUser.keySet().iterator();
+            while (userIterator.hasNext()) {
+                if (userIterator.next().getTenantId() == tenantId) {
+                    userIterator.remove();
+                }
+            }
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Invalidated cached user claims of tenant : " + tenantId);
+        }
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            generation.incrementAndGet();
+            entries.clear();
+            keysByUser.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    private void index(UserClaimCacheKey key) {
+        if (key.getUserName() == null) {
+            return;
+        }
+        UserClaimCacheKey userKey = getUserKey(key.getTenantId(), key.getUserName());
+        Set<UserClaimCacheKey> userKeys = keysByUser.get(userKey);
+        if (userKeys == null) {
+            userKeys = new HashSet<>(2);
+            keysByUser.put(userKey, userKeys);
+        }
+        userKeys.add(key);
+    }
+
+    private void unindex(UserClaimCacheKey key) {
+        if (key.getUserName() == null) {
+            return;
+        }
+        UserClaimCacheKey userKey = getUserKey(key.getTenantId(), key.getUserName());
+        Set<UserClaimCacheKey> userKeys = keysByUser.get(userKey);
+        if (userKeys != null && userKeys.remove(key) && userKeys.isEmpty()) {
+            keysByUser.remove(userKey);
+        }
+    }
+
+    /**
+     * @return Key of the user name without anything up to its last separator, which drops the user store domain.
+     */
+    private static UserClaimCacheKey getUserKey(int tenantId, String userName) {
+        return new UserClaimCacheKey(tenantId, userName.substring(userName.lastIndexOf(DOMAIN_SEPARATOR) + 1));
+    }
+
+    public void recordHit() {
+        hitCount.incrementAndGet();
+    }
+
+    public void recordMiss() {
+        missCount.incrementAndGet();
+    }
+
+    /**
+     * @param loadTimeNanos - Time taken to read the missing claims from the user store.
+     */
+    public void recordLoad(long loadTimeNanos) {
+        loadCount.incrementAndGet();
+        totalLoadTime.addAndGet(loadTimeNanos);
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    public double getHitRatio() {
+        long hits = hitCount.get();
+        long total = hits + missCount.get();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    public long getLoadCount() {
+        return loadCount.get();
+    }
+
+    /**
+     * @return Average time taken to read claims from the user store, in milliseconds.
+     */
+    public double getAverageLoadTime() {
+        long loads = loadCount.get();
+        return loads == 0 ? 0 : (double) TimeUnit.NANOSECONDS.toMicros(totalLoadTime.get()) / loads / 1000;
+    }
+}
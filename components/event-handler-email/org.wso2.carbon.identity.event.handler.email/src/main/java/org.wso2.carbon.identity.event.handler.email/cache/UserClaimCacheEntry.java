@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.event.handler.email.cache;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Claims of a user held in the {@link UserClaimCache}. Along with the claim values, the entry keeps the URIs of
+ * all the claims that were read, so a claim the user does not have is not read again. Cached entries are shared
+ * between threads and must not be modified.
+ */
+public class UserClaimCacheEntry {
+
+    private final Map<String, String> claims;
+    private final Set<String> loadedClaimUris;
+    private final long loadedTime;
+
+    public UserClaimCacheEntry(Map<String, String> claims, Collection<String> loadedClaimUris) {
+        this(claims, loadedClaimUris, System.currentTimeMillis());
+    }
+
+    private UserClaimCacheEntry(Map<String, String> claims, Collection<String> loadedClaimUris, long loadedTime) {
+        this.claims = Collections.unmodifiableMap(new HashMap<>(claims));
+        this.loadedClaimUris = Collections.unmodifiableSet(new HashSet<>(loadedClaimUris));
+        this.loadedTime = loadedTime;
+    }
+
+    /**
+     * Returns a new entry with the given claims added. The new entry expires together with this one, so claims
+     * added later are not kept longer than the ones read first.
+     */
+    public UserClaimCacheEntry merge(Map<String, String> moreClaims, Collection<String> moreClaimUris) {
+        Map<String, String> mergedClaims = new HashMap<>(claims);
+        mergedClaims.putAll(moreClaims);
+        Set<String> mergedClaimUris = new HashSet<>(loadedClaimUris);
+        mergedClaimUris.addAll(moreClaimUris);
+        return new UserClaimCacheEntry(mergedClaims, mergedClaimUris, loadedTime);
+    }
+
+    public boolean isLoaded(String claimUri) {
+        return loadedClaimUris.contains(claimUri);
+    }
+
+    public Map<String, String> getClaims() {
+        return claims;
+    }
+
+    public long getLoadedTime() {
+        return loadedTime;
+    }
+}
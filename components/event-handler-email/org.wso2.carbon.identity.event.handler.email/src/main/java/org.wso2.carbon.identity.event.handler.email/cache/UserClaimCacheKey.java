@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.event.handler.email.cache;
+
+import java.io.Serializable;
+
+/**
+ * Identifies the cached claims of a user by tenant and user name.
+ */
+public class UserClaimCacheKey implements Serializable {
+
+    private static final long serialVersionUID = -1658471294736613590L;
+
+    private final int tenantId;
+    private final String userName;
+    private final int hashCode;
+
+    public UserClaimCacheKey(int tenantId, String userName) {
+        this.tenantId = tenantId;
+        this.userName = userName;
+        this.hashCode = 31 * tenantId + (userName != null ? userName.hashCode() : 0);
+    }
+
+    public int getTenantId() {
+        return tenantId;
+    }
+
+    public String getUserName() {
+        return userName;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof UserClaimCacheKey)) {
+            return false;
+        }
+        UserClaimCacheKey that = (UserClaimCacheKey) o;
+        if (tenantId != that.tenantId) {
+            return false;
+        }
+        return userName != null ? userName.equals(that.userName) : that.userName == null;
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    @Override
+    public String toString() {
+        return tenantId + ":" + userName;
+    }
+}
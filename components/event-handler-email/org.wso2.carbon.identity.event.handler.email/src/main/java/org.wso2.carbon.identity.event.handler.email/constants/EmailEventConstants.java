@@ -18,6 +18,8 @@
 
 package org.wso2.carbon.identity.event.handler.email.constants;
 
+import java.io.File;
+
 public class EmailEventConstants {
 
     private EmailEventConstants() {
@@ -34,6 +36,16 @@ public class EmailEventConstants {
     public static final String DEFAULT_IDENTITY_PREFIX = "identity/";
 
     public static final String CARBON_DOMAIN = "carbon.super";
+    public static final String MAIL_TRANSPORT = "mailto";
+    public static final int INVALID_TENANT_ID = -1;
+    public static final int USER_CLAIM_CACHE_LISTENER_ORDER_ID = 95;
+    public static final String DELIVERY_AUDIT_LOG = "EMAIL_DELIVERY_AUDIT";
+    public static final String OUTBOX_DIRECTORY_DEFAULT = "repository" + File.separator + "data" + File.separator +
+            "email-outbox";
+    public static final String DEAD_LETTER_DIRECTORY_DEFAULT = "repository" + File.separator + "data" +
+            File.separator + "email-dead-letters";
+    public static final String CIRCUIT_BREAKER_SPOOL_DIRECTORY_DEFAULT = "repository" + File.separator + "data" +
+            File.separator + "email-spool";
 
     public static enum templateTypes {
         accountlock, accountunlock
@@ -41,6 +53,7 @@ public class EmailEventConstants {
 
     public class EventProperty {
         public static final String TEMPLATE_TYPE = "TEMPLATE_TYPE";
+        public static final String EVENT_ID = "EVENT_ID";
     }
 
     public class EmailProperty {
@@ -50,4 +63,170 @@ public class EmailEventConstants {
         public static final String EMAIL_CONTENT_LINE_SEPARATOR ="line.separator";
     }
 
+    public class SmtpProperty {
+        public static final String HOST = "mail.smtp.host";
+        public static final String PORT = "mail.smtp.port";
+        public static final String USER = "mail.smtp.user";
+        public static final String PASSWORD = "mail.smtp.password";
+        public static final String FROM = "mail.smtp.from";
+    }
+
+    public class ConfigProperty {
+        public static final String TEMPLATE_CACHE_ENABLE = "emailSend.templateCache.enable";
+        public static final String TEMPLATE_CACHE_MAX_ENTRIES = "emailSend.templateCache.maxEntries";
+        public static final String TEMPLATE_CACHE_TIMEOUT = "emailSend.templateCache.timeout";
+        public static final String CLAIM_CACHE_ENABLE = "emailSend.claimCache.enable";
+        public static final String CLAIM_CACHE_MAX_ENTRIES = "emailSend.claimCache.maxEntries";
+        public static final String CLAIM_CACHE_TIMEOUT = "emailSend.claimCache.timeout";
+        public static final String USER_STORE_MANAGER_TIMEOUT = "emailSend.tenantResolver.userStoreManagerTimeout";
+        public static final String TEMPLATE_TYPES_REFRESH_INTERVAL = "emailSend.templateTypes.refreshInterval";
+        public static final String ADAPTER_POOL_MAX_ACTIVE = "emailSend.adapterPool.maxActive";
+        public static final String ADAPTER_POOL_BORROW_TIMEOUT = "emailSend.adapterPool.borrowTimeout";
+        public static final String ADAPTER_POOL_VALIDATION_INTERVAL = "emailSend.adapterPool.validationInterval";
+        public static final String ASYNC_ENABLE = "emailSend.async.enable";
+        public static final String ASYNC_QUEUE_SIZE = "emailSend.async.queueSize";
+        public static final String ASYNC_WORKERS = "emailSend.async.workers";
+        public static final String ASYNC_BACKPRESSURE_POLICY = "emailSend.async.backpressurePolicy";
+        public static final String ASYNC_BLOCK_TIMEOUT = "emailSend.async.blockTimeout";
+        public static final String ASYNC_SHUTDOWN_TIMEOUT = "emailSend.async.shutdownTimeout";
+        public static final String OUTBOX_ENABLE = "emailSend.outbox.enable";
+        public static final String OUTBOX_DIRECTORY = "emailSend.outbox.directory";
+        public static final String OUTBOX_SEGMENT_SIZE = "emailSend.outbox.segmentSize";
+        public static final String OUTBOX_MAX_SEGMENTS = "emailSend.outbox.maxSegments";
+        public static final String OUTBOX_FORCE_ON_WRITE = "emailSend.outbox.forceOnWrite";
+        public static final String SMTP_BATCH_ENABLE = "emailSend.smtpBatch.enable";
+        public static final String SMTP_BATCH_SIZE = "emailSend.smtpBatch.size";
+        public static final String SMTP_BATCH_LINGER = "emailSend.smtpBatch.linger";
+        public static final String METRICS_ENABLE = "emailSend.metrics.enable";
+        public static final String METRICS_MAX_SERIES = "emailSend.metrics.maxSeries";
+        public static final String DELIVERY_AUDIT_ENABLE = "emailSend.deliveryAudit.enable";
+        public static final String DELIVERY_AUDIT_SAMPLE_RATE = "emailSend.deliveryAudit.sampleRate";
+        public static final String DELIVERY_AUDIT_RATE_LIMIT = "emailSend.deliveryAudit.rateLimit";
+        public static final String DELIVERY_AUDIT_QUEUE_SIZE = "emailSend.deliveryAudit.queueSize";
+        public static final String DELIVERY_AUDIT_MASK_RECIPIENT = "emailSend.deliveryAudit.maskRecipient";
+        public static final String DEDUP_ENABLE = "emailSend.dedup.enable";
+        public static final String DEDUP_WINDOW = "emailSend.dedup.window";
+        public static final String DEDUP_BUCKETS = "emailSend.dedup.buckets";
+        public static final String DEDUP_MAX_KEYS = "emailSend.dedup.maxKeys";
+        public static final String SHAPING_ENABLE = "emailSend.shaping.enable";
+        public static final String SHAPING_WORKERS = "emailSend.shaping.workers";
+        public static final String SHAPING_TENANT_WEIGHT = "emailSend.shaping.tenantWeight";
+        public static final String SHAPING_TENANT_QUEUE_SIZE = "emailSend.shaping.tenantQueueSize";
+        public static final String SHAPING_DOMAIN_RATE = "emailSend.shaping.domainRate";
+        public static final String SHAPING_DOMAIN_BURST = "emailSend.shaping.domainBurst";
+        public static final String SHAPING_MAX_DOMAINS = "emailSend.shaping.maxDomains";
+        public static final String SHAPING_MAX_DELAY = "emailSend.shaping.maxDelay";
+        // Followed by a tenant domain and one of the tenant suffixes.
+        public static final String SHAPING_TENANT_PREFIX = "emailSend.shaping.tenant.";
+        public static final String SHAPING_TENANT_WEIGHT_SUFFIX = ".weight";
+        public static final String SHAPING_TENANT_QUEUE_SIZE_SUFFIX = ".queueSize";
+        // Followed by a recipient domain and one of the domain suffixes.
+        public static final String SHAPING_DOMAIN_PREFIX = "emailSend.shaping.domain.";
+        public static final String SHAPING_DOMAIN_RATE_SUFFIX = ".rate";
+        public static final String SHAPING_DOMAIN_BURST_SUFFIX = ".burst";
+        public static final String RETRY_ENABLE = "emailSend.retry.enable";
+        public static final String RETRY_MAX_ATTEMPTS = "emailSend.retry.maxAttempts";
+        public static final String RETRY_INITIAL_DELAY = "emailSend.retry.initialDelay";
+        public static final String RETRY_MAX_DELAY = "emailSend.retry.maxDelay";
+        public static final String RETRY_MAX_PENDING = "emailSend.retry.maxPending";
+        public static final String RETRY_WORKERS = "emailSend.retry.workers";
+        public static final String DEAD_LETTER_DIRECTORY = "emailSend.deadLetter.directory";
+        public static final String DEAD_LETTER_MAX_ENTRIES = "emailSend.deadLetter.maxEntries";
+        public static final String CIRCUIT_BREAKER_ENABLE = "emailSend.circuitBreaker.enable";
+        public static final String CIRCUIT_BREAKER_WINDOW_SIZE = "emailSend.circuitBreaker.windowSize";
+        public static final String CIRCUIT_BREAKER_MINIMUM_CALLS = "emailSend.circuitBreaker.minimumCalls";
+        public static final String CIRCUIT_BREAKER_FAILURE_RATE = "emailSend.circuitBreaker.failureRateThreshold";
+        public static final String CIRCUIT_BREAKER_SLOW_CALL_RATE = "emailSend.circuitBreaker.slowCallRateThreshold";
+        public static final String CIRCUIT_BREAKER_SLOW_CALL_DURATION = "emailSend.circuitBreaker.slowCallDuration";
+        public static final String CIRCUIT_BREAKER_OPEN_DURATION = "emailSend.circuitBreaker.openDuration";
+        public static final String CIRCUIT_BREAKER_PROBES = "emailSend.circuitBreaker.probes";
+        public static final String CIRCUIT_BREAKER_SPOOL_ENABLE = "emailSend.circuitBreaker.spool.enable";
+        public static final String CIRCUIT_BREAKER_SPOOL_DIRECTORY = "emailSend.circuitBreaker.spool.directory";
+        public static final String CIRCUIT_BREAKER_SPOOL_MAX_ENTRIES = "emailSend.circuitBreaker.spool.maxEntries";
+    }
+
+    public class ConfigDefault {
+        public static final boolean TEMPLATE_CACHE_ENABLE = true;
+        public static final int TEMPLATE_CACHE_MAX_ENTRIES = 1000;
+        // Seconds
+        public static final long TEMPLATE_CACHE_TIMEOUT = 900;
+        public static final boolean CLAIM_CACHE_ENABLE = false;
+        public static final int CLAIM_CACHE_MAX_ENTRIES = 1000;
+        // Seconds
+        public static final long CLAIM_CACHE_TIMEOUT = 30;
+        // Seconds
+        public static final long USER_STORE_MANAGER_TIMEOUT = 60;
+        // Seconds
+        public static final long TEMPLATE_TYPES_REFRESH_INTERVAL = 300;
+        public static final int ADAPTER_POOL_MAX_ACTIVE = 10;
+        // Milliseconds
+        public static final long ADAPTER_POOL_BORROW_TIMEOUT = 30000;
+        // Seconds
+        public static final long ADAPTER_POOL_VALIDATION_INTERVAL = 60;
+        public static final boolean ASYNC_ENABLE = false;
+        public static final int ASYNC_QUEUE_SIZE = 1000;
+        public static final int ASYNC_WORKERS = 4;
+        public static final String ASYNC_BACKPRESSURE_POLICY = "BLOCK";
+        // Milliseconds
+        public static final long ASYNC_BLOCK_TIMEOUT = 5000;
+        // Milliseconds
+        public static final long ASYNC_SHUTDOWN_TIMEOUT = 30000;
+        public static final boolean OUTBOX_ENABLE = false;
+        // Bytes
+        public static final int OUTBOX_SEGMENT_SIZE = 8 * 1024 * 1024;
+        public static final int OUTBOX_MAX_SEGMENTS = 8;
+        public static final boolean OUTBOX_FORCE_ON_WRITE = false;
+        public static final boolean SMTP_BATCH_ENABLE = false;
+        public static final int SMTP_BATCH_SIZE = 50;
+        // Milliseconds
+        public static final long SMTP_BATCH_LINGER = 100;
+        public static final boolean METRICS_ENABLE = false;
+        public static final int METRICS_MAX_SERIES = 1000;
+        public static final boolean DELIVERY_AUDIT_ENABLE = true;
+        public static final int DELIVERY_AUDIT_SAMPLE_RATE = 1;
+        // Records per second
+        public static final int DELIVERY_AUDIT_RATE_LIMIT = 100;
+        public static final int DELIVERY_AUDIT_QUEUE_SIZE = 10000;
+        public static final boolean DELIVERY_AUDIT_MASK_RECIPIENT = true;
+        public static final boolean DEDUP_ENABLE = false;
+        // Seconds
+        public static final long DEDUP_WINDOW = 600;
+        public static final int DEDUP_BUCKETS = 6;
+        // Keys per window
+        public static final int DEDUP_MAX_KEYS = 1000000;
+        public static final boolean SHAPING_ENABLE = false;
+        public static final int SHAPING_WORKERS = 4;
+        public static final int SHAPING_TENANT_WEIGHT = 1;
+        public static final int SHAPING_TENANT_QUEUE_SIZE = 1000;
+        // Emails per minute. Zero for no limit
+        public static final int SHAPING_DOMAIN_RATE = 0;
+        public static final int SHAPING_DOMAIN_BURST = 10;
+        public static final int SHAPING_MAX_DOMAINS = 10000;
+        // Milliseconds
+        public static final long SHAPING_MAX_DELAY = 60000;
+        public static final boolean RETRY_ENABLE = false;
+        public static final int RETRY_MAX_ATTEMPTS = 5;
+        // Milliseconds
+        public static final long RETRY_INITIAL_DELAY = 1000;
+        // Milliseconds
+        public static final long RETRY_MAX_DELAY = 300000;
+        public static final int RETRY_MAX_PENDING = 10000;
+        public static final int RETRY_WORKERS = 2;
+        public static final int DEAD_LETTER_MAX_ENTRIES = 10000;
+        public static final boolean CIRCUIT_BREAKER_ENABLE = false;
+        public static final int CIRCUIT_BREAKER_WINDOW_SIZE = 20;
+        public static final int CIRCUIT_BREAKER_MINIMUM_CALLS = 10;
+        // Percent
+        public static final int CIRCUIT_BREAKER_FAILURE_RATE = 50;
+        // Percent
+        public static final int CIRCUIT_BREAKER_SLOW_CALL_RATE = 80;
+        // Milliseconds
+        public static final long CIRCUIT_BREAKER_SLOW_CALL_DURATION = 10000;
+        // Milliseconds
+        public static final long CIRCUIT_BREAKER_OPEN_DURATION = 30000;
+        public static final int CIRCUIT_BREAKER_PROBES = 3;
+        public static final boolean CIRCUIT_BREAKER_SPOOL_ENABLE = true;
+        public static final int CIRCUIT_BREAKER_SPOOL_MAX_ENTRIES = 10000;
+    }
+
 }
@@ -0,0 +1,319 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.event.handler.email.dedup;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.identity.event.handler.email.constants.EmailEventConstants;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Drops repeats of an email event seen within the configured window, so an event fired or retried twice by the
+ * event framework sends one email.
+ * <p>
+ * Events are identified by a 64 bit fingerprint of the tenant, the user, the template type and the event id, or
+ * the event properties when the event has no id. Fingerprints are kept in open addressed long arrays, one per
+ * time bucket of the window, and a bucket is reused once it falls out of the window. The arrays are sized for the
+ * configured number of keys per window and never grow. Events seen after a bucket is full are sent without being
+ * tracked, so a burst beyond the configured size can let a repeat through but never drops a first email.
+ */
+public class EmailDeduplicator {
+
+    private static final Log log = LogFactory.getLog(EmailDeduplicator.class);
+    private static final EmailDeduplicator instance = new EmailDeduplicator();
+
+    private static final int SEGMENT_BITS = 4;
+    private static final float LOAD_FACTOR = 0.75f;
+    private static final int MIN_BUCKET_KEYS = 16;
+    // Slot values no fingerprint takes.
+    private static final long EMPTY = 0L;
+    private static final long REMOVED = 1L;
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private static final int ACQUIRED = 0;
+    private static final int DUPLICATE = 1;
+    private static final int UNTRACKED = 2;
+
+    private final AtomicLong duplicateCount = new AtomicLong();
+    private final AtomicLong untrackedCount = new AtomicLong();
+
+    private volatile Segment[] segments;
+
+    private EmailDeduplicator() {
+    }
+
+    public static EmailDeduplicator getInstance() {
+        return instance;
+    }
+
+    /**
+     * Applies the deduplication settings given in the handler configuration.
+     *
+     * @param enabled       - Whether repeated events should be dropped at all.
+     * @param windowSeconds - Time within which a repeat of an event is dropped.
+     * @param buckets       - Number of time buckets the window is split into. Repeats are dropped for between
+     *                      (buckets - 1) / buckets of the window and the whole window.
+     * @param maxKeys       - Number of events tracked per window across all tenants. Each takes 8 bytes and a
+     *                      quarter more for free slots.
+     */
+    public void configure(boolean enabled, long windowSeconds, int buckets, int maxKeys) {
+        if (!enabled || windowSeconds <= 0) {
+            segments = null;
+            return;
+        }
+        if (buckets <= 0) {
+            buckets = EmailEventConstants.ConfigDefault.DEDUP_BUCKETS;
+        }
+        if (maxKeys <= 0) {
+            maxKeys = EmailEventConstants.ConfigDefault.DEDUP_MAX_KEYS;
+        }
+        long bucketMillis = Math.max(1, TimeUnit.SECONDS.toMillis(windowSeconds) / buckets);
+        int segmentCount = 1 << SEGMENT_BITS;
+        int bucketKeys = Math.max(MIN_BUCKET_KEYS, maxKeys / buckets / segmentCount);
+        Segment[] newSegments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            newSegments[i] = new Segment(buckets, bucketKeys, bucketMillis);
+        }
+        segments = newSegments;
+        if (log.isDebugEnabled()) {
+            log.debug("Email deduplication window : " + windowSeconds + "s, buckets : " + buckets +
+                    ", max keys : " + maxKeys);
+        }
+    }
+
+    public boolean isEnabled() {
+        return segments != null;
+    }
+
+    /**
+     * Computes the identity of an email event.
+     *
+     * @param eventId    - Id the event was fired with, or null to identify the event by its properties.
+     * @param properties - Properties of the event.
+     */
+    public static long fingerprint(int tenantId, String userName, String templateType, String eventId,
+                                   Map<String, String> properties) {
+        long hash = FNV_OFFSET_BASIS;
+        hash = hash(hash, tenantId);
+        hash = hash(hash, userName);
+        hash = hash(hash, templateType);
+        if (eventId != null) {
+            hash = hash(hash, eventId);
+        } else if (properties != null) {
+            // Properties are hashed in key order, since the event map does not keep the order they were put in.
+            for (Map.Entry<String, String> entry : new TreeMap<>(properties).entrySet()) {
+                hash = hash(hash, entry.getKey());
+                hash = hash(hash, entry.getValue());
+            }
+        }
+        hash = mix(hash);
+        // Keep clear of the values marking empty and removed slots.
+        return hash == EMPTY || hash == REMOVED ? hash + 2 : hash;
+    }
+
+    /**
+     * Marks an event as being sent.
+     *
+     * @return false if the event was already seen within the window, in which case it should not be sent again.
+     */
+    public boolean tryAcquire(long fingerprint) {
+        Segment[] current = segments;
+        if (current == null) {
+            return true;
+        }
+        int result = segmentOf(current, fingerprint).add(fingerprint, System.currentTimeMillis());
+        if (result == DUPLICATE) {
+            duplicateCount.incrementAndGet();
+            return false;
+        }
+        if (result == UNTRACKED && untrackedCount.getAndIncrement() == 0) {
+            log.warn("Email deduplication window is full. Repeated events may send duplicate emails until the " +
+                    "window moves on. Consider increasing " + EmailEventConstants.ConfigProperty.DEDUP_MAX_KEYS);
+        }
+        return true;
+    }
+
+    /**
+     * Forgets an event which could not be sent, so that a retry of it is not dropped.
+     */
+    public void release(long fingerprint) {
+        Segment[] current = segments;
+        if (current != null) {
+            segmentOf(current, fingerprint).remove(fingerprint, System.currentTimeMillis());
+        }
+    }
+
+    public void clear() {
+        Segment[] current = segments;
+        if (current != null) {
+            for (Segment segment : current) {
+                segment.clear();
+            }
+        }
+    }
+
+    /**
+     * @return Number of events dropped as repeats.
+     */
+    public long getDuplicateCount() {
+        return duplicateCount.get();
+    }
+
+    /**
+     * @return Number of events sent without being tracked because the window was full.
+     */
+    public long getUntrackedCount() {
+        return untrackedCount.get();
+    }
+
+    private static Segment segmentOf(Segment[] current, long fingerprint) {
+        // The top bits pick the segment and the bottom bits the slot, so the two are independent.
+        return current[(int) (fingerprint >>> (64 - SEGMENT_BITS))];
+    }
+
+    private static long hash(long hash, int value) {
+        for (int shift = 0; shift < 32; shift += 8) {
+            hash = (hash ^ ((value >>> shift) & 0xff)) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    private static long hash(long hash, String value) {
+        if (value == null) {
+            return (hash ^ 0xff) * FNV_PRIME;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            hash = (hash ^ (c & 0xff)) * FNV_PRIME;
+            hash = (hash ^ (c >>> 8)) * FNV_PRIME;
+        }
+        // Separates consecutive values, so that "ab", "c" and "a", "bc" differ.
+        return hash(hash, value.length());
+    }
+
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    /**
+     * Fingerprints of one part of the fingerprint space, in a ring of time buckets.
+     */
+    private static class Segment {
+
+        private final long[][] tables;
+        private final long[] epochs;
+        private final int[] usedSlots;
+        private final int maxUsedSlots;
+        private final int tableSize;
+        private final long bucketMillis;
+
+        private Segment(int buckets, int bucketKeys, long bucketMillis) {
+            int size = Integer.highestOneBit((int) Math.ceil(bucketKeys / LOAD_FACTOR) - 1) << 1;
+            this.tables = new long[buckets][];
+            this.epochs = new long[buckets];
+            this.usedSlots = new int[buckets];
+            this.tableSize = size;
+            this.maxUsedSlots = (int) (size * LOAD_FACTOR);
+            this.bucketMillis = bucketMillis;
+            Arrays.fill(epochs, -1);
+        }
+
+        private synchronized int add(long fingerprint, long now) {
+            long epoch = now / bucketMillis;
+            for (int i = 0; i < tables.length; i++) {
+                if (isLive(i, epoch) && indexOf(tables[i], fingerprint) >= 0) {
+                    return DUPLICATE;
+                }
+            }
+            int bucket = (int) (epoch % tables.length);
+            if (epochs[bucket] != epoch) {
+                // The bucket last held fingerprints of a window which has passed.
+                if (tables[bucket] == null) {
+                    tables[bucket] = new long[tableSize];
+                } else {
+                    Arrays.fill(tables[bucket], EMPTY);
+                }
+                usedSlots[bucket] = 0;
+                epochs[bucket] = epoch;
+            }
+            long[] table = tables[bucket];
+            int mask = table.length - 1;
+            int slot = (int) fingerprint & mask;
+            while (table[slot] != EMPTY) {
+                if (table[slot] == REMOVED) {
+                    table[slot] = fingerprint;
+                    return ACQUIRED;
+                }
+                slot = (slot + 1) & mask;
+            }
+            // Removed slots are only reused, so the table cannot fill up with them.
+            if (usedSlots[bucket] >= maxUsedSlots) {
+                return UNTRACKED;
+            }
+            table[slot] = fingerprint;
+            usedSlots[bucket]++;
+            return ACQUIRED;
+        }
+
+        private synchronized void remove(long fingerprint, long now) {
+            long epoch = now / bucketMillis;
+            for (int i = 0; i < tables.length; i++) {
+                if (isLive(i, epoch)) {
+                    int slot = indexOf(tables[i], fingerprint);
+                    if (slot >= 0) {
+                        tables[i][slot] = REMOVED;
+                        return;
+                    }
+                }
+            }
+        }
+
+        private synchronized void clear() {
+            Arrays.fill(epochs, -1);
+        }
+
+        private boolean isLive(int bucket, long epoch) {
+            return epochs[bucket] >= 0 && epochs[bucket] <= epoch && epoch - epochs[bucket] < tables.length;
+        }
+
+        private static int indexOf(long[] table, long fingerprint) {
+            int mask = table.length - 1;
+            int slot = (int) fingerprint & mask;
+            while (table[slot] != EMPTY) {
+                if (table[slot] == fingerprint) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+    }
+}
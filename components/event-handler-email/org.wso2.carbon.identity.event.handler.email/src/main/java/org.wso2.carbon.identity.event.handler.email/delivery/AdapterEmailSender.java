@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.event.handler.email.delivery;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.identity.event.handler.email.exception.EmailEventServiceException;
+import org.wso2.carbon.identity.event.handler.email.internal.EmailEventServiceComponent;
+
+/**
+ * Sends emails through the email output event adapters of the current {@link EmailAdapterPool}.
+ * <p/>
+ * The email output adapter hands each email over to a thread pool of its own and returns before it is sent. A send
+ * that fails later is only logged by the adapter, and an email it cannot queue is dropped, so this sender reports
+ * an email as sent once the adapter has taken it. Retrying, the circuit breaker and the outbox need the outcome of
+ * the send and so require the {@link SmtpBatchEmailSender}.
+ */
+public class AdapterEmailSender implements EmailSender {
+
+    private static final Log log = LogFactory.getLog(AdapterEmailSender.class);
+
+    @Override
+    public void send(EmailMessage message) throws EmailEventServiceException {
+        EmailAdapterPool adapterPool = EmailEventServiceComponent.getAdapterPool();
+        if (adapterPool == null) {
+            throw new EmailEventServiceException("Email adapters are not available");
+        }
+        adapterPool.publish(message.getBody(), message.getDynamicProperties());
+
+        if (log.isDebugEnabled()) {
+            log.debug("Email content : " + message.getBody());
+        }
+    }
+}
@@ -0,0 +1,300 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.event.handler.email.delivery;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.identity.event.handler.email.audit.DeliveryAuditLog;
+import org.wso2.carbon.identity.event.handler.email.exception.EmailEventServiceException;
+import org.wso2.carbon.identity.event.handler.email.exception.EmailRejectedException;
+import org.wso2.carbon.identity.event.handler.email.outbox.EmailOutbox;
+import org.wso2.carbon.identity.event.handler.email.retry.DeadLetterStore;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Queues emails in a bounded queue and sends them from a fixed set of worker threads, so the thread that
+ * raised the event does not wait for the mail server. What happens when the queue is full is decided by the
+ * {@link BackpressurePolicy}. On {@link #shutdown()} the queued emails are drained before the workers stop.
+ * The queue depth and counts are exposed through JMX once the dispatcher is {@link #register registered}.
+ * <p/>
+ * An email dropped from the queue to make room has already been accepted. It is kept in the
+ * {@link DeadLetterStore} if one is given, and then marked as done in the {@link EmailOutbox} if the emails are
+ * recorded there. Without a dead letter store it is left pending in the outbox, to be sent again on recovery.
+ */
+public class AsyncEmailDispatcher implements EmailDispatcher, AsyncEmailDispatcherMBean {
+
+    private static final Log log = LogFactory.getLog(AsyncEmailDispatcher.class);
+
+    private static final String OBJECT_NAME = "org.wso2.carbon.identity.event.handler.email:type=EmailQueue";
+    private static final String WORKER_NAME_PREFIX = "EmailEventHandler-Sender-";
+    private static final long POLL_INTERVAL = 500;
+
+    private final EmailSender sender;
+    private final DeadLetterStore deadLetterStore;
+    private final EmailOutbox outbox;
+    private final BlockingQueue<EmailMessage> queue;
+    private final int queueCapacity;
+    private final BackpressurePolicy backpressurePolicy;
+    private final long blockTimeoutMillis;
+    private final long shutdownTimeoutMillis;
+    private final Thread[] workers;
+    private volatile boolean running = true;
+
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+    private final AtomicLong enqueuedCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong callerRunsCount = new AtomicLong();
+    private final AtomicLong completedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+
+    public AsyncEmailDispatcher(EmailSender sender, int queueCapacity, int workerCount,
+                                BackpressurePolicy backpressurePolicy, long blockTimeoutMillis,
+                                long shutdownTimeoutMillis) {
+        this(sender, null, null, queueCapacity, workerCount, backpressurePolicy, blockTimeoutMillis,
+                shutdownTimeoutMillis);
+    }
+
+    /**
+     * @param deadLetterStore - Store the emails dropped from the queue are kept in, or null.
+     * @param outbox          - Outbox the emails are recorded in, or null.
+     */
+    public AsyncEmailDispatcher(EmailSender sender, DeadLetterStore deadLetterStore, EmailOutbox outbox,
+                                int queueCapacity, int workerCount, BackpressurePolicy backpressurePolicy,
+                                long blockTimeoutMillis, long shutdownTimeoutMillis) {
+        this.sender = sender;
+        this.deadLetterStore = deadLetterStore;
+        this.outbox = outbox;
+        this.queueCapacity = queueCapacity > 0 ? queueCapacity : 1;
+        this.queue = new ArrayBlockingQueue<>(this.queueCapacity);
+        this.backpressurePolicy = backpressurePolicy != null ? backpressurePolicy : BackpressurePolicy.BLOCK;
+        this.blockTimeoutMillis = blockTimeoutMillis;
+        this.shutdownTimeoutMillis = shutdownTimeoutMillis;
+        this.workers = new Thread[workerCount > 0 ? workerCount : 1];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Thread(new Worker(), WORKER_NAME_PREFIX + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+    }
+
+    @Override
+    public void dispatch(EmailMessage message) throws EmailEventServiceException {
+        if (!running) {
+            throw new EmailRejectedException("Email dispatcher has been shut down");
+        }
+        switch (backpressurePolicy) {
+            case DROP_OLDEST:
+                while (!queue.offer(message)) {
+                    EmailMessage dropped = queue.poll();
+                    if (dropped != null) {
+                        droppedCount.incrementAndGet();
+                        deadLetter(dropped);
+                    }
+                }
+                break;
+            case CALLER_RUNS:
+                if (!queue.offer(message)) {
+                    callerRunsCount.incrementAndGet();
+                    sender.send(message);
+                    return;
+                }
+                break;
+            default:
+                try {
+                    if (!queue.offer(message, blockTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                        throw new EmailRejectedException("Email queue is full. Timed out after " +
+                                blockTimeoutMillis + "ms waiting to queue the email to " +
+                                DeliveryAuditLog.maskAddress(message.getSendTo()));
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new EmailRejectedException("Interrupted while waiting to queue the email to " +
+                            DeliveryAuditLog.maskAddress(message.getSendTo()), e);
+                }
+        }
+
+        // The workers may have stopped between the check above and the offer. Do not leave the email behind.
+        if (!running && queue.remove(message)) {
+            throw new EmailRejectedException("Email dispatcher has been shut down");
+        }
+        enqueuedCount.incrementAndGet();
+        updateMaxQueueDepth(queue.size());
+    }
+
+    @Override
+    public void shutdown() {
+        running = false;
+        long deadline = System.currentTimeMillis() + shutdownTimeoutMillis;
+        for (Thread worker : workers) {
+            long remaining = deadline - System.currentTimeMillis();
+            try {
+                if (remaining > 0) {
+                    worker.join(remaining);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        for (Thread worker : workers) {
+            if (worker.isAlive()) {
+                worker.interrupt();
+            }
+        }
+        if (!queue.isEmpty()) {
+            log.warn(queue.size() + " queued emails were not sent before the email dispatcher was shut down");
+        }
+    }
+
+    /**
+     * Keeps an accepted email which was dropped from the queue to make room.
+     */
+    private void deadLetter(EmailMessage message) {
+        String recipient = DeliveryAuditLog.maskAddress(message.getSendTo());
+        if (deadLetterStore == null) {
+            log.warn("Email queue is full. Dropped the email to " + recipient);
+            return;
+        }
+        try {
+            deadLetterStore.add(message, 0, new EmailEventServiceException("Email queue is full"));
+        } catch (EmailEventServiceException e) {
+            log.error("Could not keep the email to " + recipient + " dropped from the full email queue as a dead " +
+                    "letter", e);
+            return;
+        }
+        log.warn("Email queue is full. Dropped the email to " + recipient + ". It is kept as a dead letter with " +
+                "message id : " + message.getMessageId());
+        if (outbox != null) {
+            try {
+                outbox.markDone(message.getMessageId());
+            } catch (EmailEventServiceException e) {
+                // At worst the email is sent again when the outbox is recovered.
+                log.warn("Could not mark the email to " + recipient + " as done in the email outbox", e);
+            }
+        }
+    }
+
+    private void updateMaxQueueDepth(int depth) {
+        int max = maxQueueDepth.get();
+        while (depth > max && !maxQueueDepth.compareAndSet(max, depth)) {
+            max = maxQueueDepth.get();
+        }
+    }
+
+    public BackpressurePolicy getBackpressurePolicy() {
+        return backpressurePolicy;
+    }
+
+    @Override
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    @Override
+    public int getMaxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    @Override
+    public long getEnqueuedCount() {
+        return enqueuedCount.get();
+    }
+
+    @Override
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    @Override
+    public long getCallerRunsCount() {
+        return callerRunsCount.get();
+    }
+
+    @Override
+    public long getCompletedCount() {
+        return completedCount.get();
+    }
+
+    @Override
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    /**
+     * Registers the given dispatcher with the platform MBean server, in place of any registered before.
+     * Unregisters it if the dispatcher is null.
+     */
+    public static void register(AsyncEmailDispatcher dispatcher) {
+        try {
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(OBJECT_NAME);
+            if (mBeanServer.isRegistered(objectName)) {
+                mBeanServer.unregisterMBean(objectName);
+            }
+            if (dispatcher != null) {
+                mBeanServer.registerMBean(dispatcher, objectName);
+            }
+        } catch (JMException e) {
+            log.warn("Could not register the email queue MBean : " + OBJECT_NAME, e);
+        }
+    }
+
+    private class Worker implements Runnable {
+
+        @Override
+        public void run() {
+            while (running || !queue.isEmpty()) {
+                EmailMessage message;
+                try {
+                    message = queue.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                if (message != null) {
+                    send(message);
+                }
+            }
+        }
+
+        private void send(EmailMessage message) {
+            try {
+                sender.send(message);
+                completedCount.incrementAndGet();
+            } catch (EmailEventServiceException | RuntimeException e) {
+                failedCount.incrementAndGet();
+                log.error("Failed Sending Email to " + DeliveryAuditLog.maskAddress(message.getSendTo()), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.event.handler.email.delivery;
+
+/**
+ * Depth of the email queue and what happened to the emails given to the {@link AsyncEmailDispatcher}, exposed
+ * through JMX.
+ */
+public interface AsyncEmailDispatcherMBean {
+
+    int getQueueCapacity();
+
+    int getQueueDepth();
+
+    int getMaxQueueDepth();
+
+    long getEnqueuedCount();
+
+    /**
+     * @return Emails dropped from a full queue under {@link BackpressurePolicy#DROP_OLDEST}.
+     */
+    long getDroppedCount();
+
+    /**
+     * @return Emails sent on the calling thread as the queue was full under {@link BackpressurePolicy#CALLER_RUNS}.
+     */
+    long getCallerRunsCount();
+
+    long getCompletedCount();
+
+    long getFailedCount();
+}
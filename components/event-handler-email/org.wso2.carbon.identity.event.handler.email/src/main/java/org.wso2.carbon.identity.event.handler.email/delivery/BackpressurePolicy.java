@@ -0,0 +1,41 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.event.handler.email.delivery;
+
+/**
+ * What {@link AsyncEmailDispatcher} does with an email when its queue is full.
+ */
+public enum BackpressurePolicy {
+
+    /**
+     * Wait for space in the queue, failing the event after the configured timeout.
+     */
+    BLOCK,
+
+    /**
+     * Drop the email that has been queued the longest to make room, keeping it as a dead letter if a dead letter
+     * store is available.
+     */
+    DROP_OLDEST,
+
+    /**
+     * Send the email on the thread that raised the event.
+     */
+    CALLER_RUNS
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.event.handler.email.delivery;
+
+import org.wso2.carbon.identity.event.handler.email.exception.EmailEventServiceException;
+
+/**
+ * Sends emails on the thread that raised the event.
+ */
+public class DirectEmailDispatcher implements EmailDispatcher {
+
+    private final EmailSender sender;
+
+    public DirectEmailDispatcher(EmailSender sender) {
+        this.sender = sender;
+    }
+
+    @Override
+    public void dispatch(EmailMessage message) throws EmailEventServiceException {
+        sender.send(message);
+    }
+
+    @Override
+    public void shutdown() {
+        // Nothing is held back to be sent later.
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.event.handler.email.delivery;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.event.output.adapter.core.OutputEventAdapter;
+import org.wso2.carbon.event.output.adapter.core.exception.OutputEventAdapterException;
+import org.wso2.carbon.event.output.adapter.core.exception.TestConnectionNotSupportedException;
+import org.wso2.carbon.event.output.adapter.email.EmailEventAdapterFactory;
+import org.wso2.carbon.identity.event.handler.email.exception.EmailEventServiceException;
+
+import java.util.Map;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pool of initialized and connected email output event adapters which are reused across notifications. The number
+ * of notifications published at the same time is capped at the pool size. Adapters that have been idle longer than
+ * the validation interval are tested before use, and adapters that fail are replaced. Each adapter is tied to the
+ * {@link MailTransportConfig} it was created with and is replaced once the mail transport is reconfigured.
+ * <p/>
+ * An adapter publishes by queueing the email on its own thread pool, so a publish returns before the email is sent
+ * and the pool caps the concurrent hand overs rather than the concurrent sends. Failures of the send itself are
+ * logged by the adapter and are not seen here.
+ */
+public class EmailAdapterPool {
+
+    private static final Log log = LogFactory.getLog(EmailAdapterPool.class);
+
+    private final EmailEventAdapterFactory adapterFactory = new EmailEventAdapterFactory();
+    private final BlockingDeque<PooledAdapter> idleAdapters = new LinkedBlockingDeque<>();
+    private final Semaphore permits;
+    private final int maxActive;
+    private final long borrowTimeoutMillis;
+    private final long validationIntervalMillis;
+    private volatile boolean closed;
+
+    /**
+     * @param maxActive                - Maximum number of adapters, and so of concurrent publishes.
+     * @param borrowTimeoutMillis      - Time to wait for an adapter when all of them are in use.
+     * @param validationIntervalMillis - Idle time after which an adapter is tested before it is used.
+     */
+    public EmailAdapterPool(int maxActive, long borrowTimeoutMillis, long validationIntervalMillis) {
+        this.maxActive = maxActive > 0 ? maxActive : 1;
+        this.permits = new Semaphore(this.maxActive, true);
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.validationIntervalMillis = validationIntervalMillis;
+    }
+
+    /**
+     * Publishes a message through a pooled adapter.
+     *
+     * @param message           - Email content.
+     * @param dynamicProperties - Per message adapter properties such as the address and subject.
+     * @throws EmailEventServiceException if no adapter could be obtained or the adapter failed to take the email.
+     */
+    public void publish(Object message, Map<String, String> dynamicProperties) throws EmailEventServiceException {
+
+        if (closed) {
+            throw new EmailEventServiceException("Email adapter pool is closed");
+        }
+        try {
+            if (!permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new EmailEventServiceException("Timed out waiting for an email adapter after " +
+                        borrowTimeoutMillis + "ms");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new EmailEventServiceException("Interrupted while waiting for an email adapter", e);
+        }
+
+        try {
+            PooledAdapter pooledAdapter = borrow(MailTransportConfigProvider.getInstance().getConfig());
+            try {
+                pooledAdapter.adapter.publish(message, dynamicProperties);
+            } catch (RuntimeException e) {
+                destroy(pooledAdapter);
+                throw new EmailEventServiceException("Error while publishing email", e);
+            }
+            release(pooledAdapter);
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Disconnects and destroys all the idle adapters. Adapters in use are destroyed when they are returned.
+     */
+    public void close() {
+        closed = true;
+        PooledAdapter pooledAdapter;
+        while ((pooledAdapter = idleAdapters.poll()) != null) {
+            destroy(pooledAdapter);
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Email adapter pool closed");
+        }
+    }
+
+    public int getMaxActive() {
+        return maxActive;
+    }
+
+    public int getActiveCount() {
+        return maxActive - permits.availablePermits();
+    }
+
+    public int getIdleCount() {
+        return idleAdapters.size();
+    }
+
+    private PooledAdapter borrow(MailTransportConfig transportConfig) throws EmailEventServiceException {
+        PooledAdapter pooledAdapter;
+        while ((pooledAdapter = idleAdapters.pollFirst()) != null) {
+            if (pooledAdapter.transportConfig.equals(transportConfig) && isValid(pooledAdapter)) {
+                return pooledAdapter;
+            }
+            destroy(pooledAdapter);
+        }
+        return create(transportConfig);
+    }
+
+    private void release(PooledAdapter pooledAdapter) {
+        pooledAdapter.lastUsedTime = System.currentTimeMillis();
+        if (closed) {
+            destroy(pooledAdapter);
+        } else {
+            // Most recently used adapters are reused first so that surplus ones go idle and get validated.
+            idleAdapters.offerFirst(pooledAdapter);
+        }
+    }
+
+    private boolean isValid(PooledAdapter pooledAdapter) {
+        if (System.currentTimeMillis() - pooledAdapter.lastUsedTime < validationIntervalMillis) {
+            return true;
+        }
+        try {
+            pooledAdapter.adapter.testConnect();
+            return true;
+        } catch (TestConnectionNotSupportedException e) {
+            return true;
+        } catch (RuntimeException e) {
+            if (log.isDebugEnabled()) {
+                log.debug("Discarding email adapter which failed validation", e);
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Creates an email output adapter for the given mail transport configuration, which is not yet initialized.
+     */
+    OutputEventAdapter createAdapter(MailTransportConfig transportConfig) {
+        return adapterFactory.createEventAdapter(null, transportConfig.getProperties());
+    }
+
+    private PooledAdapter create(MailTransportConfig transportConfig) throws EmailEventServiceException {
+        OutputEventAdapter adapter = createAdapter(transportConfig);
+        try {
+            adapter.init();
+            adapter.connect();
+        } catch (OutputEventAdapterException e) {
+            throw new EmailEventServiceException("Error while initializing email adapter", e);
+        } catch (RuntimeException e) {
+            throw new EmailEventServiceException("Error while connecting email adapter", e);
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Created email adapter. Adapters in use : " + getActiveCount());
+        }
+        return new PooledAdapter(adapter, transportConfig);
+    }
+
+    private void destroy(PooledAdapter pooledAdapter) {
+        try {
+            pooledAdapter.adapter.disconnect();
+            pooledAdapter.adapter.destroy();
+        } catch (RuntimeException e) {
+            log.warn("Error while destroying email adapter", e);
+        }
+    }
+
+    private static class PooledAdapter {
+
+        private final OutputEventAdapter adapter;
+        private final MailTransportConfig transportConfig;
+        private volatile long lastUsedTime;
+
+        private PooledAdapter(OutputEventAdapter adapter, MailTransportConfig transportConfig) {
+            this.adapter = adapter;
+            this.transportConfig = transportConfig;
+            this.lastUsedTime = System.currentTimeMillis();
+        }
+    }
+}
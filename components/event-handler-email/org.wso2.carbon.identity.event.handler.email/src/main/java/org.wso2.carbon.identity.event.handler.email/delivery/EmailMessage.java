@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.event.handler.email.delivery;
+
+import org.wso2.carbon.identity.event.handler.email.constants.EmailEventConstants;
+import org.wso2.carbon.identity.event.handler.email.template.CompiledEmailTemplate;
+import org.wso2.carbon.identity.event.handler.email.template.Utf8Buffer;
+import org.wso2.carbon.identity.event.handler.email.util.Notification;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * A rendered email ready to be sent, along with the tenant and template type it was created for. The body is held
+ * as UTF-8 bytes and only decoded when it is asked for as a String.
+ */
+public class EmailMessage {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // Rendered bodies larger than this are not kept around for reuse.
+    private static final int MAX_REUSED_BUFFER_CAPACITY = 64 * 1024;
+
+    private static final ThreadLocal<Utf8Buffer> renderBuffer = new ThreadLocal<Utf8Buffer>() {
+        @Override
+        protected Utf8Buffer initialValue() {
+            return new Utf8Buffer(4096);
+        }
+    };
+
+    private final String messageId;
+    private final int tenantId;
+    private final String templateType;
+    private final String sendTo;
+    private final String subject;
+    private final byte[] body;
+    private final String contentType;
+    private final long createdTime;
+
+    public EmailMessage(String messageId, int tenantId, String templateType, String sendTo, String subject,
+                        String body, String contentType, long createdTime) {
+        this(messageId, tenantId, templateType, sendTo, subject, body != null ? body.getBytes(UTF_8) : null,
+                contentType, createdTime);
+    }
+
+    /**
+     * @param body - UTF-8 encoded body, which is kept as is and must not be modified afterwards.
+     */
+    public EmailMessage(String messageId, int tenantId, String templateType, String sendTo, String subject,
+                        byte[] body, String contentType, long createdTime) {
+        this.messageId = messageId;
+        this.tenantId = tenantId;
+        this.templateType = templateType;
+        this.sendTo = sendTo;
+        this.subject = subject;
+        this.body = body;
+        this.contentType = contentType != null ? contentType : EmailEventConstants.TEMPLATE_CONTENT_TYPE_DEFAULT;
+        this.createdTime = createdTime;
+    }
+
+    /**
+     * Creates a message from a notification, appending the footer to the body.
+     *
+     * @param notification - Rendered notification.
+     * @param tenantId     - Tenant Id of the tenant the notification is sent for.
+     * @param templateType - Type of the template the notification was rendered from.
+     */
+    public static EmailMessage create(Notification notification, int tenantId, String templateType) {
+        String lineSeparator = System.getProperty(EmailEventConstants.EmailProperty.EMAIL_CONTENT_LINE_SEPARATOR);
+        StringBuilder contents = new StringBuilder();
+        contents.append(notification.getBody())
+                .append(lineSeparator)
+                .append(lineSeparator)
+                .append(notification.getFooter());
+        return new EmailMessage(UUID.randomUUID().toString(), tenantId, templateType, notification.getSendTo(),
+                notification.getSubject(), contents.toString(), notification.getContentType(),
+                System.currentTimeMillis());
+    }
+
+    /**
+     * Renders a compiled template straight into a message. Literal parts of the body and footer are copied as
+     * bytes, so the body is never built as a String.
+     *
+     * @param template     - Compiled template to render.
+     * @param tagData      - Placeholder values keyed by placeholder name.
+     * @param sendTo       - Address the email is sent to.
+     * @param tenantId     - Tenant Id of the tenant the email is sent for.
+     * @param templateType - Type of the template.
+     * @throws UnsupportedEncodingException if UTF-8 is not supported when URL encoding a value.
+     */
+    public static EmailMessage render(CompiledEmailTemplate template, Map<String, String> tagData, String sendTo,
+                                      int tenantId, String templateType) throws UnsupportedEncodingException {
+        Utf8Buffer buffer = renderBuffer.get();
+        buffer.setLength(0);
+        template.getSubject().render(tagData, buffer);
+        String subject = buffer.toString();
+
+        String lineSeparator = System.getProperty(EmailEventConstants.EmailProperty.EMAIL_CONTENT_LINE_SEPARATOR);
+        buffer.setLength(0);
+        template.getBody().render(tagData, buffer);
+        buffer.append(String.valueOf(lineSeparator)).append(String.valueOf(lineSeparator));
+        template.getFooter().render(tagData, buffer);
+        byte[] body = buffer.toByteArray();
+        if (buffer.capacity() > MAX_REUSED_BUFFER_CAPACITY) {
+            renderBuffer.remove();
+        }
+        return new EmailMessage(UUID.randomUUID().toString(), tenantId, templateType, sendTo, subject, body,
+                template.getEmailContentType(), System.currentTimeMillis());
+    }
+
+    public String getMessageId() {
+        return messageId;
+    }
+
+    public int getTenantId() {
+        return tenantId;
+    }
+
+    public String getTemplateType() {
+        return templateType;
+    }
+
+    public String getSendTo() {
+        return sendTo;
+    }
+
+    public String getSubject() {
+        return subject;
+    }
+
+    /**
+     * @return The body decoded from its UTF-8 bytes. Decoded on every call.
+     */
+    public String getBody() {
+        return body != null ? new String(body, UTF_8) : null;
+    }
+
+    /**
+     * @return The UTF-8 encoded body. Not a copy, so it must not be modified.
+     */
+    public byte[] getBodyBytes() {
+        return body;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public long getCreatedTime() {
+        return createdTime;
+    }
+
+    /**
+     * @return The per message properties the email output event adapter expects.
+     */
+    public Map<String, String> getDynamicProperties() {
+        Map<String, String> dynamicProperties = new HashMap<String, String>();
+        dynamicProperties.put(EmailEventConstants.EmailProperty.EMAIL_SUBJECT, subject);
+        dynamicProperties.put(EmailEventConstants.EmailProperty.EMAIL_CONTENT_TYPE, contentType);
+        dynamicProperties.put(EmailEventConstants.EmailProperty.EMAIL_ADDRESS, sendTo);
+        return dynamicProperties;
+    }
+}
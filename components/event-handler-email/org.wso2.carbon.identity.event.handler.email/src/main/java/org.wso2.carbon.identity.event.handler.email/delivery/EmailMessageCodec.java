@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.event.handler.email.delivery;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * Binary form of an {@link EmailMessage}, shared by the stores that keep emails on disk. Strings are written as
+ * their length followed by their UTF-8 bytes, with a length of -1 for null.
+ */
+public class EmailMessageCodec {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private EmailMessageCodec() {
+    }
+
+    public static void writeMessage(DataOutput out, EmailMessage message) throws IOException {
+        writeString(out, message.getMessageId());
+        out.writeInt(message.getTenantId());
+        writeString(out, message.getTemplateType());
+        writeString(out, message.getSendTo());
+        writeString(out, message.getSubject());
+        writeBytes(out, message.getBodyBytes());
+        writeString(out, message.getContentType());
+        out.writeLong(message.getCreatedTime());
+    }
+
+    public static EmailMessage readMessage(DataInput in) throws IOException {
+        String messageId = readString(in);
+        int tenantId = in.readInt();
+        String templateType = readString(in);
+        String sendTo = readString(in);
+        String subject = readString(in);
+        byte[] body = readBytes(in);
+        String contentType = readString(in);
+        long createdTime = in.readLong();
+        return new EmailMessage(messageId, tenantId, templateType, sendTo, subject, body, contentType, createdTime);
+    }
+
+    public static void writeString(DataOutput out, String value) throws IOException {
+        writeBytes(out, value != null ? value.getBytes(UTF_8) : null);
+    }
+
+    public static void writeBytes(DataOutput out, byte[] value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(value.length);
+        out.write(value);
+    }
+
+    public static String readString(DataInput in) throws IOException {
+        byte[] bytes = readBytes(in);
+        return bytes != null ? new String(bytes, UTF_8) : null;
+    }
+
+    public static byte[] readBytes(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.event.handler.email.delivery;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Immutable snapshot of the mailto transport sender parameters in axis2.xml. Two snapshots with the same
+ * parameter values are equal, so a snapshot identifies the SMTP settings an adapter was created with.
+ */
+public final class MailTransportConfig {
+
+    private final Map<String, String> properties;
+    private final int hashCode;
+
+    public MailTransportConfig(Map<String, String> properties) {
+        this.properties = Collections.unmodifiableMap(new HashMap<>(properties));
+        this.hashCode = this.properties.hashCode();
+    }
+
+    public Map<String, String> getProperties() {
+        return properties;
+    }
+
+    public String getProperty(String name) {
+        return properties.get(name);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof MailTransportConfig)) {
+            return false;
+        }
+        MailTransportConfig that = (MailTransportConfig) o;
+        return hashCode == that.hashCode && properties.equals(that.properties);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+}
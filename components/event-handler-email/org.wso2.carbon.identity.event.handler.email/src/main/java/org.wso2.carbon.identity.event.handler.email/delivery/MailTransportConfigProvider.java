@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.event.handler.email.delivery;
+
+import org.apache.axis2.context.ConfigurationContext;
+import org.apache.axis2.description.Parameter;
+import org.apache.axis2.description.TransportOutDescription;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.core.CarbonConfigurationContextFactory;
+import org.wso2.carbon.identity.event.handler.email.constants.EmailEventConstants;
+import org.wso2.carbon.identity.event.handler.email.exception.EmailEventServiceException;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Provides the current {@link MailTransportConfig}. The mailto transport parameters are copied only when the
+ * transport sender description in the axis configuration is replaced, which is a reference check per call.
+ */
+public class MailTransportConfigProvider {
+
+    private static final Log log = LogFactory.getLog(MailTransportConfigProvider.class);
+    private static final MailTransportConfigProvider instance = new MailTransportConfigProvider();
+
+    private volatile Snapshot snapshot;
+
+    private MailTransportConfigProvider() {
+    }
+
+    public static MailTransportConfigProvider getInstance() {
+        return instance;
+    }
+
+    public MailTransportConfig getConfig() throws EmailEventServiceException {
+        TransportOutDescription transportOut = getTransportOut();
+        Snapshot current = snapshot;
+        if (current != null && current.source == transportOut) {
+            return current.config;
+        }
+
+        MailTransportConfig config = build(transportOut);
+        if (current != null && current.config.equals(config)) {
+            // Keep the same instance so that adapters created with it are not recycled.
+            config = current.config;
+        } else if (log.isDebugEnabled()) {
+            log.debug("Loaded " + EmailEventConstants.MAIL_TRANSPORT + " transport parameters from axis2.xml");
+        }
+        snapshot = new Snapshot(transportOut, config);
+        return config;
+    }
+
+    /**
+     * Drops the current snapshot so that the parameters are copied again on next use.
+     */
+    public void refresh() {
+        snapshot = null;
+    }
+
+    private TransportOutDescription getTransportOut() throws EmailEventServiceException {
+        ConfigurationContext configurationContext = CarbonConfigurationContextFactory.getConfigurationContext();
+        if (configurationContext == null) {
+            throw new EmailEventServiceException("Axis configuration context is not available");
+        }
+        TransportOutDescription transportOut =
+                configurationContext.getAxisConfiguration().getTransportOut(EmailEventConstants.MAIL_TRANSPORT);
+        if (transportOut == null) {
+            throw new EmailEventServiceException(EmailEventConstants.MAIL_TRANSPORT +
+                    " transport sender is not configured in axis2.xml");
+        }
+        return transportOut;
+    }
+
+    private MailTransportConfig build(TransportOutDescription transportOut) {
+        Map<String, String> globalProperties = new HashMap<String, String>();
+        for (Parameter parameter : transportOut.getParameters()) {
+            globalProperties.put(parameter.getName(), (String) parameter.getValue());
+        }
+        return new MailTransportConfig(globalProperties);
+    }
+
+    private static class Snapshot {
+
+        private final TransportOutDescription source;
+        private final MailTransportConfig config;
+
+        private Snapshot(TransportOutDescription source, MailTransportConfig config) {
+            this.source = source;
+            this.config = config;
+        }
+    }
+}
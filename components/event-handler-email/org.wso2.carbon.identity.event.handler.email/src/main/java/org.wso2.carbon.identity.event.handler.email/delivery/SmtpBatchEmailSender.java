@@ -0,0 +1,303 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.event.handler.email.delivery;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.identity.event.handler.email.audit.DeliveryAuditLog;
+import org.wso2.carbon.identity.event.handler.email.constants.EmailEventConstants;
+import org.wso2.carbon.identity.event.handler.email.exception.EmailEventServiceException;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.activation.DataHandler;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.Transport;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+import javax.mail.util.ByteArrayDataSource;
+
+/**
+ * Sends emails over SMTP, sending the emails of concurrent senders over one SMTP session.
+ * <p/>
+ * Emails are grouped by the mailto transport parameters they are sent with. The first email of a group waits
+ * up to the linger time for more emails to join, or until the batch size is reached, and its thread then sends
+ * the whole batch over one connection. Every caller waits for its own email and gets its own result, so a
+ * failed email does not fail the rest of the batch.
+ * <p/>
+ * Batches only form when emails are sent concurrently, for example from the workers of an
+ * {@link AsyncEmailDispatcher}. The batch size is bounded by the number of such threads. The linger time should be
+ * zero when emails are sent on the threads raising the events, since those would wait for it.
+ */
+public class SmtpBatchEmailSender implements EmailSender {
+
+    private static final Log log = LogFactory.getLog(SmtpBatchEmailSender.class);
+
+    private static final String SMTP_PROTOCOL = "smtp";
+    private static final String CONTENT_TYPE_HTML = "text/html";
+    private static final String CONTENT_TYPE_TEXT = "text/plain";
+    private static final String CHARSET = "UTF-8";
+
+    private final int batchSize;
+    private final long lingerMillis;
+    private final Map<MailTransportConfig, Batch> openBatches = new HashMap<>();
+    private volatile SessionHolder sessionHolder;
+
+    private final AtomicLong batchCount = new AtomicLong();
+    private final AtomicLong sentCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+
+    public SmtpBatchEmailSender(int batchSize, long lingerMillis) {
+        this.batchSize = batchSize > 0 ? batchSize : 1;
+        this.lingerMillis = lingerMillis > 0 ? lingerMillis : 0;
+    }
+
+    @Override
+    public void send(EmailMessage message) throws EmailEventServiceException {
+        MailTransportConfig config = MailTransportConfigProvider.getInstance().getConfig();
+        BatchEntry entry = new BatchEntry(message);
+        Batch batch;
+        boolean leader = false;
+        synchronized (openBatches) {
+            batch = openBatches.get(config);
+            if (batch == null) {
+                batch = new Batch(config);
+                openBatches.put(config, batch);
+                leader = true;
+            }
+            batch.entries.add(entry);
+            if (batch.entries.size() >= batchSize) {
+                openBatches.remove(config);
+                batch.full.countDown();
+            }
+        }
+
+        if (leader) {
+            batch.awaitFull(lingerMillis);
+            synchronized (openBatches) {
+                if (openBatches.get(config) == batch) {
+                    openBatches.remove(config);
+                }
+            }
+            sendBatch(batch);
+        }
+        entry.awaitResult();
+    }
+
+    private void sendBatch(Batch batch) {
+        batchCount.incrementAndGet();
+        MailTransportConfig config = batch.config;
+        Session session = getSession(config);
+        Transport transport = null;
+        try {
+            transport = session.getTransport(SMTP_PROTOCOL);
+            connect(transport, config);
+            for (BatchEntry entry : batch.entries) {
+                EmailMessage message = entry.message;
+                try {
+                    if (!transport.isConnected()) {
+                        connect(transport, config);
+                    }
+                    MimeMessage mimeMessage = createMimeMessage(session, config, message);
+                    transport.sendMessage(mimeMessage, mimeMessage.getAllRecipients());
+                    sentCount.incrementAndGet();
+                    entry.complete(null);
+                } catch (MessagingException | RuntimeException e) {
+                    failedCount.incrementAndGet();
+                    entry.complete(new EmailEventServiceException("Failed Sending Email to " +
+                            DeliveryAuditLog.maskAddress(message.getSendTo()), e));
+                }
+            }
+        } catch (MessagingException | RuntimeException e) {
+            failRemaining(batch, new EmailEventServiceException("Could not connect to the SMTP server at : " +
+                    config.getProperty(EmailEventConstants.SmtpProperty.HOST), e));
+        } finally {
+            failRemaining(batch, new EmailEventServiceException("Email was not sent"));
+            if (transport != null) {
+                try {
+                    transport.close();
+                } catch (MessagingException e) {
+                    if (log.isDebugEnabled()) {
+                        log.debug("Could not close the SMTP connection", e);
+                    }
+                }
+            }
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Sent a batch of " + batch.entries.size() + " emails over one SMTP session");
+        }
+    }
+
+    private void failRemaining(Batch batch, EmailEventServiceException failure) {
+        for (BatchEntry entry : batch.entries) {
+            if (!entry.isCompleted()) {
+                failedCount.incrementAndGet();
+                entry.complete(failure);
+            }
+        }
+    }
+
+    private void connect(Transport transport, MailTransportConfig config) throws MessagingException {
+        int port = -1;
+        String portValue = config.getProperty(EmailEventConstants.SmtpProperty.PORT);
+        if (StringUtils.isNotBlank(portValue)) {
+            try {
+                port = Integer.parseInt(portValue.trim());
+            } catch (NumberFormatException e) {
+                log.warn("Invalid SMTP port : " + portValue + ". Using the default port");
+            }
+        }
+        transport.connect(config.getProperty(EmailEventConstants.SmtpProperty.HOST), port,
+                config.getProperty(EmailEventConstants.SmtpProperty.USER),
+                config.getProperty(EmailEventConstants.SmtpProperty.PASSWORD));
+    }
+
+    private MimeMessage createMimeMessage(Session session, MailTransportConfig config, EmailMessage message)
+            throws MessagingException {
+        MimeMessage mimeMessage = new MimeMessage(session);
+        String from = config.getProperty(EmailEventConstants.SmtpProperty.FROM);
+        if (StringUtils.isNotBlank(from)) {
+            mimeMessage.setFrom(new InternetAddress(from));
+        }
+        mimeMessage.setRecipients(Message.RecipientType.TO, InternetAddress.parse(message.getSendTo()));
+        mimeMessage.setSubject(message.getSubject(), CHARSET);
+        String contentType = CONTENT_TYPE_HTML.equals(message.getContentType()) ? CONTENT_TYPE_HTML :
+                CONTENT_TYPE_TEXT;
+        // The body is handed over as its UTF-8 bytes, without decoding it to a String.
+        mimeMessage.setDataHandler(new DataHandler(new ByteArrayDataSource(message.getBodyBytes(),
+                contentType + "; charset=" + CHARSET)));
+        mimeMessage.setSentDate(new Date());
+        mimeMessage.saveChanges();
+        return mimeMessage;
+    }
+
+    private Session getSession(MailTransportConfig config) {
+        SessionHolder holder = sessionHolder;
+        if (holder == null || !holder.config.equals(config)) {
+            Properties properties = new Properties();
+            properties.putAll(config.getProperties());
+            holder = new SessionHolder(config, Session.getInstance(properties));
+            sessionHolder = holder;
+        }
+        return holder.session;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public long getLingerMillis() {
+        return lingerMillis;
+    }
+
+    public long getBatchCount() {
+        return batchCount.get();
+    }
+
+    public long getSentCount() {
+        return sentCount.get();
+    }
+
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    private static class SessionHolder {
+
+        private final MailTransportConfig config;
+        private final Session session;
+
+        private SessionHolder(MailTransportConfig config, Session session) {
+            this.config = config;
+            this.session = session;
+        }
+    }
+
+    private static class Batch {
+
+        private final MailTransportConfig config;
+        private final List<BatchEntry> entries = new ArrayList<>();
+        private final CountDownLatch full = new CountDownLatch(1);
+
+        private Batch(MailTransportConfig config) {
+            this.config = config;
+        }
+
+        private void awaitFull(long timeoutMillis) {
+            try {
+                full.await(timeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                // Send what has been collected so far.
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static class BatchEntry {
+
+        private final EmailMessage message;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile EmailEventServiceException failure;
+
+        private BatchEntry(EmailMessage message) {
+            this.message = message;
+        }
+
+        private void complete(EmailEventServiceException failure) {
+            this.failure = failure;
+            done.countDown();
+        }
+
+        private boolean isCompleted() {
+            return done.getCount() == 0;
+        }
+
+        /**
+         * Waits for the batch to be sent. The wait is not cut short by interrupts, since the email may still be
+         * sent and the caller has to know whether it was.
+         */
+        private void awaitResult() throws EmailEventServiceException {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    done.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.event.handler.email.exception;
+
+/**
+ * Thrown when an email is refused before it is sent, such as by a dispatcher that has been shut down or has no room
+ * left for it. The caller is told the email was not sent, so it is not kept pending to be sent again later.
+ */
+public class EmailRejectedException extends EmailEventServiceException {
+
+    private static final long serialVersionUID = 2154383047146398325L;
+
+    public EmailRejectedException(String message) {
+        super(message);
+    }
+
+    public EmailRejectedException(String message, Throwable e) {
+        super(message, e);
+    }
+}
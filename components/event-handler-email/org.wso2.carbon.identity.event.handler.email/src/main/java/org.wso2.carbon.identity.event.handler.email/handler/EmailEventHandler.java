@@ -18,53 +18,50 @@
 
 package org.wso2.carbon.identity.event.handler.email.handler;
 
-import org.apache.axis2.description.Parameter;
-import org.apache.axis2.engine.AxisConfiguration;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.wso2.carbon.core.CarbonConfigurationContextFactory;
-import org.wso2.carbon.event.output.adapter.core.OutputEventAdapter;
-import org.wso2.carbon.event.output.adapter.core.exception.OutputEventAdapterException;
-import org.wso2.carbon.event.output.adapter.email.EmailEventAdapter;
-import org.wso2.carbon.event.output.adapter.email.EmailEventAdapterFactory;
 import org.wso2.carbon.identity.base.IdentityRuntimeException;
 import org.wso2.carbon.identity.core.handler.InitConfig;
-import org.wso2.carbon.identity.core.util.IdentityTenantUtil;
 import org.wso2.carbon.identity.event.EventMgtConstants;
 import org.wso2.carbon.identity.event.EventMgtException;
 import org.wso2.carbon.identity.event.event.Event;
 import org.wso2.carbon.identity.event.handler.AbstractEventHandler;
+import org.wso2.carbon.identity.event.handler.email.audit.DeliveryAuditLog;
+import org.wso2.carbon.identity.event.handler.email.cache.EmailTemplateCache;
+import org.wso2.carbon.identity.event.handler.email.cache.EmailTemplateCacheEntry;
+import org.wso2.carbon.identity.event.handler.email.cache.UserClaimCache;
 import org.wso2.carbon.identity.event.handler.email.constants.EmailEventConstants;
+import org.wso2.carbon.identity.event.handler.email.dedup.EmailDeduplicator;
+import org.wso2.carbon.identity.event.handler.email.delivery.EmailDispatcher;
+import org.wso2.carbon.identity.event.handler.email.delivery.EmailMessage;
+import org.wso2.carbon.identity.event.handler.email.delivery.MailTransportConfigProvider;
 import org.wso2.carbon.identity.event.handler.email.exception.EmailEventServiceException;
+import org.wso2.carbon.identity.event.handler.email.internal.EmailEventServiceComponent;
+import org.wso2.carbon.identity.event.handler.email.metrics.EmailEventFailure;
+import org.wso2.carbon.identity.event.handler.email.metrics.EmailEventMetrics;
+import org.wso2.carbon.identity.event.handler.email.metrics.EmailEventSeries;
+import org.wso2.carbon.identity.event.handler.email.metrics.EmailEventStage;
+import org.wso2.carbon.identity.event.handler.email.template.TemplateTypeRegistry;
+import org.wso2.carbon.identity.event.handler.email.tenant.TenantResolver;
+import org.wso2.carbon.identity.event.handler.email.util.EmailEventHandlerConfig;
 import org.wso2.carbon.identity.event.handler.email.util.EmailEventUtil;
-import org.wso2.carbon.identity.event.handler.email.util.EmailInfoDTO;
-import org.wso2.carbon.identity.event.handler.email.util.Notification;
-import org.wso2.carbon.identity.event.handler.email.util.NotificationBuilder;
-import org.wso2.carbon.identity.event.handler.email.util.NotificationData;
 
 import java.util.ArrayList;
-import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 public class EmailEventHandler extends AbstractEventHandler {
 
-    private static final String EMAIL_NOTIFICATION_TYPE = "EMAIL";
-
     private static final Log log = LogFactory.getLog(EmailEventHandler.class);
 
     @Override
     public boolean handleEvent(Event event) throws EventMgtException {
 
-        Map<String, String> userClaimMap = new HashMap<>();
         Map<String, String> placeHolderMap = new HashMap<>();
-        String emailContentType = null;
-        EmailInfoDTO emailInfoDTO = null;
-        NotificationData emailNotificationData = null;
         String templateType = null;
-        String locale = null;
-        String sendTo = null;
 
         Map<String, Object> eventProperties = event.getEventProperties();
 
@@ -77,20 +74,75 @@ public class EmailEventHandler extends AbstractEventHandler {
         String username = placeHolderMap.get(EventMgtConstants.EventProperty.USER_NAME);
         String tenantDomain = placeHolderMap.get(EventMgtConstants.EventProperty.TENANT_DOMAIN);
 
-        int tenantId = IdentityTenantUtil.getTenantId(tenantDomain);
+        int tenantId = TenantResolver.getInstance().getTenantId(tenantDomain);
 
         templateType = (String) eventProperties.get(EmailEventConstants.EventProperty.TEMPLATE_TYPE);
 
-        if(!EnumSet.allOf(EmailEventConstants.templateTypes.class)
-                .contains(Enum.valueOf(EmailEventConstants.templateTypes.class, templateType))) {
+        EmailEventMetrics metrics = EmailEventMetrics.getInstance();
+        if (!TemplateTypeRegistry.getInstance().isSupported(tenantId, templateType)) {
+            metrics.recordFailure(metrics.getSeries(tenantId, null), EmailEventFailure.UNSUPPORTED_TEMPLATE_TYPE);
             throw new EventMgtException("Provided template type is not supported.");
         }
 
+        EmailEventSeries series = metrics.getSeries(tenantId, templateType);
+
+        // Repeats of an event fired or retried by the event framework are dropped before any work is done.
+        EmailDeduplicator deduplicator = EmailDeduplicator.getInstance();
+        boolean tracked = deduplicator.isEnabled();
+        long fingerprint = 0;
+        if (tracked) {
+            fingerprint = EmailDeduplicator.fingerprint(tenantId, username, templateType,
+                    placeHolderMap.get(EmailEventConstants.EventProperty.EVENT_ID), placeHolderMap);
+            if (!deduplicator.tryAcquire(fingerprint)) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Dropped repeated " + templateType + " email event of user : " + username +
+                            " of tenant : " + tenantId);
+                }
+                return true;
+            }
+        }
+        boolean sent = false;
         try {
-            userClaimMap = EmailEventUtil.getClaimFromUserStoreManager(username, tenantId);
+            sendEmail(tenantId, username, templateType, placeHolderMap, series);
+            sent = true;
+        } finally {
+            if (tracked && !sent) {
+                // Let a retry of the event through.
+                deduplicator.release(fingerprint);
+            }
+        }
+        return true;
+    }
+
+    private void sendEmail(int tenantId, String username, String templateType, Map<String, String> placeHolderMap,
+                           EmailEventSeries series) throws EventMgtException {
+
+        EmailEventMetrics metrics = EmailEventMetrics.getInstance();
+        Map<String, String> userClaimMap;
+        String locale = null;
+        String sendTo = null;
+
+        // Read the locale, the email address and the claims of the default locale template in one user store
+        // call. Templates of the same type usually share placeholders across locales.
+        long stageStart = System.nanoTime();
+        EmailTemplateCacheEntry defaultTemplate = loadEmailTemplate(tenantId, templateType,
+                EmailEventConstants.LOCALE_DEFAULT, series);
+        metrics.record(series, EmailEventStage.TEMPLATE_LOAD, stageStart);
+        Set<String> claimUris = new LinkedHashSet<>();
+        claimUris.add(EmailEventConstants.CLAIM_URI_LOCALE);
+        claimUris.add(EmailEventConstants.CLAIM_URI_EMAIL);
+        if (defaultTemplate != null) {
+            claimUris.addAll(EmailEventUtil.getRequiredClaimUris(
+                    defaultTemplate.getCompiledTemplate().getPlaceHolders(), placeHolderMap));
+        }
+        stageStart = System.nanoTime();
+        try {
+            userClaimMap = EmailEventUtil.getUserClaims(username, tenantId, claimUris);
         } catch (EmailEventServiceException e) {
+            metrics.recordFailure(series, EmailEventFailure.CLAIM_FETCH_ERROR);
             throw new EventMgtException("Could not load user claims", e);
         }
+        metrics.record(series, EmailEventStage.CLAIM_FETCH, stageStart);
 
         if (userClaimMap != null && !userClaimMap.isEmpty()) {
             if (userClaimMap.containsKey(EmailEventConstants.CLAIM_URI_LOCALE)) {
@@ -105,89 +157,145 @@ public class EmailEventHandler extends AbstractEventHandler {
             locale = EmailEventConstants.LOCALE_DEFAULT;
         }
 
-        StringBuilder resourcePath = new StringBuilder();
-        resourcePath.append(EmailEventConstants.EMAIL_TEMPLATE_PATH).append(templateType).append("/").
-                append(templateType).append(".").append(locale);
-
-        try {
-            emailInfoDTO = EmailEventUtil.loadEmailTemplate(tenantId, resourcePath.toString());
-        } catch (EmailEventServiceException e) {
-            throw new EventMgtException(
-                    "Could not load the email template configuration for user ", e);
+        EmailTemplateCacheEntry emailTemplate = defaultTemplate;
+        if (!EmailEventConstants.LOCALE_DEFAULT.equals(locale)) {
+            stageStart = System.nanoTime();
+            emailTemplate = loadEmailTemplate(tenantId, templateType, locale, series);
+            metrics.record(series, EmailEventStage.TEMPLATE_LOAD, stageStart);
+        }
+        if (emailTemplate == null) {
+            metrics.recordFailure(series, EmailEventFailure.TEMPLATE_NOT_FOUND);
+            throw new EventMgtException("Could not find the email template : " + templateType + " for locale : " +
+                    locale);
         }
 
-        List<String> placeHolders = EmailEventUtil.extractPlaceHolders(emailInfoDTO.getBody());
-        placeHolders.addAll(EmailEventUtil.extractPlaceHolders(emailInfoDTO.getSubject()));
-        placeHolders.addAll(EmailEventUtil.extractPlaceHolders(emailInfoDTO.getFooter()));
+        if (emailTemplate != defaultTemplate) {
+            List<String> missingClaimUris = new ArrayList<>();
+            for (String claimUri : EmailEventUtil.getRequiredClaimUris(
+                    emailTemplate.getCompiledTemplate().getPlaceHolders(), placeHolderMap)) {
+                if (!claimUris.contains(claimUri)) {
+                    missingClaimUris.add(claimUri);
+                }
+            }
+            if (!missingClaimUris.isEmpty()) {
+                stageStart = System.nanoTime();
+                try {
+                    userClaimMap.putAll(
+                            EmailEventUtil.getUserClaims(username, tenantId, missingClaimUris));
+                } catch (EmailEventServiceException e) {
+                    metrics.recordFailure(series, EmailEventFailure.CLAIM_FETCH_ERROR);
+                    throw new EventMgtException("Could not load user claims", e);
+                }
+                metrics.record(series, EmailEventStage.CLAIM_FETCH, stageStart);
+            }
+        }
 
-        Map<String, String> tagData = EmailEventUtil.getTagData(placeHolders, userClaimMap, placeHolderMap);
-        emailNotificationData = new NotificationData(tagData);
-        emailNotificationData.setSendTo(sendTo);
+        stageStart = System.nanoTime();
+        Map<String, String> tagData = EmailEventUtil.getTagData(
+                emailTemplate.getCompiledTemplate().getPlaceHolders(), userClaimMap, placeHolderMap);
 
         try {
-            Notification emailNotification = null;
+            EmailMessage emailMessage;
             try {
-                emailNotification =
-                        NotificationBuilder.createNotification(EMAIL_NOTIFICATION_TYPE, emailInfoDTO,
-                                emailNotificationData);
+                // Rendered straight to UTF-8 bytes. The body is decoded only if the sender needs a String.
+                emailMessage = EmailMessage.render(emailTemplate.getCompiledTemplate(), tagData, sendTo, tenantId,
+                        templateType);
             } catch (Exception e) {
+                metrics.recordFailure(series, EmailEventFailure.RENDER_ERROR);
                 throw new EventMgtException(
                         "Could not create the email notification for template" + e);
             }
-            if (emailNotification == null) {
-                throw new IllegalStateException("Notification not set. " +
-                        "Please set the notification before sending messages");
-            }
+            metrics.record(series, EmailEventStage.RENDER, stageStart);
 
-            // read parameter from axis2.xml
-            AxisConfiguration axisConfiguration =
-                    CarbonConfigurationContextFactory.getConfigurationContext()
-                            .getAxisConfiguration();
-            ArrayList<Parameter> axis_mailParams = axisConfiguration.getTransportOut("mailto").getParameters();
-            Map<String, String> globalProperties = new HashMap<String, String>();
-            for (Parameter parameter : axis_mailParams) {
-                globalProperties.put(parameter.getName(), (String) parameter.getValue());
+            EmailDispatcher emailDispatcher = EmailEventServiceComponent.getEmailDispatcher();
+            if (emailDispatcher == null) {
+                metrics.recordFailure(series, EmailEventFailure.DISPATCH_ERROR);
+                throw new EventMgtException("Email dispatcher is not available");
             }
-
-            EmailEventAdapterFactory emailEventAdapterFactory = new EmailEventAdapterFactory();
-            OutputEventAdapter emailEventAdapter = (EmailEventAdapter) emailEventAdapterFactory.createEventAdapter(null, globalProperties);
-
-            //get dynamic properties
-            Map<String, String> dynamicProperties = new HashMap<String, String>();
-            String emailSubject = emailNotification.getSubject();
-            dynamicProperties.put(EmailEventConstants.EmailProperty.EMAIL_SUBJECT, emailSubject);
-            emailContentType = emailNotification.getContentType();
-            if (emailContentType == null) {
-                emailContentType = EmailEventConstants.TEMPLATE_CONTENT_TYPE_DEFAULT;
-            }
-            dynamicProperties.put(EmailEventConstants.EmailProperty.EMAIL_CONTENT_TYPE, emailContentType);
-            String emailAdd = emailNotification.getSendTo();
-            dynamicProperties.put(EmailEventConstants.EmailProperty.EMAIL_ADDRESS, emailAdd);
-
-            StringBuilder contents = new StringBuilder();
-            contents.append(emailNotification.getBody())
-                    .append(System.getProperty(EmailEventConstants.EmailProperty.EMAIL_CONTENT_LINE_SEPARATOR))
-                    .append(System.getProperty(EmailEventConstants.EmailProperty.EMAIL_CONTENT_LINE_SEPARATOR))
-                    .append(emailNotification.getFooter());
-            String emailBody = contents.toString();
-
-            emailEventAdapter.init();
-            emailEventAdapter.connect();
-            emailEventAdapter.publish(emailBody, dynamicProperties);
-
-            if (log.isDebugEnabled()) {
-                log.debug("Email content : " + emailBody);
+            stageStart = System.nanoTime();
+            try {
+                emailDispatcher.dispatch(emailMessage);
+            } finally {
+                metrics.record(series, EmailEventStage.DISPATCH, stageStart);
             }
-            log.info("Mail has been sent to " + emailNotification.getSendTo());
-        } catch (OutputEventAdapterException e) {
+        } catch (EmailEventServiceException e) {
+            metrics.recordFailure(series, EmailEventFailure.DISPATCH_ERROR);
             log.error("Failed Sending Email");
             throw new EventMgtException("Failed Sending Email", e);
         }
-        return true;
+    }
+
+    private EmailTemplateCacheEntry loadEmailTemplate(int tenantId, String templateType, String locale,
+                                                      EmailEventSeries series) throws EventMgtException {
+        try {
+            return EmailEventUtil.getEmailTemplate(tenantId, templateType, locale);
+        } catch (EmailEventServiceException e) {
+            EmailEventMetrics.getInstance().recordFailure(series, EmailEventFailure.TEMPLATE_LOAD_ERROR);
+            throw new EventMgtException(
+                    "Could not load the email template configuration for user ", e);
+        }
     }
 
     @Override
     public void init(InitConfig configuration) throws IdentityRuntimeException {
+        EmailEventHandlerConfig config = EmailEventHandlerConfig.build(configuration);
+        MailTransportConfigProvider transportConfigProvider = MailTransportConfigProvider.getInstance();
+        transportConfigProvider.refresh();
+        try {
+            transportConfigProvider.getConfig();
+        } catch (EmailEventServiceException e) {
+            // The axis configuration may not be ready yet. The parameters are read on first send instead.
+            if (log.isDebugEnabled()) {
+                log.debug("Could not read the mail transport parameters during initialization", e);
+            }
+        }
+        TenantResolver.getInstance().configure(
+                config.getLong(EmailEventConstants.ConfigProperty.USER_STORE_MANAGER_TIMEOUT,
+                        EmailEventConstants.ConfigDefault.USER_STORE_MANAGER_TIMEOUT));
+        TemplateTypeRegistry.getInstance().configure(
+                config.getLong(EmailEventConstants.ConfigProperty.TEMPLATE_TYPES_REFRESH_INTERVAL,
+                        EmailEventConstants.ConfigDefault.TEMPLATE_TYPES_REFRESH_INTERVAL));
+        UserClaimCache.getInstance().configure(
+                config.getBoolean(EmailEventConstants.ConfigProperty.CLAIM_CACHE_ENABLE,
+                        EmailEventConstants.ConfigDefault.CLAIM_CACHE_ENABLE),
+                config.getInt(EmailEventConstants.ConfigProperty.CLAIM_CACHE_MAX_ENTRIES,
+                        EmailEventConstants.ConfigDefault.CLAIM_CACHE_MAX_ENTRIES),
+                config.getLong(EmailEventConstants.ConfigProperty.CLAIM_CACHE_TIMEOUT,
+                        EmailEventConstants.ConfigDefault.CLAIM_CACHE_TIMEOUT));
+        EmailTemplateCache.getInstance().configure(
+                config.getBoolean(EmailEventConstants.ConfigProperty.TEMPLATE_CACHE_ENABLE,
+                        EmailEventConstants.ConfigDefault.TEMPLATE_CACHE_ENABLE),
+                config.getInt(EmailEventConstants.ConfigProperty.TEMPLATE_CACHE_MAX_ENTRIES,
+                        EmailEventConstants.ConfigDefault.TEMPLATE_CACHE_MAX_ENTRIES),
+                config.getLong(EmailEventConstants.ConfigProperty.TEMPLATE_CACHE_TIMEOUT,
+                        EmailEventConstants.ConfigDefault.TEMPLATE_CACHE_TIMEOUT));
+        EmailDeduplicator.getInstance().configure(
+                config.getBoolean(EmailEventConstants.ConfigProperty.DEDUP_ENABLE,
+                        EmailEventConstants.ConfigDefault.DEDUP_ENABLE),
+                config.getLong(EmailEventConstants.ConfigProperty.DEDUP_WINDOW,
+                        EmailEventConstants.ConfigDefault.DEDUP_WINDOW),
+                config.getInt(EmailEventConstants.ConfigProperty.DEDUP_BUCKETS,
+                        EmailEventConstants.ConfigDefault.DEDUP_BUCKETS),
+                config.getInt(EmailEventConstants.ConfigProperty.DEDUP_MAX_KEYS,
+                        EmailEventConstants.ConfigDefault.DEDUP_MAX_KEYS));
+        EmailEventMetrics.getInstance().configure(
+                config.getBoolean(EmailEventConstants.ConfigProperty.METRICS_ENABLE,
+                        EmailEventConstants.ConfigDefault.METRICS_ENABLE),
+                config.getInt(EmailEventConstants.ConfigProperty.METRICS_MAX_SERIES,
+                        EmailEventConstants.ConfigDefault.METRICS_MAX_SERIES));
+        DeliveryAuditLog.getInstance().configure(
+                config.getBoolean(EmailEventConstants.ConfigProperty.DELIVERY_AUDIT_ENABLE,
+                        EmailEventConstants.ConfigDefault.DELIVERY_AUDIT_ENABLE),
+                config.getInt(EmailEventConstants.ConfigProperty.DELIVERY_AUDIT_SAMPLE_RATE,
+                        EmailEventConstants.ConfigDefault.DELIVERY_AUDIT_SAMPLE_RATE),
+                config.getInt(EmailEventConstants.ConfigProperty.DELIVERY_AUDIT_RATE_LIMIT,
+                        EmailEventConstants.ConfigDefault.DELIVERY_AUDIT_RATE_LIMIT),
+                config.getInt(EmailEventConstants.ConfigProperty.DELIVERY_AUDIT_QUEUE_SIZE,
+                        EmailEventConstants.ConfigDefault.DELIVERY_AUDIT_QUEUE_SIZE),
+                config.getBoolean(EmailEventConstants.ConfigProperty.DELIVERY_AUDIT_MASK_RECIPIENT,
+                        EmailEventConstants.ConfigDefault.DELIVERY_AUDIT_MASK_RECIPIENT));
+
+        EmailEventServiceComponent.configureDelivery(config);
     }
 
     @Override
@@ -0,0 +1,416 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.event.handler.email.internal;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.identity.event.handler.email.audit.AuditedEmailSender;
+import org.wso2.carbon.identity.event.handler.email.breaker.CircuitBreaker;
+import org.wso2.carbon.identity.event.handler.email.breaker.CircuitBreakerEmailSender;
+import org.wso2.carbon.identity.event.handler.email.constants.EmailEventConstants;
+import org.wso2.carbon.identity.event.handler.email.delivery.AdapterEmailSender;
+import org.wso2.carbon.identity.event.handler.email.delivery.AsyncEmailDispatcher;
+import org.wso2.carbon.identity.event.handler.email.delivery.BackpressurePolicy;
+import org.wso2.carbon.identity.event.handler.email.delivery.DirectEmailDispatcher;
+import org.wso2.carbon.identity.event.handler.email.delivery.EmailAdapterPool;
+import org.wso2.carbon.identity.event.handler.email.delivery.EmailDispatcher;
+import org.wso2.carbon.identity.event.handler.email.delivery.EmailSender;
+import org.wso2.carbon.identity.event.handler.email.delivery.SmtpBatchEmailSender;
+import org.wso2.carbon.identity.event.handler.email.exception.EmailEventServiceException;
+import org.wso2.carbon.identity.event.handler.email.metrics.MeteredEmailSender;
+import org.wso2.carbon.identity.event.handler.email.outbox.EmailOutbox;
+import org.wso2.carbon.identity.event.handler.email.outbox.OutboxEmailDispatcher;
+import org.wso2.carbon.identity.event.handler.email.outbox.OutboxEmailSender;
+import org.wso2.carbon.identity.event.handler.email.retry.DeadLetterStore;
+import org.wso2.carbon.identity.event.handler.email.retry.RetryingEmailSender;
+import org.wso2.carbon.identity.event.handler.email.shaping.DomainRateLimiter;
+import org.wso2.carbon.identity.event.handler.email.shaping.ShapingEmailDispatcher;
+import org.wso2.carbon.identity.event.handler.email.shaping.TenantShares;
+import org.wso2.carbon.identity.event.handler.email.util.EmailEventHandlerConfig;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds the adapter pool, senders and dispatchers emails are delivered through from the configuration of the email
+ * event handler. The outbox and stores of the chain built before are reused if they are configured at the same
+ * directory, so that the emails kept in them are not lost. {@link EmailEventServiceComponent} installs the chain.
+ */
+class EmailDeliveryChainBuilder {
+
+    private static final Log log = LogFactory.getLog(EmailDeliveryChainBuilder.class);
+
+    private final EmailEventHandlerConfig config;
+    private final EmailOutbox currentOutbox;
+    private final CircuitBreakerEmailSender currentCircuitBreakerSender;
+    private final DeadLetterStore currentDeadLetterStore;
+
+    private EmailAdapterPool adapterPool;
+    private EmailDispatcher emailDispatcher;
+    private EmailOutbox outbox;
+    private RetryingEmailSender retryingSender;
+    private DeadLetterStore deadLetterStore;
+    private CircuitBreakerEmailSender circuitBreakerSender;
+
+    /**
+     * @param config                      - Configuration of the email event handler.
+     * @param currentOutbox               - Outbox of the chain built before, or null.
+     * @param currentCircuitBreakerSender - Circuit breaker sender of the chain built before, or null.
+     * @param currentDeadLetterStore      - Dead letter store of the chain built before, or null.
+     */
+    EmailDeliveryChainBuilder(EmailEventHandlerConfig config, EmailOutbox currentOutbox,
+                              CircuitBreakerEmailSender currentCircuitBreakerSender,
+                              DeadLetterStore currentDeadLetterStore) {
+        this.config = config;
+        this.currentOutbox = currentOutbox;
+        this.currentCircuitBreakerSender = currentCircuitBreakerSender;
+        this.currentDeadLetterStore = currentDeadLetterStore;
+    }
+
+    EmailDeliveryChainBuilder build() {
+        adapterPool = new EmailAdapterPool(
+                config.getInt(EmailEventConstants.ConfigProperty.ADAPTER_POOL_MAX_ACTIVE,
+                        EmailEventConstants.ConfigDefault.ADAPTER_POOL_MAX_ACTIVE),
+                config.getLong(EmailEventConstants.ConfigProperty.ADAPTER_POOL_BORROW_TIMEOUT,
+                        EmailEventConstants.ConfigDefault.ADAPTER_POOL_BORROW_TIMEOUT),
+                TimeUnit.SECONDS.toMillis(config.getLong(
+                        EmailEventConstants.ConfigProperty.ADAPTER_POOL_VALIDATION_INTERVAL,
+                        EmailEventConstants.ConfigDefault.ADAPTER_POOL_VALIDATION_INTERVAL)));
+        outbox = buildOutbox();
+        EmailSender sender = new MeteredEmailSender(new AuditedEmailSender(buildEmailSender()));
+        if (isEnabledWithSmtpBatch(EmailEventConstants.ConfigProperty.CIRCUIT_BREAKER_ENABLE,
+                EmailEventConstants.ConfigDefault.CIRCUIT_BREAKER_ENABLE)) {
+            circuitBreakerSender = buildCircuitBreakerSender(sender);
+            sender = circuitBreakerSender;
+        }
+        if (outbox != null) {
+            sender = new OutboxEmailSender(sender, outbox);
+        }
+        boolean retryEnabled = isEnabledWithSmtpBatch(EmailEventConstants.ConfigProperty.RETRY_ENABLE,
+                EmailEventConstants.ConfigDefault.RETRY_ENABLE);
+        boolean shapingEnabled = config.getBoolean(EmailEventConstants.ConfigProperty.SHAPING_ENABLE,
+                EmailEventConstants.ConfigDefault.SHAPING_ENABLE);
+        BackpressurePolicy backpressurePolicy = getBackpressurePolicy();
+        if (retryEnabled || shapingEnabled || backpressurePolicy == BackpressurePolicy.DROP_OLDEST) {
+            deadLetterStore = buildDeadLetterStore();
+        }
+        if (retryEnabled && deadLetterStore != null) {
+            retryingSender = new RetryingEmailSender(sender, deadLetterStore, outbox,
+                    config.getInt(EmailEventConstants.ConfigProperty.RETRY_MAX_ATTEMPTS,
+                            EmailEventConstants.ConfigDefault.RETRY_MAX_ATTEMPTS),
+                    config.getLong(EmailEventConstants.ConfigProperty.RETRY_INITIAL_DELAY,
+                            EmailEventConstants.ConfigDefault.RETRY_INITIAL_DELAY),
+                    config.getLong(EmailEventConstants.ConfigProperty.RETRY_MAX_DELAY,
+                            EmailEventConstants.ConfigDefault.RETRY_MAX_DELAY),
+                    config.getInt(EmailEventConstants.ConfigProperty.RETRY_MAX_PENDING,
+                            EmailEventConstants.ConfigDefault.RETRY_MAX_PENDING),
+                    config.getInt(EmailEventConstants.ConfigProperty.RETRY_WORKERS,
+                            EmailEventConstants.ConfigDefault.RETRY_WORKERS));
+            sender = retryingSender;
+        }
+        emailDispatcher = buildEmailDispatcher(sender, backpressurePolicy);
+        if (shapingEnabled) {
+            emailDispatcher = buildShapingDispatcher(emailDispatcher);
+        }
+        if (outbox != null) {
+            emailDispatcher = new OutboxEmailDispatcher(emailDispatcher, outbox);
+        }
+        if (circuitBreakerSender != null) {
+            circuitBreakerSender.setDispatcher(emailDispatcher);
+        }
+        return this;
+    }
+
+    EmailAdapterPool getAdapterPool() {
+        return adapterPool;
+    }
+
+    EmailDispatcher getEmailDispatcher() {
+        return emailDispatcher;
+    }
+
+    /**
+     * @return The outbox emails are recorded in, or null if emails are not recorded.
+     */
+    EmailOutbox getOutbox() {
+        return outbox;
+    }
+
+    /**
+     * @return The sender failed emails are retried by, or null if failed emails are not retried.
+     */
+    RetryingEmailSender getRetryingSender() {
+        return retryingSender;
+    }
+
+    /**
+     * @return The store emails given up on are kept in, or null if failed emails are not kept.
+     */
+    DeadLetterStore getDeadLetterStore() {
+        return deadLetterStore;
+    }
+
+    /**
+     * @return The sender guarded by the circuit breaker, or null if sending is not guarded by a circuit breaker.
+     */
+    CircuitBreakerEmailSender getCircuitBreakerSender() {
+        return circuitBreakerSender;
+    }
+
+    /**
+     * Reads a setting which needs the outcome of each send. The email output adapter sends on its own threads and
+     * does not report failed sends, so such settings only apply with the SMTP batch sender.
+     */
+    private boolean isEnabledWithSmtpBatch(String property, boolean defaultValue) {
+        if (!config.getBoolean(property, defaultValue)) {
+            return false;
+        }
+        if (config.getBoolean(EmailEventConstants.ConfigProperty.SMTP_BATCH_ENABLE,
+                EmailEventConstants.ConfigDefault.SMTP_BATCH_ENABLE)) {
+            return true;
+        }
+        log.warn(property + " is ignored since " + EmailEventConstants.ConfigProperty.SMTP_BATCH_ENABLE + " is not " +
+                "set. The email output adapter does not report emails that failed to send");
+        return false;
+    }
+
+    private EmailSender buildEmailSender() {
+        if (config.getBoolean(EmailEventConstants.ConfigProperty.SMTP_BATCH_ENABLE,
+                EmailEventConstants.ConfigDefault.SMTP_BATCH_ENABLE)) {
+            long lingerMillis = config.getLong(EmailEventConstants.ConfigProperty.SMTP_BATCH_LINGER,
+                    EmailEventConstants.ConfigDefault.SMTP_BATCH_LINGER);
+            if (lingerMillis > 0 && !config.getBoolean(EmailEventConstants.ConfigProperty.ASYNC_ENABLE,
+                    EmailEventConstants.ConfigDefault.ASYNC_ENABLE)) {
+                // Without the async dispatcher the thread raising the event would wait for the batch to fill.
+                log.warn(EmailEventConstants.ConfigProperty.SMTP_BATCH_LINGER + " is ignored since " +
+                        EmailEventConstants.ConfigProperty.ASYNC_ENABLE + " is not set. Emails are sent without " +
+                        "waiting for a batch to fill");
+                lingerMillis = 0;
+            }
+            return new SmtpBatchEmailSender(
+                    config.getInt(EmailEventConstants.ConfigProperty.SMTP_BATCH_SIZE,
+                            EmailEventConstants.ConfigDefault.SMTP_BATCH_SIZE), lingerMillis);
+        }
+        return new AdapterEmailSender();
+    }
+
+    private EmailOutbox buildOutbox() {
+        if (!isEnabledWithSmtpBatch(EmailEventConstants.ConfigProperty.OUTBOX_ENABLE,
+                EmailEventConstants.ConfigDefault.OUTBOX_ENABLE)) {
+            if (EmailOutbox.hasSegments(EmailOutbox.getDefaultDirectory())) {
+                log.warn("Emails left pending in the email outbox at : " + EmailOutbox.getDefaultDirectory() +
+                        " are not resent since the email outbox is not used");
+            }
+            return null;
+        }
+        String directoryName = config.getString(EmailEventConstants.ConfigProperty.OUTBOX_DIRECTORY, null);
+        File directory = directoryName != null ? new File(directoryName) : EmailOutbox.getDefaultDirectory();
+
+        // Keep the outbox opened by the previous initialization. Its replay hands the emails not resent back.
+        if (currentOutbox != null &&
+                currentOutbox.getDirectory().getAbsoluteFile().equals(directory.getAbsoluteFile())) {
+            return currentOutbox;
+        }
+        try {
+            return new EmailOutbox(directory,
+                    config.getInt(EmailEventConstants.ConfigProperty.OUTBOX_SEGMENT_SIZE,
+                            EmailEventConstants.ConfigDefault.OUTBOX_SEGMENT_SIZE),
+                    config.getInt(EmailEventConstants.ConfigProperty.OUTBOX_MAX_SEGMENTS,
+                            EmailEventConstants.ConfigDefault.OUTBOX_MAX_SEGMENTS),
+                    config.getBoolean(EmailEventConstants.ConfigProperty.OUTBOX_FORCE_ON_WRITE,
+                            EmailEventConstants.ConfigDefault.OUTBOX_FORCE_ON_WRITE));
+        } catch (EmailEventServiceException e) {
+            log.error("Could not open the email outbox at : " + directory + ". Emails are sent without it", e);
+            return null;
+        }
+    }
+
+    private CircuitBreakerEmailSender buildCircuitBreakerSender(EmailSender sender) {
+        long openMillis = config.getLong(EmailEventConstants.ConfigProperty.CIRCUIT_BREAKER_OPEN_DURATION,
+                EmailEventConstants.ConfigDefault.CIRCUIT_BREAKER_OPEN_DURATION);
+        CircuitBreaker circuitBreaker = new CircuitBreaker(
+                config.getInt(EmailEventConstants.ConfigProperty.CIRCUIT_BREAKER_WINDOW_SIZE,
+                        EmailEventConstants.ConfigDefault.CIRCUIT_BREAKER_WINDOW_SIZE),
+                config.getInt(EmailEventConstants.ConfigProperty.CIRCUIT_BREAKER_MINIMUM_CALLS,
+                        EmailEventConstants.ConfigDefault.CIRCUIT_BREAKER_MINIMUM_CALLS),
+                config.getInt(EmailEventConstants.ConfigProperty.CIRCUIT_BREAKER_FAILURE_RATE,
+                        EmailEventConstants.ConfigDefault.CIRCUIT_BREAKER_FAILURE_RATE),
+                config.getInt(EmailEventConstants.ConfigProperty.CIRCUIT_BREAKER_SLOW_CALL_RATE,
+                        EmailEventConstants.ConfigDefault.CIRCUIT_BREAKER_SLOW_CALL_RATE),
+                config.getLong(EmailEventConstants.ConfigProperty.CIRCUIT_BREAKER_SLOW_CALL_DURATION,
+                        EmailEventConstants.ConfigDefault.CIRCUIT_BREAKER_SLOW_CALL_DURATION),
+                openMillis,
+                config.getInt(EmailEventConstants.ConfigProperty.CIRCUIT_BREAKER_PROBES,
+                        EmailEventConstants.ConfigDefault.CIRCUIT_BREAKER_PROBES));
+
+        DeadLetterStore spool = null;
+        if (config.getBoolean(EmailEventConstants.ConfigProperty.CIRCUIT_BREAKER_SPOOL_ENABLE,
+                EmailEventConstants.ConfigDefault.CIRCUIT_BREAKER_SPOOL_ENABLE)) {
+            spool = buildSpool();
+        }
+        return new CircuitBreakerEmailSender(sender, circuitBreaker, spool, openMillis);
+    }
+
+    private DeadLetterStore buildSpool() {
+        String directoryName = config.getString(EmailEventConstants.ConfigProperty.CIRCUIT_BREAKER_SPOOL_DIRECTORY,
+                null);
+        File directory = directoryName != null ? new File(directoryName) :
+                CircuitBreakerEmailSender.getDefaultSpoolDirectory();
+
+        DeadLetterStore currentSpool = currentCircuitBreakerSender != null ? currentCircuitBreakerSender.getSpool() :
+                null;
+        if (currentSpool != null &&
+                currentSpool.getDirectory().getAbsoluteFile().equals(directory.getAbsoluteFile())) {
+            return currentSpool;
+        }
+        try {
+            return new DeadLetterStore(directory,
+                    config.getInt(EmailEventConstants.ConfigProperty.CIRCUIT_BREAKER_SPOOL_MAX_ENTRIES,
+                            EmailEventConstants.ConfigDefault.CIRCUIT_BREAKER_SPOOL_MAX_ENTRIES));
+        } catch (EmailEventServiceException e) {
+            log.error("Could not open the email spool at : " + directory + ". Emails fail while the email circuit " +
+                    "breaker is open", e);
+            return null;
+        }
+    }
+
+    private DeadLetterStore buildDeadLetterStore() {
+        String directoryName = config.getString(EmailEventConstants.ConfigProperty.DEAD_LETTER_DIRECTORY, null);
+        File directory = directoryName != null ? new File(directoryName) : DeadLetterStore.getDefaultDirectory();
+
+        if (currentDeadLetterStore != null &&
+                currentDeadLetterStore.getDirectory().getAbsoluteFile().equals(directory.getAbsoluteFile())) {
+            return currentDeadLetterStore;
+        }
+        try {
+            return new DeadLetterStore(directory,
+                    config.getInt(EmailEventConstants.ConfigProperty.DEAD_LETTER_MAX_ENTRIES,
+                            EmailEventConstants.ConfigDefault.DEAD_LETTER_MAX_ENTRIES));
+        } catch (EmailEventServiceException e) {
+            log.error("Could not open the email dead letter store at : " + directory + ". Failed emails are not " +
+                    "retried or kept", e);
+            return null;
+        }
+    }
+
+    /**
+     * @return The backpressure policy of the async dispatcher, or null if emails are sent on the calling thread.
+     */
+    private BackpressurePolicy getBackpressurePolicy() {
+        if (!config.getBoolean(EmailEventConstants.ConfigProperty.ASYNC_ENABLE,
+                EmailEventConstants.ConfigDefault.ASYNC_ENABLE)) {
+            return null;
+        }
+        String policyName = config.getString(EmailEventConstants.ConfigProperty.ASYNC_BACKPRESSURE_POLICY,
+                EmailEventConstants.ConfigDefault.ASYNC_BACKPRESSURE_POLICY);
+        try {
+            return BackpressurePolicy.valueOf(policyName.toUpperCase(Locale.ENGLISH));
+        } catch (IllegalArgumentException e) {
+            log.warn("Invalid backpressure policy : " + policyName + ". Using default : " +
+                    EmailEventConstants.ConfigDefault.ASYNC_BACKPRESSURE_POLICY);
+            return BackpressurePolicy.valueOf(EmailEventConstants.ConfigDefault.ASYNC_BACKPRESSURE_POLICY);
+        }
+    }
+
+    private EmailDispatcher buildEmailDispatcher(EmailSender sender, BackpressurePolicy policy) {
+        if (policy == null) {
+            AsyncEmailDispatcher.register(null);
+            return new DirectEmailDispatcher(sender);
+        }
+        AsyncEmailDispatcher dispatcher = new AsyncEmailDispatcher(sender, deadLetterStore, outbox,
+                config.getInt(EmailEventConstants.ConfigProperty.ASYNC_QUEUE_SIZE,
+                        EmailEventConstants.ConfigDefault.ASYNC_QUEUE_SIZE),
+                config.getInt(EmailEventConstants.ConfigProperty.ASYNC_WORKERS,
+                        EmailEventConstants.ConfigDefault.ASYNC_WORKERS),
+                policy,
+                config.getLong(EmailEventConstants.ConfigProperty.ASYNC_BLOCK_TIMEOUT,
+                        EmailEventConstants.ConfigDefault.ASYNC_BLOCK_TIMEOUT),
+                config.getLong(EmailEventConstants.ConfigProperty.ASYNC_SHUTDOWN_TIMEOUT,
+                        EmailEventConstants.ConfigDefault.ASYNC_SHUTDOWN_TIMEOUT));
+        AsyncEmailDispatcher.register(dispatcher);
+        return dispatcher;
+    }
+
+    private EmailDispatcher buildShapingDispatcher(EmailDispatcher dispatcher) {
+        int defaultWeight = config.getInt(EmailEventConstants.ConfigProperty.SHAPING_TENANT_WEIGHT,
+                EmailEventConstants.ConfigDefault.SHAPING_TENANT_WEIGHT);
+        int defaultQueueSize = config.getInt(EmailEventConstants.ConfigProperty.SHAPING_TENANT_QUEUE_SIZE,
+                EmailEventConstants.ConfigDefault.SHAPING_TENANT_QUEUE_SIZE);
+        Map<String, TenantShares.TenantShare> tenantShares = new HashMap<>();
+        String tenantPrefix = EmailEventConstants.ConfigProperty.SHAPING_TENANT_PREFIX;
+        for (String tenantDomain : getConfiguredNames(tenantPrefix,
+                EmailEventConstants.ConfigProperty.SHAPING_TENANT_WEIGHT_SUFFIX,
+                EmailEventConstants.ConfigProperty.SHAPING_TENANT_QUEUE_SIZE_SUFFIX)) {
+            tenantShares.put(tenantDomain, new TenantShares.TenantShare(
+                    config.getInt(tenantPrefix + tenantDomain +
+                            EmailEventConstants.ConfigProperty.SHAPING_TENANT_WEIGHT_SUFFIX, defaultWeight),
+                    config.getInt(tenantPrefix + tenantDomain +
+                            EmailEventConstants.ConfigProperty.SHAPING_TENANT_QUEUE_SIZE_SUFFIX, defaultQueueSize)));
+        }
+
+        int defaultRate = config.getInt(EmailEventConstants.ConfigProperty.SHAPING_DOMAIN_RATE,
+                EmailEventConstants.ConfigDefault.SHAPING_DOMAIN_RATE);
+        int defaultBurst = config.getInt(EmailEventConstants.ConfigProperty.SHAPING_DOMAIN_BURST,
+                EmailEventConstants.ConfigDefault.SHAPING_DOMAIN_BURST);
+        Map<String, DomainRateLimiter.DomainLimit> domainLimits = new HashMap<>();
+        String domainPrefix = EmailEventConstants.ConfigProperty.SHAPING_DOMAIN_PREFIX;
+        for (String domain : getConfiguredNames(domainPrefix,
+                EmailEventConstants.ConfigProperty.SHAPING_DOMAIN_RATE_SUFFIX,
+                EmailEventConstants.ConfigProperty.SHAPING_DOMAIN_BURST_SUFFIX)) {
+            domainLimits.put(domain, new DomainRateLimiter.DomainLimit(
+                    config.getInt(domainPrefix + domain +
+                            EmailEventConstants.ConfigProperty.SHAPING_DOMAIN_RATE_SUFFIX, defaultRate),
+                    config.getInt(domainPrefix + domain +
+                            EmailEventConstants.ConfigProperty.SHAPING_DOMAIN_BURST_SUFFIX, defaultBurst)));
+        }
+
+        return new ShapingEmailDispatcher(dispatcher, deadLetterStore, outbox,
+                new TenantShares(new TenantShares.TenantShare(defaultWeight, defaultQueueSize), tenantShares),
+                new DomainRateLimiter(defaultRate, defaultBurst, domainLimits,
+                        config.getInt(EmailEventConstants.ConfigProperty.SHAPING_MAX_DOMAINS,
+                                EmailEventConstants.ConfigDefault.SHAPING_MAX_DOMAINS)),
+                config.getInt(EmailEventConstants.ConfigProperty.SHAPING_WORKERS,
+                        EmailEventConstants.ConfigDefault.SHAPING_WORKERS),
+                config.getLong(EmailEventConstants.ConfigProperty.SHAPING_MAX_DELAY,
+                        EmailEventConstants.ConfigDefault.SHAPING_MAX_DELAY),
+                config.getLong(EmailEventConstants.ConfigProperty.ASYNC_SHUTDOWN_TIMEOUT,
+                        EmailEventConstants.ConfigDefault.ASYNC_SHUTDOWN_TIMEOUT));
+    }
+
+    /**
+     * @return The names between the prefix and one of the suffixes of the configured properties, such as the
+     * tenant domains of the per tenant overrides.
+     */
+    private Set<String> getConfiguredNames(String prefix, String... suffixes) {
+        Set<String> names = new LinkedHashSet<>();
+        for (String key : config.getKeys(prefix)) {
+            for (String suffix : suffixes) {
+                if (key.endsWith(suffix) && key.length() > prefix.length() + suffix.length()) {
+                    names.add(key.substring(prefix.length(), key.length() - suffix.length()));
+                }
+            }
+        }
+        return names;
+    }
+}
@@ -21,11 +21,38 @@ package org.wso2.carbon.identity.event.handler.email.internal;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.osgi.service.component.ComponentContext;
+import org.wso2.carbon.email.mgt.listener.EmailTemplateChangeListener;
 import org.wso2.carbon.identity.event.handler.AbstractEventHandler;
+import org.wso2.carbon.identity.event.handler.email.audit.AuditedEmailSender;
+import org.wso2.carbon.identity.event.handler.email.audit.DeliveryAuditLog;
+import org.wso2.carbon.identity.event.handler.email.breaker.CircuitBreaker;
+import org.wso2.carbon.identity.event.handler.email.breaker.CircuitBreakerEmailSender;
+import org.wso2.carbon.identity.event.handler.email.cache.EmailTemplateCache;
+import org.wso2.carbon.identity.event.handler.email.cache.UserClaimCache;
+import org.wso2.carbon.identity.event.handler.email.constants.EmailEventConstants;
+import org.wso2.carbon.identity.event.handler.email.dedup.EmailDeduplicator;
+import org.wso2.carbon.identity.event.handler.email.delivery.AdapterEmailSender;
+import org.wso2.carbon.identity.event.handler.email.delivery.AsyncEmailDispatcher;
+import org.wso2.carbon.identity.event.handler.email.delivery.DirectEmailDispatcher;
+import org.wso2.carbon.identity.event.handler.email.delivery.EmailAdapterPool;
+import org.wso2.carbon.identity.event.handler.email.delivery.EmailDispatcher;
 import org.wso2.carbon.identity.event.handler.email.handler.EmailEventHandler;
+import org.wso2.carbon.identity.event.handler.email.metrics.EmailEventMetrics;
+import org.wso2.carbon.identity.event.handler.email.outbox.EmailOutbox;
+import org.wso2.carbon.identity.event.handler.email.outbox.OutboxEmailDispatcher;
+import org.wso2.carbon.identity.event.handler.email.retry.DeadLetterAdmin;
+import org.wso2.carbon.identity.event.handler.email.retry.DeadLetterStore;
+import org.wso2.carbon.identity.event.handler.email.retry.RetryingEmailSender;
+import org.wso2.carbon.identity.event.handler.email.template.TemplateTypeRegistry;
+import org.wso2.carbon.identity.event.handler.email.tenant.TenantResolver;
+import org.wso2.carbon.identity.event.handler.email.util.EmailEventHandlerConfig;
 import org.wso2.carbon.registry.core.service.RegistryService;
+import org.wso2.carbon.stratos.common.listeners.TenantMgtListener;
+import org.wso2.carbon.user.core.listener.UserOperationEventListener;
 import org.wso2.carbon.user.core.service.RealmService;
 
+import java.util.concurrent.TimeUnit;
+
 /**
  * @scr.component name="org.wso2.carbon.identity.event.handler.email.internal.EmailEventServiceComponent"
  * immediate="true
@@ -41,21 +68,176 @@ public class EmailEventServiceComponent {
     private static Log log = LogFactory.getLog(EmailEventServiceComponent.class);
     private static RegistryService registryService;
     private static RealmService realmService;
+    private static volatile EmailAdapterPool adapterPool;
+    private static volatile EmailDispatcher emailDispatcher;
+    private static volatile EmailOutbox outbox;
+    private static volatile RetryingEmailSender retryingSender;
+    private static volatile DeadLetterStore deadLetterStore;
+    private static volatile CircuitBreakerEmailSender circuitBreakerSender;
 
     protected void activate(ComponentContext context) {
+        setAdapterPool(new EmailAdapterPool(EmailEventConstants.ConfigDefault.ADAPTER_POOL_MAX_ACTIVE,
+                EmailEventConstants.ConfigDefault.ADAPTER_POOL_BORROW_TIMEOUT,
+                TimeUnit.SECONDS.toMillis(EmailEventConstants.ConfigDefault.ADAPTER_POOL_VALIDATION_INTERVAL)));
+        setEmailDispatcher(new DirectEmailDispatcher(new AuditedEmailSender(new AdapterEmailSender())));
         context.getBundleContext().registerService(AbstractEventHandler.class.getName(),
                 new EmailEventHandler(), null);
+        context.getBundleContext().registerService(EmailTemplateChangeListener.class.getName(),
+                new EmailTemplateCacheInvalidator(), null);
+        context.getBundleContext().registerService(UserOperationEventListener.class.getName(),
+                new UserClaimCacheInvalidator(), null);
+        context.getBundleContext().registerService(TenantMgtListener.class.getName(),
+                new TenantLifecycleListener(), null);
         if (log.isDebugEnabled()) {
             log.debug("Identity Management Listener is enabled");
         }
     }
 
     protected void deactivate(ComponentContext context) {
+        EmailTemplateCache.getInstance().clear();
+        UserClaimCache.getInstance().clear();
+        TenantResolver.getInstance().clear();
+        TemplateTypeRegistry.getInstance().clear();
+        EmailDeduplicator.getInstance().clear();
+        EmailEventMetrics.getInstance().clear();
+        // Drain the queued emails while the adapters are still available.
+        setEmailDispatcher(null);
+        AsyncEmailDispatcher.register(null);
+        setRetryingSender(null);
+        setDeadLetterStore(null);
+        setCircuitBreakerSender(null);
+        setOutbox(null);
+        setAdapterPool(null);
+        DeliveryAuditLog.getInstance().shutdown();
         if (log.isDebugEnabled()) {
             log.debug("Identity Management bundle is de-activated");
         }
     }
 
+    /**
+     * Replaces the adapter pool, senders and dispatchers emails are delivered through with those of the given
+     * configuration, and resends the emails recovered from the outbox.
+     *
+     * @param config - Configuration of the email event handler.
+     */
+    public static void configureDelivery(EmailEventHandlerConfig config) {
+        EmailDeliveryChainBuilder chain = new EmailDeliveryChainBuilder(config, outbox, circuitBreakerSender,
+                deadLetterStore).build();
+        setAdapterPool(chain.getAdapterPool());
+        // The previous dispatcher stops resending recovered emails before its outbox is replaced.
+        setEmailDispatcher(chain.getEmailDispatcher());
+        // Retries left by the previous sender are given up on only after its dispatcher has drained.
+        setRetryingSender(chain.getRetryingSender());
+        setDeadLetterStore(chain.getDeadLetterStore());
+        setCircuitBreakerSender(chain.getCircuitBreakerSender());
+        setOutbox(chain.getOutbox());
+        if (chain.getEmailDispatcher() instanceof OutboxEmailDispatcher) {
+            ((OutboxEmailDispatcher) chain.getEmailDispatcher()).replayRecoveredMessages();
+        }
+    }
+
+    public static EmailAdapterPool getAdapterPool() {
+        return adapterPool;
+    }
+
+    /**
+     * Replaces the adapter pool used to publish emails, closing the previous one.
+     *
+     * @param adapterPool - New adapter pool, or null when the component is deactivated.
+     */
+    public static void setAdapterPool(EmailAdapterPool adapterPool) {
+        EmailAdapterPool previousPool = EmailEventServiceComponent.adapterPool;
+        EmailEventServiceComponent.adapterPool = adapterPool;
+        if (previousPool != null) {
+            previousPool.close();
+        }
+    }
+
+    public static EmailDispatcher getEmailDispatcher() {
+        return emailDispatcher;
+    }
+
+    /**
+     * Replaces the dispatcher emails are handed over to, shutting down the previous one.
+     *
+     * @param emailDispatcher - New dispatcher, or null when the component is deactivated.
+     */
+    public static void setEmailDispatcher(EmailDispatcher emailDispatcher) {
+        EmailDispatcher previousDispatcher = EmailEventServiceComponent.emailDispatcher;
+        EmailEventServiceComponent.emailDispatcher = emailDispatcher;
+        if (previousDispatcher != null) {
+            previousDispatcher.shutdown();
+        }
+    }
+
+    public static EmailOutbox getOutbox() {
+        return outbox;
+    }
+
+    /**
+     * Replaces the outbox emails are recorded in, closing the previous one if it is not reused. The dispatcher
+     * resending the emails of the previous outbox must have been replaced first, so that its replay has stopped.
+     *
+     * @param outbox - New outbox, or null if emails are not recorded.
+     */
+    public static void setOutbox(EmailOutbox outbox) {
+        EmailOutbox previousOutbox = EmailEventServiceComponent.outbox;
+        EmailEventServiceComponent.outbox = outbox;
+        if (previousOutbox != null && previousOutbox != outbox) {
+            previousOutbox.close();
+        }
+    }
+
+    public static RetryingEmailSender getRetryingSender() {
+        return retryingSender;
+    }
+
+    /**
+     * Replaces the sender failed emails are retried by, shutting down the previous one.
+     *
+     * @param retryingSender - New retrying sender, or null if failed emails are not retried.
+     */
+    public static void setRetryingSender(RetryingEmailSender retryingSender) {
+        RetryingEmailSender previousSender = EmailEventServiceComponent.retryingSender;
+        EmailEventServiceComponent.retryingSender = retryingSender;
+        if (previousSender != null && previousSender != retryingSender) {
+            previousSender.shutdown();
+        }
+    }
+
+    public static DeadLetterStore getDeadLetterStore() {
+        return deadLetterStore;
+    }
+
+    /**
+     * Replaces the store emails given up on are kept in, and the dead letter operations exposed through JMX.
+     *
+     * @param deadLetterStore - New dead letter store, or null if failed emails are not kept.
+     */
+    public static void setDeadLetterStore(DeadLetterStore deadLetterStore) {
+        EmailEventServiceComponent.deadLetterStore = deadLetterStore;
+        DeadLetterAdmin.register(deadLetterStore);
+    }
+
+    public static CircuitBreakerEmailSender getCircuitBreakerSender() {
+        return circuitBreakerSender;
+    }
+
+    /**
+     * Replaces the sender guarded by the circuit breaker, shutting down the previous one, and exposes the state of
+     * its circuit breaker through JMX.
+     *
+     * @param circuitBreakerSender - New sender, or null if sending is not guarded by a circuit breaker.
+     */
+    public static void setCircuitBreakerSender(CircuitBreakerEmailSender circuitBreakerSender) {
+        CircuitBreakerEmailSender previousSender = EmailEventServiceComponent.circuitBreakerSender;
+        EmailEventServiceComponent.circuitBreakerSender = circuitBreakerSender;
+        if (previousSender != null && previousSender != circuitBreakerSender) {
+            previousSender.shutdown();
+        }
+        CircuitBreaker.register(circuitBreakerSender != null ? circuitBreakerSender.getCircuitBreaker() : null);
+    }
+
     public static RegistryService getRegistryService() {
         return registryService;
     }
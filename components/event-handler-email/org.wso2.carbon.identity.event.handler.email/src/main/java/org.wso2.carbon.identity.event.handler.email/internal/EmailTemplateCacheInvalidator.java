@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.event.handler.email.internal;
+
+import org.wso2.carbon.email.mgt.listener.EmailTemplateChangeListener;
+import org.wso2.carbon.identity.event.handler.email.cache.EmailTemplateCache;
+import org.wso2.carbon.identity.event.handler.email.template.TemplateTypeRegistry;
+
+/**
+ * Drops cached email templates when they are changed through email management, and makes the types of added
+ * templates sendable.
+ */
+public class EmailTemplateCacheInvalidator implements EmailTemplateChangeListener {
+
+    @Override
+    public void onEmailTemplateChange(int tenantId, String templateType, String locale) {
+        EmailTemplateCache.getInstance().invalidate(tenantId, templateType, locale);
+        TemplateTypeRegistry.getInstance().addTemplateType(tenantId, templateType);
+    }
+}
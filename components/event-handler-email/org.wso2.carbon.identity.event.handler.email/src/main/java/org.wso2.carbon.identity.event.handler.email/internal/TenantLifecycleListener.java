@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.event.handler.email.internal;
+
+import org.wso2.carbon.identity.event.handler.email.cache.EmailTemplateCache;
+import org.wso2.carbon.identity.event.handler.email.cache.UserClaimCache;
+import org.wso2.carbon.identity.event.handler.email.metrics.EmailEventMetrics;
+import org.wso2.carbon.identity.event.handler.email.template.TemplateTypeRegistry;
+import org.wso2.carbon.identity.event.handler.email.tenant.TenantResolver;
+import org.wso2.carbon.stratos.common.beans.TenantInfoBean;
+import org.wso2.carbon.stratos.common.exception.StratosException;
+import org.wso2.carbon.stratos.common.listeners.TenantMgtListener;
+
+/**
+ * Drops what the email event handler remembers about a tenant when the tenant is renamed, deactivated or
+ * deleted.
+ */
+public class TenantLifecycleListener implements TenantMgtListener {
+
+    private static final int EXEC_ORDER = 22;
+
+    public void onTenantCreate(TenantInfoBean tenantInfo) throws StratosException {
+        // Nothing is remembered about a tenant before it is created.
+    }
+
+    public void onTenantUpdate(TenantInfoBean tenantInfo) throws StratosException {
+        TenantResolver.getInstance().invalidate(tenantInfo.getTenantId());
+    }
+
+    @Override
+    public void onPreDelete(int tenantId) throws StratosException {
+        // Tenant data is dropped once the tenant is deleted.
+    }
+
+    @Override
+    public void onTenantDelete(int tenantId) {
+        invalidate(tenantId);
+    }
+
+    public void onTenantRename(int tenantId, String oldDomainName,
+                               String newDomainName) throws StratosException {
+        TenantResolver.getInstance().invalidate(tenantId);
+    }
+
+    public int getListenerOrder() {
+        return EXEC_ORDER;
+    }
+
+    public void onTenantInitialActivation(int tenantId) throws StratosException {
+        // Nothing is remembered about a tenant before it is activated.
+    }
+
+    public void onTenantActivation(int tenantId) throws StratosException {
+        TenantResolver.getInstance().invalidate(tenantId);
+    }
+
+    public void onTenantDeactivation(int tenantId) throws StratosException {
+        invalidate(tenantId);
+    }
+
+    public void onSubscriptionPlanChange(int tenentId, String oldPlan, String newPlan) throws StratosException {
+        // Subscription plans do not affect emails.
+    }
+
+    private void invalidate(int tenantId) {
+        TenantResolver.getInstance().invalidate(tenantId);
+        EmailTemplateCache.getInstance().invalidate(tenantId);
+        TemplateTypeRegistry.getInstance().invalidate(tenantId);
+        UserClaimCache.getInstance().invalidate(tenantId);
+        EmailEventMetrics.getInstance().invalidate(tenantId);
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.event.handler.email.internal;
+
+import org.wso2.carbon.identity.event.handler.email.cache.UserClaimCache;
+import org.wso2.carbon.identity.event.handler.email.constants.EmailEventConstants;
+import org.wso2.carbon.user.core.UserStoreException;
+import org.wso2.carbon.user.core.UserStoreManager;
+import org.wso2.carbon.user.core.common.AbstractUserOperationEventListener;
+
+import java.util.Map;
+
+/**
+ * Drops the cached claims of a user when the claims are changed or the user is deleted.
+ */
+public class UserClaimCacheInvalidator extends AbstractUserOperationEventListener {
+
+    @Override
+    public int getExecutionOrderId() {
+        return EmailEventConstants.USER_CLAIM_CACHE_LISTENER_ORDER_ID;
+    }
+
+    @Override
+    public boolean doPostSetUserClaimValue(String userName, UserStoreManager userStoreManager)
+            throws UserStoreException {
+        invalidate(userName, userStoreManager);
+        return true;
+    }
+
+    @Override
+    public boolean doPostSetUserClaimValues(String userName, Map<String, String> claims, String profileName,
+                                            UserStoreManager userStoreManager) throws UserStoreException {
+        invalidate(userName, userStoreManager);
+        return true;
+    }
+
+    @Override
+    public boolean doPostDeleteUserClaimValues(String userName, UserStoreManager userStoreManager)
+            throws UserStoreException {
+        invalidate(userName, userStoreManager);
+        return true;
+    }
+
+    @Override
+    public boolean doPostDeleteUserClaimValue(String userName, UserStoreManager userStoreManager)
+            throws UserStoreException {
+        invalidate(userName, userStoreManager);
+        return true;
+    }
+
+    @Override
+    public boolean doPostDeleteUser(String userName, UserStoreManager userStoreManager) throws UserStoreException {
+        invalidate(userName, userStoreManager);
+        return true;
+    }
+
+    private void invalidate(String userName, UserStoreManager userStoreManager) throws UserStoreException {
+        UserClaimCache claimCache = UserClaimCache.getInstance();
+        if (claimCache.isEnabled()) {
+            claimCache.invalidate(userStoreManager.getTenantId(), userName);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.event.handler.email.metrics;
+
+/**
+ * Causes email events fail with, each counted separately.
+ */
+public enum EmailEventFailure {
+
+    /**
+     * The template type of the event is not one the tenant has templates of.
+     */
+    UNSUPPORTED_TEMPLATE_TYPE("UnsupportedTemplateType"),
+    /**
+     * No template of the type exists for the locale of the user or the default locale.
+     */
+    TEMPLATE_NOT_FOUND("TemplateNotFound"),
+    /**
+     * The template could not be read from the registry.
+     */
+    TEMPLATE_LOAD_ERROR("TemplateLoadError"),
+    /**
+     * The claims of the user could not be read from the user store.
+     */
+    CLAIM_FETCH_ERROR("ClaimFetchError"),
+    /**
+     * The notification could not be built from the template.
+     */
+    RENDER_ERROR("RenderError"),
+    /**
+     * The email was not accepted by the dispatcher. With synchronous dispatching this includes failed sends.
+     */
+    DISPATCH_ERROR("DispatchError"),
+    /**
+     * The email could not be handed over to the mail server.
+     */
+    SEND_ERROR("SendError"),
+    /**
+     * The email was rejected by traffic shaping, as its tenant had too many emails queued or its recipient domain
+     * was over its rate for too long.
+     */
+    THROTTLED("Throttled"),
+    /**
+     * The email was not sent as the circuit breaker around the mail server was open. It was spooled if the spool
+     * is enabled.
+     */
+    CIRCUIT_OPEN("CircuitOpen");
+
+    private final String attributeName;
+
+    EmailEventFailure(String attributeName) {
+        this.attributeName = attributeName;
+    }
+
+    /**
+     * @return Prefix of the JMX attribute of this cause.
+     */
+    public String getAttributeName() {
+        return attributeName;
+    }
+}
@@ -0,0 +1,293 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.event.handler.email.metrics;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.identity.event.handler.email.constants.EmailEventConstants;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Stage latencies and failure counts of the email event handler, kept per tenant and template type and for all
+ * email events together. Each series is registered with the platform MBean server when it is first used.
+ * <p>
+ * Looking up a series and recording into it does not allocate. Once the configured number of series exists, the
+ * events of new tenants and template types are only counted in the series of all email events.
+ */
+public class EmailEventMetrics {
+
+    private static final Log log = LogFactory.getLog(EmailEventMetrics.class);
+    private static final EmailEventMetrics instance = new EmailEventMetrics();
+
+    private static final String OBJECT_NAME_PREFIX = "org.wso2.carbon.identity.event.handler.email:type=EmailEvents";
+
+    private final EmailEventSeries total = new EmailEventSeries(EmailEventConstants.INVALID_TENANT_ID, null);
+    private final Map<String, TenantSeriesTable> series = new ConcurrentHashMap<>();
+    private final Object seriesLock = new Object();
+    private int seriesCount;
+
+    private volatile boolean enabled = EmailEventConstants.ConfigDefault.METRICS_ENABLE;
+    private volatile int maxSeries = EmailEventConstants.ConfigDefault.METRICS_MAX_SERIES;
+
+    private EmailEventMetrics() {
+    }
+
+    public static EmailEventMetrics getInstance() {
+        return instance;
+    }
+
+    /**
+     * Applies the metrics settings given in the handler configuration. Values recorded so far are dropped.
+     *
+     * @param enabled   - Whether metrics are recorded at all.
+     * @param maxSeries - Maximum number of tenant and template type combinations tracked separately.
+     */
+    public void configure(boolean enabled, int maxSeries) {
+        clear();
+        this.maxSeries = maxSeries >= 0 ? maxSeries : EmailEventConstants.ConfigDefault.METRICS_MAX_SERIES;
+        this.enabled = enabled;
+        if (enabled) {
+            register(total, getObjectName(total));
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Email event metrics enabled : " + enabled + ", max series : " + this.maxSeries);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return The series of the tenant and template type, or null if metrics are disabled. The series of all
+     * email events is returned when the template type is not known or too many series exist.
+     */
+    public EmailEventSeries getSeries(int tenantId, String templateType) {
+        if (!enabled) {
+            return null;
+        }
+        if (templateType == null) {
+            return total;
+        }
+        TenantSeriesTable table = series.get(templateType);
+        EmailEventSeries tenantSeries = table != null ? table.get(tenantId) : null;
+        if (tenantSeries != null) {
+            return tenantSeries;
+        }
+        return createSeries(tenantId, templateType);
+    }
+
+    /**
+     * @return The series of all email events.
+     */
+    public EmailEventSeries getTotal() {
+        return total;
+    }
+
+    /**
+     * Records the time since the given start of a stage. Does nothing if the series is null.
+     *
+     * @param startNanos - Value of {@link System#nanoTime()} when the stage started.
+     */
+    public void record(EmailEventSeries eventSeries, EmailEventStage stage, long startNanos) {
+        if (eventSeries == null) {
+            return;
+        }
+        long nanos = System.nanoTime() - startNanos;
+        eventSeries.record(stage, nanos);
+        if (eventSeries != total) {
+            total.record(stage, nanos);
+        }
+    }
+
+    /**
+     * Counts a failed email event. Does nothing if the series is null.
+     */
+    public void recordFailure(EmailEventSeries eventSeries, EmailEventFailure cause) {
+        if (eventSeries == null) {
+            return;
+        }
+        eventSeries.recordFailure(cause);
+        if (eventSeries != total) {
+            total.recordFailure(cause);
+        }
+    }
+
+    /**
+     * Drops the series of a tenant, for example when the tenant is deleted.
+     */
+    public void invalidate(int tenantId) {
+        synchronized (seriesLock) {
+            for (TenantSeriesTable table : series.values()) {
+                EmailEventSeries removed = table.remove(tenantId);
+                if (removed != null) {
+                    seriesCount--;
+                    unregister(getObjectName(removed));
+                }
+            }
+        }
+    }
+
+    public void clear() {
+        synchronized (seriesLock) {
+            for (TenantSeriesTable table : series.values()) {
+                for (EmailEventSeries eventSeries : table.getAll()) {
+                    unregister(getObjectName(eventSeries));
+                }
+            }
+            series.clear();
+            seriesCount = 0;
+            unregister(getObjectName(total));
+        }
+    }
+
+    private EmailEventSeries createSeries(int tenantId, String templateType) {
+        synchronized (seriesLock) {
+            TenantSeriesTable table = series.get(templateType);
+            if (table == null) {
+                table = new TenantSeriesTable();
+                series.put(templateType, table);
+            }
+            EmailEventSeries tenantSeries = table.get(tenantId);
+            if (tenantSeries != null) {
+                return tenantSeries;
+            }
+            if (seriesCount >= maxSeries) {
+                return total;
+            }
+            tenantSeries = new EmailEventSeries(tenantId, templateType);
+            table.put(tenantId, tenantSeries);
+            seriesCount++;
+            register(tenantSeries, getObjectName(tenantSeries));
+            return tenantSeries;
+        }
+    }
+
+    private static String getObjectName(EmailEventSeries eventSeries) {
+        if (eventSeries.getTemplateType() == null) {
+            return OBJECT_NAME_PREFIX + ",name=All";
+        }
+        return OBJECT_NAME_PREFIX + ",tenant=" + eventSeries.getTenantId() + ",templateType=" +
+                ObjectName.quote(eventSeries.getTemplateType());
+    }
+
+    private static void register(EmailEventSeries eventSeries, String name) {
+        try {
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(name);
+            if (mBeanServer.isRegistered(objectName)) {
+                mBeanServer.unregisterMBean(objectName);
+            }
+            mBeanServer.registerMBean(eventSeries, objectName);
+        } catch (JMException e) {
+            log.warn("Could not register the email event metrics MBean : " + name, e);
+        }
+    }
+
+    private static void unregister(String name) {
+        try {
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(name);
+            if (mBeanServer.isRegistered(objectName)) {
+                mBeanServer.unregisterMBean(objectName);
+            }
+        } catch (JMException e) {
+            if (log.isDebugEnabled()) {
+                log.debug("Could not unregister the email event metrics MBean : " + name, e);
+            }
+        }
+    }
+
+    /**
+     * Series of one template type keyed by tenant id. Reads search an immutable sorted snapshot, so looking up a
+     * tenant id neither locks nor boxes it. Writes replace the snapshot and are made under the series lock.
+     */
+    private static class TenantSeriesTable {
+
+        private volatile Snapshot snapshot = new Snapshot(new int[0], new EmailEventSeries[0]);
+
+        private EmailEventSeries get(int tenantId) {
+            Snapshot current = snapshot;
+            int index = Arrays.binarySearch(current.tenantIds, tenantId);
+            return index >= 0 ? current.series[index] : null;
+        }
+
+        private void put(int tenantId, EmailEventSeries eventSeries) {
+            Snapshot current = snapshot;
+            int index = Arrays.binarySearch(current.tenantIds, tenantId);
+            if (index >= 0) {
+                EmailEventSeries[] series = current.series.clone();
+                series[index] = eventSeries;
+                snapshot = new Snapshot(current.tenantIds, series);
+                return;
+            }
+            int insertAt = -index - 1;
+            int size = current.tenantIds.length;
+            int[] tenantIds = new int[size + 1];
+            EmailEventSeries[] series = new EmailEventSeries[size + 1];
+            System.arraycopy(current.tenantIds, 0, tenantIds, 0, insertAt);
+            System.arraycopy(current.series, 0, series, 0, insertAt);
+            tenantIds[insertAt] = tenantId;
+            series[insertAt] = eventSeries;
+            System.arraycopy(current.tenantIds, insertAt, tenantIds, insertAt + 1, size - insertAt);
+            System.arraycopy(current.series, insertAt, series, insertAt + 1, size - insertAt);
+            snapshot = new Snapshot(tenantIds, series);
+        }
+
+        private EmailEventSeries remove(int tenantId) {
+            Snapshot current = snapshot;
+            int index = Arrays.binarySearch(current.tenantIds, tenantId);
+            if (index < 0) {
+                return null;
+            }
+            int size = current.tenantIds.length;
+            int[] tenantIds = new int[size - 1];
+            EmailEventSeries[] series = new EmailEventSeries[size - 1];
+            System.arraycopy(current.tenantIds, 0, tenantIds, 0, index);
+            System.arraycopy(current.series, 0, series, 0, index);
+            System.arraycopy(current.tenantIds, index + 1, tenantIds, index, size - index - 1);
+            System.arraycopy(current.series, index + 1, series, index, size - index - 1);
+            snapshot = new Snapshot(tenantIds, series);
+            return current.series[index];
+        }
+
+        private List<EmailEventSeries> getAll() {
+            return Arrays.asList(snapshot.series);
+        }
+    }
+
+    private static class Snapshot {
+
+        private final int[] tenantIds;
+        private final EmailEventSeries[] series;
+
+        private Snapshot(int[] tenantIds, EmailEventSeries[] series) {
+            this.tenantIds = tenantIds;
+            this.series = series;
+        }
+    }
+}
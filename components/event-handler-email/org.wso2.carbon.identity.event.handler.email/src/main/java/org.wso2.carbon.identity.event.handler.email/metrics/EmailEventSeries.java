@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.event.handler.email.metrics;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+
+/**
+ * Stage latencies and failure counts of the email events of one tenant and template type, or of all email events.
+ * Exposed through JMX with a count, mean, 50th and 99th percentile and maximum latency attribute per stage, and a
+ * counter attribute per failure cause.
+ */
+public class EmailEventSeries implements DynamicMBean {
+
+    private static final String COUNT = "Count";
+    private static final String MEAN = "MeanMillis";
+    private static final String P50 = "P50Millis";
+    private static final String P99 = "P99Millis";
+    private static final String MAX = "MaxMillis";
+    private static final String FAILURES = "Failures";
+    private static final String[] STAGE_ATTRIBUTES = {COUNT, MEAN, P50, P99, MAX};
+
+    private final int tenantId;
+    private final String templateType;
+    private final LatencyHistogram[] stages = new LatencyHistogram[EmailEventStage.values().length];
+    private final AtomicLongArray failures = new AtomicLongArray(EmailEventFailure.values().length);
+    private final MBeanInfo mBeanInfo;
+
+    public EmailEventSeries(int tenantId, String templateType) {
+        this.tenantId = tenantId;
+        this.templateType = templateType;
+        for (int i = 0; i < stages.length; i++) {
+            stages[i] = new LatencyHistogram();
+        }
+        this.mBeanInfo = createMBeanInfo();
+    }
+
+    public int getTenantId() {
+        return tenantId;
+    }
+
+    /**
+     * @return Template type of the series, or null for the series of all email events.
+     */
+    public String getTemplateType() {
+        return templateType;
+    }
+
+    public void record(EmailEventStage stage, long nanos) {
+        stages[stage.ordinal()].record(nanos);
+    }
+
+    public void recordFailure(EmailEventFailure cause) {
+        failures.incrementAndGet(cause.ordinal());
+    }
+
+    public LatencyHistogram getLatency(EmailEventStage stage) {
+        return stages[stage.ordinal()];
+    }
+
+    public long getFailureCount(EmailEventFailure cause) {
+        return failures.get(cause.ordinal());
+    }
+
+    /**
+     * @return All metric values keyed by their JMX attribute name.
+     */
+    public Map<String, Object> getValues() {
+        Map<String, Object> values = new LinkedHashMap<>();
+        for (EmailEventStage stage : EmailEventStage.values()) {
+            LatencyHistogram histogram = getLatency(stage);
+            values.put(stage.getAttributeName() + COUNT, histogram.getCount());
+            values.put(stage.getAttributeName() + MEAN, histogram.getMeanMillis());
+            values.put(stage.getAttributeName() + P50, histogram.getPercentileMillis(0.50));
+            values.put(stage.getAttributeName() + P99, histogram.getPercentileMillis(0.99));
+            values.put(stage.getAttributeName() + MAX, histogram.getMaxMillis());
+        }
+        for (EmailEventFailure cause : EmailEventFailure.values()) {
+            values.put(cause.getAttributeName() + FAILURES, getFailureCount(cause));
+        }
+        return values;
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Object value = getValues().get(attribute);
+        if (value == null) {
+            throw new AttributeNotFoundException("No email event metric named : " + attribute);
+        }
+        return value;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Email event metrics are read only : " + attribute.getName());
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        Map<String, Object> values = getValues();
+        AttributeList attributeList = new AttributeList();
+        for (String attribute : attributes) {
+            if (values.containsKey(attribute)) {
+                attributeList.add(new Attribute(attribute, values.get(attribute)));
+            }
+        }
+        return attributeList;
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) {
+        throw new UnsupportedOperationException("Email event metrics have no operations : " + actionName);
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        return mBeanInfo;
+    }
+
+    private MBeanInfo createMBeanInfo() {
+        List<MBeanAttributeInfo> attributes = new ArrayList<>();
+        for (EmailEventStage stage : EmailEventStage.values()) {
+            for (String suffix : STAGE_ATTRIBUTES) {
+                String type = COUNT.equals(suffix) ? long.class.getName() : double.class.getName();
+                attributes.add(new MBeanAttributeInfo(stage.getAttributeName() + suffix, type,
+                        stage.getAttributeName() + " " + suffix, true, false, false));
+            }
+        }
+        for (EmailEventFailure cause : EmailEventFailure.values()) {
+            attributes.add(new MBeanAttributeInfo(cause.getAttributeName() + FAILURES, long.class.getName(),
+                    "Email events failed with " + cause.getAttributeName(), true, false, false));
+        }
+        String description = templateType == null ? "All email events" :
+                "Email events of template type " + templateType + " of tenant " + tenantId;
+        return new MBeanInfo(getClass().getName(), description,
+                attributes.toArray(new MBeanAttributeInfo[attributes.size()]), null,
+                new MBeanOperationInfo[0], null);
+    }
+}
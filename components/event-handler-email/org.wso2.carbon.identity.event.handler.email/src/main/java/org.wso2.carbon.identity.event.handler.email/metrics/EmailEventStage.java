@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.event.handler.email.metrics;
+
+/**
+ * Stages of handling an email event that are timed separately.
+ */
+public enum EmailEventStage {
+
+    TEMPLATE_LOAD("TemplateLoad"),
+    CLAIM_FETCH("ClaimFetch"),
+    RENDER("Render"),
+    DISPATCH("Dispatch"),
+    SEND("Send"),
+    // Only timed for emails which wait for a token of their recipient domain.
+    DOMAIN_DELAY("DomainDelay");
+
+    private final String attributeName;
+
+    EmailEventStage(String attributeName) {
+        this.attributeName = attributeName;
+    }
+
+    /**
+     * @return Prefix of the JMX attributes of this stage.
+     */
+    public String getAttributeName() {
+        return attributeName;
+    }
+}
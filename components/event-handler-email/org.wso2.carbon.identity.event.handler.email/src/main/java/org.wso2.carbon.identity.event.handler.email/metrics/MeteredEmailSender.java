@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.event.handler.email.metrics;
+
+import org.wso2.carbon.identity.event.handler.email.delivery.EmailMessage;
+import org.wso2.carbon.identity.event.handler.email.delivery.EmailSender;
+import org.wso2.carbon.identity.event.handler.email.exception.EmailEventServiceException;
+
+/**
+ * Times the hand over of emails to the mail server and counts the failed ones in {@link EmailEventMetrics}.
+ */
+public class MeteredEmailSender implements EmailSender {
+
+    private final EmailSender sender;
+
+    public MeteredEmailSender(EmailSender sender) {
+        this.sender = sender;
+    }
+
+    @Override
+    public void send(EmailMessage message) throws EmailEventServiceException {
+        EmailEventMetrics metrics = EmailEventMetrics.getInstance();
+        EmailEventSeries series = metrics.getSeries(message.getTenantId(), message.getTemplateType());
+        long start = System.nanoTime();
+        try {
+            sender.send(message);
+        } catch (EmailEventServiceException | RuntimeException e) {
+            metrics.recordFailure(series, EmailEventFailure.SEND_ERROR);
+            throw e;
+        } finally {
+            metrics.record(series, EmailEventStage.SEND, start);
+        }
+    }
+}
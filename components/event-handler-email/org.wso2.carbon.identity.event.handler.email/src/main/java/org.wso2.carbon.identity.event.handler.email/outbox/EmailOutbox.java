@@ -0,0 +1,397 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.event.handler.email.outbox;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.identity.event.handler.email.audit.DeliveryAuditLog;
+import org.wso2.carbon.identity.event.handler.email.constants.EmailEventConstants;
+import org.wso2.carbon.identity.event.handler.email.delivery.EmailMessage;
+import org.wso2.carbon.identity.event.handler.email.delivery.EmailMessageCodec;
+import org.wso2.carbon.identity.event.handler.email.exception.EmailEventServiceException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Append only, memory mapped log of the emails accepted for sending.
+ * <p/>
+ * An email is appended as a pending record before it is handed over for sending and a done record is appended
+ * once it has been sent. When the outbox is opened, the emails that have no done record are recovered so they
+ * can be sent again, which gives at-least-once delivery across restarts.
+ * <p/>
+ * Records go into fixed size segment files. A new segment is started when the current one is full. Segments are
+ * removed from the oldest end once none of their emails are pending. When there are more than the configured
+ * number of segments, the pending emails of the oldest segment are copied into the current one so it can be
+ * removed.
+ * <p/>
+ * Unless forceOnWrite is set, records reach the disk when the operating system flushes the mapped pages. They
+ * survive a crash of the server process but not of the host.
+ */
+public class EmailOutbox {
+
+    private static final Log log = LogFactory.getLog(EmailOutbox.class);
+
+    private static final byte RECORD_PENDING = 1;
+    private static final byte RECORD_DONE = 2;
+
+    private final File directory;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final boolean forceOnWrite;
+    private final LinkedList<OutboxSegment> segments = new LinkedList<>();
+    private final Map<String, OutboxSegment> pendingMessages = new HashMap<>();
+    private List<EmailMessage> recoveredMessages;
+    private boolean closed;
+
+    /**
+     * Opens the outbox in the given directory, recovering the emails that were pending when it was last used.
+     *
+     * @param directory    - Directory the segment files are kept in.
+     * @param segmentSize  - Size of a segment file in bytes.
+     * @param maxSegments  - Number of segments above which the oldest is compacted.
+     * @param forceOnWrite - Whether every record is flushed to the disk before returning.
+     * @throws EmailEventServiceException if the segment files could not be created or read.
+     */
+    public EmailOutbox(File directory, int segmentSize, int maxSegments, boolean forceOnWrite)
+            throws EmailEventServiceException {
+        this.directory = directory;
+        this.segmentSize = segmentSize > OutboxSegment.RECORD_HEADER_LENGTH ? segmentSize :
+                OutboxSegment.RECORD_HEADER_LENGTH + 1;
+        this.maxSegments = maxSegments > 1 ? maxSegments : 2;
+        this.forceOnWrite = forceOnWrite;
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new EmailEventServiceException("Could not create the email outbox directory : " + directory);
+        }
+        try {
+            recover();
+        } catch (IOException e) {
+            closeSegments();
+            throw new EmailEventServiceException("Could not read the email outbox at : " + directory, e);
+        } catch (EmailEventServiceException e) {
+            // A record that cannot be decoded. The segments mapped so far are released before giving up.
+            closeSegments();
+            throw e;
+        }
+    }
+
+    /**
+     * @return The outbox directory under the carbon home, or under the temporary directory if it is not set.
+     */
+    public static File getDefaultDirectory() {
+        String baseDirectory = System.getProperty("carbon.home");
+        if (baseDirectory == null) {
+            baseDirectory = System.getProperty("java.io.tmpdir");
+        }
+        return new File(baseDirectory, EmailEventConstants.OUTBOX_DIRECTORY_DEFAULT);
+    }
+
+    /**
+     * @return true if the directory holds segment files of an outbox.
+     */
+    public static boolean hasSegments(File directory) {
+        return !listSegmentSequences(directory).isEmpty();
+    }
+
+    private static List<Long> listSegmentSequences(File directory) {
+        List<Long> sequences = new ArrayList<>();
+        String[] fileNames = directory.list();
+        if (fileNames == null) {
+            return sequences;
+        }
+        for (String fileName : fileNames) {
+            long sequence = OutboxSegment.parseSequence(fileName);
+            if (sequence >= 0) {
+                sequences.add(sequence);
+            }
+        }
+        Long[] sorted = sequences.toArray(new Long[sequences.size()]);
+        Arrays.sort(sorted);
+        return Arrays.asList(sorted);
+    }
+
+    private void recover() throws IOException, EmailEventServiceException {
+        Map<String, EmailMessage> recovered = new LinkedHashMap<>();
+        for (Long sequence : listSegmentSequences(directory)) {
+            OutboxSegment segment = OutboxSegment.open(directory, sequence, segmentSize);
+            segments.add(segment);
+            for (byte[] payload : segment.readPayloads()) {
+                if (payload[0] == RECORD_PENDING) {
+                    EmailMessage message = decodeMessage(payload);
+                    recovered.put(message.getMessageId(), message);
+                    pendingMessages.put(message.getMessageId(), segment);
+                } else if (payload[0] == RECORD_DONE) {
+                    String messageId = decodeMessageId(payload);
+                    recovered.remove(messageId);
+                    pendingMessages.remove(messageId);
+                }
+            }
+        }
+        for (OutboxSegment segment : pendingMessages.values()) {
+            segment.incrementPendingCount();
+        }
+        if (segments.isEmpty()) {
+            segments.add(OutboxSegment.open(directory, 0, segmentSize));
+        }
+        removeCompletedSegments();
+        recoveredMessages = new ArrayList<>(recovered.values());
+
+        if (!recoveredMessages.isEmpty()) {
+            log.info("Recovered " + recoveredMessages.size() + " unsent emails from the email outbox at : " +
+                    directory);
+        }
+    }
+
+    /**
+     * Records the email as pending.
+     *
+     * @param message - Email that is about to be handed over for sending.
+     * @throws EmailEventServiceException if the record could not be written.
+     */
+    public synchronized void append(EmailMessage message) throws EmailEventServiceException {
+        OutboxSegment segment = write(encodeMessage(message));
+        pendingMessages.put(message.getMessageId(), segment);
+        segment.incrementPendingCount();
+    }
+
+    /**
+     * Records the email as done so it is not recovered again. Emails that are not pending are ignored.
+     *
+     * @param messageId - Id of the email.
+     * @throws EmailEventServiceException if the record could not be written.
+     */
+    public synchronized void markDone(String messageId) throws EmailEventServiceException {
+        OutboxSegment segment = pendingMessages.get(messageId);
+        if (segment == null) {
+            return;
+        }
+        write(encodeMessageId(RECORD_DONE, messageId));
+        pendingMessages.remove(messageId);
+        segment.decrementPendingCount();
+        removeCompletedSegments();
+    }
+
+    /**
+     * Returns the emails recovered when the outbox was opened. They are returned only once, unless they are handed
+     * back with {@link #returnRecoveredMessages(List)}.
+     */
+    public synchronized List<EmailMessage> drainRecoveredMessages() {
+        List<EmailMessage> messages = recoveredMessages;
+        recoveredMessages = new ArrayList<>();
+        return messages;
+    }
+
+    /**
+     * Hands back recovered emails that were not resent, so the next dispatcher using the outbox resends them. Emails
+     * which are no longer pending are dropped.
+     */
+    public synchronized void returnRecoveredMessages(List<EmailMessage> messages) {
+        for (EmailMessage message : messages) {
+            if (pendingMessages.containsKey(message.getMessageId())) {
+                recoveredMessages.add(message);
+            }
+        }
+    }
+
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        closeSegments();
+    }
+
+    private void closeSegments() {
+        for (OutboxSegment segment : segments) {
+            try {
+                segment.close();
+            } catch (IOException e) {
+                log.warn("Could not close the email outbox segment : " + segment.getFile(), e);
+            }
+        }
+        segments.clear();
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    public synchronized int getPendingCount() {
+        return pendingMessages.size();
+    }
+
+    private OutboxSegment write(byte[] payload) throws EmailEventServiceException {
+        if (closed) {
+            throw new EmailEventServiceException("Email outbox at : " + directory + " has been closed");
+        }
+        OutboxSegment segment = segments.getLast();
+        if (!segment.hasRoom(payload.length)) {
+            segment = roll();
+            if (!segment.hasRoom(payload.length)) {
+                throw new EmailEventServiceException("Email of " + payload.length + " bytes does not fit in an " +
+                        "email outbox segment of " + segmentSize + " bytes");
+            }
+        }
+        segment.append(payload);
+        if (forceOnWrite) {
+            segment.force();
+        }
+        return segment;
+    }
+
+    private OutboxSegment roll() throws EmailEventServiceException {
+        OutboxSegment current = segments.getLast();
+        current.force();
+        OutboxSegment next;
+        try {
+            next = OutboxSegment.open(directory, current.getSequence() + 1, segmentSize);
+        } catch (IOException e) {
+            throw new EmailEventServiceException("Could not create a new email outbox segment in : " + directory, e);
+        }
+        segments.add(next);
+        removeCompletedSegments();
+        compact();
+        return segments.getLast();
+    }
+
+    /**
+     * Copies the pending emails of the oldest segments into the current one until the number of segments is
+     * within the limit, or the pending emails no longer fit.
+     */
+    private void compact() throws EmailEventServiceException {
+        while (segments.size() > maxSegments) {
+            OutboxSegment oldest = segments.getFirst();
+            OutboxSegment current = segments.getLast();
+
+            List<byte[]> livePayloads = new ArrayList<>();
+            int liveLength = 0;
+            for (byte[] payload : oldest.readPayloads()) {
+                if (payload[0] == RECORD_PENDING &&
+                        pendingMessages.get(decodeMessageId(payload)) == oldest) {
+                    livePayloads.add(payload);
+                    liveLength += OutboxSegment.RECORD_HEADER_LENGTH + payload.length;
+                }
+            }
+            if (liveLength > current.remaining()) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Pending emails of the email outbox segment : " + oldest.getFile() +
+                            " do not fit in the current segment. Skipping compaction");
+                }
+                return;
+            }
+            for (byte[] payload : livePayloads) {
+                current.append(payload);
+                pendingMessages.put(decodeMessageId(payload), current);
+                current.incrementPendingCount();
+            }
+            current.force();
+            oldest.clearPendingCount();
+            removeCompletedSegments();
+        }
+    }
+
+    /**
+     * Removes segments from the oldest end while none of their emails are pending. Done records always follow
+     * the pending record they refer to, so removing from the oldest end never brings a sent email back.
+     */
+    private void removeCompletedSegments() {
+        Iterator<OutboxSegment> iterator = segments.iterator();
+        while (segments.size() > 1 && iterator.hasNext()) {
+            OutboxSegment segment = iterator.next();
+            if (segment.getPendingCount() > 0 || segment == segments.getLast()) {
+                return;
+            }
+            iterator.remove();
+            try {
+                if (!segment.delete()) {
+                    log.warn("Could not delete the email outbox segment : " + segment.getFile());
+                }
+            } catch (IOException e) {
+                log.warn("Could not delete the email outbox segment : " + segment.getFile(), e);
+            }
+        }
+    }
+
+    private static byte[] encodeMessage(EmailMessage message) throws EmailEventServiceException {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(256 +
+                    (message.getBodyBytes() != null ? message.getBodyBytes().length : 0));
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(RECORD_PENDING);
+            EmailMessageCodec.writeMessage(out, message);
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new EmailEventServiceException("Could not encode the email to : " +
+                    DeliveryAuditLog.maskAddress(message.getSendTo()), e);
+        }
+    }
+
+    private static byte[] encodeMessageId(byte recordType, String messageId) throws EmailEventServiceException {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(recordType);
+            EmailMessageCodec.writeString(out, messageId);
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new EmailEventServiceException("Could not encode the email outbox record of : " + messageId, e);
+        }
+    }
+
+    private static EmailMessage decodeMessage(byte[] payload) throws EmailEventServiceException {
+        try {
+            return EmailMessageCodec.readMessage(
+                    new DataInputStream(new ByteArrayInputStream(payload, 1, payload.length - 1)));
+        } catch (IOException e) {
+            throw new EmailEventServiceException("Could not decode an email outbox record", e);
+        }
+    }
+
+    private static String decodeMessageId(byte[] payload) throws EmailEventServiceException {
+        try {
+            return EmailMessageCodec.readString(
+                    new DataInputStream(new ByteArrayInputStream(payload, 1, payload.length - 1)));
+        } catch (IOException e) {
+            throw new EmailEventServiceException("Could not decode an email outbox record", e);
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.event.handler.email.outbox;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.identity.event.handler.email.audit.DeliveryAuditLog;
+import org.wso2.carbon.identity.event.handler.email.delivery.EmailDispatcher;
+import org.wso2.carbon.identity.event.handler.email.delivery.EmailMessage;
+import org.wso2.carbon.identity.event.handler.email.exception.EmailEventServiceException;
+import org.wso2.carbon.identity.event.handler.email.exception.EmailRejectedException;
+import org.wso2.carbon.identity.event.handler.email.retry.SendFailureClassifier;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records emails in the {@link EmailOutbox} before handing them over to the wrapped dispatcher. The wrapped
+ * dispatcher is expected to send through an {@link OutboxEmailSender} so sent emails are marked as done.
+ * <p/>
+ * Failures of the wrapped dispatcher are reported to the caller. With synchronous dispatching they include failed
+ * sends, so the email stays pending and is sent again on recovery. It is only marked as done when sending it again
+ * cannot succeed, that is when the dispatcher refused it or the mail server rejected it for good.
+ * <p/>
+ * Emails recovered from the outbox are resent on a separate thread, and those that fail are tried again until they
+ * are sent or the dispatcher is shut down. Shutting down stops the replay before the wrapped dispatcher, and hands
+ * the emails not resent back to the outbox.
+ */
+public class OutboxEmailDispatcher implements EmailDispatcher {
+
+    private static final Log log = LogFactory.getLog(OutboxEmailDispatcher.class);
+
+    private static final String REPLAY_THREAD_NAME = "EmailEventHandler-OutboxReplay";
+    private static final long DEFAULT_REPLAY_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+    private static final long REPLAY_STOP_TIMEOUT = TimeUnit.SECONDS.toMillis(30);
+
+    private final EmailDispatcher dispatcher;
+    private final EmailOutbox outbox;
+    private final long replayIntervalMillis;
+    private volatile boolean running = true;
+    private Thread replayThread;
+
+    public OutboxEmailDispatcher(EmailDispatcher dispatcher, EmailOutbox outbox) {
+        this(dispatcher, outbox, DEFAULT_REPLAY_INTERVAL);
+    }
+
+    /**
+     * @param replayIntervalMillis - Time to wait before trying recovered emails that failed again.
+     */
+    public OutboxEmailDispatcher(EmailDispatcher dispatcher, EmailOutbox outbox, long replayIntervalMillis) {
+        this.dispatcher = dispatcher;
+        this.outbox = outbox;
+        this.replayIntervalMillis = replayIntervalMillis;
+    }
+
+    @Override
+    public void dispatch(EmailMessage message) throws EmailEventServiceException {
+        outbox.append(message);
+        try {
+            dispatcher.dispatch(message);
+        } catch (EmailEventServiceException e) {
+            if (isFinal(e)) {
+                outbox.markDone(message.getMessageId());
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Sends the emails recovered from the outbox on a separate thread, so initialization is not held up by the mail
+     * server.
+     */
+    public synchronized void replayRecoveredMessages() {
+        if (!running || replayThread != null) {
+            return;
+        }
+        final List<EmailMessage> messages = outbox.drainRecoveredMessages();
+        if (messages.isEmpty()) {
+            return;
+        }
+        replayThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                replay(messages);
+            }
+        }, REPLAY_THREAD_NAME);
+        replayThread.setDaemon(true);
+        replayThread.start();
+    }
+
+    @Override
+    public void shutdown() {
+        Thread thread;
+        synchronized (this) {
+            running = false;
+            thread = replayThread;
+        }
+        if (thread != null) {
+            thread.interrupt();
+            try {
+                thread.join(REPLAY_STOP_TIMEOUT);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (thread.isAlive()) {
+                log.warn("Resending the emails of the email outbox did not stop within " + REPLAY_STOP_TIMEOUT +
+                        "ms");
+            }
+        }
+        dispatcher.shutdown();
+    }
+
+    private void replay(List<EmailMessage> messages) {
+        List<EmailMessage> pending = messages;
+        int replayed = 0;
+        try {
+            while (true) {
+                List<EmailMessage> failed = new ArrayList<>();
+                for (int i = 0; i < pending.size(); i++) {
+                    EmailMessage message = pending.get(i);
+                    if (!running) {
+                        failed.addAll(pending.subList(i, pending.size()));
+                        break;
+                    }
+                    try {
+                        dispatcher.dispatch(message);
+                        replayed++;
+                    } catch (EmailEventServiceException e) {
+                        String recipient = DeliveryAuditLog.maskAddress(message.getSendTo());
+                        if (isFinal(e)) {
+                            log.warn("Gave up resending the email to " + recipient + " from the email outbox", e);
+                            markDone(message);
+                        } else {
+                            log.warn("Could not resend the email to " + recipient + " from the email outbox. It is " +
+                                    "tried again in " + replayIntervalMillis + "ms", e);
+                            failed.add(message);
+                        }
+                    }
+                }
+                pending = failed;
+                if (pending.isEmpty() || !running) {
+                    break;
+                }
+                Thread.sleep(replayIntervalMillis);
+            }
+        } catch (InterruptedException e) {
+            // Shut down while waiting to try again.
+            Thread.currentThread().interrupt();
+        } finally {
+            if (!pending.isEmpty()) {
+                outbox.returnRecoveredMessages(pending);
+            }
+            if (log.isDebugEnabled()) {
+                log.debug("Resent " + replayed + " of " + messages.size() + " emails from the email outbox");
+            }
+        }
+    }
+
+    private void markDone(EmailMessage message) {
+        try {
+            outbox.markDone(message.getMessageId());
+        } catch (EmailEventServiceException e) {
+            log.warn("Could not mark the email to " + DeliveryAuditLog.maskAddress(message.getSendTo()) +
+                    " as done in the email outbox", e);
+        }
+    }
+
+    private static boolean isFinal(EmailEventServiceException e) {
+        return e instanceof EmailRejectedException || SendFailureClassifier.isPermanent(e);
+    }
+}
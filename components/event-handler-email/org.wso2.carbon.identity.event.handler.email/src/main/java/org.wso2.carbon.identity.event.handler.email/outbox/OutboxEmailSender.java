@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.event.handler.email.outbox;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.identity.event.handler.email.audit.DeliveryAuditLog;
+import org.wso2.carbon.identity.event.handler.email.delivery.EmailMessage;
+import org.wso2.carbon.identity.event.handler.email.delivery.EmailSender;
+import org.wso2.carbon.identity.event.handler.email.exception.EmailEventServiceException;
+
+/**
+ * Marks emails as done in the {@link EmailOutbox} once they have been sent.
+ */
+public class OutboxEmailSender implements EmailSender {
+
+    private static final Log log = LogFactory.getLog(OutboxEmailSender.class);
+
+    private final EmailSender sender;
+    private final EmailOutbox outbox;
+
+    public OutboxEmailSender(EmailSender sender, EmailOutbox outbox) {
+        this.sender = sender;
+        this.outbox = outbox;
+    }
+
+    @Override
+    public void send(EmailMessage message) throws EmailEventServiceException {
+        sender.send(message);
+        try {
+            outbox.markDone(message.getMessageId());
+        } catch (EmailEventServiceException e) {
+            // The email has been sent. At worst it is sent again when the outbox is recovered.
+            log.warn("Could not mark the email to " + DeliveryAuditLog.maskAddress(message.getSendTo()) +
+                    " as sent in the email outbox", e);
+        }
+    }
+}
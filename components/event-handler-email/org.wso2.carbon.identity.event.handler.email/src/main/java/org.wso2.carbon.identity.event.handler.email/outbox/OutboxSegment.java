@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.event.handler.email.outbox;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * A fixed size, memory mapped outbox file records are appended to.
+ * <p/>
+ * Each record is written as [length][crc32][payload]. The length is written last, so a record torn by a crash
+ * reads as the end of the segment. Unused space in the file is zero filled, which also reads as the end.
+ */
+class OutboxSegment {
+
+    static final String FILE_PREFIX = "outbox-";
+    static final String FILE_SUFFIX = ".seg";
+    static final int RECORD_HEADER_LENGTH = 8;
+
+    private final long sequence;
+    private final File file;
+    private final RandomAccessFile randomAccessFile;
+    private final MappedByteBuffer buffer;
+    private int pendingCount;
+
+    private OutboxSegment(long sequence, File file, int size) throws IOException {
+        this.sequence = sequence;
+        this.file = file;
+        this.randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } catch (IOException e) {
+            randomAccessFile.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens the segment with the given sequence, creating the file if it does not exist. Existing files keep
+     * their size.
+     */
+    static OutboxSegment open(File directory, long sequence, int size) throws IOException {
+        File file = new File(directory, FILE_PREFIX + sequence + FILE_SUFFIX);
+        int mappedSize = size;
+        if (file.exists() && file.length() > 0) {
+            mappedSize = (int) Math.min(file.length(), Integer.MAX_VALUE);
+        }
+        return new OutboxSegment(sequence, file, mappedSize);
+    }
+
+    static long parseSequence(String fileName) {
+        if (!fileName.startsWith(FILE_PREFIX) || !fileName.endsWith(FILE_SUFFIX)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(fileName.substring(FILE_PREFIX.length(),
+                    fileName.length() - FILE_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Reads the payloads of all complete records and positions the segment after the last of them.
+     */
+    List<byte[]> readPayloads() {
+        List<byte[]> payloads = new ArrayList<>();
+        CRC32 crc = new CRC32();
+        int position = 0;
+        while (buffer.capacity() - position >= RECORD_HEADER_LENGTH) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || length > buffer.capacity() - position - RECORD_HEADER_LENGTH) {
+                break;
+            }
+            byte[] payload = new byte[length];
+            buffer.position(position + RECORD_HEADER_LENGTH);
+            buffer.get(payload);
+            crc.reset();
+            crc.update(payload, 0, length);
+            if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+                break;
+            }
+            payloads.add(payload);
+            position += RECORD_HEADER_LENGTH + length;
+        }
+        buffer.position(position);
+        return payloads;
+    }
+
+    boolean hasRoom(int payloadLength) {
+        return buffer.remaining() >= RECORD_HEADER_LENGTH + payloadLength;
+    }
+
+    int remaining() {
+        return buffer.remaining();
+    }
+
+    void append(byte[] payload) {
+        int position = buffer.position();
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        buffer.putInt(position + 4, (int) crc.getValue());
+        buffer.position(position + RECORD_HEADER_LENGTH);
+        buffer.put(payload);
+        buffer.putInt(position, payload.length);
+    }
+
+    void force() {
+        buffer.force();
+    }
+
+    void close() throws IOException {
+        buffer.force();
+        randomAccessFile.close();
+    }
+
+    /**
+     * Closes and removes the segment file.
+     *
+     * @return false if the file could not be removed.
+     */
+    boolean delete() throws IOException {
+        randomAccessFile.close();
+        return file.delete();
+    }
+
+    long getSequence() {
+        return sequence;
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    int getPendingCount() {
+        return pendingCount;
+    }
+
+    void incrementPendingCount() {
+        pendingCount++;
+    }
+
+    void decrementPendingCount() {
+        pendingCount--;
+    }
+
+    void clearPendingCount() {
+        pendingCount = 0;
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.event.handler.email.retry;
+
+import org.wso2.carbon.identity.event.handler.email.audit.DeliveryAuditLog;
+
+/**
+ * An email given up on, along with why and after how many attempts. The email itself is read from the
+ * {@link DeadLetterStore} when it is replayed.
+ */
+public class DeadLetter {
+
+    private final String messageId;
+    private final int tenantId;
+    private final String templateType;
+    private final String sendTo;
+    private final int attempts;
+    private final long failedTime;
+    private final String reason;
+
+    public DeadLetter(String messageId, int tenantId, String templateType, String sendTo, int attempts,
+                      long failedTime, String reason) {
+        this.messageId = messageId;
+        this.tenantId = tenantId;
+        this.templateType = templateType;
+        this.sendTo = sendTo;
+        this.attempts = attempts;
+        this.failedTime = failedTime;
+        this.reason = reason;
+    }
+
+    public String getMessageId() {
+        return messageId;
+    }
+
+    public int getTenantId() {
+        return tenantId;
+    }
+
+    public String getTemplateType() {
+        return templateType;
+    }
+
+    public String getSendTo() {
+        return sendTo;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public long getFailedTime() {
+        return failedTime;
+    }
+
+    public String getReason() {
+        return reason;
+    }
+
+    /**
+     * @return The details of the email with its recipient masked, as listed through JMX.
+     */
+    @Override
+    public String toString() {
+        return messageId + " tenant=" + tenantId + " templateType=" + templateType + " sendTo=" +
+                DeliveryAuditLog.maskAddress(sendTo) + " attempts=" + attempts + " failedTime=" + failedTime +
+                " reason=" + reason;
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.event.handler.email.retry;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.identity.event.handler.email.constants.EmailEventConstants;
+import org.wso2.carbon.identity.event.handler.email.delivery.EmailDispatcher;
+import org.wso2.carbon.identity.event.handler.email.internal.EmailEventServiceComponent;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Lets administrators inspect the email dead letters and replay them in bulk through JMX, for example once the
+ * mail server settings have been fixed. Replayed emails go through the current email dispatcher and are given up
+ * on again if they still fail.
+ */
+public class DeadLetterAdmin implements DeadLetterAdminMBean {
+
+    private static final Log log = LogFactory.getLog(DeadLetterAdmin.class);
+
+    private static final String OBJECT_NAME =
+            "org.wso2.carbon.identity.event.handler.email:type=EmailDeadLetters";
+
+    private final DeadLetterStore deadLetterStore;
+
+    public DeadLetterAdmin(DeadLetterStore deadLetterStore) {
+        this.deadLetterStore = deadLetterStore;
+    }
+
+    @Override
+    public int getCount() {
+        return deadLetterStore.size();
+    }
+
+    @Override
+    public String[] list(int offset, int limit) {
+        List<DeadLetter> deadLetters = deadLetterStore.list(Math.max(0, offset), Math.max(0, limit));
+        String[] result = new String[deadLetters.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = deadLetters.get(i).toString();
+        }
+        return result;
+    }
+
+    @Override
+    public boolean replay(String messageId) {
+        EmailDispatcher dispatcher = getDispatcher();
+        return dispatcher != null && deadLetterStore.replay(messageId, dispatcher);
+    }
+
+    @Override
+    public int replayTenant(int tenantId) {
+        EmailDispatcher dispatcher = getDispatcher();
+        return dispatcher != null ? deadLetterStore.replay(tenantId, dispatcher) : 0;
+    }
+
+    @Override
+    public int replayAll() {
+        return replayTenant(EmailEventConstants.INVALID_TENANT_ID);
+    }
+
+    @Override
+    public boolean delete(String messageId) {
+        return deadLetterStore.remove(messageId);
+    }
+
+    @Override
+    public int purge() {
+        return deadLetterStore.purge();
+    }
+
+    private static EmailDispatcher getDispatcher() {
+        EmailDispatcher dispatcher = EmailEventServiceComponent.getEmailDispatcher();
+        if (dispatcher == null) {
+            log.warn("Email dispatcher is not available. Dead letters are not replayed");
+        }
+        return dispatcher;
+    }
+
+    /**
+     * Registers the operations on the given store with the platform MBean server, in place of any registered
+     * before. Unregisters them if the store is null.
+     */
+    public static void register(DeadLetterStore deadLetterStore) {
+        try {
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(OBJECT_NAME);
+            if (mBeanServer.isRegistered(objectName)) {
+                mBeanServer.unregisterMBean(objectName);
+            }
+            if (deadLetterStore != null) {
+                mBeanServer.registerMBean(new DeadLetterAdmin(deadLetterStore), objectName);
+            }
+        } catch (JMException e) {
+            log.warn("Could not register the email dead letter MBean : " + OBJECT_NAME, e);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.event.handler.email.retry;
+
+/**
+ * Operations on the email dead letters, exposed through JMX.
+ */
+public interface DeadLetterAdminMBean {
+
+    int getCount();
+
+    /**
+     * @return Details of the dead letters from the offset on, oldest first, one per line.
+     */
+    String[] list(int offset, int limit);
+
+    /**
+     * @return Whether the email was accepted for sending.
+     */
+    boolean replay(String messageId);
+
+    /**
+     * @return Number of emails of the tenant accepted for sending.
+     */
+    int replayTenant(int tenantId);
+
+    /**
+     * @return Number of emails accepted for sending.
+     */
+    int replayAll();
+
+    boolean delete(String messageId);
+
+    /**
+     * @return Number of dead letters deleted.
+     */
+    int purge();
+}
@@ -0,0 +1,345 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.event.handler.email.retry;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.identity.event.handler.email.audit.DeliveryAuditLog;
+import org.wso2.carbon.identity.event.handler.email.constants.EmailEventConstants;
+import org.wso2.carbon.identity.event.handler.email.delivery.EmailDispatcher;
+import org.wso2.carbon.identity.event.handler.email.delivery.EmailMessage;
+import org.wso2.carbon.identity.event.handler.email.delivery.EmailMessageCodec;
+import org.wso2.carbon.identity.event.handler.email.exception.EmailEventServiceException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Emails given up on, each kept in a file of its own in the configured directory so that they survive restarts
+ * and can be inspected and replayed. A file is written to a temporary file first and moved in place, so a crash
+ * leaves either the whole email or none of it.
+ * <p/>
+ * The details of the emails are kept in memory in the order they were given up on, without their bodies. Once the
+ * configured number of emails is kept, the oldest is dropped for each new one.
+ */
+public class DeadLetterStore {
+
+    private static final Log log = LogFactory.getLog(DeadLetterStore.class);
+
+    private static final String FILE_SUFFIX = ".dead";
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+    private static final int VERSION = 1;
+
+    private final File directory;
+    private final int maxEntries;
+    private final Map<String, DeadLetter> deadLetters = new LinkedHashMap<>();
+
+    /**
+     * Opens the store in the given directory, reading the details of the emails it already holds.
+     *
+     * @param directory  - Directory the dead letter files are kept in.
+     * @param maxEntries - Number of emails kept.
+     * @throws EmailEventServiceException if the directory cannot be created.
+     */
+    public DeadLetterStore(File directory, int maxEntries) throws EmailEventServiceException {
+        this.directory = directory;
+        this.maxEntries = maxEntries > 0 ? maxEntries : EmailEventConstants.ConfigDefault.DEAD_LETTER_MAX_ENTRIES;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new EmailEventServiceException("Could not create the dead letter directory : " + directory);
+        }
+        load();
+    }
+
+    /**
+     * @return The dead letter directory under the carbon home, or under the temporary directory if it is not set.
+     */
+    public static File getDefaultDirectory() {
+        String baseDirectory = System.getProperty("carbon.home");
+        if (baseDirectory == null) {
+            baseDirectory = System.getProperty("java.io.tmpdir");
+        }
+        return new File(baseDirectory, EmailEventConstants.DEAD_LETTER_DIRECTORY_DEFAULT);
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Keeps an email given up on. An email kept before under the same message id is replaced.
+     *
+     * @param attempts - Number of times sending the email was attempted.
+     * @param failure  - Failure of the last attempt.
+     * @throws EmailEventServiceException if the email could not be written.
+     */
+    public synchronized void add(EmailMessage message, int attempts, Throwable failure)
+            throws EmailEventServiceException {
+        DeadLetter deadLetter = new DeadLetter(message.getMessageId(), message.getTenantId(),
+                message.getTemplateType(), message.getSendTo(), attempts, System.currentTimeMillis(),
+                getReason(failure));
+        File file = getFile(message.getMessageId());
+        File tempFile = new File(directory, file.getName() + TEMP_FILE_SUFFIX);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            out.writeInt(VERSION);
+            out.writeInt(deadLetter.getAttempts());
+            out.writeLong(deadLetter.getFailedTime());
+            EmailMessageCodec.writeString(out, deadLetter.getReason());
+            EmailMessageCodec.writeMessage(out, message);
+        } catch (IOException e) {
+            deleteFile(tempFile);
+            throw new EmailEventServiceException("Could not write the dead letter of the email to : " +
+                    DeliveryAuditLog.maskAddress(message.getSendTo()), e);
+        }
+        try {
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            deleteFile(tempFile);
+            throw new EmailEventServiceException("Could not write the dead letter of the email to : " +
+                    DeliveryAuditLog.maskAddress(message.getSendTo()), e);
+        }
+        deadLetters.remove(deadLetter.getMessageId());
+        deadLetters.put(deadLetter.getMessageId(), deadLetter);
+        Iterator<DeadLetter> iterator = deadLetters.values().iterator();
+        while (deadLetters.size() > maxEntries) {
+            DeadLetter oldest = iterator.next();
+            iterator.remove();
+            deleteFile(getFile(oldest.getMessageId()));
+            log.warn("Dead letter store is full. Dropped the email to " +
+                    DeliveryAuditLog.maskAddress(oldest.getSendTo()) + " given up on at " + oldest.getFailedTime());
+        }
+    }
+
+    public synchronized int size() {
+        return deadLetters.size();
+    }
+
+    /**
+     * @return Details of the emails from the offset on, oldest first.
+     */
+    public synchronized List<DeadLetter> list(int offset, int limit) {
+        List<DeadLetter> result = new ArrayList<>();
+        int index = 0;
+        for (DeadLetter deadLetter : deadLetters.values()) {
+            if (result.size() >= limit) {
+                break;
+            }
+            if (index++ >= offset) {
+                result.add(deadLetter);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return Details of the email, or null if the store does not hold it.
+     */
+    public synchronized DeadLetter get(String messageId) {
+        return deadLetters.get(messageId);
+    }
+
+    public synchronized boolean remove(String messageId) {
+        if (deadLetters.remove(messageId) == null) {
+            return false;
+        }
+        deleteFile(getFile(messageId));
+        return true;
+    }
+
+    /**
+     * Removes all emails.
+     *
+     * @return Number of emails removed.
+     */
+    public synchronized int purge() {
+        int count = deadLetters.size();
+        for (String messageId : deadLetters.keySet()) {
+            deleteFile(getFile(messageId));
+        }
+        deadLetters.clear();
+        return count;
+    }
+
+    /**
+     * Hands the email over to the dispatcher again and removes it from the store once it is accepted. If it is not
+     * accepted it is kept, unless it has been given up on again meanwhile.
+     *
+     * @return false if the store does not hold the email or the dispatcher did not accept it.
+     */
+    public boolean replay(String messageId, EmailDispatcher dispatcher) {
+        DeadLetter deadLetter;
+        EmailMessage message;
+        synchronized (this) {
+            deadLetter = deadLetters.get(messageId);
+            if (deadLetter == null) {
+                return false;
+            }
+            try {
+                message = read(messageId);
+            } catch (EmailEventServiceException e) {
+                log.error("Could not read the dead letter : " + messageId, e);
+                return false;
+            }
+            // Removed before the dispatch, so a failure of the dispatched email is kept rather than removed.
+            remove(messageId);
+        }
+        try {
+            dispatcher.dispatch(message);
+            return true;
+        } catch (EmailEventServiceException | RuntimeException e) {
+            log.warn("Could not replay the email to " + DeliveryAuditLog.maskAddress(message.getSendTo()) +
+                    " from the dead letters", e);
+            synchronized (this) {
+                if (!deadLetters.containsKey(messageId)) {
+                    try {
+                        add(message, deadLetter.getAttempts(), e);
+                    } catch (EmailEventServiceException addFailure) {
+                        log.error("Could not keep the email to " +
+                                DeliveryAuditLog.maskAddress(message.getSendTo()) + " in the dead letters", addFailure);
+                    }
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Replays the emails of a tenant, or of all tenants, oldest first.
+     *
+     * @param tenantId - Tenant of the emails, or {@link EmailEventConstants#INVALID_TENANT_ID} for all tenants.
+     * @return Number of emails accepted by the dispatcher.
+     */
+    public int replay(int tenantId, EmailDispatcher dispatcher) {
+        List<String> messageIds = new ArrayList<>();
+        synchronized (this) {
+            for (DeadLetter deadLetter : deadLetters.values()) {
+                if (tenantId == EmailEventConstants.INVALID_TENANT_ID || deadLetter.getTenantId() == tenantId) {
+                    messageIds.add(deadLetter.getMessageId());
+                }
+            }
+        }
+        int replayed = 0;
+        for (String messageId : messageIds) {
+            if (replay(messageId, dispatcher)) {
+                replayed++;
+            }
+        }
+        return replayed;
+    }
+
+    private EmailMessage read(String messageId) throws EmailEventServiceException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(getFile(messageId))))) {
+            readHeader(in);
+            return EmailMessageCodec.readMessage(in);
+        } catch (IOException e) {
+            throw new EmailEventServiceException("Could not read the dead letter : " + messageId, e);
+        }
+    }
+
+    private void load() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        List<DeadLetter> loaded = new ArrayList<>();
+        for (File file : files) {
+            if (file.getName().endsWith(TEMP_FILE_SUFFIX)) {
+                // Left behind by a crash while it was written.
+                deleteFile(file);
+                continue;
+            }
+            if (!file.getName().endsWith(FILE_SUFFIX)) {
+                continue;
+            }
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                DeadLetter header = readHeader(in);
+                EmailMessage message = EmailMessageCodec.readMessage(in);
+                loaded.add(new DeadLetter(message.getMessageId(), message.getTenantId(), message.getTemplateType(),
+                        message.getSendTo(), header.getAttempts(), header.getFailedTime(), header.getReason()));
+            } catch (IOException e) {
+                log.warn("Could not read the dead letter : " + file + ". It is skipped", e);
+            }
+        }
+        Collections.sort(loaded, new Comparator<DeadLetter>() {
+            @Override
+            public int compare(DeadLetter first, DeadLetter second) {
+                return Long.compare(first.getFailedTime(), second.getFailedTime());
+            }
+        });
+        for (DeadLetter deadLetter : loaded) {
+            deadLetters.put(deadLetter.getMessageId(), deadLetter);
+        }
+        if (!loaded.isEmpty()) {
+            log.info("Loaded " + loaded.size() + " email dead letters from : " + directory);
+        }
+    }
+
+    private static DeadLetter readHeader(DataInputStream in) throws IOException {
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported dead letter version : " + version);
+        }
+        int attempts = in.readInt();
+        long failedTime = in.readLong();
+        String reason = EmailMessageCodec.readString(in);
+        return new DeadLetter(null, EmailEventConstants.INVALID_TENANT_ID, null, null, attempts, failedTime, reason);
+    }
+
+    private File getFile(String messageId) {
+        return new File(directory, messageId.replaceAll("[^A-Za-z0-9_-]", "_") + FILE_SUFFIX);
+    }
+
+    private static String getReason(Throwable failure) {
+        if (failure == null) {
+            return null;
+        }
+        Throwable rootCause = failure;
+        while (rootCause.getCause() != null && rootCause.getCause() != rootCause) {
+            rootCause = rootCause.getCause();
+        }
+        String reason = getMessage(failure);
+        return rootCause != failure ? reason + " : " + getMessage(rootCause) : reason;
+    }
+
+    private static String getMessage(Throwable failure) {
+        return failure.getMessage() != null ? failure.getMessage() : failure.getClass().getName();
+    }
+
+    private static void deleteFile(File file) {
+        if (file.exists() && !file.delete()) {
+            log.warn("Could not delete the dead letter file : " + file);
+        }
+    }
+}
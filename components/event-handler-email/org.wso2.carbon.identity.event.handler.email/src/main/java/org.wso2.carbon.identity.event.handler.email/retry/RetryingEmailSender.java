@@ -0,0 +1,246 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.event.handler.email.retry;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.identity.event.handler.email.audit.DeliveryAuditLog;
+import org.wso2.carbon.identity.event.handler.email.delivery.EmailMessage;
+import org.wso2.carbon.identity.event.handler.email.delivery.EmailSender;
+import org.wso2.carbon.identity.event.handler.email.exception.EmailEventServiceException;
+import org.wso2.carbon.identity.event.handler.email.outbox.EmailOutbox;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends emails again after transient failures, and keeps the emails that fail permanently or too many times in
+ * the {@link DeadLetterStore}.
+ * <p/>
+ * The first attempt is made on the calling thread. After a transient failure, as told by
+ * {@link SendFailureClassifier}, the email is handed to a timer and the call returns, so neither the thread that
+ * raised the event nor the dispatcher workers wait for the retries. Retries are made on threads of their own after
+ * an exponentially growing delay, of which a random half is added, so emails failed together are not retried
+ * together. A permanent failure of the first attempt is reported to the caller once the email is kept.
+ * <p/>
+ * If the emails are also recorded in an {@link EmailOutbox}, an email kept as a dead letter is marked as done
+ * there, and emails waiting for a retry on shut down are left to the outbox. Otherwise they are kept as dead
+ * letters.
+ */
+public class RetryingEmailSender implements EmailSender {
+
+    private static final Log log = LogFactory.getLog(RetryingEmailSender.class);
+
+    private static final String WORKER_NAME_PREFIX = "EmailEventHandler-Retry-";
+    private static final long SHUTDOWN_TIMEOUT = 5000;
+
+    private final EmailSender sender;
+    private final DeadLetterStore deadLetterStore;
+    private final EmailOutbox outbox;
+    private final int maxAttempts;
+    private final long initialDelayMillis;
+    private final long maxDelayMillis;
+    private final int maxPending;
+    private final ScheduledThreadPoolExecutor scheduler;
+    private final Map<String, RetryTask> pendingRetries = new ConcurrentHashMap<>();
+
+    private final AtomicLong retriedCount = new AtomicLong();
+    private final AtomicLong recoveredCount = new AtomicLong();
+    private final AtomicLong deadLetteredCount = new AtomicLong();
+
+    /**
+     * @param outbox             - Outbox the emails are recorded in, or null.
+     * @param maxAttempts        - Number of attempts after which an email is given up on.
+     * @param initialDelayMillis - Delay before the first retry, doubled for each further retry.
+     * @param maxDelayMillis     - Longest delay before a retry.
+     * @param maxPending         - Number of emails waiting for a retry above which failed emails are given up on.
+     * @param workerCount        - Number of threads retries are made on.
+     */
+    public RetryingEmailSender(EmailSender sender, DeadLetterStore deadLetterStore, EmailOutbox outbox,
+                               int maxAttempts, long initialDelayMillis, long maxDelayMillis, int maxPending,
+                               int workerCount) {
+        this.sender = sender;
+        this.deadLetterStore = deadLetterStore;
+        this.outbox = outbox;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.initialDelayMillis = Math.max(1, initialDelayMillis);
+        this.maxDelayMillis = Math.max(this.initialDelayMillis, maxDelayMillis);
+        this.maxPending = maxPending;
+        this.scheduler = new ScheduledThreadPoolExecutor(Math.max(1, workerCount), new RetryThreadFactory());
+    }
+
+    @Override
+    public void send(EmailMessage message) throws EmailEventServiceException {
+        try {
+            sender.send(message);
+        } catch (EmailEventServiceException | RuntimeException e) {
+            if (!retryLater(message, 1, e)) {
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Stops retrying. Emails waiting for a retry are left to the outbox, or kept as dead letters if there is none.
+     */
+    public void shutdown() {
+        scheduler.shutdownNow();
+        try {
+            scheduler.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (pendingRetries.isEmpty()) {
+            return;
+        }
+        if (outbox != null) {
+            log.warn(pendingRetries.size() + " emails waiting for a retry are left pending in the email outbox");
+            return;
+        }
+        for (RetryTask task : pendingRetries.values()) {
+            deadLetter(task.message, task.attempt - 1, new EmailEventServiceException(
+                    "Email dispatcher was shut down before the email was retried"));
+        }
+        pendingRetries.clear();
+    }
+
+    public int getPendingCount() {
+        return pendingRetries.size();
+    }
+
+    /**
+     * @return Number of retries scheduled.
+     */
+    public long getRetriedCount() {
+        return retriedCount.get();
+    }
+
+    /**
+     * @return Number of emails sent by a retry.
+     */
+    public long getRecoveredCount() {
+        return recoveredCount.get();
+    }
+
+    public long getDeadLetteredCount() {
+        return deadLetteredCount.get();
+    }
+
+    /**
+     * @param attempt - Number of the attempt that failed.
+     * @return Whether a retry has been scheduled. Otherwise the email has been given up on.
+     */
+    private boolean retryLater(EmailMessage message, int attempt, Exception failure) {
+        if (SendFailureClassifier.isPermanent(failure) || attempt >= maxAttempts ||
+                pendingRetries.size() >= maxPending || scheduler.isShutdown()) {
+            deadLetter(message, attempt, failure);
+            return false;
+        }
+        long delay = getDelayMillis(attempt);
+        RetryTask task = new RetryTask(message, attempt + 1);
+        pendingRetries.put(message.getMessageId(), task);
+        try {
+            scheduler.schedule(task, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            pendingRetries.remove(message.getMessageId());
+            deadLetter(message, attempt, failure);
+            return false;
+        }
+        retriedCount.incrementAndGet();
+        log.warn("Failed Sending Email to " + DeliveryAuditLog.maskAddress(message.getSendTo()) + " on attempt " +
+                attempt + ". Retrying in " + delay + "ms : " + failure.getMessage());
+        return true;
+    }
+
+    /**
+     * @param attempt - Number of the attempt that failed.
+     * @return Delay before the next attempt.
+     */
+    long getDelayMillis(int attempt) {
+        long delay = initialDelayMillis << Math.min(attempt - 1, 30);
+        if (delay <= 0 || delay > maxDelayMillis) {
+            delay = maxDelayMillis;
+        }
+        // Half of the delay is fixed and half random.
+        long half = delay / 2;
+        return delay - half + ThreadLocalRandom.current().nextLong(half + 1);
+    }
+
+    private void deadLetter(EmailMessage message, int attempts, Exception failure) {
+        String recipient = DeliveryAuditLog.maskAddress(message.getSendTo());
+        try {
+            deadLetterStore.add(message, attempts, failure);
+        } catch (EmailEventServiceException e) {
+            log.error("Could not keep the email to " + recipient + " as a dead letter", e);
+            return;
+        }
+        deadLetteredCount.incrementAndGet();
+        log.error("Gave up sending the email to " + recipient + " after " + attempts +
+                " attempts. It is kept as a dead letter with message id : " + message.getMessageId(), failure);
+        if (outbox != null) {
+            try {
+                outbox.markDone(message.getMessageId());
+            } catch (EmailEventServiceException e) {
+                // At worst the email is sent again when the outbox is recovered.
+                log.warn("Could not mark the email to " + recipient + " as done in the email outbox", e);
+            }
+        }
+    }
+
+    private class RetryTask implements Runnable {
+
+        private final EmailMessage message;
+        private final int attempt;
+
+        private RetryTask(EmailMessage message, int attempt) {
+            this.message = message;
+            this.attempt = attempt;
+        }
+
+        @Override
+        public void run() {
+            pendingRetries.remove(message.getMessageId());
+            try {
+                sender.send(message);
+                recoveredCount.incrementAndGet();
+            } catch (EmailEventServiceException | RuntimeException e) {
+                retryLater(message, attempt, e);
+            }
+        }
+    }
+
+    private static class RetryThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger threadCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, WORKER_NAME_PREFIX + threadCount.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
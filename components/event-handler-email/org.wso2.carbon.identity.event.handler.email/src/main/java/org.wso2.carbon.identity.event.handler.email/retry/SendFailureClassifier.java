@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.event.handler.email.retry;
+
+import javax.mail.Address;
+import javax.mail.AuthenticationFailedException;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.internet.AddressException;
+
+/**
+ * Tells failures that sending again cannot fix from failures that may pass, by the exceptions in the cause chain
+ * and the SMTP reply code they carry. Rejected addresses, failed authentication and 5xx replies are permanent.
+ * 4xx replies, connection failures and anything not recognized are transient.
+ */
+public class SendFailureClassifier {
+
+    private static final int MAX_CAUSE_DEPTH = 16;
+
+    private SendFailureClassifier() {
+    }
+
+    public static boolean isPermanent(Throwable failure) {
+        Throwable cause = failure;
+        for (int depth = 0; cause != null && depth < MAX_CAUSE_DEPTH; depth++) {
+            if (cause instanceof AddressException || cause instanceof AuthenticationFailedException) {
+                return true;
+            }
+            if (cause instanceof SendFailedException) {
+                Address[] invalidAddresses = ((SendFailedException) cause).getInvalidAddresses();
+                if (invalidAddresses != null && invalidAddresses.length > 0) {
+                    return true;
+                }
+            }
+            int replyCode = getReplyCode(cause.getMessage());
+            if (replyCode >= 500) {
+                return true;
+            }
+            if (replyCode >= 400) {
+                return false;
+            }
+            cause = getCause(cause);
+        }
+        return false;
+    }
+
+    private static Throwable getCause(Throwable failure) {
+        if (failure instanceof MessagingException && ((MessagingException) failure).getNextException() != null) {
+            return ((MessagingException) failure).getNextException();
+        }
+        return failure.getCause() != failure ? failure.getCause() : null;
+    }
+
+    /**
+     * @return The SMTP reply code the message starts with, such as 550 for "550 5.1.1 User unknown", or -1.
+     */
+    private static int getReplyCode(String message) {
+        if (message == null) {
+            return -1;
+        }
+        String reply = message.trim();
+        if (reply.length() < 3 || (reply.length() > 3 && reply.charAt(3) != ' ' && reply.charAt(3) != '-')) {
+            return -1;
+        }
+        char first = reply.charAt(0);
+        if ((first != '4' && first != '5') || !Character.isDigit(reply.charAt(1)) ||
+                !Character.isDigit(reply.charAt(2))) {
+            return -1;
+        }
+        return Integer.parseInt(reply.substring(0, 3));
+    }
+}
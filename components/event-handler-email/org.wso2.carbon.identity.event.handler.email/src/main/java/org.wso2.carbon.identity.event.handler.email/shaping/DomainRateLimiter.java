@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.event.handler.email.shaping;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the rate emails are sent to each recipient domain with a {@link TokenBucket} per domain, so that large
+ * providers do not throttle the node. Domains without a limit of their own get the default limit, and a default
+ * rate of zero leaves them unlimited.
+ * <p/>
+ * Buckets are created on first use. Once the configured number of buckets exists, domains beyond that share one
+ * bucket, which they take without locking. Full buckets are dropped at most once a second, since a new bucket
+ * behaves the same, so that domains seen later can get a bucket of their own again.
+ */
+public class DomainRateLimiter {
+
+    private static final Log log = LogFactory.getLog(DomainRateLimiter.class);
+
+    private static final long SWEEP_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+    private final int defaultRatePerMinute;
+    private final int defaultBurst;
+    private final Map<String, DomainLimit> domainLimits;
+    private final int maxBuckets;
+    private final Map<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+    // Bucket of the domains beyond the configured number, created when that number is first reached.
+    private volatile TokenBucket sharedBucket;
+    private volatile long lastSweepNanos = System.nanoTime();
+
+    /**
+     * @param defaultRatePerMinute - Emails per minute to a domain without a limit of its own. Zero for no limit.
+     * @param defaultBurst         - Emails sent at once to a domain without a limit of its own.
+     * @param domainLimits         - Limits of individual domains keyed by domain name.
+     * @param maxBuckets           - Number of domains tracked separately.
+     */
+    public DomainRateLimiter(int defaultRatePerMinute, int defaultBurst, Map<String, DomainLimit> domainLimits,
+                             int maxBuckets) {
+        this.defaultRatePerMinute = defaultRatePerMinute;
+        this.defaultBurst = defaultBurst;
+        Map<String, DomainLimit> limits = new HashMap<>();
+        if (domainLimits != null) {
+            for (Map.Entry<String, DomainLimit> entry : domainLimits.entrySet()) {
+                limits.put(entry.getKey().toLowerCase(Locale.ENGLISH), entry.getValue());
+            }
+        }
+        this.domainLimits = Collections.unmodifiableMap(limits);
+        this.maxBuckets = maxBuckets;
+    }
+
+    /**
+     * Takes a token of the domain of the recipient.
+     *
+     * @return Nanoseconds to wait before sending, or -1 if the email cannot be sent within the longest wait.
+     */
+    public long reserve(String sendTo, long nowNanos, long maxDelayNanos) {
+        String domain = getDomain(sendTo);
+        TokenBucket bucket = buckets.get(domain);
+        if (bucket == null) {
+            DomainLimit limit = domainLimits.get(domain);
+            int ratePerMinute = limit != null ? limit.getRatePerMinute() : defaultRatePerMinute;
+            if (ratePerMinute <= 0) {
+                return 0;
+            }
+            TokenBucket shared = sharedBucket;
+            if (shared != null && limit == null && buckets.size() >= maxBuckets &&
+                    nowNanos - lastSweepNanos < SWEEP_INTERVAL) {
+                return shared.reserve(nowNanos, maxDelayNanos);
+            }
+            bucket = getBucket(domain, limit, nowNanos);
+        }
+        return bucket.reserve(nowNanos, maxDelayNanos);
+    }
+
+    public int getBucketCount() {
+        return buckets.size();
+    }
+
+    private synchronized TokenBucket getBucket(String domain, DomainLimit limit, long nowNanos) {
+        TokenBucket bucket = buckets.get(domain);
+        if (bucket != null) {
+            return bucket;
+        }
+        if (buckets.size() >= maxBuckets && nowNanos - lastSweepNanos >= SWEEP_INTERVAL) {
+            lastSweepNanos = nowNanos;
+            Iterator<TokenBucket> iterator = buckets.values().iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().isFull(nowNanos)) {
+                    iterator.remove();
+                }
+            }
+        }
+        // Domains with a limit of their own always get their own bucket.
+        if (buckets.size() >= maxBuckets && limit == null) {
+            if (sharedBucket == null) {
+                log.warn("Email rate limits are tracked for " + maxBuckets + " recipient domains. Further domains " +
+                        "share one limit");
+                sharedBucket = new TokenBucket(defaultRatePerMinute, defaultBurst, nowNanos);
+            }
+            return sharedBucket;
+        }
+        bucket = limit != null ? new TokenBucket(limit.getRatePerMinute(), limit.getBurst(), nowNanos) :
+                new TokenBucket(defaultRatePerMinute, defaultBurst, nowNanos);
+        buckets.put(domain, bucket);
+        return bucket;
+    }
+
+    private static String getDomain(String sendTo) {
+        if (sendTo == null) {
+            return "";
+        }
+        int index = sendTo.lastIndexOf('@');
+        return sendTo.substring(index + 1).trim().toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * Rate limit of one recipient domain.
+     */
+    public static class DomainLimit {
+
+        private final int ratePerMinute;
+        private final int burst;
+
+        public DomainLimit(int ratePerMinute, int burst) {
+            this.ratePerMinute = ratePerMinute;
+            this.burst = burst;
+        }
+
+        public int getRatePerMinute() {
+            return ratePerMinute;
+        }
+
+        public int getBurst() {
+            return burst;
+        }
+    }
+}
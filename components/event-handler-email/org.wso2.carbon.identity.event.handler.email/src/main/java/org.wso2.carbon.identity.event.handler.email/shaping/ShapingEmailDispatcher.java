@@ -0,0 +1,307 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.event.handler.email.shaping;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.identity.event.handler.email.audit.DeliveryAuditLog;
+import org.wso2.carbon.identity.event.handler.email.delivery.EmailDispatcher;
+import org.wso2.carbon.identity.event.handler.email.delivery.EmailMessage;
+import org.wso2.carbon.identity.event.handler.email.exception.EmailEventServiceException;
+import org.wso2.carbon.identity.event.handler.email.exception.EmailRejectedException;
+import org.wso2.carbon.identity.event.handler.email.metrics.EmailEventFailure;
+import org.wso2.carbon.identity.event.handler.email.metrics.EmailEventMetrics;
+import org.wso2.carbon.identity.event.handler.email.metrics.EmailEventStage;
+import org.wso2.carbon.identity.event.handler.email.outbox.EmailOutbox;
+import org.wso2.carbon.identity.event.handler.email.retry.DeadLetterStore;
+
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shapes the emails handed over to the wrapped dispatcher. Emails are queued per tenant and taken in weighted fair
+ * order by a fixed set of worker threads, so one tenant sending many emails at once does not hold back the others.
+ * Each email then takes a token of its recipient domain, and waits for one aside if the domain is over its rate
+ * while the workers go on with emails to other domains.
+ * <p/>
+ * Emails are throttled, that is rejected, when their tenant already has its maximum number of emails queued, or
+ * when the recipient domain could not take them within the longest wait. An email rejected for its tenant is
+ * refused with an {@link EmailRejectedException}, so it is not kept pending in the outbox. Throttled emails are
+ * counted as {@link EmailEventFailure#THROTTLED} and the time delayed emails wait as
+ * {@link EmailEventStage#DOMAIN_DELAY}.
+ * <p/>
+ * An email throttled by its recipient domain, or failed by the wrapped dispatcher, has already been accepted. It is
+ * kept in the {@link DeadLetterStore} if one is given, and then marked as done in the {@link EmailOutbox} if the
+ * emails are recorded there, so it can be replayed rather than waiting for the outbox to be recovered.
+ */
+public class ShapingEmailDispatcher implements EmailDispatcher {
+
+    private static final Log log = LogFactory.getLog(ShapingEmailDispatcher.class);
+
+    private static final String WORKER_NAME_PREFIX = "EmailEventHandler-Shaper-";
+    private static final long POLL_INTERVAL = TimeUnit.MILLISECONDS.toNanos(500);
+
+    private final EmailDispatcher dispatcher;
+    private final DeadLetterStore deadLetterStore;
+    private final EmailOutbox outbox;
+    private final TenantShares tenantShares;
+    private final DomainRateLimiter domainRateLimiter;
+    private final long maxDelayNanos;
+    private final long shutdownTimeoutMillis;
+    private final TenantFairQueue queue = new TenantFairQueue();
+    private final DelayQueue<DelayedMessage> delayed = new DelayQueue<>();
+    private final Thread[] workers;
+    private volatile boolean running = true;
+
+    private final AtomicLong throttledCount = new AtomicLong();
+    private final AtomicLong delayedCount = new AtomicLong();
+    private final AtomicLong completedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+
+    /**
+     * @param dispatcher            - Dispatcher the shaped emails are handed over to.
+     * @param maxDelayMillis        - Longest an email waits for a token of its recipient domain.
+     * @param shutdownTimeoutMillis - Longest time to wait for queued emails on shut down.
+     */
+    public ShapingEmailDispatcher(EmailDispatcher dispatcher, TenantShares tenantShares,
+                                  DomainRateLimiter domainRateLimiter, int workerCount, long maxDelayMillis,
+                                  long shutdownTimeoutMillis) {
+        this(dispatcher, null, null, tenantShares, domainRateLimiter, workerCount, maxDelayMillis,
+                shutdownTimeoutMillis);
+    }
+
+    /**
+     * @param dispatcher            - Dispatcher the shaped emails are handed over to.
+     * @param deadLetterStore       - Store the accepted emails which could not be handed over are kept in, or null.
+     * @param outbox                - Outbox the emails are recorded in, or null.
+     * @param maxDelayMillis        - Longest an email waits for a token of its recipient domain.
+     * @param shutdownTimeoutMillis - Longest time to wait for queued emails on shut down.
+     */
+    public ShapingEmailDispatcher(EmailDispatcher dispatcher, DeadLetterStore deadLetterStore, EmailOutbox outbox,
+                                  TenantShares tenantShares, DomainRateLimiter domainRateLimiter, int workerCount,
+                                  long maxDelayMillis, long shutdownTimeoutMillis) {
+        this.dispatcher = dispatcher;
+        this.deadLetterStore = deadLetterStore;
+        this.outbox = outbox;
+        this.tenantShares = tenantShares;
+        this.domainRateLimiter = domainRateLimiter;
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+        this.shutdownTimeoutMillis = shutdownTimeoutMillis;
+        this.workers = new Thread[workerCount > 0 ? workerCount : 1];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Thread(new Worker(), WORKER_NAME_PREFIX + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+    }
+
+    @Override
+    public void dispatch(EmailMessage message) throws EmailEventServiceException {
+        if (!running) {
+            throw new EmailRejectedException("Email dispatcher has been shut down");
+        }
+        TenantShares.TenantShare share = tenantShares.getShare(message.getTenantId());
+        if (!queue.offer(message, share.getWeight(), share.getQueueSize())) {
+            throttle(message);
+            throw new EmailRejectedException("Tenant " + message.getTenantId() + " has " +
+                    share.getQueueSize() + " emails queued. Throttled the email to " +
+                    DeliveryAuditLog.maskAddress(message.getSendTo()));
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        running = false;
+        long deadline = System.currentTimeMillis() + shutdownTimeoutMillis;
+        for (Thread worker : workers) {
+            long remaining = deadline - System.currentTimeMillis();
+            try {
+                if (remaining > 0) {
+                    worker.join(remaining);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        for (Thread worker : workers) {
+            if (worker.isAlive()) {
+                worker.interrupt();
+            }
+        }
+        int pending = queue.size() + delayed.size();
+        if (pending > 0) {
+            log.warn(pending + " queued emails were not sent before the email dispatcher was shut down");
+        }
+        dispatcher.shutdown();
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public int getDelayedDepth() {
+        return delayed.size();
+    }
+
+    /**
+     * @return Number of emails rejected, either because their tenant had too many emails queued or because their
+     * recipient domain could not take them within the longest wait.
+     */
+    public long getThrottledCount() {
+        return throttledCount.get();
+    }
+
+    /**
+     * @return Number of emails which waited for a token of their recipient domain.
+     */
+    public long getDelayedCount() {
+        return delayedCount.get();
+    }
+
+    public long getCompletedCount() {
+        return completedCount.get();
+    }
+
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    private void throttle(EmailMessage message) {
+        throttledCount.incrementAndGet();
+        EmailEventMetrics metrics = EmailEventMetrics.getInstance();
+        metrics.recordFailure(metrics.getSeries(message.getTenantId(), message.getTemplateType()),
+                EmailEventFailure.THROTTLED);
+    }
+
+    /**
+     * Keeps an accepted email which could not be handed over to the wrapped dispatcher.
+     */
+    private void deadLetter(EmailMessage message, Exception failure) {
+        String recipient = DeliveryAuditLog.maskAddress(message.getSendTo());
+        if (deadLetterStore == null) {
+            log.error("Gave up sending the email to " + recipient + " with message id : " + message.getMessageId(),
+                    failure);
+            return;
+        }
+        // The wrapped dispatcher may have kept the email already, when it gave up on retrying it.
+        if (deadLetterStore.get(message.getMessageId()) == null) {
+            try {
+                deadLetterStore.add(message, 1, failure);
+            } catch (EmailEventServiceException e) {
+                log.error("Could not keep the email to " + recipient + " as a dead letter", e);
+                return;
+            }
+        }
+        log.error("Gave up sending the email to " + recipient + ". It is kept as a dead letter with message id : " +
+                message.getMessageId(), failure);
+        if (outbox != null) {
+            try {
+                outbox.markDone(message.getMessageId());
+            } catch (EmailEventServiceException e) {
+                // At worst the email is sent again when the outbox is recovered.
+                log.warn("Could not mark the email to " + recipient + " as done in the email outbox", e);
+            }
+        }
+    }
+
+    private class Worker implements Runnable {
+
+        @Override
+        public void run() {
+            while (running || !queue.isEmpty() || delayed.size() > 0) {
+                try {
+                    DelayedMessage ready = delayed.poll();
+                    if (ready != null) {
+                        EmailEventMetrics metrics = EmailEventMetrics.getInstance();
+                        EmailMessage message = ready.message;
+                        metrics.record(metrics.getSeries(message.getTenantId(), message.getTemplateType()),
+                                EmailEventStage.DOMAIN_DELAY, ready.delayStartNanos);
+                        send(message);
+                        continue;
+                    }
+                    // Wake up in time for the next delayed email.
+                    long timeout = POLL_INTERVAL;
+                    DelayedMessage next = delayed.peek();
+                    if (next != null) {
+                        timeout = Math.max(0, Math.min(timeout, next.getDelay(TimeUnit.NANOSECONDS)));
+                    }
+                    TenantFairQueue.QueuedMessage queued = queue.poll(timeout, TimeUnit.NANOSECONDS);
+                    if (queued != null) {
+                        schedule(queued.getMessage());
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+
+        private void schedule(EmailMessage message) {
+            long now = System.nanoTime();
+            long delay = domainRateLimiter.reserve(message.getSendTo(), now, maxDelayNanos);
+            if (delay == 0) {
+                send(message);
+            } else if (delay > 0) {
+                delayedCount.incrementAndGet();
+                delayed.put(new DelayedMessage(message, now, now + delay));
+            } else {
+                throttle(message);
+                deadLetter(message, new EmailEventServiceException("Recipient domain is over its email rate for " +
+                        "longer than " + TimeUnit.NANOSECONDS.toMillis(maxDelayNanos) + "ms"));
+            }
+        }
+
+        private void send(EmailMessage message) {
+            try {
+                dispatcher.dispatch(message);
+                completedCount.incrementAndGet();
+            } catch (EmailEventServiceException | RuntimeException e) {
+                failedCount.incrementAndGet();
+                deadLetter(message, e);
+            }
+        }
+    }
+
+    private static class DelayedMessage implements Delayed {
+
+        private final EmailMessage message;
+        private final long delayStartNanos;
+        private final long readyNanos;
+
+        private DelayedMessage(EmailMessage message, long delayStartNanos, long readyNanos) {
+            this.message = message;
+            this.delayStartNanos = delayStartNanos;
+            this.readyNanos = readyNanos;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(readyNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            long result = readyNanos - ((DelayedMessage) other).readyNanos;
+            return result < 0 ? -1 : (result > 0 ? 1 : 0);
+        }
+    }
+}
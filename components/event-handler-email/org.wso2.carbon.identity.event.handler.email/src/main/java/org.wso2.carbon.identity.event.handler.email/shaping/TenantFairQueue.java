@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.event.handler.email.shaping;
+
+import org.wso2.carbon.identity.event.handler.email.delivery.EmailMessage;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Queue of emails taken in weighted fair order across tenants, so that a tenant sending many emails at once does
+ * not hold back the emails of the others. While several tenants have emails queued, each is served in proportion
+ * to its weight. Emails of a tenant are taken in the order they were queued.
+ * <p/>
+ * Each email is tagged with a virtual finish time, being the later of the current virtual time and the finish
+ * time of the previous email of its tenant, plus the inverse of the tenant weight. Emails are taken in finish time
+ * order and the virtual time moves to the finish time of the email taken.
+ */
+public class TenantFairQueue {
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final PriorityQueue<QueuedMessage> messages = new PriorityQueue<>();
+    // Only tenants with queued emails are kept.
+    private final Map<Integer, TenantState> tenants = new HashMap<>();
+    private double virtualTime;
+    private long sequence;
+
+    /**
+     * @param weight         - Share of the tenant of the emails sent while other tenants have emails queued.
+     * @param maxTenantQueue - Number of emails the tenant may have queued.
+     * @return false if the tenant already has the maximum number of emails queued.
+     */
+    public boolean offer(EmailMessage message, int weight, int maxTenantQueue) {
+        lock.lock();
+        try {
+            TenantState tenant = tenants.get(message.getTenantId());
+            if (tenant == null) {
+                tenant = new TenantState();
+                tenants.put(message.getTenantId(), tenant);
+            }
+            if (tenant.queued >= maxTenantQueue) {
+                return false;
+            }
+            double finishTime = Math.max(virtualTime, tenant.lastFinishTime) + 1.0 / Math.max(1, weight);
+            tenant.lastFinishTime = finishTime;
+            tenant.queued++;
+            messages.add(new QueuedMessage(message, finishTime, sequence++, System.nanoTime()));
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return The next email in fair order, or null if none was queued within the timeout.
+     */
+    public QueuedMessage poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long remaining = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (messages.isEmpty()) {
+                if (remaining <= 0) {
+                    return null;
+                }
+                remaining = notEmpty.awaitNanos(remaining);
+            }
+            QueuedMessage queued = messages.poll();
+            virtualTime = queued.finishTime;
+            int tenantId = queued.message.getTenantId();
+            TenantState tenant = tenants.get(tenantId);
+            if (--tenant.queued == 0) {
+                // The virtual time has reached the last finish time of the tenant, so nothing is lost.
+                tenants.remove(tenantId);
+            }
+            return queued;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return messages.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * @return Number of emails the tenant has queued.
+     */
+    public int size(int tenantId) {
+        lock.lock();
+        try {
+            TenantState tenant = tenants.get(tenantId);
+            return tenant != null ? tenant.queued : 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static class TenantState {
+
+        private double lastFinishTime;
+        private int queued;
+    }
+
+    /**
+     * An email taken from the queue, along with the time it was queued.
+     */
+    public static class QueuedMessage implements Comparable<QueuedMessage> {
+
+        private final EmailMessage message;
+        private final double finishTime;
+        private final long sequence;
+        private final long queuedNanos;
+
+        private QueuedMessage(EmailMessage message, double finishTime, long sequence, long queuedNanos) {
+            this.message = message;
+            this.finishTime = finishTime;
+            this.sequence = sequence;
+            this.queuedNanos = queuedNanos;
+        }
+
+        public EmailMessage getMessage() {
+            return message;
+        }
+
+        /**
+         * @return Value of {@link System#nanoTime()} when the email was queued.
+         */
+        public long getQueuedNanos() {
+            return queuedNanos;
+        }
+
+        @Override
+        public int compareTo(QueuedMessage other) {
+            int result = Double.compare(finishTime, other.finishTime);
+            return result != 0 ? result : Long.compare(sequence, other.sequence);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.event.handler.email.shaping;
+
+import org.wso2.carbon.identity.event.handler.email.constants.EmailEventConstants;
+import org.wso2.carbon.identity.event.handler.email.tenant.TenantResolver;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Weights and queue sizes of tenants in the {@link TenantFairQueue}. Tenants are configured by tenant domain and
+ * resolved to tenant ids when first needed, since tenants may not be loaded when the handler is initialized.
+ */
+public class TenantShares {
+
+    private static final long RESOLVE_INTERVAL = TimeUnit.MINUTES.toNanos(1);
+
+    private final TenantShare defaultShare;
+    private final Map<String, TenantShare> unresolvedShares;
+    private final Map<Integer, TenantShare> shares = new ConcurrentHashMap<>();
+    private volatile long lastResolveNanos;
+    private volatile boolean resolved;
+
+    /**
+     * @param defaultShare - Share of tenants without a share of their own.
+     * @param tenantShares - Shares of individual tenants keyed by tenant domain.
+     */
+    public TenantShares(TenantShare defaultShare, Map<String, TenantShare> tenantShares) {
+        this.defaultShare = defaultShare;
+        this.unresolvedShares = new HashMap<>();
+        if (tenantShares != null) {
+            unresolvedShares.putAll(tenantShares);
+        }
+        this.resolved = unresolvedShares.isEmpty();
+    }
+
+    public TenantShare getShare(int tenantId) {
+        if (!resolved) {
+            resolve();
+        }
+        TenantShare share = shares.get(tenantId);
+        return share != null ? share : defaultShare;
+    }
+
+    private synchronized void resolve() {
+        long now = System.nanoTime();
+        if (resolved || (lastResolveNanos != 0 && now - lastResolveNanos < RESOLVE_INTERVAL)) {
+            return;
+        }
+        lastResolveNanos = now;
+        TenantResolver tenantResolver = TenantResolver.getInstance();
+        for (Map.Entry<String, TenantShare> entry : new HashMap<>(unresolvedShares).entrySet()) {
+            int tenantId = tenantResolver.getTenantId(entry.getKey());
+            if (tenantId != EmailEventConstants.INVALID_TENANT_ID) {
+                shares.put(tenantId, entry.getValue());
+                unresolvedShares.remove(entry.getKey());
+            }
+        }
+        resolved = unresolvedShares.isEmpty();
+    }
+
+    /**
+     * Weight and queue size of one tenant.
+     */
+    public static class TenantShare {
+
+        private final int weight;
+        private final int queueSize;
+
+        public TenantShare(int weight, int queueSize) {
+            this.weight = weight;
+            this.queueSize = queueSize;
+        }
+
+        public int getWeight() {
+            return weight;
+        }
+
+        public int getQueueSize() {
+            return queueSize;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.event.handler.email.shaping;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket kept as the time the next token is due, so taking a token is a single compare and set. Tokens are
+ * reserved ahead of time: a caller told to wait owns the token it waits for and does not have to ask again.
+ */
+public class TokenBucket {
+
+    private final long intervalNanos;
+    private final long toleranceNanos;
+    // Time the bucket would next be empty if no more tokens were taken, in System.nanoTime() terms.
+    private final AtomicLong theoreticalArrival;
+
+    /**
+     * @param ratePerMinute - Tokens added per minute.
+     * @param burst         - Tokens the bucket holds when full.
+     */
+    public TokenBucket(int ratePerMinute, int burst, long nowNanos) {
+        this.intervalNanos = Math.max(1, TimeUnit.MINUTES.toNanos(1) / Math.max(1, ratePerMinute));
+        this.toleranceNanos = (Math.max(1, burst) - 1) * intervalNanos;
+        this.theoreticalArrival = new AtomicLong(nowNanos);
+    }
+
+    /**
+     * Takes a token, waiting for it if the bucket is empty.
+     *
+     * @param maxDelayNanos - Longest wait accepted.
+     * @return Nanoseconds to wait before the token may be used, or -1 if that would exceed the longest wait
+     * accepted, in which case no token is taken.
+     */
+    public long reserve(long nowNanos, long maxDelayNanos) {
+        while (true) {
+            long arrival = theoreticalArrival.get();
+            long base = arrival - nowNanos > 0 ? arrival : nowNanos;
+            long delay = Math.max(0, base - toleranceNanos - nowNanos);
+            if (delay > maxDelayNanos) {
+                return -1;
+            }
+            if (theoreticalArrival.compareAndSet(arrival, base + intervalNanos)) {
+                return delay;
+            }
+        }
+    }
+
+    /**
+     * @return Whether the bucket is full, so that dropping it and creating it again changes nothing.
+     */
+    public boolean isFull(long nowNanos) {
+        return theoreticalArrival.get() - nowNanos <= 0;
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.event.handler.email.template;
+
+import org.wso2.carbon.identity.event.handler.email.util.EmailInfoDTO;
+
+/**
+ * Subject, body and footer of an email template compiled once, when the template is loaded.
+ */
+public class CompiledEmailTemplate {
+
+    private final CompiledTemplate subject;
+    private final CompiledTemplate body;
+    private final CompiledTemplate footer;
+    private final String emailContentType;
+    private final TemplatePlaceholders placeHolders;
+
+    public CompiledEmailTemplate(EmailInfoDTO emailInfo) {
+        this.subject = TemplateCompiler.compile(emailInfo.getSubject());
+        this.body = TemplateCompiler.compile(emailInfo.getBody());
+        this.footer = TemplateCompiler.compile(emailInfo.getFooter());
+        this.emailContentType = emailInfo.getEmailContentType();
+        this.placeHolders = new TemplatePlaceholders(body, subject, footer);
+    }
+
+    public CompiledEmailTemplate(CompiledTemplate subject, CompiledTemplate body, CompiledTemplate footer,
+                                 String emailContentType) {
+        this.subject = subject;
+        this.body = body;
+        this.footer = footer;
+        this.emailContentType = emailContentType;
+        this.placeHolders = new TemplatePlaceholders(body, subject, footer);
+    }
+
+    public CompiledTemplate getSubject() {
+        return subject;
+    }
+
+    public CompiledTemplate getBody() {
+        return body;
+    }
+
+    public CompiledTemplate getFooter() {
+        return footer;
+    }
+
+    public String getEmailContentType() {
+        return emailContentType;
+    }
+
+    public TemplatePlaceholders getPlaceHolders() {
+        return placeHolders;
+    }
+
+    /**
+     * @return The template as it was written. Its sections are decoded on every call.
+     */
+    public EmailInfoDTO toEmailInfo() {
+        EmailInfoDTO emailInfo = new EmailInfoDTO();
+        emailInfo.setSubject(subject.getContent());
+        emailInfo.setBody(body.getContent());
+        emailInfo.setFooter(footer.getContent());
+        emailInfo.setEmailContentType(emailContentType);
+        return emailInfo;
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.event.handler.email.template;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An email template section parsed into literal and placeholder segments so that it can be rendered in a
+ * single pass. Literal text of all segments is kept in one UTF-8 byte array and rendered into a
+ * {@link Utf8Buffer} without being decoded. Segments are laid out as offsets into that array, so a section holds
+ * a few arrays and its distinct placeholders rather than an object per segment. Instances are immutable and shared
+ * between threads.
+ */
+public class CompiledTemplate {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final byte[] literals;
+    // Offset of the literal text of each segment, or -1 - index of the placeholder in variables.
+    private final int[] segmentOffsets;
+    private final int[] segmentLengths;
+    private final TemplateSegment[] variables;
+    private final List<String> placeHolders;
+
+    CompiledTemplate(List<TemplateSegment> segments, List<String> placeHolders) {
+        int literalLength = 0;
+        Map<TemplateSegment, Integer> variableIndexes = new IdentityHashMap<>();
+        List<TemplateSegment> variableList = new ArrayList<>();
+        for (TemplateSegment segment : segments) {
+            if (segment.getType() == TemplateSegment.Type.LITERAL) {
+                literalLength += segment.getBytes().length;
+            } else if (!variableIndexes.containsKey(segment)) {
+                variableIndexes.put(segment, variableList.size());
+                variableList.add(segment);
+            }
+        }
+
+        this.literals = new byte[literalLength];
+        this.segmentOffsets = new int[segments.size()];
+        this.segmentLengths = new int[segments.size()];
+        int offset = 0;
+        for (int i = 0; i < segments.size(); i++) {
+            TemplateSegment segment = segments.get(i);
+            if (segment.getType() == TemplateSegment.Type.LITERAL) {
+                byte[] bytes = segment.getBytes();
+                System.arraycopy(bytes, 0, literals, offset, bytes.length);
+                segmentOffsets[i] = offset;
+                segmentLengths[i] = bytes.length;
+                offset += bytes.length;
+            } else {
+                segmentOffsets[i] = -1 - variableIndexes.get(segment);
+            }
+        }
+        this.variables = variableList.toArray(new TemplateSegment[variableList.size()]);
+        this.placeHolders = Collections.unmodifiableList(new ArrayList<>(placeHolders));
+    }
+
+    /**
+     * @return Names of the placeholders in the order they appear, with the url: prefix as written.
+     */
+    public List<String> getPlaceHolders() {
+        return placeHolders;
+    }
+
+    /**
+     * @return The segments of the section. Literal segments are copied out on every call.
+     */
+    public TemplateSegment[] getSegments() {
+        TemplateSegment[] segments = new TemplateSegment[segmentOffsets.length];
+        for (int i = 0; i < segments.length; i++) {
+            int offset = segmentOffsets[i];
+            segments[i] = offset >= 0 ?
+                    TemplateSegment.literal(Arrays.copyOfRange(literals, offset, offset + segmentLengths[i])) :
+                    variables[-1 - offset];
+        }
+        return segments;
+    }
+
+    /**
+     * @return Size of the literal text of the section in UTF-8 bytes.
+     */
+    public int getLiteralLength() {
+        return literals.length;
+    }
+
+    /**
+     * @return The section as it was written, with its placeholders.
+     */
+    public String getContent() {
+        Utf8Buffer out = new Utf8Buffer(literals.length + 16 * variables.length);
+        for (int i = 0; i < segmentOffsets.length; i++) {
+            int offset = segmentOffsets[i];
+            if (offset >= 0) {
+                out.append(literals, offset, segmentLengths[i]);
+            } else {
+                out.append(variables[-1 - offset].getBytes());
+            }
+        }
+        return out.toString();
+    }
+
+    /**
+     * Appends the template to the given buffer, replacing each placeholder with its value in the tag data.
+     * Placeholders mapped to null are blanked and placeholders that are not in the tag data are left as written.
+     *
+     * @param tagData - Placeholder values keyed by placeholder name.
+     * @param out     - Buffer to render to.
+     * @throws UnsupportedEncodingException if UTF-8 is not supported when URL encoding a value.
+     */
+    public void render(Map<String, String> tagData, Utf8Buffer out) throws UnsupportedEncodingException {
+        out.ensureCapacity(out.length() + literals.length);
+        for (int i = 0; i < segmentOffsets.length; i++) {
+            int offset = segmentOffsets[i];
+            if (offset >= 0) {
+                out.append(literals, offset, segmentLengths[i]);
+                continue;
+            }
+            TemplateSegment segment = variables[-1 - offset];
+            switch (segment.getType()) {
+                case VARIABLE:
+                    if (tagData.containsKey(segment.getValue())) {
+                        String data = tagData.get(segment.getValue());
+                        if (data != null) {
+                            out.append(data);
+                        }
+                    } else {
+                        out.append(segment.getBytes());
+                    }
+                    break;
+                case URL_ENCODED_VARIABLE:
+                    if (tagData.containsKey(segment.getValue())) {
+                        String data = tagData.get(segment.getValue());
+                        if (data != null) {
+                            out.append(URLEncoder.encode(data, "UTF-8"));
+                        }
+                    } else {
+                        out.append(segment.getBytes());
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Appends the template to the given builder. Literal segments are decoded on every call, so rendering into a
+     * {@link Utf8Buffer} is preferred.
+     *
+     * @see #render(Map, Utf8Buffer)
+     */
+    public void render(Map<String, String> tagData, StringBuilder out) throws UnsupportedEncodingException {
+        out.ensureCapacity(out.length() + literals.length);
+        for (int i = 0; i < segmentOffsets.length; i++) {
+            int offset = segmentOffsets[i];
+            if (offset >= 0) {
+                out.append(new String(literals, offset, segmentLengths[i], UTF_8));
+                continue;
+            }
+            TemplateSegment segment = variables[-1 - offset];
+            switch (segment.getType()) {
+                case VARIABLE:
+                    if (tagData.containsKey(segment.getValue())) {
+                        String data = tagData.get(segment.getValue());
+                        if (data != null) {
+                            out.append(data);
+                        }
+                    } else {
+                        out.append(segment.getSource());
+                    }
+                    break;
+                case URL_ENCODED_VARIABLE:
+                    if (tagData.containsKey(segment.getValue())) {
+                        String data = tagData.get(segment.getValue());
+                        if (data != null) {
+                            out.append(URLEncoder.encode(data, "UTF-8"));
+                        }
+                    } else {
+                        out.append(segment.getSource());
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+}
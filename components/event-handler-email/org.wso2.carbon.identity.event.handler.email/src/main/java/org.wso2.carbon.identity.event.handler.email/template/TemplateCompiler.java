@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.event.handler.email.template;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parses {key} and {url:key} placeholders of an email template section into a {@link CompiledTemplate}.
+ * Sections are parsed as UTF-8 bytes. The braces and line breaks the parser looks for are ASCII, and ASCII bytes
+ * never occur inside the encoding of other characters, so no decoding is needed.
+ */
+public class TemplateCompiler {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String URL_ENCODE_PREFIX = "url:";
+
+    private TemplateCompiler() {
+    }
+
+    public static CompiledTemplate compile(String content) {
+        if (content == null) {
+            return new CompiledTemplate(new ArrayList<TemplateSegment>(), new ArrayList<String>());
+        }
+        byte[] bytes = content.getBytes(UTF_8);
+        return compile(bytes, 0, bytes.length);
+    }
+
+    /**
+     * @param content - UTF-8 encoded content the section is read from.
+     * @param offset  - Start of the section in the content.
+     * @param length  - Length of the section in bytes.
+     */
+    public static CompiledTemplate compile(byte[] content, int offset, int length) {
+
+        List<TemplateSegment> segments = new ArrayList<>();
+        List<String> placeHolders = new ArrayList<>();
+        // Placeholders repeated in a template share one immutable segment and name.
+        Map<String, TemplateSegment> variables = new HashMap<>();
+        Map<String, String> names = new HashMap<>();
+
+        Utf8Buffer literal = new Utf8Buffer(Math.min(length, 1024));
+        int position = offset;
+        int limit = offset + length;
+        while (position < limit) {
+            int start = indexOf(content, (byte) '{', position, limit);
+            int end = start < 0 ? -1 : indexOf(content, (byte) '}', start + 1, limit);
+            if (end < 0) {
+                literal.append(content, position, limit - position);
+                break;
+            }
+            // The innermost brace pair is the placeholder, as in "{a{key}".
+            start = lastIndexOf(content, (byte) '{', start, end);
+            literal.append(content, position, start - position);
+
+            if (indexOf(content, (byte) '\n', start + 1, end) >= 0 ||
+                    indexOf(content, (byte) '\r', start + 1, end) >= 0) {
+                // Placeholders do not span lines, e.g. blocks of an embedded style sheet.
+                literal.append((byte) '{');
+                position = start + 1;
+                continue;
+            }
+            if (literal.length() > 0) {
+                segments.add(TemplateSegment.literal(literal.toByteArray()));
+                literal.setLength(0);
+            }
+
+            String placeHolder = new String(content, start + 1, end - start - 1, UTF_8);
+            TemplateSegment variable = variables.get(placeHolder);
+            if (variable == null) {
+                String source = new String(content, start, end - start + 1, UTF_8);
+                if (placeHolder.startsWith(URL_ENCODE_PREFIX)) {
+                    variable = TemplateSegment.urlEncodedVariable(
+                            placeHolder.substring(URL_ENCODE_PREFIX.length()), source);
+                } else {
+                    variable = TemplateSegment.variable(placeHolder, source);
+                }
+                variables.put(placeHolder, variable);
+                names.put(placeHolder, placeHolder);
+            }
+            placeHolders.add(names.get(placeHolder));
+            segments.add(variable);
+            position = end + 1;
+        }
+        if (literal.length() > 0) {
+            segments.add(TemplateSegment.literal(literal.toByteArray()));
+        }
+        return new CompiledTemplate(segments, placeHolders);
+    }
+
+    private static int indexOf(byte[] content, byte value, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (content[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return Index of the last occurrence of the value before the end, searching back no further than the start.
+     */
+    private static int lastIndexOf(byte[] content, byte value, int start, int end) {
+        for (int i = end - 1; i > start; i--) {
+            if (content[i] == value) {
+                return i;
+            }
+        }
+        return start;
+    }
+}
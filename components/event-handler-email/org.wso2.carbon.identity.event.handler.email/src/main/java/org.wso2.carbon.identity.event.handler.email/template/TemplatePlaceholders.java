@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.event.handler.email.template;
+
+import org.wso2.carbon.identity.event.handler.email.constants.EmailEventConstants;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The distinct placeholders of a compiled email template together with the user claim URI each of them resolves
+ * to when it is not given as an event property. Computed once, when the template is compiled.
+ */
+public class TemplatePlaceholders {
+
+    private final String[] names;
+    private final String[] claimUris;
+    private final List<String> claimUriList;
+
+    public TemplatePlaceholders(CompiledTemplate... templates) {
+        Set<String> placeHolders = new LinkedHashSet<>();
+        for (CompiledTemplate template : templates) {
+            for (TemplateSegment segment : template.getSegments()) {
+                if (segment.getType() != TemplateSegment.Type.LITERAL) {
+                    placeHolders.add(segment.getValue());
+                }
+            }
+        }
+
+        this.names = placeHolders.toArray(new String[placeHolders.size()]);
+        this.claimUris = new String[names.length];
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].contains("identity")) {
+                claimUris[i] = EmailEventConstants.DEFAULT_CLAIM_URI + EmailEventConstants.DEFAULT_IDENTITY_PREFIX +
+                        names[i];
+            } else {
+                claimUris[i] = EmailEventConstants.DEFAULT_CLAIM_URI + names[i];
+            }
+        }
+        this.claimUriList = Collections.unmodifiableList(Arrays.asList(claimUris.clone()));
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    public String getName(int index) {
+        return names[index];
+    }
+
+    public String getClaimUri(int index) {
+        return claimUris[index];
+    }
+
+    /**
+     * @return Claim URIs of all the placeholders, in the order the placeholders appear.
+     */
+    public List<String> getClaimUris() {
+        return claimUriList;
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.event.handler.email.template;
+
+import java.nio.charset.Charset;
+
+/**
+ * A piece of a compiled email template: either literal text or a placeholder that is substituted at render time.
+ * Literal text is held as UTF-8 bytes, which take half the heap of a String for the mostly ASCII content of email
+ * templates, and is only decoded when asked for as a String.
+ */
+public class TemplateSegment {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public enum Type {
+        LITERAL, VARIABLE, URL_ENCODED_VARIABLE
+    }
+
+    private final Type type;
+    private final String value;
+    private final byte[] bytes;
+
+    private TemplateSegment(Type type, String value, byte[] bytes) {
+        this.type = type;
+        this.value = value;
+        this.bytes = bytes;
+    }
+
+    public static TemplateSegment literal(String text) {
+        return literal(text.getBytes(UTF_8));
+    }
+
+    /**
+     * @param utf8 - UTF-8 encoded text, which is kept as is and must not be modified afterwards.
+     */
+    public static TemplateSegment literal(byte[] utf8) {
+        return new TemplateSegment(Type.LITERAL, null, utf8);
+    }
+
+    /**
+     * @param name   - Placeholder name, without the url: prefix.
+     * @param source - Placeholder as written in the template, which is rendered when there is no data for it.
+     */
+    public static TemplateSegment variable(String name, String source) {
+        return new TemplateSegment(Type.VARIABLE, name, source.getBytes(UTF_8));
+    }
+
+    public static TemplateSegment urlEncodedVariable(String name, String source) {
+        return new TemplateSegment(Type.URL_ENCODED_VARIABLE, name, source.getBytes(UTF_8));
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return Literal text, or the placeholder name for variables. Literal text is decoded on every call.
+     */
+    public String getValue() {
+        return type == Type.LITERAL ? new String(bytes, UTF_8) : value;
+    }
+
+    /**
+     * @return Literal text, or the placeholder as written for variables. Decoded on every call.
+     */
+    public String getSource() {
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * @return UTF-8 encoding of the literal text, or of the placeholder as written for variables. Not a copy.
+     */
+    byte[] getBytes() {
+        return bytes;
+    }
+}
@@ -0,0 +1,304 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.event.handler.email.template;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.email.mgt.config.ConfigBuilder;
+import org.wso2.carbon.email.mgt.config.StorageType;
+import org.wso2.carbon.email.mgt.exceptions.I18nMgtEmailConfigException;
+import org.wso2.carbon.email.mgt.store.FileTemplateStore;
+import org.wso2.carbon.identity.event.handler.email.constants.EmailEventConstants;
+import org.wso2.carbon.identity.event.handler.email.internal.EmailEventServiceComponent;
+import org.wso2.carbon.registry.core.Collection;
+import org.wso2.carbon.registry.core.Resource;
+import org.wso2.carbon.registry.core.exceptions.RegistryException;
+import org.wso2.carbon.registry.core.exceptions.ResourceNotFoundException;
+import org.wso2.carbon.registry.core.session.UserRegistry;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The email template types each tenant can send, so that events of other types are rejected with a hash lookup.
+ * The types of a tenant are the template type folders email management keeps for it, read the first time an event
+ * of the tenant is handled, together with the built-in types. Types added through email management are added as
+ * they are notified, and the types of a tenant are read again after the configured interval, to pick up types
+ * added on other nodes.
+ * <p/>
+ * Only the first event of a tenant waits for its types to be read, and events of the tenant arriving meanwhile wait
+ * for the same read. Types due to be read again are read on a background thread while the types read before are
+ * served. If reading the types fails, the types read before, or the built-in types if there are none, are served
+ * and the types are read again after a short delay rather than after the refresh interval.
+ */
+public class TemplateTypeRegistry {
+
+    private static final Log log = LogFactory.getLog(TemplateTypeRegistry.class);
+    private static final TemplateTypeRegistry instance = new TemplateTypeRegistry();
+
+    private static final String REFRESH_THREAD_NAME = "EmailEventHandler-TemplateTypes";
+    private static final long FAILED_READ_RETRY_INTERVAL = TimeUnit.SECONDS.toMillis(10);
+
+    private final Set<String> builtInTypes;
+    private final long failedReadRetryMillis;
+    private final ConcurrentMap<Integer, TenantTemplateTypes> tenantTypes = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Integer, TemplateTypesRead> reads = new ConcurrentHashMap<>();
+    private final ThreadPoolExecutor refreshExecutor;
+    private volatile long refreshIntervalMillis =
+            TimeUnit.SECONDS.toMillis(EmailEventConstants.ConfigDefault.TEMPLATE_TYPES_REFRESH_INTERVAL);
+
+    private TemplateTypeRegistry() {
+        this(FAILED_READ_RETRY_INTERVAL);
+    }
+
+    /**
+     * @param failedReadRetryMillis - Time the types are served for after reading them failed.
+     */
+    TemplateTypeRegistry(long failedReadRetryMillis) {
+        Set<String> types = new HashSet<>();
+        for (EmailEventConstants.templateTypes templateType : EmailEventConstants.templateTypes.values()) {
+            types.add(templateType.name());
+        }
+        builtInTypes = Collections.unmodifiableSet(types);
+        this.failedReadRetryMillis = failedReadRetryMillis;
+        // A single thread, which is let go while there is nothing to read.
+        refreshExecutor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, REFRESH_THREAD_NAME);
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        refreshExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    public static TemplateTypeRegistry getInstance() {
+        return instance;
+    }
+
+    /**
+     * @param refreshIntervalSeconds - Time the template types of a tenant are used before they are read again.
+     *                               Zero keeps them until the tenant is invalidated.
+     */
+    public void configure(long refreshIntervalSeconds) {
+        this.refreshIntervalMillis = TimeUnit.SECONDS.toMillis(refreshIntervalSeconds);
+        tenantTypes.clear();
+    }
+
+    /**
+     * @return Whether emails of the template type can be sent for the tenant. Never throws for unknown types.
+     */
+    public boolean isSupported(int tenantId, String templateType) {
+        if (templateType == null) {
+            return false;
+        }
+        if (builtInTypes.contains(templateType)) {
+            return true;
+        }
+        TenantTemplateTypes types = tenantTypes.get(tenantId);
+        if (types == null) {
+            types = load(tenantId);
+        } else if (isExpired(types)) {
+            refresh(tenantId);
+        }
+        return types.templateTypes.contains(templateType);
+    }
+
+    /**
+     * Makes a template type sendable for the tenant, as when it has been added through email management.
+     */
+    public void addTemplateType(int tenantId, String templateType) {
+        while (true) {
+            TenantTemplateTypes types = tenantTypes.get(tenantId);
+            // Types not read yet include the new type once they are read.
+            if (types == null || types.templateTypes.contains(templateType)) {
+                return;
+            }
+            Set<String> templateTypes = new HashSet<>(types.templateTypes);
+            templateTypes.add(templateType);
+            TenantTemplateTypes updated = new TenantTemplateTypes(Collections.unmodifiableSet(templateTypes),
+                    types.loadedTime, types.failed);
+            if (tenantTypes.replace(tenantId, types, updated)) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Added email template type : " + templateType + " of tenant : " + tenantId);
+                }
+                return;
+            }
+        }
+    }
+
+    public void invalidate(int tenantId) {
+        tenantTypes.remove(tenantId);
+    }
+
+    public void clear() {
+        tenantTypes.clear();
+    }
+
+    private boolean isExpired(TenantTemplateTypes types) {
+        long age = System.currentTimeMillis() - types.loadedTime;
+        if (types.failed) {
+            return age > failedReadRetryMillis;
+        }
+        return refreshIntervalMillis > 0 && age > refreshIntervalMillis;
+    }
+
+    /**
+     * Reads the types of a tenant on the calling thread, or waits for the read already started.
+     */
+    private TenantTemplateTypes load(int tenantId) {
+        TemplateTypesRead read = new TemplateTypesRead(tenantId);
+        TemplateTypesRead startedRead = reads.putIfAbsent(tenantId, read);
+        if (startedRead == null) {
+            read.run();
+            startedRead = read;
+        }
+        try {
+            return startedRead.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            log.error("Error occurred while reading the email template types of tenant : " + tenantId, e);
+        }
+        return new TenantTemplateTypes(builtInTypes, System.currentTimeMillis(), true);
+    }
+
+    /**
+     * Reads the types of a tenant on the refresh thread, unless a read of them has already started.
+     */
+    private void refresh(int tenantId) {
+        TemplateTypesRead read = new TemplateTypesRead(tenantId);
+        if (reads.putIfAbsent(tenantId, read) != null) {
+            return;
+        }
+        try {
+            refreshExecutor.execute(read);
+        } catch (RejectedExecutionException e) {
+            reads.remove(tenantId, read);
+        }
+    }
+
+    private TenantTemplateTypes read(int tenantId) {
+        TenantTemplateTypes previous = tenantTypes.get(tenantId);
+        TenantTemplateTypes types;
+        try {
+            Set<String> templateTypes = new HashSet<>(builtInTypes);
+            templateTypes.addAll(readTemplateTypes(tenantId));
+            types = new TenantTemplateTypes(Collections.unmodifiableSet(templateTypes), System.currentTimeMillis(),
+                    false);
+            if (log.isDebugEnabled()) {
+                log.debug("Email template types of tenant : " + tenantId + " : " + templateTypes);
+            }
+        } catch (I18nMgtEmailConfigException | RegistryException | RuntimeException e) {
+            log.error("Error occurred while reading the email template types of tenant : " + tenantId +
+                    ". They are read again in " + failedReadRetryMillis + "ms", e);
+            types = new TenantTemplateTypes(previous != null ? previous.templateTypes : builtInTypes,
+                    System.currentTimeMillis(), true);
+        }
+        // Types invalidated or added to during the read are left as they are, and read again when due.
+        if (previous == null) {
+            tenantTypes.putIfAbsent(tenantId, types);
+        } else {
+            tenantTypes.replace(tenantId, previous, types);
+        }
+        return types;
+    }
+
+    /**
+     * @return The template types email management keeps for the tenant.
+     */
+    Set<String> readTemplateTypes(int tenantId) throws I18nMgtEmailConfigException, RegistryException {
+        if (ConfigBuilder.getConfiguredStorageType() == StorageType.FILE) {
+            return FileTemplateStore.getInstance().getTemplateTypes(tenantId);
+        }
+        return readRegistryTemplateTypes(tenantId);
+    }
+
+    private Set<String> readRegistryTemplateTypes(int tenantId) throws RegistryException {
+        Set<String> templateTypes = new HashSet<>();
+        String templatePath = EmailEventConstants.EMAIL_TEMPLATE_PATH;
+        if (templatePath.endsWith("/")) {
+            templatePath = templatePath.substring(0, templatePath.length() - 1);
+        }
+        try {
+            UserRegistry userReg = EmailEventServiceComponent.getRegistryService().getConfigSystemRegistry(tenantId);
+            Resource resource = userReg.get(templatePath);
+            if (resource instanceof Collection) {
+                // Each child is the folder of a template type.
+                for (String childPath : ((Collection) resource).getChildren()) {
+                    templateTypes.add(childPath.substring(childPath.lastIndexOf('/') + 1));
+                }
+            }
+        } catch (ResourceNotFoundException e) {
+            if (log.isDebugEnabled()) {
+                log.debug("No email templates in the registry of tenant : " + tenantId, e);
+            }
+        }
+        return templateTypes;
+    }
+
+    private static class TenantTemplateTypes {
+
+        private final Set<String> templateTypes;
+        private final long loadedTime;
+        private final boolean failed;
+
+        private TenantTemplateTypes(Set<String> templateTypes, long loadedTime, boolean failed) {
+            this.templateTypes = templateTypes;
+            this.loadedTime = loadedTime;
+            this.failed = failed;
+        }
+    }
+
+    /**
+     * A read of the types of a tenant, which the callers needing them share until it is done.
+     */
+    private class TemplateTypesRead extends FutureTask<TenantTemplateTypes> {
+
+        private final int tenantId;
+
+        private TemplateTypesRead(final int tenantId) {
+            super(new Callable<TenantTemplateTypes>() {
+                @Override
+                public TenantTemplateTypes call() {
+                    return read(tenantId);
+                }
+            });
+            this.tenantId = tenantId;
+        }
+
+        @Override
+        protected void done() {
+            reads.remove(tenantId, this);
+        }
+    }
+}
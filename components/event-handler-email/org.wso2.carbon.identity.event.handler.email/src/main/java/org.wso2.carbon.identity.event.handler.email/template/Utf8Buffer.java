@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.event.handler.email.template;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Growable buffer of UTF-8 encoded bytes that templates are rendered into. Strings are encoded as they are
+ * appended, without an intermediate byte array. Not thread safe.
+ */
+public class Utf8Buffer {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private byte[] bytes;
+    private int length;
+
+    public Utf8Buffer(int capacity) {
+        this.bytes = new byte[capacity > 0 ? capacity : 16];
+    }
+
+    public Utf8Buffer append(byte[] value) {
+        return append(value, 0, value.length);
+    }
+
+    public Utf8Buffer append(byte[] value, int offset, int count) {
+        ensureCapacity(length + count);
+        System.arraycopy(value, offset, bytes, length, count);
+        length += count;
+        return this;
+    }
+
+    public Utf8Buffer append(byte value) {
+        ensureCapacity(length + 1);
+        bytes[length++] = value;
+        return this;
+    }
+
+    /**
+     * Appends the UTF-8 encoding of the string. Unpaired surrogates are encoded as '?', as String.getBytes does.
+     */
+    public Utf8Buffer append(String value) {
+        int count = value.length();
+        ensureCapacity(length + count);
+        for (int i = 0; i < count; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                if (length == bytes.length) {
+                    ensureCapacity(length + count - i);
+                }
+                bytes[length++] = (byte) c;
+            } else if (c < 0x800) {
+                ensureCapacity(length + 2);
+                bytes[length++] = (byte) (0xC0 | (c >> 6));
+                bytes[length++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < count &&
+                    Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                ensureCapacity(length + 4);
+                bytes[length++] = (byte) (0xF0 | (codePoint >> 18));
+                bytes[length++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                bytes[length++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                bytes[length++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                ensureCapacity(length + 1);
+                bytes[length++] = (byte) '?';
+            } else {
+                ensureCapacity(length + 3);
+                bytes[length++] = (byte) (0xE0 | (c >> 12));
+                bytes[length++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                bytes[length++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return this;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public int capacity() {
+        return bytes.length;
+    }
+
+    public void setLength(int length) {
+        ensureCapacity(length);
+        this.length = length;
+    }
+
+    public void ensureCapacity(int capacity) {
+        if (capacity > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(capacity, bytes.length * 2));
+        }
+    }
+
+    /**
+     * @return A copy of the bytes written so far.
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(bytes, length);
+    }
+
+    /**
+     * @return The bytes written so far, decoded.
+     */
+    @Override
+    public String toString() {
+        return new String(bytes, 0, length, UTF_8);
+    }
+}
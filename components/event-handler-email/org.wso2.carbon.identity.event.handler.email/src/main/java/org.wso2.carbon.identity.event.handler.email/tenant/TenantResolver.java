@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.event.handler.email.tenant;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.identity.core.util.IdentityTenantUtil;
+import org.wso2.carbon.identity.event.handler.email.constants.EmailEventConstants;
+import org.wso2.carbon.identity.event.handler.email.exception.EmailEventServiceException;
+import org.wso2.carbon.identity.event.handler.email.internal.EmailEventServiceComponent;
+import org.wso2.carbon.user.api.UserRealm;
+import org.wso2.carbon.user.core.UserStoreManager;
+import org.wso2.carbon.user.core.service.RealmService;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resolves tenant domains to tenant Ids and tenant Ids to user store managers, remembering the results so the
+ * work done per email before it is rendered stays small.
+ * <p/>
+ * Entries are dropped through the tenant lifecycle listener when a tenant is renamed, deactivated or deleted.
+ * A user store manager is also looked up again after the configured timeout, since the user realm of a tenant is
+ * rebuilt when its user stores are reconfigured.
+ */
+public class TenantResolver {
+
+    private static final Log log = LogFactory.getLog(TenantResolver.class);
+    private static final TenantResolver instance = new TenantResolver();
+
+    private final Map<String, Integer> tenantIds = new ConcurrentHashMap<>();
+    private final Map<Integer, UserStoreManagerHolder> userStoreManagers = new ConcurrentHashMap<>();
+    private volatile long userStoreManagerTimeoutMillis =
+            TimeUnit.SECONDS.toMillis(EmailEventConstants.ConfigDefault.USER_STORE_MANAGER_TIMEOUT);
+
+    private TenantResolver() {
+    }
+
+    public static TenantResolver getInstance() {
+        return instance;
+    }
+
+    /**
+     * @param userStoreManagerTimeoutSeconds - Time a user store manager is used before it is looked up again.
+     */
+    public void configure(long userStoreManagerTimeoutSeconds) {
+        this.userStoreManagerTimeoutMillis = TimeUnit.SECONDS.toMillis(userStoreManagerTimeoutSeconds);
+        userStoreManagers.clear();
+    }
+
+    public int getTenantId(String tenantDomain) {
+        if (tenantDomain == null) {
+            return IdentityTenantUtil.getTenantId(tenantDomain);
+        }
+        Integer tenantId = tenantIds.get(tenantDomain);
+        if (tenantId == null) {
+            tenantId = IdentityTenantUtil.getTenantId(tenantDomain);
+            if (tenantId != EmailEventConstants.INVALID_TENANT_ID) {
+                tenantIds.put(tenantDomain, tenantId);
+            }
+        }
+        return tenantId;
+    }
+
+    /**
+     * @return The user store manager of the tenant, or null if the tenant has no user realm.
+     * @throws EmailEventServiceException if the user realm could not be read.
+     */
+    public UserStoreManager getUserStoreManager(int tenantId) throws EmailEventServiceException {
+        UserStoreManagerHolder holder = userStoreManagers.get(tenantId);
+        if (holder != null && (userStoreManagerTimeoutMillis <= 0 ||
+                System.currentTimeMillis() - holder.resolvedTime <= userStoreManagerTimeoutMillis)) {
+            return holder.userStoreManager;
+        }
+
+        RealmService realmService = EmailEventServiceComponent.getRealmService();
+        UserStoreManager userStoreManager = null;
+        try {
+            UserRealm userRealm = realmService.getTenantUserRealm(tenantId);
+            if (userRealm != null) {
+                userStoreManager = (UserStoreManager) userRealm.getUserStoreManager();
+            }
+        } catch (Exception e) {
+            String msg = "Error retrieving the user store manager for tenant id : " + tenantId;
+            log.error(msg, e);
+            throw new EmailEventServiceException(msg, e);
+        }
+        if (userStoreManager != null) {
+            userStoreManagers.put(tenantId, new UserStoreManagerHolder(userStoreManager));
+        }
+        return userStoreManager;
+    }
+
+    public void invalidate(int tenantId) {
+        userStoreManagers.remove(tenantId);
+        Iterator<Integer> iterator = tenantIds.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next() == tenantId) {
+                iterator.remove();
+            }
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Invalidated the resolved tenant domain and user store manager of tenant : " + tenantId);
+        }
+    }
+
+    public void clear() {
+        tenantIds.clear();
+        userStoreManagers.clear();
+    }
+
+    private static class UserStoreManagerHolder {
+
+        private final UserStoreManager userStoreManager;
+        private final long resolvedTime;
+
+        private UserStoreManagerHolder(UserStoreManager userStoreManager) {
+            this.userStoreManager = userStoreManager;
+            this.resolvedTime = System.currentTimeMillis();
+        }
+    }
+}
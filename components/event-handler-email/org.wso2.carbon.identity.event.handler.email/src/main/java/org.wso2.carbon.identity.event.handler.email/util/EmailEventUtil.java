@@ -21,9 +21,25 @@ package org.wso2.carbon.identity.event.handler.email.util;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.email.mgt.config.ConfigBuilder;
+import org.wso2.carbon.email.mgt.config.StorageType;
+import org.wso2.carbon.email.mgt.exceptions.I18nMgtEmailConfigException;
+import org.wso2.carbon.email.mgt.store.FileTemplateStore;
+import org.wso2.carbon.email.mgt.store.StoredEmailTemplate;
+import org.wso2.carbon.identity.event.handler.email.cache.EmailTemplateCache;
+import org.wso2.carbon.identity.event.handler.email.cache.EmailTemplateCacheEntry;
+import org.wso2.carbon.identity.event.handler.email.cache.EmailTemplateCacheKey;
+import org.wso2.carbon.identity.event.handler.email.cache.UserClaimCache;
+import org.wso2.carbon.identity.event.handler.email.cache.UserClaimCacheEntry;
+import org.wso2.carbon.identity.event.handler.email.cache.UserClaimCacheKey;
 import org.wso2.carbon.identity.event.handler.email.constants.EmailEventConstants;
 import org.wso2.carbon.identity.event.handler.email.exception.EmailEventServiceException;
+import org.wso2.carbon.identity.event.handler.email.template.CompiledEmailTemplate;
+import org.wso2.carbon.identity.event.handler.email.template.CompiledTemplate;
+import org.wso2.carbon.identity.event.handler.email.template.TemplateCompiler;
+import org.wso2.carbon.identity.event.handler.email.template.TemplatePlaceholders;
 import org.wso2.carbon.identity.event.handler.email.internal.EmailEventServiceComponent;
+import org.wso2.carbon.identity.event.handler.email.tenant.TenantResolver;
 import org.wso2.carbon.registry.core.Resource;
 import org.wso2.carbon.registry.core.exceptions.RegistryException;
 import org.wso2.carbon.registry.core.exceptions.ResourceNotFoundException;
@@ -31,10 +47,10 @@ import org.wso2.carbon.registry.core.service.RegistryService;
 import org.wso2.carbon.registry.core.session.UserRegistry;
 import org.wso2.carbon.user.core.UserCoreConstants;
 import org.wso2.carbon.user.core.claim.Claim;
-import org.wso2.carbon.user.core.service.RealmService;
 
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -44,6 +60,147 @@ import java.util.regex.Pattern;
 public class EmailEventUtil {
 
     private static Log log = LogFactory.getLog(EmailEventUtil.class);
+    private static final Pattern PLACE_HOLDER_PATTERN = Pattern.compile("\\{(.*?)\\}");
+    private static final byte TEMPLATE_SECTION_SEPARATOR = '|';
+    private static final int TEMPLATE_SECTION_COUNT = 3;
+
+    /**
+     * Returns the compiled email template of the given type and locale for a tenant, reading it from the registry,
+     * or the file template store when email management keeps templates in files, only when it is not already in
+     * the {@link EmailTemplateCache}.
+     *
+     * @param tenantId     - The tenant Id of the tenant that the email template belongs to.
+     * @param templateType - Type of the email template.
+     * @param locale       - Locale of the email template.
+     * @return The template, or null if there is no such template.
+     * @throws EmailEventServiceException
+     */
+    public static EmailTemplateCacheEntry getEmailTemplate(int tenantId, String templateType, String locale)
+            throws EmailEventServiceException {
+
+        EmailTemplateCache templateCache = EmailTemplateCache.getInstance();
+        EmailTemplateCacheKey cacheKey = new EmailTemplateCacheKey(tenantId, templateType, locale);
+        EmailTemplateCacheEntry cacheEntry = templateCache.get(cacheKey);
+        if (cacheEntry != null) {
+            return cacheEntry;
+        }
+
+        // Taken before the read, so that a template changed meanwhile is not cached.
+        long generation = templateCache.getGeneration();
+        CompiledEmailTemplate compiledTemplate;
+        if (ConfigBuilder.getConfiguredStorageType() == StorageType.FILE) {
+            compiledTemplate = loadStoredEmailTemplate(tenantId, templateType + "." + locale);
+        } else {
+            StringBuilder resourcePath = new StringBuilder();
+            resourcePath.append(EmailEventConstants.EMAIL_TEMPLATE_PATH).append(templateType).append("/").
+                    append(templateType).append(".").append(locale);
+            compiledTemplate = loadCompiledEmailTemplate(tenantId, resourcePath.toString());
+        }
+        // Templates that are not stored are not cached so that they are picked up once added.
+        if (compiledTemplate == null) {
+            return null;
+        }
+        cacheEntry = new EmailTemplateCacheEntry(compiledTemplate, locale);
+        templateCache.put(cacheKey, cacheEntry, generation);
+        return cacheEntry;
+    }
+
+    /**
+     * Reads an email template from the registry and compiles it straight from the UTF-8 content of the resource,
+     * without decoding the whole template into Strings first.
+     *
+     * @param tenantId     - The tenant Id of the tenant that the email template belongs to.
+     * @param resourcePath - Path to get the specific email template.
+     * @return The compiled template, or null if there is no such resource.
+     * @throws EmailEventServiceException
+     */
+    public static CompiledEmailTemplate loadCompiledEmailTemplate(int tenantId, String resourcePath)
+            throws EmailEventServiceException {
+
+        if (log.isDebugEnabled()) {
+            log.debug("Reading email templates from registry path : " + resourcePath);
+        }
+
+        RegistryService registry = EmailEventServiceComponent.getRegistryService();
+        try {
+            UserRegistry userReg = registry.getConfigSystemRegistry(tenantId);
+            Resource resourceValue = userReg.get(resourcePath);
+            if (resourceValue == null) {
+                return null;
+            }
+            CompiledEmailTemplate compiledTemplate = compileEmailTemplate((byte[]) resourceValue.getContent(),
+                    resourceValue.getMediaType());
+
+            if (log.isDebugEnabled()) {
+                log.debug("Successfully read the email templates in resource path : " + resourcePath);
+            }
+            return compiledTemplate;
+        } catch (ResourceNotFoundException e) {
+            // Ignore the registry resource exception.
+            if (log.isDebugEnabled()) {
+                log.debug("Ignored ResourceNotFoundException", e);
+            }
+            return null;
+        } catch (RegistryException e) {
+            throw new EmailEventServiceException("Error occurred while reading email templates from path : " +
+                    resourcePath, e);
+        }
+    }
+
+    /**
+     * Reads an email template from the file template store of email management and compiles it from its UTF-8
+     * content.
+     *
+     * @param tenantId     - The tenant Id of the tenant that the email template belongs to.
+     * @param templateName - Name of the template, i.e. the template type and the locale separated by a dot.
+     * @return The compiled template, or null if the tenant has no such template.
+     * @throws EmailEventServiceException
+     */
+    public static CompiledEmailTemplate loadStoredEmailTemplate(int tenantId, String templateName)
+            throws EmailEventServiceException {
+        try {
+            StoredEmailTemplate template = FileTemplateStore.getInstance().getTemplate(tenantId, templateName);
+            if (template == null) {
+                return null;
+            }
+            return compileEmailTemplate(template.getContent(), template.getMediaType());
+        } catch (I18nMgtEmailConfigException e) {
+            throw new EmailEventServiceException("Error occurred while reading email template : " + templateName +
+                    " of tenant : " + tenantId, e);
+        }
+    }
+
+    /**
+     * Compiles an email template from its UTF-8 content, whose subject, body and footer are separated by |.
+     * Missing sections are empty.
+     */
+    private static CompiledEmailTemplate compileEmailTemplate(byte[] content, String contentType)
+            throws EmailEventServiceException {
+
+        // Subject, body and footer are separated by |, which is a single byte in UTF-8.
+        int[] sectionEnds = new int[TEMPLATE_SECTION_COUNT];
+        int sectionCount = 0;
+        for (int i = 0; i < content.length; i++) {
+            if (content[i] == TEMPLATE_SECTION_SEPARATOR) {
+                if (sectionCount == TEMPLATE_SECTION_COUNT - 1) {
+                    throw new EmailEventServiceException("Cannot have | character in the template");
+                }
+                sectionEnds[sectionCount++] = i;
+            }
+        }
+        while (sectionCount < TEMPLATE_SECTION_COUNT) {
+            sectionEnds[sectionCount++] = content.length;
+        }
+
+        CompiledTemplate[] sections = new CompiledTemplate[TEMPLATE_SECTION_COUNT];
+        int sectionStart = 0;
+        for (int i = 0; i < TEMPLATE_SECTION_COUNT; i++) {
+            int sectionEnd = Math.max(sectionEnds[i], sectionStart);
+            sections[i] = TemplateCompiler.compile(content, sectionStart, sectionEnd - sectionStart);
+            sectionStart = Math.min(sectionEnd + 1, content.length);
+        }
+        return new CompiledEmailTemplate(sections[0], sections[1], sections[2], contentType);
+    }
 
     /**
      * This method is used to load the Email template for a specific tenant space.
@@ -51,7 +208,11 @@ public class EmailEventUtil {
      * @param tenantId     - The tenant Id of the tenant that specific email template needs to be add.
      * @param resourcePath - Path to get the specific email template.
      * @throws EmailEventServiceException
+     * @deprecated The handler no longer reads templates through this method. Use
+     * {@link #getEmailTemplate(int, String, String)} for a cached template, or
+     * {@link #loadCompiledEmailTemplate(int, String)} to read one from the registry.
      */
+    @Deprecated
     public static EmailInfoDTO loadEmailTemplate(int tenantId, String resourcePath) throws EmailEventServiceException {
 
         if (log.isDebugEnabled()) {
@@ -105,24 +266,15 @@ public class EmailEventUtil {
      * @param tenantId tenantId
      * @return claim value
      * @throws EmailEventServiceException if fails
+     * @deprecated Reads every claim of the user. Use {@link #getUserClaims(String, int, Collection)}, which reads
+     * only the claims a template refers to and caches them.
      */
+    @Deprecated
     public static Map<String, String> getClaimFromUserStoreManager(String userName, int tenantId)
             throws EmailEventServiceException {
 
-        org.wso2.carbon.user.core.UserStoreManager userStoreManager = null;
-        RealmService realmService = EmailEventServiceComponent.getRealmService();
-
-        try {
-            if (realmService.getTenantUserRealm(tenantId) != null) {
-                userStoreManager = (org.wso2.carbon.user.core.UserStoreManager) realmService.getTenantUserRealm(tenantId).
-                        getUserStoreManager();
-            }
-
-        } catch (Exception e) {
-            String msg = "Error retrieving the user store manager for tenant id : " + tenantId;
-            log.error(msg, e);
-            throw new EmailEventServiceException(msg, e);
-        }
+        org.wso2.carbon.user.core.UserStoreManager userStoreManager =
+                TenantResolver.getInstance().getUserStoreManager(tenantId);
         try {
             Map<String, String> claimsMap = new HashMap<String, String>();
             if (userStoreManager != null) {
@@ -141,52 +293,143 @@ public class EmailEventUtil {
         }
     }
 
-    public static List<String> extractPlaceHolders(String value) {
-        String exp = "\\{(.*?)\\}";
+    /**
+     * Returns the given claims of a user, serving them from the {@link UserClaimCache} when it holds all of them and
+     * reading only the missing ones from the user store otherwise.
+     *
+     * @param userName  user name
+     * @param tenantId  tenantId
+     * @param claimUris URIs of the claims to read
+     * @return claim values keyed by claim URI. Claims the user does not have are left out.
+     * @throws EmailEventServiceException if fails
+     */
+    public static Map<String, String> getUserClaims(String userName, int tenantId, Collection<String> claimUris)
+            throws EmailEventServiceException {
 
-        Pattern pattern = Pattern.compile(exp);
-        Matcher matcher = pattern.matcher(value);
+        UserClaimCache claimCache = UserClaimCache.getInstance();
+        if (!claimCache.isEnabled()) {
+            return getClaimsFromUserStoreManager(userName, tenantId, claimUris);
+        }
+
+        UserClaimCacheKey cacheKey = new UserClaimCacheKey(tenantId, userName);
+        // Taken before the read, so that claims changed meanwhile are not cached.
+        long generation = claimCache.getGeneration();
+        UserClaimCacheEntry cacheEntry = claimCache.get(cacheKey);
+        List<String> missingClaimUris = new ArrayList<>(claimUris.size());
+        for (String claimUri : claimUris) {
+            if (cacheEntry == null || !cacheEntry.isLoaded(claimUri)) {
+                missingClaimUris.add(claimUri);
+            }
+        }
+
+        Map<String, String> claimsMap = new HashMap<>();
+        if (missingClaimUris.isEmpty()) {
+            claimCache.recordHit();
+        } else {
+            claimCache.recordMiss();
+            long startTime = System.nanoTime();
+            Map<String, String> loadedClaims = getClaimsFromUserStoreManager(userName, tenantId, missingClaimUris);
+            claimCache.recordLoad(System.nanoTime() - startTime);
+            cacheEntry = cacheEntry == null ? new UserClaimCacheEntry(loadedClaims, missingClaimUris) :
+                    cacheEntry.merge(loadedClaims, missingClaimUris);
+            claimCache.put(cacheKey, cacheEntry, generation);
+        }
+        for (String claimUri : claimUris) {
+            String value = cacheEntry.getClaims().get(claimUri);
+            if (value != null) {
+                claimsMap.put(claimUri, value);
+            }
+        }
+        return claimsMap;
+    }
+
+    /**
+     * Get only the given claims of a user from the user store manager, so the claims that are not used in the
+     * email are not read from the user store.
+     *
+     * @param userName  user name
+     * @param tenantId  tenantId
+     * @param claimUris URIs of the claims to read
+     * @return claim values keyed by claim URI. Claims the user does not have are left out.
+     * @throws EmailEventServiceException if fails
+     */
+    public static Map<String, String> getClaimsFromUserStoreManager(String userName, int tenantId,
+                                                                    Collection<String> claimUris)
+            throws EmailEventServiceException {
+
+        if (claimUris.isEmpty()) {
+            return new HashMap<>();
+        }
+        org.wso2.carbon.user.core.UserStoreManager userStoreManager =
+                TenantResolver.getInstance().getUserStoreManager(tenantId);
+        try {
+            Map<String, String> claimsMap = new HashMap<>();
+            if (userStoreManager != null) {
+                Map<String, String> userClaimValues = userStoreManager.getUserClaimValues(userName,
+                        claimUris.toArray(new String[claimUris.size()]), UserCoreConstants.DEFAULT_PROFILE);
+                if (userClaimValues != null) {
+                    claimsMap.putAll(userClaimValues);
+                }
+            }
+            return claimsMap;
+        } catch (Exception e) {
+            String msg = "Unable to retrieve the claims for user : " + userName;
+            log.error(msg, e);
+            throw new EmailEventServiceException(msg, e);
+        }
+    }
+
+    /**
+     * Returns the claim URIs the placeholders of a template resolve to, leaving out the placeholders that are given
+     * as event properties.
+     *
+     * @param placeHolders             - Placeholders of the template.
+     * @param placeHolderMapProperties - Event properties.
+     */
+    public static List<String> getRequiredClaimUris(TemplatePlaceholders placeHolders,
+                                                    Map<String, String> placeHolderMapProperties) {
+
+        List<String> claimUris = new ArrayList<>(placeHolders.size());
+        for (int i = 0; i < placeHolders.size(); i++) {
+            if (!placeHolderMapProperties.containsKey(placeHolders.getName(i))) {
+                claimUris.add(placeHolders.getClaimUri(i));
+            }
+        }
+        return claimUris;
+    }
+
+    public static List<String> extractPlaceHolders(String value) {
+        Matcher matcher = PLACE_HOLDER_PATTERN.matcher(value);
 
         List<String> placeHolders = new ArrayList<>();
         while (matcher.find()) {
-            String group = matcher.group().replace("{", "").replace("}", "");
-            placeHolders.add(group);
+            placeHolders.add(matcher.group(1));
         }
         return placeHolders;
     }
 
-    public static Map<String, String> getTagData(List<String> placeHolders, Map<String, String> userClaimMap,
+    /**
+     * Resolves the values of the placeholders of a compiled template. Event properties take precedence and the rest
+     * are looked up in the user claims by the claim URI precomputed for each placeholder.
+     *
+     * @param placeHolders             - Placeholders of the template.
+     * @param userClaimMap             - User claim values keyed by claim URI.
+     * @param placeHolderMapProperties - Event properties.
+     * @return Placeholder values keyed by placeholder name.
+     */
+    public static Map<String, String> getTagData(TemplatePlaceholders placeHolders, Map<String, String> userClaimMap,
                                                  Map<String, String> placeHolderMapProperties) {
 
         Map<String, String> tagDataMap = new HashMap<>();
-        List<String> userClaimUris = new ArrayList<>();
-        String tagKey = null;
-        for (String placeholder : placeHolders) {
+        boolean hasClaims = userClaimMap != null && !userClaimMap.isEmpty();
+        for (int i = 0; i < placeHolders.size(); i++) {
+            String placeholder = placeHolders.getName(i);
             if (placeHolderMapProperties.containsKey(placeholder)) {
-                tagDataMap.put(placeholder, (String) placeHolderMapProperties.get(placeholder));
-            }
-            //Need to add a check for claimURIs
-            else if (placeholder.contains("identity")) {
-                String identityClaimUri = EmailEventConstants.DEFAULT_CLAIM_URI +
-                        EmailEventConstants.DEFAULT_IDENTITY_PREFIX + placeholder;
-                userClaimUris.add(identityClaimUri);
-            } else {
-                String claimUri = EmailEventConstants.DEFAULT_CLAIM_URI + placeholder;
-                userClaimUris.add(claimUri);
+                tagDataMap.put(placeholder, placeHolderMapProperties.get(placeholder));
+            } else if (hasClaims && userClaimMap.containsKey(placeHolders.getClaimUri(i))) {
+                tagDataMap.put(placeholder, userClaimMap.get(placeHolders.getClaimUri(i)));
             }
         }
-
-        //retrieve user claims
-        if (userClaimMap != null && !userClaimMap.isEmpty()) {
-            for (String claimUri : userClaimUris) {
-                if (userClaimMap.containsKey(claimUri)) {
-                    tagKey = claimUri.substring(claimUri.lastIndexOf("/") + 1);
-                    tagDataMap.put(tagKey, userClaimMap.get(claimUri));
-                }
-            }
-        }
-
         return tagDataMap;
     }
 }
-
@@ -19,18 +19,37 @@
 package org.wso2.carbon.identity.event.handler.email.util;
 
 import org.wso2.carbon.identity.event.handler.email.exception.EmailEventServiceException;
+import org.wso2.carbon.identity.event.handler.email.template.CompiledEmailTemplate;
+import org.wso2.carbon.identity.event.handler.email.template.CompiledTemplate;
+import org.wso2.carbon.identity.event.handler.email.template.Utf8Buffer;
+
 import java.io.UnsupportedEncodingException;
-import java.net.URLEncoder;
 import java.util.Map;
 
 public class NotificationBuilder {
 
+    // Rendered sections larger than this are not kept around for reuse.
+    private static final int MAX_REUSED_BUFFER_CAPACITY = 64 * 1024;
+
+    private static final ThreadLocal<Utf8Buffer> renderBuffer = new ThreadLocal<Utf8Buffer>() {
+        @Override
+        protected Utf8Buffer initialValue() {
+            return new Utf8Buffer(1024);
+        }
+    };
+
     private NotificationBuilder() {
     }
 
     public static Notification createNotification(String notificationType, EmailInfoDTO emailInfoFTO, NotificationData data)
             throws EmailEventServiceException {
 
+        return createNotification(notificationType, new CompiledEmailTemplate(emailInfoFTO), data);
+    }
+
+    public static Notification createNotification(String notificationType, CompiledEmailTemplate template,
+                                                  NotificationData data) throws EmailEventServiceException {
+
         String subject = null;
         String body = null;
         String footer = null;
@@ -38,17 +57,14 @@ public class NotificationBuilder {
         Notification notification = null;
 
         if ("EMAIL".equals(notificationType)) {
-            subject = emailInfoFTO.getSubject();
-            body = emailInfoFTO.getBody();
-            footer = emailInfoFTO.getFooter();
-            emailFormat = emailInfoFTO.getEmailContentType();
+            emailFormat = template.getEmailContentType();
 
             //Replace all the tags in the NotificationData.
             Map<String, String> tagsData = data.getTagsData();
             try {
-                subject = replaceTags(tagsData, subject);
-                body = replaceTags(tagsData, body);
-                footer = replaceTags(tagsData, footer);
+                subject = render(template.getSubject(), tagsData);
+                body = render(template.getBody(), tagsData);
+                footer = render(template.getFooter(), tagsData);
             } catch (UnsupportedEncodingException e) {
                 throw new EmailEventServiceException("Unsupported encoding while creating notification", e);
             }
@@ -66,20 +82,15 @@ public class NotificationBuilder {
         return notification;
     }
 
-    private static String replaceTags(Map<String, String> tagsData, String content)
+    private static String render(CompiledTemplate template, Map<String, String> tagsData)
             throws UnsupportedEncodingException {
-        for (Map.Entry<String, String> entry : tagsData.entrySet()) {
-
-            String data = entry.getValue();
-            String key = entry.getKey();
-            if (data != null) {
-                content = content.replaceAll("\\{url:" + key + "\\}",
-                        URLEncoder.encode(tagsData.get(key), "UTF-8"));
-                content = content.replaceAll("\\{" + key + "\\}", tagsData.get(key));
-            } else {
-                content = content.replaceAll("\\{url:" + key + "\\}", "");
-                content = content.replaceAll("\\{" + key + "\\}", "");
-            }
+
+        Utf8Buffer buffer = renderBuffer.get();
+        buffer.setLength(0);
+        template.render(tagsData, buffer);
+        String content = buffer.toString();
+        if (buffer.capacity() > MAX_REUSED_BUFFER_CAPACITY) {
+            renderBuffer.remove();
         }
         return content;
     }
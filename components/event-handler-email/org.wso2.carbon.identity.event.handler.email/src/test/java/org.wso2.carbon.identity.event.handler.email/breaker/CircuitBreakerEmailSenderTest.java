@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.event.handler.email.breaker;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.wso2.carbon.identity.event.handler.email.delivery.DirectEmailDispatcher;
+import org.wso2.carbon.identity.event.handler.email.delivery.EmailMessage;
+import org.wso2.carbon.identity.event.handler.email.delivery.EmailSender;
+import org.wso2.carbon.identity.event.handler.email.exception.EmailEventServiceException;
+import org.wso2.carbon.identity.event.handler.email.retry.DeadLetterStore;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.fail;
+
+/**
+ * Tests short-circuiting emails into the spool of the {@link CircuitBreakerEmailSender}, and draining it.
+ */
+public class CircuitBreakerEmailSenderTest {
+
+    private static final long TIMEOUT = 10000;
+
+    private File directory;
+    private RecordingSender sender;
+    private CircuitBreaker circuitBreaker;
+    private CircuitBreakerEmailSender circuitBreakerSender;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("email-spool").toFile();
+        sender = new RecordingSender();
+        // Opens after two calls, half of which failed, and stays open for the test.
+        circuitBreaker = new CircuitBreaker(2, 2, 50, 0, TIMEOUT, TIMEOUT, 1);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        if (circuitBreakerSender != null) {
+            circuitBreakerSender.shutdown();
+        }
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testOpenCircuitFailsWithoutSpool() throws Exception {
+        circuitBreakerSender = new CircuitBreakerEmailSender(sender, circuitBreaker, null, TIMEOUT);
+        open();
+
+        try {
+            circuitBreakerSender.send(createMessage("3"));
+            fail("Email was accepted while the circuit is open");
+        } catch (EmailEventServiceException e) {
+            // Expected.
+        }
+        assertEquals(sender.getMessageIds(), Arrays.asList("1"));
+        assertEquals(circuitBreakerSender.getSpooledCount(), 0);
+        assertEquals(circuitBreaker.getShortCircuitedCount(), 1);
+    }
+
+    @Test
+    public void testOpenCircuitSpools() throws Exception {
+        DeadLetterStore spool = new DeadLetterStore(directory, 100);
+        circuitBreakerSender = new CircuitBreakerEmailSender(sender, circuitBreaker, spool, TIMEOUT);
+        open();
+
+        circuitBreakerSender.send(createMessage("3"));
+        assertEquals(sender.getMessageIds(), Arrays.asList("1"));
+        assertEquals(circuitBreakerSender.getSpooledCount(), 1);
+        assertNotNull(spool.get("3"), "Short-circuited email was not spooled");
+    }
+
+    @Test
+    public void testRejectedEmailsDoNotOpen() throws Exception {
+        circuitBreakerSender = new CircuitBreakerEmailSender(sender, circuitBreaker, null, TIMEOUT);
+        sender.reply = "550 5.1.1 User unknown";
+        for (int i = 1; i <= 2; i++) {
+            try {
+                circuitBreakerSender.send(createMessage(String.valueOf(i)));
+                fail("Rejected email was sent");
+            } catch (EmailEventServiceException e) {
+                // Expected.
+            }
+        }
+        assertEquals(circuitBreaker.getCurrentState(), CircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    public void testSpoolIsDrainedOnClose() throws Exception {
+        DeadLetterStore spool = new DeadLetterStore(directory, 100);
+        circuitBreakerSender = new CircuitBreakerEmailSender(sender, circuitBreaker, spool, TIMEOUT);
+        circuitBreakerSender.setDispatcher(new DirectEmailDispatcher(circuitBreakerSender));
+        open();
+        circuitBreakerSender.send(createMessage("3"));
+        circuitBreakerSender.send(createMessage("4"));
+        assertEquals(spool.size(), 2);
+
+        circuitBreaker.reset();
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (spool.size() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(spool.size(), 0);
+        assertEquals(sender.getMessageIds(), Arrays.asList("1", "3", "4"));
+    }
+
+    /**
+     * Sends one email and fails a second one, which opens the circuit.
+     */
+    private void open() throws Exception {
+        circuitBreakerSender.send(createMessage("1"));
+        sender.reply = "421 4.3.2 Service not available";
+        try {
+            circuitBreakerSender.send(createMessage("2"));
+            fail("Failed email was sent");
+        } catch (EmailEventServiceException e) {
+            // Expected.
+        }
+        sender.reply = null;
+        assertEquals(circuitBreaker.getCurrentState(), CircuitBreaker.State.OPEN);
+    }
+
+    private static EmailMessage createMessage(String messageId) {
+        return new EmailMessage(messageId, 1, "accountconfirmation", "alice@example.com", "Subject", "Body",
+                "text/plain", System.currentTimeMillis());
+    }
+
+    /**
+     * Records the emails sent, and fails them with the reply while one is set.
+     */
+    private static class RecordingSender implements EmailSender {
+
+        private final List<String> messageIds = new CopyOnWriteArrayList<>();
+        private volatile String reply;
+
+        @Override
+        public void send(EmailMessage message) throws EmailEventServiceException {
+            if (reply != null) {
+                throw new EmailEventServiceException(reply);
+            }
+            messageIds.add(message.getMessageId());
+        }
+
+        private List<String> getMessageIds() {
+            return new ArrayList<>(messageIds);
+        }
+    }
+}
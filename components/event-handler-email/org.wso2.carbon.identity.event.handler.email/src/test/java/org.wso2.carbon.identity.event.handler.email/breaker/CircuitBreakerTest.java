@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.event.handler.email.breaker;
+
+import org.testng.annotations.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests the state transitions of the {@link CircuitBreaker}.
+ */
+public class CircuitBreakerTest {
+
+    private static final long OPEN_MILLIS = 100;
+    private static final long SLOW_CALL_MILLIS = 1000;
+
+    @Test
+    public void testClosedOpenHalfOpenClosed() throws Exception {
+        CircuitBreaker circuitBreaker = createCircuitBreaker();
+        record(circuitBreaker, false);
+        record(circuitBreaker, true);
+        record(circuitBreaker, false);
+        assertEquals(circuitBreaker.getCurrentState(), CircuitBreaker.State.CLOSED);
+        // Half of the last four calls failed.
+        record(circuitBreaker, true);
+        assertEquals(circuitBreaker.getCurrentState(), CircuitBreaker.State.OPEN);
+        assertEquals(circuitBreaker.getOpenedCount(), 1);
+
+        assertEquals(circuitBreaker.acquire(), CircuitBreaker.REJECTED);
+        assertFalse(circuitBreaker.isCallPermitted());
+        assertEquals(circuitBreaker.getShortCircuitedCount(), 1);
+
+        Thread.sleep(OPEN_MILLIS);
+        assertTrue(circuitBreaker.isCallPermitted());
+        long firstProbe = circuitBreaker.acquire();
+        long secondProbe = circuitBreaker.acquire();
+        assertEquals(circuitBreaker.getCurrentState(), CircuitBreaker.State.HALF_OPEN);
+        assertNotEquals(secondProbe, CircuitBreaker.REJECTED);
+        // Only the probes are let through while half open.
+        assertEquals(circuitBreaker.acquire(), CircuitBreaker.REJECTED);
+
+        circuitBreaker.onResult(firstProbe, false, 0);
+        assertEquals(circuitBreaker.getCurrentState(), CircuitBreaker.State.HALF_OPEN);
+        circuitBreaker.onResult(secondProbe, false, 0);
+        assertEquals(circuitBreaker.getCurrentState(), CircuitBreaker.State.CLOSED);
+        assertEquals(circuitBreaker.getHalfOpenedCount(), 1);
+        assertEquals(circuitBreaker.getClosedCount(), 1);
+        assertEquals(circuitBreaker.getBufferedCalls(), 0);
+    }
+
+    @Test
+    public void testFailedProbeOpensAgain() throws Exception {
+        CircuitBreaker circuitBreaker = createCircuitBreaker();
+        open(circuitBreaker);
+        Thread.sleep(OPEN_MILLIS);
+
+        long firstProbe = circuitBreaker.acquire();
+        long secondProbe = circuitBreaker.acquire();
+        circuitBreaker.onResult(firstProbe, false, 0);
+        circuitBreaker.onResult(secondProbe, true, 0);
+        assertEquals(circuitBreaker.getCurrentState(), CircuitBreaker.State.OPEN);
+        assertEquals(circuitBreaker.getOpenedCount(), 2);
+        assertEquals(circuitBreaker.acquire(), CircuitBreaker.REJECTED);
+    }
+
+    @Test
+    public void testSlowCallsOpen() {
+        CircuitBreaker circuitBreaker = createCircuitBreaker();
+        long slow = TimeUnit.MILLISECONDS.toNanos(SLOW_CALL_MILLIS);
+        for (int i = 0; i < 4; i++) {
+            circuitBreaker.onResult(circuitBreaker.acquire(), false, i % 2 == 0 ? slow : 0);
+        }
+        assertEquals(circuitBreaker.getCurrentState(), CircuitBreaker.State.OPEN);
+    }
+
+    @Test
+    public void testOutcomesOfEarlierStateAreIgnored() throws Exception {
+        CircuitBreaker circuitBreaker = createCircuitBreaker();
+        long earlierPermit = circuitBreaker.acquire();
+        open(circuitBreaker);
+        Thread.sleep(OPEN_MILLIS);
+
+        long probe = circuitBreaker.acquire();
+        // A failure of a call permitted while closed says nothing about the probes.
+        circuitBreaker.onResult(earlierPermit, true, 0);
+        circuitBreaker.onResult(earlierPermit, true, 0);
+        assertEquals(circuitBreaker.getCurrentState(), CircuitBreaker.State.HALF_OPEN);
+        assertEquals(circuitBreaker.getBufferedCalls(), 0);
+        circuitBreaker.onResult(probe, false, 0);
+        assertEquals(circuitBreaker.getBufferedCalls(), 1);
+    }
+
+    @Test
+    public void testReset() {
+        CircuitBreaker circuitBreaker = createCircuitBreaker();
+        open(circuitBreaker);
+        circuitBreaker.reset();
+        assertEquals(circuitBreaker.getCurrentState(), CircuitBreaker.State.CLOSED);
+        assertNotEquals(circuitBreaker.acquire(), CircuitBreaker.REJECTED);
+    }
+
+    private static CircuitBreaker createCircuitBreaker() {
+        return new CircuitBreaker(4, 4, 50, 50, SLOW_CALL_MILLIS, OPEN_MILLIS, 2);
+    }
+
+    private static void open(CircuitBreaker circuitBreaker) {
+        for (int i = 0; i < 4; i++) {
+            record(circuitBreaker, true);
+        }
+        assertEquals(circuitBreaker.getCurrentState(), CircuitBreaker.State.OPEN);
+    }
+
+    private static void record(CircuitBreaker circuitBreaker, boolean failed) {
+        long permit = circuitBreaker.acquire();
+        assertNotEquals(permit, CircuitBreaker.REJECTED);
+        circuitBreaker.onResult(permit, failed, 0);
+    }
+}
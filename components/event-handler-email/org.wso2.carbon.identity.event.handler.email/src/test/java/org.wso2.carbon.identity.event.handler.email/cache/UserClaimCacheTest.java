@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.identity.event.handler.email.cache;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.Collections;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+
+/**
+ * Tests the invalidation of the {@link UserClaimCache}.
+ */
+public class UserClaimCacheTest {
+
+    private static final int TENANT_ID = 1;
+    private static final String CLAIM_URI = "http://wso2.org/claims/emailaddress";
+
+    private final UserClaimCache claimCache = UserClaimCache.getInstance();
+
+    @BeforeMethod
+    public void setUp() {
+        claimCache.configure(true, 3, 60);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        claimCache.configure(false, 0, 0);
+    }
+
+    @Test
+    public void testClaimsReadBeforeInvalidationAreNotCached() {
+        UserClaimCacheKey key = new UserClaimCacheKey(TENANT_ID, "alice");
+        long generation = claimCache.getGeneration();
+        // The claims are changed while the old values are being read.
+        claimCache.invalidate(TENANT_ID, "alice");
+        claimCache.put(key, createEntry("old@example.com"), generation);
+        assertNull(claimCache.get(key));
+
+        claimCache.put(key, createEntry("new@example.com"), claimCache.getGeneration());
+        assertEquals(claimCache.get(key).getClaims().get(CLAIM_URI), "new@example.com");
+    }
+
+    @Test
+    public void testInvalidateRemovesDomainQualifiedUser() {
+        claimCache.put(new UserClaimCacheKey(TENANT_ID, "alice"), createEntry("a"), claimCache.getGeneration());
+        claimCache.put(new UserClaimCacheKey(TENANT_ID, "SECONDARY/alice"), createEntry("b"),
+                claimCache.getGeneration());
+        claimCache.put(new UserClaimCacheKey(2, "alice"), createEntry("c"), claimCache.getGeneration());
+
+        claimCache.invalidate(TENANT_ID, "SECONDARY/alice");
+        assertNull(claimCache.get(new UserClaimCacheKey(TENANT_ID, "SECONDARY/alice")));
+        assertNotNull(claimCache.get(new UserClaimCacheKey(TENANT_ID, "alice")));
+
+        claimCache.invalidate(TENANT_ID, "alice");
+        assertNull(claimCache.get(new UserClaimCacheKey(TENANT_ID, "alice")));
+        assertNotNull(claimCache.get(new UserClaimCacheKey(2, "alice")), "Claims of another tenant were removed");
+        assertEquals(claimCache.size(), 1);
+    }
+
+    @Test
+    public void testInvalidateAfterEviction() {
+        for (int i = 0; i < 5; i++) {
+            claimCache.put(new UserClaimCacheKey(TENANT_ID, "user" + i), createEntry("user" + i),
+                    claimCache.getGeneration());
+        }
+        assertEquals(claimCache.size(), 3);
+        claimCache.invalidate(TENANT_ID, "user0");
+        claimCache.invalidate(TENANT_ID, "user4");
+        assertEquals(claimCache.size(), 2);
+
+        claimCache.put(new UserClaimCacheKey(TENANT_ID, "user0"), createEntry("user0"), claimCache.getGeneration());
+        assertNotNull(claimCache.get(new UserClaimCacheKey(TENANT_ID, "user0")));
+    }
+
+    private static UserClaimCacheEntry createEntry(String email) {
+        return new UserClaimCacheEntry(Collections.singletonMap(CLAIM_URI, email),
+                Collections.singletonList(CLAIM_URI));
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.event.handler.email.dedup;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests the window and the fixed size tables of the {@link EmailDeduplicator}.
+ */
+public class EmailDeduplicatorTest {
+
+    private final EmailDeduplicator deduplicator = EmailDeduplicator.getInstance();
+
+    @AfterMethod
+    public void tearDown() {
+        deduplicator.configure(false, 0, 0, 0);
+    }
+
+    @Test
+    public void testRepeatInWindowIsDropped() {
+        deduplicator.configure(true, 60, 4, 1000);
+        long duplicates = deduplicator.getDuplicateCount();
+        long fingerprint = EmailDeduplicator.fingerprint(1, "alice", "accountlock", "event-1", null);
+
+        assertTrue(deduplicator.tryAcquire(fingerprint));
+        assertFalse(deduplicator.tryAcquire(fingerprint));
+        assertEquals(deduplicator.getDuplicateCount(), duplicates + 1);
+        assertTrue(deduplicator.tryAcquire(EmailDeduplicator.fingerprint(1, "alice", "accountlock", "event-2",
+                null)));
+    }
+
+    @Test
+    public void testRepeatAfterWindowIsSent() throws Exception {
+        // Buckets of half a second.
+        deduplicator.configure(true, 1, 2, 1000);
+        long fingerprint = EmailDeduplicator.fingerprint(1, "alice", "accountlock", "event-1", null);
+
+        assertTrue(deduplicator.tryAcquire(fingerprint));
+        Thread.sleep(1100);
+        assertTrue(deduplicator.tryAcquire(fingerprint));
+        assertFalse(deduplicator.tryAcquire(fingerprint));
+    }
+
+    @Test
+    public void testReleasedEventIsSentAgain() {
+        deduplicator.configure(true, 60, 4, 1000);
+        long fingerprint = EmailDeduplicator.fingerprint(1, "alice", "accountlock", "event-1", null);
+
+        assertTrue(deduplicator.tryAcquire(fingerprint));
+        deduplicator.release(fingerprint);
+        assertTrue(deduplicator.tryAcquire(fingerprint));
+        assertFalse(deduplicator.tryAcquire(fingerprint));
+    }
+
+    @Test
+    public void testFullTableSendsUntracked() {
+        // One bucket of 16 keys per segment, which is a table of 32 slots taking up to 24 keys.
+        deduplicator.configure(true, 60, 1, 16 * 16);
+        long untracked = deduplicator.getUntrackedCount();
+        // Fingerprints with the top bits clear fall in the same segment, in the slot of their bottom bits.
+        for (long fingerprint = 2; fingerprint < 26; fingerprint++) {
+            assertTrue(deduplicator.tryAcquire(fingerprint));
+        }
+        assertEquals(deduplicator.getUntrackedCount(), untracked);
+
+        assertTrue(deduplicator.tryAcquire(26));
+        assertTrue(deduplicator.tryAcquire(26), "Event sent without being tracked was dropped");
+        assertEquals(deduplicator.getUntrackedCount(), untracked + 2);
+        assertFalse(deduplicator.tryAcquire(2), "Tracked event was sent again");
+
+        // The slot of a released fingerprint is taken by the next fingerprint probing it.
+        deduplicator.release(2);
+        assertTrue(deduplicator.tryAcquire(2 + 32));
+        assertFalse(deduplicator.tryAcquire(2 + 32));
+        assertEquals(deduplicator.getUntrackedCount(), untracked + 2);
+    }
+
+    @Test
+    public void testFingerprint() {
+        Map<String, String> properties = new HashMap<>();
+        properties.put("user-name", "alice");
+        properties.put("confirmation-code", "1234");
+        Map<String, String> reordered = new LinkedHashMap<>();
+        reordered.put("confirmation-code", "1234");
+        reordered.put("user-name", "alice");
+
+        assertEquals(EmailDeduplicator.fingerprint(1, "alice", "accountlock", null, properties),
+                EmailDeduplicator.fingerprint(1, "alice", "accountlock", null, reordered));
+        assertNotEquals(EmailDeduplicator.fingerprint(1, "alice", "accountlock", null, properties),
+                EmailDeduplicator.fingerprint(2, "alice", "accountlock", null, properties));
+        assertNotEquals(EmailDeduplicator.fingerprint(1, "ab", "c", null, null),
+                EmailDeduplicator.fingerprint(1, "a", "bc", null, null));
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.event.handler.email.delivery;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.wso2.carbon.identity.event.handler.email.exception.EmailEventServiceException;
+import org.wso2.carbon.identity.event.handler.email.exception.EmailRejectedException;
+import org.wso2.carbon.identity.event.handler.email.outbox.EmailOutbox;
+import org.wso2.carbon.identity.event.handler.email.outbox.OutboxEmailDispatcher;
+import org.wso2.carbon.identity.event.handler.email.retry.DeadLetterStore;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+/**
+ * Tests the backpressure policies and shut down of the {@link AsyncEmailDispatcher}. A single worker is held up by
+ * the first email, so that a queue of one email is full once a second email is queued.
+ */
+public class AsyncEmailDispatcherTest {
+
+    private static final long TIMEOUT = 10000;
+
+    private File directory;
+    private BlockingSender sender;
+    private AsyncEmailDispatcher dispatcher;
+    private EmailOutbox outbox;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("email-queue").toFile();
+        sender = new BlockingSender();
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        sender.release.countDown();
+        if (dispatcher != null) {
+            dispatcher.shutdown();
+        }
+        if (outbox != null) {
+            outbox.close();
+        }
+        delete(directory);
+    }
+
+    @Test
+    public void testBlockTimesOut() throws Exception {
+        dispatcher = createDispatcher(BackpressurePolicy.BLOCK, null, null);
+        fillQueue(dispatcher);
+
+        long start = System.currentTimeMillis();
+        try {
+            dispatcher.dispatch(createMessage("3"));
+            fail("Email was queued in a full queue");
+        } catch (EmailRejectedException e) {
+            // Expected.
+        }
+        assertTrue(System.currentTimeMillis() - start >= 50, "Did not wait for room in the queue");
+        assertEquals(dispatcher.getQueueDepth(), 1);
+    }
+
+    @Test
+    public void testInterruptedBlockIsRejected() throws Exception {
+        dispatcher = new AsyncEmailDispatcher(sender, 1, 1, BackpressurePolicy.BLOCK, TIMEOUT, TIMEOUT);
+        fillQueue(dispatcher);
+
+        Thread.currentThread().interrupt();
+        try {
+            dispatcher.dispatch(createMessage("3"));
+            fail("Email was queued in a full queue");
+        } catch (EmailRejectedException e) {
+            assertTrue(Thread.interrupted(), "Interrupt status was not kept");
+        }
+    }
+
+    @Test
+    public void testDropOldestKeepsDroppedEmailAsDeadLetter() throws Exception {
+        DeadLetterStore deadLetterStore = new DeadLetterStore(new File(directory, "dead-letters"), 100);
+        outbox = new EmailOutbox(new File(directory, "outbox"), 64 * 1024, 2, false);
+        dispatcher = createDispatcher(BackpressurePolicy.DROP_OLDEST, deadLetterStore, outbox);
+        OutboxEmailDispatcher outboxDispatcher = new OutboxEmailDispatcher(dispatcher, outbox);
+        fillQueue(outboxDispatcher);
+
+        outboxDispatcher.dispatch(createMessage("3"));
+        assertEquals(dispatcher.getDroppedCount(), 1);
+        assertNotNull(deadLetterStore.get("2"), "Dropped email was not kept");
+        // The dropped email is not sent again on recovery, while the sending and queued emails are.
+        assertEquals(outbox.getPendingCount(), 2);
+
+        sender.release.countDown();
+        dispatcher.shutdown();
+        assertEquals(sender.getMessageIds(), Arrays.asList("1", "3"));
+    }
+
+    @Test
+    public void testCallerRunsSendsOnCallingThread() throws Exception {
+        dispatcher = createDispatcher(BackpressurePolicy.CALLER_RUNS, null, null);
+        fillQueue(dispatcher);
+
+        // The email is sent before dispatch returns, although the worker is still held up.
+        dispatcher.dispatch(createMessage("3"));
+        assertEquals(dispatcher.getCallerRunsCount(), 1);
+        assertEquals(sender.getMessageIds(), Arrays.asList("1", "3"));
+        assertEquals(sender.threads.get(1), Thread.currentThread().getName());
+    }
+
+    @Test
+    public void testShutdownDrainsQueue() throws Exception {
+        dispatcher = new AsyncEmailDispatcher(sender, 10, 1, BackpressurePolicy.BLOCK, 50, TIMEOUT);
+        for (int i = 1; i <= 5; i++) {
+            dispatcher.dispatch(createMessage(String.valueOf(i)));
+        }
+        assertTrue(sender.started.await(TIMEOUT, TimeUnit.MILLISECONDS));
+        sender.release.countDown();
+        dispatcher.shutdown();
+
+        assertEquals(dispatcher.getCompletedCount(), 5);
+        assertEquals(dispatcher.getQueueDepth(), 0);
+        try {
+            dispatcher.dispatch(createMessage("6"));
+            fail("Email was accepted after shut down");
+        } catch (EmailRejectedException e) {
+            // Expected.
+        }
+    }
+
+    private AsyncEmailDispatcher createDispatcher(BackpressurePolicy policy, DeadLetterStore deadLetterStore,
+                                                  EmailOutbox outbox) {
+        return new AsyncEmailDispatcher(sender, deadLetterStore, outbox, 1, 1, policy, 50, TIMEOUT);
+    }
+
+    /**
+     * Hands one email to the worker, which holds on to it, and queues a second one.
+     */
+    private void fillQueue(EmailDispatcher emailDispatcher) throws Exception {
+        emailDispatcher.dispatch(createMessage("1"));
+        assertTrue(sender.started.await(TIMEOUT, TimeUnit.MILLISECONDS));
+        emailDispatcher.dispatch(createMessage("2"));
+        assertEquals(dispatcher.getQueueDepth(), 1);
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static EmailMessage createMessage(String messageId) {
+        return new EmailMessage(messageId, 1, "accountconfirmation", "alice@example.com", "Subject", "Body",
+                "text/plain", System.currentTimeMillis());
+    }
+
+    private static class BlockingSender implements EmailSender {
+
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+        private final List<EmailMessage> messages = new CopyOnWriteArrayList<>();
+        private final List<String> threads = new CopyOnWriteArrayList<>();
+        private volatile boolean blockFirst = true;
+
+        @Override
+        public void send(EmailMessage message) throws EmailEventServiceException {
+            messages.add(message);
+            threads.add(Thread.currentThread().getName());
+            if (blockFirst) {
+                blockFirst = false;
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        private List<String> getMessageIds() {
+            List<String> messageIds = new ArrayList<>();
+            for (EmailMessage message : messages) {
+                messageIds.add(message.getMessageId());
+            }
+            return messageIds;
+        }
+    }
+}
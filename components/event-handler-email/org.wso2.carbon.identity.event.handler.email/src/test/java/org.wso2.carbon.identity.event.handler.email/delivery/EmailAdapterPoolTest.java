@@ -0,0 +1,241 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.event.handler.email.delivery;
+
+import org.apache.axis2.context.ConfigurationContext;
+import org.apache.axis2.description.Parameter;
+import org.apache.axis2.description.TransportOutDescription;
+import org.apache.axis2.engine.AxisConfiguration;
+import org.apache.axis2.transport.mail.MailTransportSender;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.wso2.carbon.core.CarbonConfigurationContextFactory;
+import org.wso2.carbon.event.output.adapter.core.OutputEventAdapter;
+import org.wso2.carbon.event.output.adapter.core.exception.TestConnectionNotSupportedException;
+import org.wso2.carbon.identity.event.handler.email.constants.EmailEventConstants;
+import org.wso2.carbon.identity.event.handler.email.exception.EmailEventServiceException;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+/**
+ * Tests how the {@link EmailAdapterPool} borrows, returns, validates and replaces adapters, with adapters that
+ * record the calls made on them.
+ */
+public class EmailAdapterPoolTest {
+
+    private static final long TIMEOUT = 10000;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        TransportOutDescription mailTransport = new TransportOutDescription(EmailEventConstants.MAIL_TRANSPORT);
+        mailTransport.setSender(new MailTransportSender());
+        mailTransport.addParameter(new Parameter(EmailEventConstants.SmtpProperty.HOST, "localhost"));
+        mailTransport.addParameter(new Parameter(EmailEventConstants.SmtpProperty.FROM, "wso2is@localhost"));
+        AxisConfiguration axisConfiguration = new AxisConfiguration();
+        axisConfiguration.addTransportOut(mailTransport);
+        CarbonConfigurationContextFactory.createNewConfigurationContext(new ConfigurationContext(axisConfiguration));
+        MailTransportConfigProvider.getInstance().refresh();
+    }
+
+    @Test
+    public void testReturnedAdapterIsReused() throws Exception {
+        RecordingPool pool = new RecordingPool(2, TIMEOUT, TIMEOUT);
+        pool.publish("first", Collections.<String, String>emptyMap());
+        pool.publish("second", Collections.<String, String>emptyMap());
+
+        assertEquals(pool.adapters.size(), 1);
+        FakeAdapter adapter = pool.adapters.get(0);
+        assertEquals(adapter.published, Arrays.<Object>asList("first", "second"));
+        assertTrue(adapter.connected);
+        assertEquals(pool.getIdleCount(), 1);
+        assertEquals(pool.getActiveCount(), 0);
+    }
+
+    @Test
+    public void testIdleAdapterFailingValidationIsReplaced() throws Exception {
+        // Every adapter is validated before it is reused.
+        RecordingPool pool = new RecordingPool(1, TIMEOUT, 0);
+        pool.publish("first", Collections.<String, String>emptyMap());
+        pool.adapters.get(0).testConnectFailure = new RuntimeException("Connection refused");
+        pool.publish("second", Collections.<String, String>emptyMap());
+
+        assertEquals(pool.adapters.size(), 2);
+        assertTrue(pool.adapters.get(0).destroyed, "Adapter failing validation was not destroyed");
+        assertEquals(pool.adapters.get(1).published, Collections.<Object>singletonList("second"));
+    }
+
+    @Test
+    public void testAdapterWithoutConnectionTestIsReused() throws Exception {
+        RecordingPool pool = new RecordingPool(1, TIMEOUT, 0);
+        pool.publish("first", Collections.<String, String>emptyMap());
+        pool.adapters.get(0).testConnectFailure = new TestConnectionNotSupportedException("Not supported");
+        pool.publish("second", Collections.<String, String>emptyMap());
+
+        assertEquals(pool.adapters.size(), 1);
+    }
+
+    @Test
+    public void testAdapterFailingToPublishIsDestroyed() throws Exception {
+        RecordingPool pool = new RecordingPool(1, TIMEOUT, TIMEOUT);
+        pool.publish("first", Collections.<String, String>emptyMap());
+        pool.adapters.get(0).publishFailure = new RuntimeException("Job queue is full");
+        try {
+            pool.publish("second", Collections.<String, String>emptyMap());
+            fail("Failed publish was not reported");
+        } catch (EmailEventServiceException e) {
+            // Expected.
+        }
+        assertTrue(pool.adapters.get(0).destroyed);
+        assertEquals(pool.getIdleCount(), 0);
+        assertEquals(pool.getActiveCount(), 0);
+    }
+
+    @Test
+    public void testBorrowTimesOutWhenPoolIsExhausted() throws Exception {
+        final RecordingPool pool = new RecordingPool(1, 50, TIMEOUT);
+        final CountDownLatch release = new CountDownLatch(1);
+        pool.publishLatch = release;
+        Thread holder = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    pool.publish("held", Collections.<String, String>emptyMap());
+                } catch (EmailEventServiceException e) {
+                    // Reported by the assertions below.
+                }
+            }
+        });
+        holder.start();
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (pool.getActiveCount() < 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(pool.getActiveCount(), 1);
+
+        try {
+            pool.publish("waiting", Collections.<String, String>emptyMap());
+            fail("Adapter was borrowed from an exhausted pool");
+        } catch (EmailEventServiceException e) {
+            // Expected.
+        } finally {
+            release.countDown();
+            holder.join(TIMEOUT);
+        }
+        assertEquals(pool.adapters.size(), 1);
+        assertEquals(pool.adapters.get(0).published, Collections.<Object>singletonList("held"));
+    }
+
+    @Test
+    public void testCloseDestroysIdleAdapters() throws Exception {
+        RecordingPool pool = new RecordingPool(2, TIMEOUT, TIMEOUT);
+        pool.publish("first", Collections.<String, String>emptyMap());
+        pool.close();
+
+        assertTrue(pool.adapters.get(0).destroyed);
+        assertFalse(pool.adapters.get(0).connected);
+        try {
+            pool.publish("second", Collections.<String, String>emptyMap());
+            fail("Closed pool published an email");
+        } catch (EmailEventServiceException e) {
+            // Expected.
+        }
+    }
+
+    private static class RecordingPool extends EmailAdapterPool {
+
+        private final List<FakeAdapter> adapters = new CopyOnWriteArrayList<>();
+        private volatile CountDownLatch publishLatch;
+
+        private RecordingPool(int maxActive, long borrowTimeoutMillis, long validationIntervalMillis) {
+            super(maxActive, borrowTimeoutMillis, validationIntervalMillis);
+        }
+
+        @Override
+        OutputEventAdapter createAdapter(MailTransportConfig transportConfig) {
+            FakeAdapter adapter = new FakeAdapter(publishLatch);
+            adapters.add(adapter);
+            return (OutputEventAdapter) Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class<?>[]{OutputEventAdapter.class}, adapter);
+        }
+    }
+
+    private static class FakeAdapter implements InvocationHandler {
+
+        private final List<Object> published = new CopyOnWriteArrayList<>();
+        private final CountDownLatch publishLatch;
+        private volatile RuntimeException testConnectFailure;
+        private volatile RuntimeException publishFailure;
+        private volatile boolean connected;
+        private volatile boolean destroyed;
+
+        private FakeAdapter(CountDownLatch publishLatch) {
+            this.publishLatch = publishLatch;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "connect":
+                    connected = true;
+                    return null;
+                case "disconnect":
+                    connected = false;
+                    return null;
+                case "destroy":
+                    destroyed = true;
+                    return null;
+                case "testConnect":
+                    if (testConnectFailure != null) {
+                        throw testConnectFailure;
+                    }
+                    return null;
+                case "publish":
+                    if (publishFailure != null) {
+                        throw publishFailure;
+                    }
+                    if (publishLatch != null) {
+                        publishLatch.await(TIMEOUT, TimeUnit.MILLISECONDS);
+                    }
+                    published.add(args[0]);
+                    return null;
+                case "isPolled":
+                    return false;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                default:
+                    return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.identity.event.handler.email.delivery;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Minimal SMTP server on the loopback interface that accepts messages and optionally records their recipients.
+ * Only the commands JavaMail sends for plain, unauthenticated delivery are understood. While a rejection reply is
+ * set, every message is answered with it instead of being accepted. An optional delay per message stands in for
+ * the latency of a real mail server. Shared with the benchmarks through the test jar.
+ */
+public class LocalSmtpServer implements Closeable {
+
+    private static final Log log = LogFactory.getLog(LocalSmtpServer.class);
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    private static final String RECIPIENT_COMMAND = "RCPT TO:";
+
+    private final ServerSocket serverSocket;
+    private final long messageDelayMillis;
+    private final boolean recordRecipients;
+    private final List<String> recipients = new ArrayList<>();
+    private final Object messageLock = new Object();
+    private final AtomicInteger rejectedCount = new AtomicInteger();
+    private final AtomicInteger sessionIndex = new AtomicInteger();
+    private final AtomicLong sessionCount = new AtomicLong();
+    private long messageCount;
+    private volatile String rejectionReply;
+    private volatile boolean running = true;
+
+    /**
+     * Creates a server that accepts messages without delay and records their recipients.
+     */
+    public LocalSmtpServer() throws IOException {
+        this(0, true);
+    }
+
+    /**
+     * @param messageDelayMillis - Time taken to accept each message.
+     * @param recordRecipients   - Whether the recipients are kept for {@link #getRecipients()}. Long runs only count
+     *                           the messages.
+     */
+    public LocalSmtpServer(long messageDelayMillis, boolean recordRecipients) throws IOException {
+        this.messageDelayMillis = messageDelayMillis;
+        this.recordRecipients = recordRecipients;
+        serverSocket = new ServerSocket(0, 256, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acceptConnections();
+            }
+        }, "LocalSmtpServer-Acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public String getHost() {
+        return serverSocket.getInetAddress().getHostAddress();
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * @param rejectionReply - Reply to end every message with, such as "451 Try again later", or null to accept.
+     */
+    public void setRejectionReply(String rejectionReply) {
+        this.rejectionReply = rejectionReply;
+    }
+
+    /**
+     * @return Recipients of the accepted messages, in the order they arrived.
+     */
+    public List<String> getRecipients() {
+        synchronized (recipients) {
+            return new ArrayList<>(recipients);
+        }
+    }
+
+    /**
+     * @return Number of messages answered with the rejection reply.
+     */
+    public int getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * @return Number of messages accepted.
+     */
+    public long getMessageCount() {
+        synchronized (messageLock) {
+            return messageCount;
+        }
+    }
+
+    /**
+     * @return Number of SMTP sessions opened with the server.
+     */
+    public long getSessionCount() {
+        return sessionCount.get();
+    }
+
+    /**
+     * Waits until the given number of messages have been accepted in total.
+     *
+     * @return True if the messages arrived before the timeout.
+     */
+    public boolean awaitMessages(long count, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (messageLock) {
+            while (messageCount < count) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                messageLock.wait(remaining);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        serverSocket.close();
+    }
+
+    private void acceptConnections() {
+        while (running) {
+            final Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                if (running) {
+                    log.error("Local SMTP server stopped accepting connections", e);
+                }
+                return;
+            }
+            Thread session = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    serve(socket);
+                }
+            }, "LocalSmtpServer-Session-" + sessionIndex.incrementAndGet());
+            session.setDaemon(true);
+            session.start();
+        }
+    }
+
+    private void serve(Socket socket) {
+        sessionCount.incrementAndGet();
+        try (Socket client = socket) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(client.getInputStream(), ASCII));
+            OutputStream out = client.getOutputStream();
+            reply(out, "220 localhost SMTP");
+            List<String> messageRecipients = new ArrayList<>();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String command = line.length() >= 4 ? line.substring(0, 4).toUpperCase(Locale.ENGLISH) : line;
+                if ("EHLO".equals(command) || "HELO".equals(command)) {
+                    reply(out, "250 localhost");
+                } else if ("MAIL".equals(command)) {
+                    messageRecipients.clear();
+                    reply(out, "250 OK");
+                } else if ("RCPT".equals(command)) {
+                    if (recordRecipients) {
+                        messageRecipients.add(parseAddress(line));
+                    }
+                    reply(out, "250 OK");
+                } else if ("DATA".equals(command)) {
+                    reply(out, "354 End data with <CR><LF>.<CR><LF>");
+                    while ((line = reader.readLine()) != null && !".".equals(line)) {
+                        // The content is not checked.
+                    }
+                    if (messageDelayMillis > 0) {
+                        Thread.sleep(messageDelayMillis);
+                    }
+                    String rejection = rejectionReply;
+                    if (rejection != null) {
+                        rejectedCount.incrementAndGet();
+                        reply(out, rejection);
+                    } else {
+                        accept(messageRecipients);
+                        reply(out, "250 OK");
+                    }
+                } else if ("QUIT".equals(command)) {
+                    reply(out, "221 Bye");
+                    return;
+                } else {
+                    reply(out, "250 OK");
+                }
+            }
+        } catch (IOException e) {
+            if (running && log.isDebugEnabled()) {
+                log.debug("Local SMTP server session ended", e);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void accept(List<String> messageRecipients) {
+        if (!messageRecipients.isEmpty()) {
+            synchronized (recipients) {
+                recipients.addAll(messageRecipients);
+            }
+        }
+        synchronized (messageLock) {
+            messageCount++;
+            messageLock.notifyAll();
+        }
+    }
+
+    private static String parseAddress(String line) {
+        String address = line.length() > RECIPIENT_COMMAND.length() ?
+                line.substring(RECIPIENT_COMMAND.length()).trim() : "";
+        if (address.startsWith("<") && address.endsWith(">")) {
+            address = address.substring(1, address.length() - 1);
+        }
+        return address;
+    }
+
+    private static void reply(OutputStream out, String response) throws IOException {
+        out.write((response + "\r\n").getBytes(ASCII));
+        out.flush();
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.event.handler.email.handler;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.wso2.carbon.identity.core.util.IdentityTenantUtil;
+import org.wso2.carbon.identity.event.EventMgtConstants;
+import org.wso2.carbon.identity.event.EventMgtException;
+import org.wso2.carbon.identity.event.event.Event;
+import org.wso2.carbon.identity.event.handler.email.cache.EmailTemplateCache;
+import org.wso2.carbon.identity.event.handler.email.cache.EmailTemplateCacheEntry;
+import org.wso2.carbon.identity.event.handler.email.cache.EmailTemplateCacheKey;
+import org.wso2.carbon.identity.event.handler.email.cache.UserClaimCache;
+import org.wso2.carbon.identity.event.handler.email.cache.UserClaimCacheEntry;
+import org.wso2.carbon.identity.event.handler.email.cache.UserClaimCacheKey;
+import org.wso2.carbon.identity.event.handler.email.constants.EmailEventConstants;
+import org.wso2.carbon.identity.event.handler.email.dedup.EmailDeduplicator;
+import org.wso2.carbon.identity.event.handler.email.delivery.EmailDispatcher;
+import org.wso2.carbon.identity.event.handler.email.delivery.EmailMessage;
+import org.wso2.carbon.identity.event.handler.email.exception.EmailEventServiceException;
+import org.wso2.carbon.identity.event.handler.email.internal.EmailEventServiceComponent;
+import org.wso2.carbon.identity.event.handler.email.tenant.TenantResolver;
+import org.wso2.carbon.identity.event.handler.email.util.EmailInfoDTO;
+import org.wso2.carbon.user.core.service.RealmService;
+import org.wso2.carbon.user.core.tenant.TenantManager;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+/**
+ * Tests that {@link EmailEventHandler} drops repeated events, but not the repeat of an event it failed to send. The
+ * template and the claims of the user are served from the caches and the emails go to a dispatcher of the test.
+ */
+public class EmailEventHandlerTest {
+
+    private static final String TENANT_DOMAIN = "wso2.com";
+    private static final int TENANT_ID = 5;
+    private static final String TEMPLATE_TYPE = "accountlock";
+    private static final String USER_NAME = "alice";
+
+    private RecordingDispatcher dispatcher;
+
+    @BeforeMethod
+    public void setUp() {
+        final TenantManager tenantManager = (TenantManager) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{TenantManager.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if ("getTenantId".equals(method.getName())) {
+                            return TENANT_DOMAIN.equals(args[0]) ? TENANT_ID : -1;
+                        }
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+        IdentityTenantUtil.setRealmService((RealmService) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{RealmService.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if ("getTenantManager".equals(method.getName())) {
+                            return tenantManager;
+                        }
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                }));
+
+        EmailInfoDTO emailInfo = new EmailInfoDTO();
+        emailInfo.setSubject("Account locked");
+        emailInfo.setBody("Your account is locked.");
+        emailInfo.setFooter("");
+        emailInfo.setEmailContentType("text/plain");
+        emailInfo.setLocale(EmailEventConstants.LOCALE_DEFAULT);
+        EmailTemplateCache templateCache = EmailTemplateCache.getInstance();
+        templateCache.configure(true, 10, 60);
+        templateCache.put(new EmailTemplateCacheKey(TENANT_ID, TEMPLATE_TYPE, EmailEventConstants.LOCALE_DEFAULT),
+                new EmailTemplateCacheEntry(emailInfo), templateCache.getGeneration());
+
+        UserClaimCache claimCache = UserClaimCache.getInstance();
+        claimCache.configure(true, 10, 60);
+        claimCache.put(new UserClaimCacheKey(TENANT_ID, USER_NAME), new UserClaimCacheEntry(
+                Collections.singletonMap(EmailEventConstants.CLAIM_URI_EMAIL, "alice@example.com"),
+                Arrays.asList(EmailEventConstants.CLAIM_URI_EMAIL, EmailEventConstants.CLAIM_URI_LOCALE)),
+                claimCache.getGeneration());
+
+        EmailDeduplicator.getInstance().configure(true, 60, 4, 1000);
+        dispatcher = new RecordingDispatcher();
+        EmailEventServiceComponent.setEmailDispatcher(dispatcher);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        EmailEventServiceComponent.setEmailDispatcher(null);
+        EmailDeduplicator.getInstance().configure(false, 0, 0, 0);
+        UserClaimCache.getInstance().configure(false, 0, 0);
+        EmailTemplateCache.getInstance().configure(false, 0, 0);
+        IdentityTenantUtil.setRealmService(null);
+        TenantResolver.getInstance().clear();
+    }
+
+    @Test
+    public void testRepeatedEventIsDropped() throws Exception {
+        EmailEventHandler handler = new EmailEventHandler();
+        assertTrue(handler.handleEvent(createEvent()));
+        assertTrue(handler.handleEvent(createEvent()));
+        assertEquals(dispatcher.sendTo.size(), 1);
+        assertEquals(dispatcher.sendTo.get(0), "alice@example.com");
+    }
+
+    @Test
+    public void testFailedEventIsNotDropped() throws Exception {
+        EmailEventHandler handler = new EmailEventHandler();
+        dispatcher.fail = true;
+        for (int i = 0; i < 2; i++) {
+            try {
+                handler.handleEvent(createEvent());
+                fail("Failed email was reported as sent");
+            } catch (EventMgtException e) {
+                // Expected.
+            }
+        }
+        // Both events reached the dispatcher, so the first did not keep its fingerprint.
+        assertEquals(dispatcher.attempts, 2);
+
+        dispatcher.fail = false;
+        assertTrue(handler.handleEvent(createEvent()));
+        assertTrue(handler.handleEvent(createEvent()));
+        assertEquals(dispatcher.attempts, 3);
+        assertEquals(dispatcher.sendTo.size(), 1);
+    }
+
+    private static Event createEvent() {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put(EventMgtConstants.EventProperty.USER_NAME, USER_NAME);
+        properties.put(EventMgtConstants.EventProperty.TENANT_DOMAIN, TENANT_DOMAIN);
+        properties.put(EmailEventConstants.EventProperty.TEMPLATE_TYPE, TEMPLATE_TYPE);
+        properties.put(EmailEventConstants.EventProperty.EVENT_ID, "event-1");
+        return new Event("TRIGGER_NOTIFICATION", properties);
+    }
+
+    private static class RecordingDispatcher implements EmailDispatcher {
+
+        private final List<String> sendTo = new ArrayList<>();
+        private int attempts;
+        private boolean fail;
+
+        @Override
+        public void dispatch(EmailMessage message) throws EmailEventServiceException {
+            attempts++;
+            if (fail) {
+                throw new EmailEventServiceException("421 4.3.2 Service not available");
+            }
+            sendTo.add(message.getSendTo());
+        }
+
+        @Override
+        public void shutdown() {
+        }
+    }
+}
@@ -0,0 +1,315 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.identity.event.handler.email.outbox;
+
+import org.apache.axis2.context.ConfigurationContext;
+import org.apache.axis2.description.Parameter;
+import org.apache.axis2.description.TransportOutDescription;
+import org.apache.axis2.engine.AxisConfiguration;
+import org.apache.axis2.transport.mail.MailTransportSender;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.wso2.carbon.core.CarbonConfigurationContextFactory;
+import org.wso2.carbon.identity.event.handler.email.constants.EmailEventConstants;
+import org.wso2.carbon.identity.event.handler.email.delivery.DirectEmailDispatcher;
+import org.wso2.carbon.identity.event.handler.email.delivery.EmailDispatcher;
+import org.wso2.carbon.identity.event.handler.email.delivery.EmailMessage;
+import org.wso2.carbon.identity.event.handler.email.delivery.LocalSmtpServer;
+import org.wso2.carbon.identity.event.handler.email.delivery.MailTransportConfigProvider;
+import org.wso2.carbon.identity.event.handler.email.delivery.SmtpBatchEmailSender;
+import org.wso2.carbon.identity.event.handler.email.exception.EmailEventServiceException;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+/**
+ * Tests the {@link EmailOutbox} and its dispatcher and sender against a local SMTP server. A crash is simulated
+ * by opening the outbox directory again without closing the outbox that wrote it.
+ */
+public class EmailOutboxTest {
+
+    private static final int SEGMENT_SIZE = 64 * 1024;
+    private static final int SMALL_SEGMENT_SIZE = 1024;
+    private static final int MAX_SEGMENTS = 2;
+    private static final long TIMEOUT_MILLIS = 10000;
+    private static final long REPLAY_INTERVAL_MILLIS = 50;
+
+    private final List<EmailOutbox> outboxes = new ArrayList<>();
+    private File directory;
+    private LocalSmtpServer smtpServer;
+    private int messageIndex;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("email-outbox").toFile();
+        smtpServer = new LocalSmtpServer();
+
+        TransportOutDescription mailTransport = new TransportOutDescription(EmailEventConstants.MAIL_TRANSPORT);
+        mailTransport.setSender(new MailTransportSender());
+        mailTransport.addParameter(new Parameter(EmailEventConstants.SmtpProperty.HOST, smtpServer.getHost()));
+        mailTransport.addParameter(new Parameter(EmailEventConstants.SmtpProperty.PORT,
+                String.valueOf(smtpServer.getPort())));
+        mailTransport.addParameter(new Parameter(EmailEventConstants.SmtpProperty.FROM, "wso2is@localhost"));
+        AxisConfiguration axisConfiguration = new AxisConfiguration();
+        axisConfiguration.addTransportOut(mailTransport);
+        CarbonConfigurationContextFactory.createNewConfigurationContext(new ConfigurationContext(axisConfiguration));
+        MailTransportConfigProvider.getInstance().refresh();
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        for (EmailOutbox outbox : outboxes) {
+            outbox.close();
+        }
+        outboxes.clear();
+        smtpServer.close();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testAppendedEmailsArePendingUntilDone() throws Exception {
+        EmailOutbox outbox = openOutbox(SEGMENT_SIZE);
+        EmailMessage first = createMessage(16);
+        EmailMessage second = createMessage(16);
+        outbox.append(first);
+        outbox.append(second);
+        assertEquals(outbox.getPendingCount(), 2);
+
+        outbox.markDone(first.getMessageId());
+        outbox.markDone("unknown-message-id");
+        assertEquals(outbox.getPendingCount(), 1);
+
+        outbox.close();
+        assertRecovered(openOutbox(SEGMENT_SIZE), second);
+    }
+
+    @Test
+    public void testPendingEmailsAreRecoveredAfterCrash() throws Exception {
+        EmailOutbox crashed = openOutbox(SEGMENT_SIZE);
+        EmailMessage first = createMessage(16);
+        EmailMessage second = createMessage(16);
+        EmailMessage third = createMessage(16);
+        crashed.append(first);
+        crashed.append(second);
+        crashed.append(third);
+        crashed.markDone(second.getMessageId());
+
+        EmailOutbox recovered = openOutbox(SEGMENT_SIZE);
+        assertEquals(recovered.getPendingCount(), 2);
+        assertRecovered(recovered, first, third);
+        assertTrue(recovered.drainRecoveredMessages().isEmpty(), "Recovered emails are returned only once");
+    }
+
+    @Test
+    public void testRecoveredEmailsAreResent() throws Exception {
+        EmailOutbox crashed = openOutbox(SEGMENT_SIZE);
+        EmailMessage first = createMessage(16);
+        EmailMessage second = createMessage(16);
+        crashed.append(first);
+        crashed.append(second);
+
+        EmailOutbox outbox = openOutbox(SEGMENT_SIZE);
+        OutboxEmailDispatcher dispatcher = createDispatcher(outbox);
+        dispatcher.replayRecoveredMessages();
+
+        assertTrue(smtpServer.awaitMessages(2, TIMEOUT_MILLIS), "Recovered emails were not resent");
+        assertEquals(smtpServer.getRecipients(), Arrays.asList(first.getSendTo(), second.getSendTo()));
+        awaitNoPendingEmails(outbox);
+
+        outbox.close();
+        assertRecovered(openOutbox(SEGMENT_SIZE));
+    }
+
+    @Test
+    public void testSentEmailIsNotRecovered() throws Exception {
+        EmailOutbox outbox = openOutbox(SEGMENT_SIZE);
+        EmailMessage message = createMessage(16);
+        createDispatcher(outbox).dispatch(message);
+
+        assertEquals(smtpServer.getRecipients(), Arrays.asList(message.getSendTo()));
+        assertEquals(outbox.getPendingCount(), 0);
+        assertRecovered(openOutbox(SEGMENT_SIZE));
+    }
+
+    @Test
+    public void testEmailStaysPendingWhenSendFails() throws Exception {
+        smtpServer.setRejectionReply("451 Try again later");
+        EmailOutbox outbox = openOutbox(SEGMENT_SIZE);
+        EmailMessage message = createMessage(16);
+        try {
+            createDispatcher(outbox).dispatch(message);
+            fail("Email rejected by the SMTP server was reported as sent");
+        } catch (EmailEventServiceException e) {
+            // Expected.
+        }
+        assertEquals(outbox.getPendingCount(), 1);
+
+        smtpServer.setRejectionReply(null);
+        EmailOutbox recovered = openOutbox(SEGMENT_SIZE);
+        createDispatcher(recovered).replayRecoveredMessages();
+        assertTrue(smtpServer.awaitMessages(1, TIMEOUT_MILLIS), "Email that failed was not resent");
+        awaitNoPendingEmails(recovered);
+    }
+
+    @Test
+    public void testFailedReplayIsTriedAgain() throws Exception {
+        EmailOutbox crashed = openOutbox(SEGMENT_SIZE);
+        crashed.append(createMessage(16));
+        smtpServer.setRejectionReply("451 Try again later");
+
+        EmailOutbox outbox = openOutbox(SEGMENT_SIZE);
+        OutboxEmailDispatcher dispatcher = createDispatcher(outbox, REPLAY_INTERVAL_MILLIS);
+        dispatcher.replayRecoveredMessages();
+        Thread.sleep(5 * REPLAY_INTERVAL_MILLIS);
+        assertEquals(outbox.getPendingCount(), 1);
+
+        smtpServer.setRejectionReply(null);
+        assertTrue(smtpServer.awaitMessages(1, TIMEOUT_MILLIS), "Email that failed to resend was not tried again");
+        awaitNoPendingEmails(outbox);
+        dispatcher.shutdown();
+    }
+
+    @Test
+    public void testRejectedReplayIsDone() throws Exception {
+        EmailOutbox crashed = openOutbox(SEGMENT_SIZE);
+        crashed.append(createMessage(16));
+        smtpServer.setRejectionReply("550 No such user");
+
+        EmailOutbox outbox = openOutbox(SEGMENT_SIZE);
+        OutboxEmailDispatcher dispatcher = createDispatcher(outbox, REPLAY_INTERVAL_MILLIS);
+        dispatcher.replayRecoveredMessages();
+        awaitNoPendingEmails(outbox);
+        dispatcher.shutdown();
+        assertEquals(smtpServer.getRecipients().size(), 0);
+        assertRecovered(outbox);
+    }
+
+    @Test
+    public void testShutdownHandsBackEmailsNotResent() throws Exception {
+        EmailOutbox crashed = openOutbox(SEGMENT_SIZE);
+        EmailMessage first = createMessage(16);
+        EmailMessage second = createMessage(16);
+        crashed.append(first);
+        crashed.append(second);
+        smtpServer.setRejectionReply("451 Try again later");
+
+        EmailOutbox outbox = openOutbox(SEGMENT_SIZE);
+        OutboxEmailDispatcher dispatcher = createDispatcher(outbox, TIMEOUT_MILLIS);
+        dispatcher.replayRecoveredMessages();
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (smtpServer.getRejectedCount() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        // The replay stops without waiting for the next try, and the outbox can be handed to another dispatcher.
+        dispatcher.shutdown();
+        assertEquals(outbox.getPendingCount(), 2);
+        smtpServer.setRejectionReply(null);
+        createDispatcher(outbox).replayRecoveredMessages();
+        assertTrue(smtpServer.awaitMessages(2, TIMEOUT_MILLIS), "Emails handed back were not resent");
+        assertEquals(smtpServer.getRecipients(), Arrays.asList(first.getSendTo(), second.getSendTo()));
+        awaitNoPendingEmails(outbox);
+    }
+
+    @Test
+    public void testCompactionKeepsPendingEmails() throws Exception {
+        EmailOutbox outbox = openOutbox(SMALL_SEGMENT_SIZE);
+        EmailMessage pending = createMessage(200);
+        outbox.append(pending);
+        List<String> initialSegments = Arrays.asList(directory.list());
+
+        for (int i = 0; i < 40; i++) {
+            EmailMessage message = createMessage(200);
+            outbox.append(message);
+            outbox.markDone(message.getMessageId());
+            assertTrue(outbox.getSegmentCount() <= MAX_SEGMENTS,
+                    "Outbox has " + outbox.getSegmentCount() + " segments");
+        }
+        assertEquals(outbox.getPendingCount(), 1);
+        assertTrue(directory.list().length <= MAX_SEGMENTS, "Compacted segment files were not removed");
+        for (String segment : initialSegments) {
+            assertFalse(new File(directory, segment).exists(), "Segment " + segment + " was not compacted");
+        }
+
+        assertRecovered(openOutbox(SMALL_SEGMENT_SIZE), pending);
+    }
+
+    private EmailOutbox openOutbox(int segmentSize) throws EmailEventServiceException {
+        EmailOutbox outbox = new EmailOutbox(directory, segmentSize, MAX_SEGMENTS, false);
+        outboxes.add(outbox);
+        return outbox;
+    }
+
+    private OutboxEmailDispatcher createDispatcher(EmailOutbox outbox) {
+        return createDispatcher(outbox, REPLAY_INTERVAL_MILLIS);
+    }
+
+    private OutboxEmailDispatcher createDispatcher(EmailOutbox outbox, long replayIntervalMillis) {
+        EmailDispatcher dispatcher = new DirectEmailDispatcher(
+                new OutboxEmailSender(new SmtpBatchEmailSender(1, 0), outbox));
+        return new OutboxEmailDispatcher(dispatcher, outbox, replayIntervalMillis);
+    }
+
+    private EmailMessage createMessage(int bodyLength) {
+        int index = ++messageIndex;
+        StringBuilder body = new StringBuilder(bodyLength);
+        while (body.length() < bodyLength) {
+            body.append((char) ('a' + body.length() % 26));
+        }
+        return new EmailMessage("message-" + index, -1234, "accountconfirmation", "user" + index + "@localhost",
+                "Subject " + index, body.toString(), "text/plain", System.currentTimeMillis());
+    }
+
+    private void assertRecovered(EmailOutbox outbox, EmailMessage... expected) {
+        List<EmailMessage> recovered = outbox.drainRecoveredMessages();
+        assertEquals(recovered.size(), expected.length, "Number of recovered emails");
+        for (int i = 0; i < expected.length; i++) {
+            EmailMessage message = recovered.get(i);
+            assertEquals(message.getMessageId(), expected[i].getMessageId());
+            assertEquals(message.getTenantId(), expected[i].getTenantId());
+            assertEquals(message.getSendTo(), expected[i].getSendTo());
+            assertEquals(message.getSubject(), expected[i].getSubject());
+            assertEquals(message.getBody(), expected[i].getBody());
+        }
+    }
+
+    private void awaitNoPendingEmails(EmailOutbox outbox) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (outbox.getPendingCount() > 0) {
+            if (System.currentTimeMillis() >= deadline) {
+                fail("Resent emails are still pending in the outbox");
+            }
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.event.handler.email.retry;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.wso2.carbon.identity.event.handler.email.delivery.EmailDispatcher;
+import org.wso2.carbon.identity.event.handler.email.delivery.EmailMessage;
+import org.wso2.carbon.identity.event.handler.email.exception.EmailEventServiceException;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests keeping, reloading and replaying emails in the {@link DeadLetterStore}.
+ */
+public class DeadLetterStoreTest {
+
+    private File directory;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("email-dead-letters").toFile();
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testEmailsSurviveReopen() throws Exception {
+        DeadLetterStore store = new DeadLetterStore(directory, 100);
+        store.add(createMessage("1", 1), 3, new EmailEventServiceException("Sending failed",
+                new EmailEventServiceException("421 Service not available")));
+        store.add(createMessage("2", 2), 1, null);
+
+        DeadLetterStore reopened = new DeadLetterStore(directory, 100);
+        assertEquals(reopened.size(), 2);
+        DeadLetter deadLetter = reopened.get("1");
+        assertEquals(deadLetter.getAttempts(), 3);
+        assertEquals(deadLetter.getTenantId(), 1);
+        assertEquals(deadLetter.getReason(), "Sending failed : 421 Service not available");
+        assertEquals(reopened.list(0, 10).get(1).getMessageId(), "2");
+    }
+
+    @Test
+    public void testOldestIsDroppedWhenFull() throws Exception {
+        DeadLetterStore store = new DeadLetterStore(directory, 2);
+        for (int i = 1; i <= 3; i++) {
+            store.add(createMessage(String.valueOf(i), 1), 1, null);
+        }
+        assertEquals(store.size(), 2);
+        assertNull(store.get("1"));
+        assertEquals(new DeadLetterStore(directory, 2).size(), 2);
+    }
+
+    @Test
+    public void testReplayRemovesSentEmails() throws Exception {
+        DeadLetterStore store = new DeadLetterStore(directory, 100);
+        store.add(createMessage("1", 1), 1, null);
+        store.add(createMessage("2", 2), 1, null);
+        store.add(createMessage("3", 1), 1, null);
+
+        RecordingDispatcher dispatcher = new RecordingDispatcher(false);
+        assertEquals(store.replay(1, dispatcher), 2);
+        assertEquals(dispatcher.messageIds, Arrays.asList("1", "3"));
+        assertEquals(store.size(), 1);
+        assertNotNull(store.get("2"));
+        assertEquals(new DeadLetterStore(directory, 100).size(), 1);
+    }
+
+    @Test
+    public void testFailedReplayIsKept() throws Exception {
+        DeadLetterStore store = new DeadLetterStore(directory, 100);
+        store.add(createMessage("1", 1), 3, new EmailEventServiceException("421 Service not available"));
+
+        assertFalse(store.replay("1", new RecordingDispatcher(true)));
+        DeadLetter deadLetter = store.get("1");
+        assertNotNull(deadLetter, "Email failed on replay was not kept");
+        assertEquals(deadLetter.getAttempts(), 3);
+        assertEquals(deadLetter.getReason(), "Replay failed");
+
+        // The email kept again can still be replayed.
+        RecordingDispatcher dispatcher = new RecordingDispatcher(false);
+        assertTrue(store.replay("1", dispatcher));
+        assertEquals(dispatcher.messageIds, Arrays.asList("1"));
+        assertEquals(store.size(), 0);
+        assertFalse(store.replay("1", dispatcher));
+    }
+
+    private static EmailMessage createMessage(String messageId, int tenantId) {
+        return new EmailMessage(messageId, tenantId, "accountconfirmation", "alice@example.com", "Subject", "Body",
+                "text/plain", System.currentTimeMillis());
+    }
+
+    private static class RecordingDispatcher implements EmailDispatcher {
+
+        private final List<String> messageIds = new ArrayList<>();
+        private final boolean fail;
+
+        private RecordingDispatcher(boolean fail) {
+            this.fail = fail;
+        }
+
+        @Override
+        public void dispatch(EmailMessage message) throws EmailEventServiceException {
+            if (fail) {
+                throw new EmailEventServiceException("Replay failed");
+            }
+            messageIds.add(message.getMessageId());
+        }
+
+        @Override
+        public void shutdown() {
+        }
+    }
+}
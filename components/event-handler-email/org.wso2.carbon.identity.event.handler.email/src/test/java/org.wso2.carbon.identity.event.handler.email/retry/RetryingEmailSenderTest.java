@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.event.handler.email.retry;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.wso2.carbon.identity.event.handler.email.delivery.EmailMessage;
+import org.wso2.carbon.identity.event.handler.email.delivery.EmailSender;
+import org.wso2.carbon.identity.event.handler.email.exception.EmailEventServiceException;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+/**
+ * Tests the backoff and the limits of the {@link RetryingEmailSender}.
+ */
+public class RetryingEmailSenderTest {
+
+    private static final long TIMEOUT = 10000;
+
+    private File directory;
+    private DeadLetterStore deadLetterStore;
+    private RetryingEmailSender retryingSender;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("email-dead-letters").toFile();
+        deadLetterStore = new DeadLetterStore(directory, 100);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        if (retryingSender != null) {
+            retryingSender.shutdown();
+        }
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testDelayIsHalfFixedHalfRandom() {
+        retryingSender = new RetryingEmailSender(new FailingSender(0), deadLetterStore, null, 10, 100, 1000, 10, 1);
+        long[] expectedDelays = {100, 200, 400, 800, 1000, 1000};
+        for (int attempt = 1; attempt <= expectedDelays.length; attempt++) {
+            long delay = expectedDelays[attempt - 1];
+            long min = Long.MAX_VALUE;
+            long max = Long.MIN_VALUE;
+            for (int i = 0; i < 1000; i++) {
+                long actual = retryingSender.getDelayMillis(attempt);
+                min = Math.min(min, actual);
+                max = Math.max(max, actual);
+            }
+            assertTrue(min >= delay - delay / 2, "Delay of attempt " + attempt + " below half : " + min);
+            assertTrue(max <= delay, "Delay of attempt " + attempt + " above the backoff : " + max);
+            assertTrue(max > min, "Delay of attempt " + attempt + " is not random");
+        }
+        // Shifting past the width of a long does not wrap around.
+        assertTrue(retryingSender.getDelayMillis(100) >= 500);
+    }
+
+    @Test
+    public void testTransientFailureIsRetried() throws Exception {
+        FailingSender sender = new FailingSender(2);
+        retryingSender = new RetryingEmailSender(sender, deadLetterStore, null, 5, 1, 10, 10, 1);
+        retryingSender.send(createMessage("1"));
+
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (retryingSender.getRecoveredCount() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(retryingSender.getRecoveredCount(), 1);
+        assertEquals(retryingSender.getRetriedCount(), 2);
+        assertEquals(sender.attempts.get(), 3);
+        assertEquals(deadLetterStore.size(), 0);
+    }
+
+    @Test
+    public void testPendingCapGivesUp() throws Exception {
+        retryingSender = new RetryingEmailSender(new FailingSender(Integer.MAX_VALUE), deadLetterStore, null, 5,
+                TIMEOUT, TIMEOUT, 1, 1);
+        retryingSender.send(createMessage("1"));
+        assertEquals(retryingSender.getPendingCount(), 1);
+
+        // Only one email may wait for a retry, so the second is given up on at once.
+        try {
+            retryingSender.send(createMessage("2"));
+            fail("Email over the pending cap was accepted");
+        } catch (EmailEventServiceException e) {
+            assertEquals(e.getMessage(), "421 4.3.2 Service not available");
+        }
+        assertEquals(retryingSender.getPendingCount(), 1);
+        assertEquals(retryingSender.getDeadLetteredCount(), 1);
+        assertNull(deadLetterStore.get("1"));
+        DeadLetter deadLetter = deadLetterStore.get("2");
+        assertNotNull(deadLetter, "Email over the pending cap was not kept");
+        assertEquals(deadLetter.getAttempts(), 1);
+    }
+
+    @Test
+    public void testPermanentFailureIsNotRetried() throws Exception {
+        FailingSender sender = new FailingSender(1, "550 5.1.1 User unknown");
+        retryingSender = new RetryingEmailSender(sender, deadLetterStore, null, 5, 1, 10, 10, 1);
+        try {
+            retryingSender.send(createMessage("1"));
+            fail("Permanent failure was not reported");
+        } catch (EmailEventServiceException e) {
+            // Expected.
+        }
+        assertEquals(retryingSender.getRetriedCount(), 0);
+        assertEquals(sender.attempts.get(), 1);
+        assertEquals(deadLetterStore.get("1").getReason(), "550 5.1.1 User unknown");
+    }
+
+    private static EmailMessage createMessage(String messageId) {
+        return new EmailMessage(messageId, 1, "accountconfirmation", "alice@example.com", "Subject", "Body",
+                "text/plain", System.currentTimeMillis());
+    }
+
+    /**
+     * Fails the given number of attempts, then sends.
+     */
+    private static class FailingSender implements EmailSender {
+
+        private final AtomicInteger attempts = new AtomicInteger();
+        private final int failures;
+        private final String reply;
+
+        private FailingSender(int failures) {
+            this(failures, "421 4.3.2 Service not available");
+        }
+
+        private FailingSender(int failures, String reply) {
+            this.failures = failures;
+            this.reply = reply;
+        }
+
+        @Override
+        public void send(EmailMessage message) throws EmailEventServiceException {
+            if (attempts.incrementAndGet() <= failures) {
+                throw new EmailEventServiceException(reply);
+            }
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.event.handler.email.retry;
+
+import org.testng.annotations.Test;
+import org.wso2.carbon.identity.event.handler.email.exception.EmailEventServiceException;
+
+import javax.mail.Address;
+import javax.mail.AuthenticationFailedException;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.internet.AddressException;
+import javax.mail.internet.InternetAddress;
+
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests which send failures {@link SendFailureClassifier} tells as permanent.
+ */
+public class SendFailureClassifierTest {
+
+    @Test
+    public void testReplyCodes() {
+        assertTrue(SendFailureClassifier.isPermanent(new MessagingException("550 5.1.1 User unknown")));
+        assertTrue(SendFailureClassifier.isPermanent(new MessagingException("554-Transaction failed")));
+        assertTrue(SendFailureClassifier.isPermanent(new MessagingException("  552")));
+        assertFalse(SendFailureClassifier.isPermanent(new MessagingException("421 4.7.0 Try again later")));
+        assertFalse(SendFailureClassifier.isPermanent(new MessagingException("451-Greylisted")));
+    }
+
+    @Test
+    public void testMessagesWithoutReplyCodeAreTransient() {
+        assertFalse(SendFailureClassifier.isPermanent(new MessagingException("Could not connect to SMTP host")));
+        assertFalse(SendFailureClassifier.isPermanent(new MessagingException("5501 is not a reply code")));
+        assertFalse(SendFailureClassifier.isPermanent(new MessagingException("50 too short")));
+        assertFalse(SendFailureClassifier.isPermanent(new MessagingException("250 OK")));
+        assertFalse(SendFailureClassifier.isPermanent(new MessagingException(null)));
+        assertFalse(SendFailureClassifier.isPermanent(new IllegalStateException()));
+    }
+
+    @Test
+    public void testReplyCodeInCauseChain() {
+        MessagingException failure = new MessagingException("Could not send the email");
+        failure.setNextException(new MessagingException("550 5.7.1 Relaying denied"));
+        assertTrue(SendFailureClassifier.isPermanent(new EmailEventServiceException("Sending failed", failure)));
+
+        // The first reply code in the chain decides.
+        MessagingException transientFailure = new MessagingException("452 4.2.2 Mailbox full");
+        transientFailure.setNextException(new MessagingException("550 User unknown"));
+        assertFalse(SendFailureClassifier.isPermanent(transientFailure));
+    }
+
+    @Test
+    public void testAddressAndAuthenticationFailures() {
+        assertTrue(SendFailureClassifier.isPermanent(new AddressException("Illegal address", "alice@", 6)));
+        assertTrue(SendFailureClassifier.isPermanent(
+                new EmailEventServiceException("Invalid recipient", new AddressException("Illegal address"))));
+        assertTrue(SendFailureClassifier.isPermanent(new AuthenticationFailedException("Bad credentials")));
+    }
+
+    @Test
+    public void testSendFailedException() throws Exception {
+        Address[] addresses = {new InternetAddress("alice@example.com")};
+        assertTrue(SendFailureClassifier.isPermanent(
+                new SendFailedException("Invalid Addresses", null, null, null, addresses)));
+        // Valid addresses left unsent, as when the connection drops, may be sent later.
+        assertFalse(SendFailureClassifier.isPermanent(
+                new SendFailedException("Send failed", null, null, addresses, new Address[0])));
+        assertFalse(SendFailureClassifier.isPermanent(new SendFailedException("Send failed")));
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.event.handler.email.shaping;
+
+import org.testng.annotations.Test;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests how the {@link DomainRateLimiter} tracks recipient domains beyond the configured number of buckets.
+ */
+public class DomainRateLimiterTest {
+
+    private static final long MAX_DELAY = TimeUnit.MINUTES.toNanos(1);
+    private static final long TOKEN_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void testDomainsBeyondMaxBucketsShareOneBucket() {
+        // One email a second to each domain and two domains tracked separately.
+        DomainRateLimiter limiter = createLimiter(2);
+        long now = System.nanoTime();
+        assertEquals(limiter.reserve("alice@a.com", now, MAX_DELAY), 0);
+        assertEquals(limiter.reserve("bob@b.com", now, MAX_DELAY), 0);
+
+        assertEquals(limiter.reserve("carol@c.com", now, MAX_DELAY), 0);
+        // d.com has not sent anything, but shares the token c.com took.
+        assertEquals(limiter.reserve("dave@d.com", now, MAX_DELAY), TOKEN_INTERVAL);
+        assertEquals(limiter.getBucketCount(), 2);
+    }
+
+    @Test
+    public void testFullBucketsAreDroppedOnSweep() {
+        DomainRateLimiter limiter = createLimiter(2);
+        long now = System.nanoTime();
+        limiter.reserve("alice@a.com", now, MAX_DELAY);
+        limiter.reserve("bob@b.com", now, MAX_DELAY);
+        limiter.reserve("carol@c.com", now, MAX_DELAY);
+
+        // Both buckets have filled up again by the next sweep, so e.com gets a bucket of its own.
+        long later = now + 2 * TOKEN_INTERVAL;
+        assertEquals(limiter.reserve("erin@e.com", later, MAX_DELAY), 0);
+        assertEquals(limiter.reserve("erin@e.com", later, MAX_DELAY), TOKEN_INTERVAL);
+        assertEquals(limiter.getBucketCount(), 1);
+    }
+
+    @Test
+    public void testDomainWithOwnLimitIsNotShared() {
+        DomainRateLimiter limiter = new DomainRateLimiter(60, 1,
+                Collections.singletonMap("Example.com", new DomainRateLimiter.DomainLimit(60, 2)), 1);
+        long now = System.nanoTime();
+        limiter.reserve("alice@a.com", now, MAX_DELAY);
+
+        assertEquals(limiter.reserve("bob@example.com", now, MAX_DELAY), 0);
+        assertEquals(limiter.reserve("carol@EXAMPLE.com", now, MAX_DELAY), 0);
+        assertTrue(limiter.reserve("dave@example.com", now, MAX_DELAY) > 0);
+        assertEquals(limiter.getBucketCount(), 2);
+    }
+
+    private static DomainRateLimiter createLimiter(int maxBuckets) {
+        return new DomainRateLimiter(60, 1, null, maxBuckets);
+    }
+}
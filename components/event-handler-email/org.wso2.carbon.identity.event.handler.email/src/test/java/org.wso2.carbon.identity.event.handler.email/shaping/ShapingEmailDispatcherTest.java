@@ -0,0 +1,243 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.identity.event.handler.email.shaping;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.wso2.carbon.identity.event.handler.email.constants.EmailEventConstants;
+import org.wso2.carbon.identity.event.handler.email.delivery.EmailDispatcher;
+import org.wso2.carbon.identity.event.handler.email.delivery.EmailMessage;
+import org.wso2.carbon.identity.event.handler.email.exception.EmailEventServiceException;
+import org.wso2.carbon.identity.event.handler.email.exception.EmailRejectedException;
+import org.wso2.carbon.identity.event.handler.email.metrics.EmailEventFailure;
+import org.wso2.carbon.identity.event.handler.email.metrics.EmailEventMetrics;
+import org.wso2.carbon.identity.event.handler.email.metrics.EmailEventSeries;
+import org.wso2.carbon.identity.event.handler.email.metrics.EmailEventStage;
+import org.wso2.carbon.identity.event.handler.email.metrics.LatencyHistogram;
+import org.wso2.carbon.identity.event.handler.email.outbox.EmailOutbox;
+import org.wso2.carbon.identity.event.handler.email.outbox.OutboxEmailDispatcher;
+import org.wso2.carbon.identity.event.handler.email.retry.DeadLetterStore;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+/**
+ * Tests how the {@link ShapingEmailDispatcher} throttles, delays and keeps the emails it could not hand over.
+ */
+public class ShapingEmailDispatcherTest {
+
+    private static final int TENANT_ID = 1;
+    private static final String TEMPLATE_TYPE = "accountconfirmation";
+    private static final long TIMEOUT = 10000;
+
+    private File directory;
+    private DeadLetterStore deadLetterStore;
+    private ShapingEmailDispatcher shapingDispatcher;
+    private EmailOutbox outbox;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("email-dead-letters").toFile();
+        deadLetterStore = new DeadLetterStore(directory, 100);
+        EmailEventMetrics.getInstance().configure(true, EmailEventConstants.ConfigDefault.METRICS_MAX_SERIES);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        if (shapingDispatcher != null) {
+            shapingDispatcher.shutdown();
+        }
+        if (outbox != null) {
+            outbox.close();
+        }
+        delete(directory);
+        EmailEventMetrics.getInstance().configure(false, EmailEventConstants.ConfigDefault.METRICS_MAX_SERIES);
+    }
+
+    @Test
+    public void testDomainThrottledEmailIsDeadLettered() throws Exception {
+        RecordingDispatcher dispatcher = new RecordingDispatcher(false);
+        // One email a minute to the domain, which is not waited for.
+        shapingDispatcher = createShapingDispatcher(dispatcher, new DomainRateLimiter(1, 1,
+                Collections.<String, DomainRateLimiter.DomainLimit>emptyMap(), 100), 0);
+        shapingDispatcher.dispatch(createMessage("1"));
+        shapingDispatcher.dispatch(createMessage("2"));
+
+        awaitDeadLetters(1);
+        assertNotNull(deadLetterStore.get("2"));
+        assertEquals(dispatcher.messages.size(), 1);
+        assertEquals(dispatcher.messages.get(0).getMessageId(), "1");
+        assertEquals(shapingDispatcher.getThrottledCount(), 1);
+        assertEquals(getSeries().getFailureCount(EmailEventFailure.THROTTLED), 1);
+    }
+
+    @Test
+    public void testEmailIsDelayedForDomainToken() throws Exception {
+        RecordingDispatcher dispatcher = new RecordingDispatcher(false);
+        // One email a second to the domain, waited for up to the timeout.
+        shapingDispatcher = createShapingDispatcher(dispatcher, new DomainRateLimiter(60, 1,
+                Collections.<String, DomainRateLimiter.DomainLimit>emptyMap(), 100), TIMEOUT);
+        long start = System.nanoTime();
+        shapingDispatcher.dispatch(createMessage("1"));
+        shapingDispatcher.dispatch(createMessage("2"));
+
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (dispatcher.messages.size() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(dispatcher.messages.size(), 2);
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(900),
+                "The second email was not held back for the domain token");
+        assertEquals(shapingDispatcher.getDelayedCount(), 1);
+        assertEquals(shapingDispatcher.getThrottledCount(), 0);
+        assertEquals(deadLetterStore.size(), 0);
+
+        // Only the wait of the delayed email is recorded.
+        LatencyHistogram domainDelay = getSeries().getLatency(EmailEventStage.DOMAIN_DELAY);
+        assertEquals(domainDelay.getCount(), 1);
+        assertTrue(domainDelay.getMaxMillis() >= 500 && domainDelay.getMaxMillis() < TIMEOUT,
+                "Unexpected domain delay of " + domainDelay.getMaxMillis() + "ms");
+    }
+
+    @Test
+    public void testFailedEmailIsDeadLettered() throws Exception {
+        shapingDispatcher = createShapingDispatcher(new RecordingDispatcher(true),
+                new DomainRateLimiter(0, 1, null, 100), 60000);
+        shapingDispatcher.dispatch(createMessage("1"));
+
+        awaitDeadLetters(1);
+        assertEquals(deadLetterStore.get("1").getReason(), "Mail server refused the email");
+        assertEquals(shapingDispatcher.getFailedCount(), 1);
+    }
+
+    @Test
+    public void testTenantThrottledEmailIsDoneInOutbox() throws Exception {
+        outbox = new EmailOutbox(new File(directory, "outbox"), 64 * 1024, 2, false);
+        BlockingDispatcher dispatcher = new BlockingDispatcher();
+        // One email queued per tenant, while the only worker is held up by the first email.
+        shapingDispatcher = new ShapingEmailDispatcher(dispatcher, deadLetterStore, outbox,
+                new TenantShares(new TenantShares.TenantShare(1, 1), null), new DomainRateLimiter(0, 1, null, 100), 1,
+                0, TIMEOUT);
+        OutboxEmailDispatcher outboxDispatcher = new OutboxEmailDispatcher(shapingDispatcher, outbox);
+        try {
+            outboxDispatcher.dispatch(createMessage("1"));
+            assertTrue(dispatcher.started.await(TIMEOUT, TimeUnit.MILLISECONDS));
+            outboxDispatcher.dispatch(createMessage("2"));
+            try {
+                outboxDispatcher.dispatch(createMessage("3"));
+                fail("The email should have been throttled for its tenant");
+            } catch (EmailRejectedException e) {
+                // Expected, the tenant already has an email queued.
+            }
+            // The throttled email is not left pending for the next recovery.
+            assertEquals(outbox.getPendingCount(), 2);
+            assertEquals(shapingDispatcher.getThrottledCount(), 1);
+            assertEquals(getSeries().getFailureCount(EmailEventFailure.THROTTLED), 1);
+            assertEquals(deadLetterStore.size(), 0);
+        } finally {
+            dispatcher.release.countDown();
+        }
+    }
+
+    private ShapingEmailDispatcher createShapingDispatcher(EmailDispatcher dispatcher,
+                                                           DomainRateLimiter domainRateLimiter, long maxDelayMillis) {
+        return new ShapingEmailDispatcher(dispatcher, deadLetterStore, null,
+                new TenantShares(new TenantShares.TenantShare(1, 100), null), domainRateLimiter, 1, maxDelayMillis,
+                TIMEOUT);
+    }
+
+    private void awaitDeadLetters(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (deadLetterStore.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(deadLetterStore.size(), count);
+    }
+
+    private static EmailEventSeries getSeries() {
+        return EmailEventMetrics.getInstance().getSeries(TENANT_ID, TEMPLATE_TYPE);
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static EmailMessage createMessage(String messageId) {
+        return new EmailMessage(messageId, TENANT_ID, TEMPLATE_TYPE, "alice@example.com", "Subject", "Body",
+                "text/plain", System.currentTimeMillis());
+    }
+
+    private static class RecordingDispatcher implements EmailDispatcher {
+
+        private final boolean fail;
+        private final List<EmailMessage> messages = new CopyOnWriteArrayList<>();
+
+        private RecordingDispatcher(boolean fail) {
+            this.fail = fail;
+        }
+
+        @Override
+        public void dispatch(EmailMessage message) throws EmailEventServiceException {
+            if (fail) {
+                throw new EmailEventServiceException("Mail server refused the email");
+            }
+            messages.add(message);
+        }
+
+        @Override
+        public void shutdown() {
+        }
+    }
+
+    private static class BlockingDispatcher implements EmailDispatcher {
+
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public void dispatch(EmailMessage message) throws EmailEventServiceException {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void shutdown() {
+        }
+    }
+}
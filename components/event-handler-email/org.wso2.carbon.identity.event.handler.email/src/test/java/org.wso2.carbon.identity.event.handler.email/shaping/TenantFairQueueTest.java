@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.event.handler.email.shaping;
+
+import org.testng.annotations.Test;
+import org.wso2.carbon.identity.event.handler.email.delivery.EmailMessage;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests the weighted fair order of the {@link TenantFairQueue}.
+ */
+public class TenantFairQueueTest {
+
+    private static final int QUEUE_SIZE = 100;
+
+    private int messageIndex;
+
+    @Test
+    public void testTenantsAreServedInProportionToWeight() throws Exception {
+        TenantFairQueue queue = new TenantFairQueue();
+        for (int i = 0; i < 8; i++) {
+            assertTrue(queue.offer(createMessage(1), 3, QUEUE_SIZE));
+        }
+        for (int i = 0; i < 8; i++) {
+            assertTrue(queue.offer(createMessage(2), 1, QUEUE_SIZE));
+        }
+
+        int[] taken = new int[3];
+        for (int i = 0; i < 8; i++) {
+            taken[poll(queue).getTenantId()]++;
+        }
+        assertEquals(taken[1], 6);
+        assertEquals(taken[2], 2);
+    }
+
+    @Test
+    public void testTenantEmailsAreTakenInOrder() throws Exception {
+        TenantFairQueue queue = new TenantFairQueue();
+        EmailMessage first = createMessage(1);
+        EmailMessage second = createMessage(1);
+        queue.offer(first, 1, QUEUE_SIZE);
+        queue.offer(createMessage(2), 1, QUEUE_SIZE);
+        queue.offer(second, 1, QUEUE_SIZE);
+
+        assertEquals(poll(queue).getMessageId(), first.getMessageId());
+        poll(queue);
+        assertEquals(poll(queue).getMessageId(), second.getMessageId());
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void testIdleTenantDoesNotBuildUpCredit() throws Exception {
+        TenantFairQueue queue = new TenantFairQueue();
+        for (int i = 0; i < 4; i++) {
+            queue.offer(createMessage(1), 1, QUEUE_SIZE);
+        }
+        for (int i = 0; i < 4; i++) {
+            poll(queue);
+        }
+        // Tenant 2 was idle while tenant 1 sent, so it does not get ahead of tenant 1 now.
+        queue.offer(createMessage(1), 1, QUEUE_SIZE);
+        queue.offer(createMessage(2), 1, QUEUE_SIZE);
+        queue.offer(createMessage(2), 1, QUEUE_SIZE);
+        queue.offer(createMessage(1), 1, QUEUE_SIZE);
+
+        assertEquals(poll(queue).getTenantId(), 1);
+        assertEquals(poll(queue).getTenantId(), 2);
+        assertEquals(poll(queue).getTenantId(), 2);
+        assertEquals(poll(queue).getTenantId(), 1);
+    }
+
+    @Test
+    public void testTenantQueueIsCapped() throws Exception {
+        TenantFairQueue queue = new TenantFairQueue();
+        assertTrue(queue.offer(createMessage(1), 1, 2));
+        assertTrue(queue.offer(createMessage(1), 1, 2));
+        assertFalse(queue.offer(createMessage(1), 1, 2));
+        assertTrue(queue.offer(createMessage(2), 1, 2), "The cap of one tenant held back another");
+        assertEquals(queue.size(1), 2);
+        assertEquals(queue.size(), 3);
+
+        poll(queue);
+        assertTrue(queue.offer(createMessage(1), 1, 2));
+    }
+
+    @Test
+    public void testPollTimesOutWhenEmpty() throws Exception {
+        assertNull(new TenantFairQueue().poll(10, TimeUnit.MILLISECONDS));
+    }
+
+    private static EmailMessage poll(TenantFairQueue queue) throws InterruptedException {
+        return queue.poll(0, TimeUnit.MILLISECONDS).getMessage();
+    }
+
+    private EmailMessage createMessage(int tenantId) {
+        return new EmailMessage(String.valueOf(messageIndex++), tenantId, "accountconfirmation", "alice@example.com",
+                "Subject", "Body", "text/plain", System.currentTimeMillis());
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.event.handler.email.shaping;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.wso2.carbon.identity.core.util.IdentityTenantUtil;
+import org.wso2.carbon.identity.event.handler.email.tenant.TenantResolver;
+import org.wso2.carbon.user.core.service.RealmService;
+import org.wso2.carbon.user.core.tenant.TenantManager;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+
+import static org.testng.Assert.assertEquals;
+
+/**
+ * Tests that the {@link TenantShares} of tenants configured by domain apply to their tenant ids.
+ */
+public class TenantSharesTest {
+
+    private static final String TENANT_DOMAIN = "wso2.com";
+    private static final int TENANT_ID = 5;
+
+    @BeforeMethod
+    public void setUp() {
+        final TenantManager tenantManager = (TenantManager) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{TenantManager.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if ("getTenantId".equals(method.getName())) {
+                            return TENANT_DOMAIN.equals(args[0]) ? TENANT_ID : -1;
+                        }
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+        IdentityTenantUtil.setRealmService((RealmService) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{RealmService.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if ("getTenantManager".equals(method.getName())) {
+                            return tenantManager;
+                        }
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                }));
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        IdentityTenantUtil.setRealmService(null);
+        TenantResolver.getInstance().clear();
+    }
+
+    @Test
+    public void testTenantShareOverridesDefault() {
+        TenantShares.TenantShare defaultShare = new TenantShares.TenantShare(1, 100);
+        TenantShares.TenantShare tenantShare = new TenantShares.TenantShare(4, 10);
+        TenantShares tenantShares = new TenantShares(defaultShare,
+                Collections.singletonMap(TENANT_DOMAIN, tenantShare));
+
+        assertEquals(tenantShares.getShare(TENANT_ID), tenantShare);
+        assertEquals(tenantShares.getShare(1), defaultShare);
+    }
+
+    @Test
+    public void testTenantWithoutSharesGetsDefault() {
+        TenantShares.TenantShare defaultShare = new TenantShares.TenantShare(2, 50);
+        TenantShares tenantShares = new TenantShares(defaultShare, null);
+
+        assertEquals(tenantShares.getShare(TENANT_ID).getWeight(), 2);
+        assertEquals(tenantShares.getShare(TENANT_ID).getQueueSize(), 50);
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.event.handler.email.shaping;
+
+import org.testng.annotations.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests the timing of the {@link TokenBucket}.
+ */
+public class TokenBucketTest {
+
+    private static final long INTERVAL = TimeUnit.SECONDS.toNanos(1);
+    private static final long MAX_DELAY = TimeUnit.MINUTES.toNanos(1);
+
+    @Test
+    public void testBurstIsTakenAtOnceAndFurtherTokensAreSpaced() {
+        long now = System.nanoTime();
+        // One token a second, three at once.
+        TokenBucket bucket = new TokenBucket(60, 3, now);
+        assertEquals(bucket.reserve(now, MAX_DELAY), 0);
+        assertEquals(bucket.reserve(now, MAX_DELAY), 0);
+        assertEquals(bucket.reserve(now, MAX_DELAY), 0);
+        assertEquals(bucket.reserve(now, MAX_DELAY), INTERVAL);
+        assertEquals(bucket.reserve(now, MAX_DELAY), 2 * INTERVAL);
+        // The wait shortens as time passes for the token already reserved.
+        assertEquals(bucket.reserve(now + INTERVAL / 2, MAX_DELAY), 3 * INTERVAL - INTERVAL / 2);
+    }
+
+    @Test
+    public void testTokenIsNotTakenBeyondMaxDelay() {
+        long now = System.nanoTime();
+        TokenBucket bucket = new TokenBucket(60, 1, now);
+        assertEquals(bucket.reserve(now, MAX_DELAY), 0);
+        assertEquals(bucket.reserve(now, INTERVAL / 2), -1);
+        // The refused caller did not take the token.
+        assertEquals(bucket.reserve(now, INTERVAL), INTERVAL);
+    }
+
+    @Test
+    public void testBucketRefillsUpToBurst() {
+        long now = System.nanoTime();
+        TokenBucket bucket = new TokenBucket(60, 2, now);
+        bucket.reserve(now, MAX_DELAY);
+        bucket.reserve(now, MAX_DELAY);
+        assertFalse(bucket.isFull(now));
+
+        // Idle for far longer than it takes to refill, which does not add tokens beyond the burst.
+        long later = now + 10 * INTERVAL;
+        assertTrue(bucket.isFull(later));
+        assertEquals(bucket.reserve(later, MAX_DELAY), 0);
+        assertEquals(bucket.reserve(later, MAX_DELAY), 0);
+        assertEquals(bucket.reserve(later, MAX_DELAY), INTERVAL);
+    }
+}
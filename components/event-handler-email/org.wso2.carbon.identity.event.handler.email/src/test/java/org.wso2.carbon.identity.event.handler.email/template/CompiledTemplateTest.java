@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.event.handler.email.template;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.testng.Assert.assertEquals;
+
+/**
+ * Tests that a {@link CompiledTemplate} renders the same output as the tag replacement NotificationBuilder used
+ * before templates were compiled, for tag data the old replacement handled correctly.
+ */
+public class CompiledTemplateTest {
+
+    @DataProvider(name = "templates")
+    public Object[][] getTemplates() {
+        return new Object[][]{
+                {"Hi {user-name}, your account is locked."},
+                {"No placeholders at all."},
+                {""},
+                // Missing tags are left as written, tags mapped to null are blanked.
+                {"Hi {first-name} {last-name}, use code {confirmation-code}."},
+                {"Dear {missing}, {url:missing} and {empty}{url:empty}."},
+                // Repeated tags.
+                {"{user-name} is {user-name}, again {user-name} and {url:user-name}"},
+                // Adjacent tags.
+                {"{first-name}{last-name}{user-name}"},
+                {"{user-name}{user-name}{url:user-name}{missing}{user-name}"},
+                {"{url:callback}{confirmation-code}"},
+                // Claim URIs as tags.
+                {"Hello {http://wso2.org/claims/givenname}!"},
+                // Brace pairs which are not tags.
+                {"{{user-name}}, {a{user-name}, {user-name}b}, {}, {unclosed"},
+                {"<style>p {\n color: red;\n}</style><p>{user-name}</p>"},
+                {"Caf\u00e9 \u4f60\u597d {user-name} \ud83d\udce7 {first-name}"},
+                {"https://localhost/confirm?user={url:user-name}&code={url:confirmation-code}&cb={url:callback}"},
+        };
+    }
+
+    @Test(dataProvider = "templates")
+    public void testRenderMatchesReplaceTags(String content) throws Exception {
+        Map<String, String> tagData = new HashMap<>();
+        tagData.put("user-name", "alice@example.com");
+        tagData.put("first-name", "J\u00f6rg");
+        tagData.put("last-name", "O'Neil");
+        tagData.put("confirmation-code", "a1b2-c3d4");
+        tagData.put("callback", "https://localhost:9443/callback?a=b&c=d");
+        tagData.put("http://wso2.org/claims/givenname", "Alice");
+        tagData.put("empty", null);
+
+        String expected = replaceTags(tagData, content);
+        CompiledTemplate template = TemplateCompiler.compile(content);
+
+        Utf8Buffer buffer = new Utf8Buffer(16);
+        template.render(tagData, buffer);
+        assertEquals(buffer.toString(), expected);
+
+        StringBuilder builder = new StringBuilder();
+        template.render(tagData, builder);
+        assertEquals(builder.toString(), expected);
+
+        assertEquals(template.getContent(), content);
+    }
+
+    @Test(dataProvider = "templates")
+    public void testRenderWithoutTagData(String content) throws Exception {
+        Map<String, String> tagData = new HashMap<>();
+        Utf8Buffer buffer = new Utf8Buffer(16);
+        TemplateCompiler.compile(content).render(tagData, buffer);
+        assertEquals(buffer.toString(), replaceTags(tagData, content));
+    }
+
+    /**
+     * The tag replacement of NotificationBuilder before templates were compiled, kept as the reference output.
+     */
+    private static String replaceTags(Map<String, String> tagsData, String content)
+            throws UnsupportedEncodingException {
+        for (Map.Entry<String, String> entry : tagsData.entrySet()) {
+
+            String data = entry.getValue();
+            String key = entry.getKey();
+            if (data != null) {
+                content = content.replaceAll("\\{url:" + key + "\\}",
+                        URLEncoder.encode(tagsData.get(key), "UTF-8"));
+                content = content.replaceAll("\\{" + key + "\\}", tagsData.get(key));
+            } else {
+                content = content.replaceAll("\\{url:" + key + "\\}", "");
+                content = content.replaceAll("\\{" + key + "\\}", "");
+            }
+        }
+        return content;
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.event.handler.email.template;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.wso2.carbon.registry.core.exceptions.RegistryException;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests reading and refreshing the types of a tenant in the {@link TemplateTypeRegistry}, with the types read from
+ * a set of the test instead of email management.
+ */
+public class TemplateTypeRegistryTest {
+
+    private static final long TIMEOUT = 10000;
+    private static final long FAILED_READ_RETRY_MILLIS = 50;
+    private static final int TENANT_ID = 1;
+
+    private TestRegistry registry;
+
+    @BeforeMethod
+    public void setUp() {
+        registry = new TestRegistry();
+        registry.configure(0);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        registry.release.countDown();
+    }
+
+    @Test
+    public void testFirstReadIsShared() throws Exception {
+        registry.types = Collections.singleton("passwordreset");
+        registry.release = new CountDownLatch(1);
+        final List<Boolean> results = new CopyOnWriteArrayList<>();
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    results.add(registry.isSupported(TENANT_ID, "passwordreset"));
+                }
+            });
+            threads[i].start();
+        }
+        assertTrue(registry.started.await(TIMEOUT, TimeUnit.MILLISECONDS));
+        // Let the other threads reach the read in progress.
+        Thread.sleep(50);
+        registry.release.countDown();
+        for (Thread thread : threads) {
+            thread.join(TIMEOUT);
+        }
+
+        assertEquals(results.size(), threads.length);
+        assertFalse(results.contains(false));
+        assertEquals(registry.readCount.get(), 1);
+    }
+
+    @Test
+    public void testStaleTypesAreServedWhileRead() throws Exception {
+        registry.configure(1);
+        registry.types = Collections.singleton("passwordreset");
+        assertTrue(registry.isSupported(TENANT_ID, "passwordreset"));
+        Thread.sleep(1100);
+
+        registry.types = Collections.singleton("askpassword");
+        registry.started = new CountDownLatch(1);
+        registry.release = new CountDownLatch(1);
+        // Answered from the types read before, without waiting for the read.
+        assertTrue(registry.isSupported(TENANT_ID, "passwordreset"));
+        assertFalse(registry.isSupported(TENANT_ID, "askpassword"));
+        assertTrue(registry.started.await(TIMEOUT, TimeUnit.MILLISECONDS));
+        assertEquals(registry.readCount.get(), 2);
+
+        registry.release.countDown();
+        waitForSupported("askpassword");
+        assertFalse(registry.isSupported(TENANT_ID, "passwordreset"));
+        assertEquals(registry.readCount.get(), 2);
+    }
+
+    @Test
+    public void testFailedReadIsRetriedSoon() throws Exception {
+        registry.failing = true;
+        registry.types = Collections.singleton("passwordreset");
+        assertFalse(registry.isSupported(TENANT_ID, "passwordreset"));
+        assertTrue(registry.isSupported(TENANT_ID, "accountlock"), "Built-in type was not supported");
+        assertEquals(registry.readCount.get(), 1);
+
+        // Types are never read again once read successfully, but a failed read is.
+        registry.failing = false;
+        Thread.sleep(FAILED_READ_RETRY_MILLIS * 2);
+        waitForSupported("passwordreset");
+    }
+
+    @Test
+    public void testFailedRefreshKeepsTypes() throws Exception {
+        registry.configure(1);
+        registry.types = Collections.singleton("passwordreset");
+        assertTrue(registry.isSupported(TENANT_ID, "passwordreset"));
+        Thread.sleep(1100);
+
+        registry.failing = true;
+        registry.isSupported(TENANT_ID, "passwordreset");
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (registry.readCount.get() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(FAILED_READ_RETRY_MILLIS / 2);
+        assertTrue(registry.isSupported(TENANT_ID, "passwordreset"), "Types read before were dropped");
+
+        // Read again well within the refresh interval.
+        registry.failing = false;
+        registry.types = Collections.singleton("askpassword");
+        waitForSupported("askpassword");
+        assertEquals(registry.readCount.get(), 3);
+    }
+
+    @Test
+    public void testAddedTypeIsSupported() {
+        registry.types = Collections.emptySet();
+        assertFalse(registry.isSupported(TENANT_ID, "passwordreset"));
+        registry.addTemplateType(TENANT_ID, "passwordreset");
+        assertTrue(registry.isSupported(TENANT_ID, "passwordreset"));
+
+        registry.invalidate(TENANT_ID);
+        assertFalse(registry.isSupported(TENANT_ID, "passwordreset"));
+        assertEquals(registry.readCount.get(), 2);
+    }
+
+    private void waitForSupported(String templateType) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (!registry.isSupported(TENANT_ID, templateType) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(registry.isSupported(TENANT_ID, templateType), "Types were not read again");
+    }
+
+    private static class TestRegistry extends TemplateTypeRegistry {
+
+        private final AtomicInteger readCount = new AtomicInteger();
+        private volatile CountDownLatch started = new CountDownLatch(1);
+        private volatile CountDownLatch release = new CountDownLatch(0);
+        private volatile Set<String> types = Collections.emptySet();
+        private volatile boolean failing;
+
+        private TestRegistry() {
+            super(FAILED_READ_RETRY_MILLIS);
+        }
+
+        @Override
+        Set<String> readTemplateTypes(int tenantId) throws RegistryException {
+            readCount.incrementAndGet();
+            started.countDown();
+            try {
+                release.await(TIMEOUT, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (failing) {
+                throw new RegistryException("Registry is not available");
+            }
+            return new HashSet<>(types);
+        }
+    }
+}